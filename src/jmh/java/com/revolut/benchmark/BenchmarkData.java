@@ -0,0 +1,127 @@
+package com.revolut.benchmark;
+
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.util.CurrencyRegistry;
+import org.apache.commons.dbutils.DbUtils;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: BenchmarkData
+ * @Package com.revolut.benchmark
+ * @Description: Loads a benchmark population into H2 and picks accounts with a configurable hot-account skew
+ */
+public class BenchmarkData {
+
+    public static final String CURRENCY = "USD";
+    public static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000.0000");
+
+    private static final String SQL_INSERT_ACC = "INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES (?, ?, ?)";
+    private static final String SQL_INSERT_CUSTOMER = "INSERT INTO Customer (CustomerName, EmailAddress, PhoneNumber) VALUES (?, ?, ?)";
+    private static final String SQL_GET_BENCH_ACC_IDS = "SELECT AccountId FROM CustomerAccount WHERE CurrencyId = ? AND CustomerName LIKE 'bench-%' ORDER BY AccountId";
+
+    private final long[] accountIds;
+    private final long[] hotAccountIds;
+    private final String[] customerNames;
+    private final double hotAccountSkew;
+
+    private BenchmarkData(long[] accountIds, String[] customerNames, double hotAccountSkew) {
+        this.accountIds = accountIds;
+        this.hotAccountIds = new long[Math.max(2, accountIds.length / 100)];
+        System.arraycopy(accountIds, 0, hotAccountIds, 0, hotAccountIds.length);
+        this.customerNames = customerNames;
+        this.hotAccountSkew = hotAccountSkew;
+    }
+
+    /**
+     * Reset the database to the sample script and add accountCount accounts and customers.
+     * @param hotAccountSkew probability that a pick lands on the hot 1% of accounts
+     */
+    public static BenchmarkData populate(int accountCount, double hotAccountSkew) throws SQLException {
+        DAOFactory.getDAOFactory(DAOFactory.H2).populateTestData();
+        Connection conn = null;
+        PreparedStatement accStmt = null;
+        PreparedStatement customerStmt = null;
+        ResultSet rs = null;
+        String[] customerNames = new String[accountCount];
+        try {
+            conn = H2DAOFactory.getConnection();
+            conn.setAutoCommit(false);
+            accStmt = conn.prepareStatement(SQL_INSERT_ACC);
+            customerStmt = conn.prepareStatement(SQL_INSERT_CUSTOMER);
+            for (int i = 0; i < accountCount; i++) {
+                customerNames[i] = "bench-" + i;
+                accStmt.setString(1, customerNames[i]);
+                accStmt.setBigDecimal(2, INITIAL_BALANCE);
+                accStmt.setShort(3, CurrencyRegistry.INSTANCE.idOf(CURRENCY));
+                accStmt.addBatch();
+                customerStmt.setString(1, customerNames[i]);
+                customerStmt.setString(2, customerNames[i] + "@revolut.com");
+                customerStmt.setString(3, String.valueOf(10000000000L + i));
+                customerStmt.addBatch();
+                if (i % 1000 == 999) {
+                    accStmt.executeBatch();
+                    customerStmt.executeBatch();
+                }
+            }
+            accStmt.executeBatch();
+            customerStmt.executeBatch();
+            conn.commit();
+            DbUtils.closeQuietly(accStmt);
+            accStmt = conn.prepareStatement(SQL_GET_BENCH_ACC_IDS);
+            accStmt.setShort(1, CurrencyRegistry.INSTANCE.idOf(CURRENCY));
+            rs = accStmt.executeQuery();
+            List<Long> ids = new ArrayList<Long>(accountCount);
+            while (rs.next()) {
+                ids.add(rs.getLong(1));
+            }
+            long[] accountIds = new long[ids.size()];
+            for (int i = 0; i < accountIds.length; i++) {
+                accountIds[i] = ids.get(i);
+            }
+            return new BenchmarkData(accountIds, customerNames, hotAccountSkew);
+        } finally {
+            DbUtils.closeQuietly(rs);
+            DbUtils.closeQuietly(accStmt);
+            DbUtils.closeQuietly(customerStmt);
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    public long[] getAccountIds() {
+        return accountIds;
+    }
+
+    public long pickAccount() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < hotAccountSkew) {
+            return hotAccountIds[random.nextInt(hotAccountIds.length)];
+        }
+        return accountIds[random.nextInt(accountIds.length)];
+    }
+
+    /**
+     * Pick a different account than the given one, with the same skew.
+     */
+    public long pickOtherAccount(long accountId) {
+        long other;
+        do {
+            other = pickAccount();
+        } while (other == accountId);
+        return other;
+    }
+
+    public String pickCustomerName() {
+        return customerNames[ThreadLocalRandom.current().nextInt(customerNames.length)];
+    }
+}
@@ -0,0 +1,36 @@
+package com.revolut.benchmark;
+
+import org.openjdk.jmh.results.format.ResultFormatType;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.Options;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: BenchmarkRunner
+ * @Package com.revolut.benchmark
+ * @Description: Runs the JMH benchmarks once per configured thread count and writes one JSON result file per run
+ * into target/jmh, so every change can be compared against a stored baseline.
+ * System properties: jmh.include (regex), jmh.threads (comma separated), jmh.forks.
+ */
+public class BenchmarkRunner {
+
+    public static void main(String[] args) throws RunnerException {
+        String include = System.getProperty("jmh.include", ".*");
+        int forks = Integer.parseInt(System.getProperty("jmh.forks", "1"));
+        new java.io.File("target/jmh").mkdirs();
+        for (String threads : System.getProperty("jmh.threads", "1").split(",")) {
+            int threadCount = Integer.parseInt(threads.trim());
+            Options options = new OptionsBuilder()
+                    .include(include)
+                    .threads(threadCount)
+                    .forks(forks)
+                    .resultFormat(ResultFormatType.JSON)
+                    .result("target/jmh/result-threads-" + threadCount + ".json")
+                    .build();
+            new Runner(options).run();
+        }
+    }
+}
@@ -0,0 +1,73 @@
+package com.revolut.benchmark;
+
+import com.revolut.dao.CustomerAccountDAO;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.util.BaseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerAccountDAOBenchmark
+ * @Package com.revolut.benchmark
+ * @Description: Throughput of the CustomerAccountDAOImpl read, balance update and transfer paths
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerAccountDAOBenchmark {
+
+    // 0.0100 in fixed-point units
+    private static final long AMOUNT = 100L;
+
+    @Param({"1000", "100000"})
+    public int accountCount;
+
+    @Param({"0.0", "0.9"})
+    public double hotAccountSkew;
+
+    private BenchmarkData data;
+    private CustomerAccountDAO accountDAO;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        data = BenchmarkData.populate(accountCount, hotAccountSkew);
+        accountDAO = DAOFactory.getDAOFactory(DAOFactory.H2).getCustomerAccountDAO();
+    }
+
+    @Benchmark
+    public CustomerAccount getCustomerAccountById() throws BaseException {
+        return accountDAO.getCustomerAccountById(data.pickAccount());
+    }
+
+    @Benchmark
+    public int updateCustomerAccountBalance() throws BaseException {
+        return accountDAO.updateCustomerAccountBalance(data.pickAccount(), AMOUNT);
+    }
+
+    @Benchmark
+    public int transferCustomerAccountBalance() throws BaseException {
+        long from = data.pickAccount();
+        return accountDAO.transferCustomerAccountBalance(
+                new CustomerTransaction(BenchmarkData.CURRENCY, AMOUNT, from, data.pickOtherAccount(from)));
+    }
+}
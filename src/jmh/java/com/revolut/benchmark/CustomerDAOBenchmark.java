@@ -0,0 +1,54 @@
+package com.revolut.benchmark;
+
+import com.revolut.dao.CustomerDAO;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.model.Customer;
+import com.revolut.util.BaseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerDAOBenchmark
+ * @Package com.revolut.benchmark
+ * @Description: Throughput of CustomerDAOImpl.getCustomerByName
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CustomerDAOBenchmark {
+
+    @Param({"1000", "100000"})
+    public int accountCount;
+
+    private BenchmarkData data;
+    private CustomerDAO customerDAO;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        data = BenchmarkData.populate(accountCount, 0.0);
+        customerDAO = DAOFactory.getDAOFactory(DAOFactory.H2).getCustomerDAO();
+    }
+
+    @Benchmark
+    public Customer getCustomerByName() throws BaseException {
+        return customerDAO.getCustomerByName(data.pickCustomerName());
+    }
+}
@@ -0,0 +1,54 @@
+package com.revolut.benchmark;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.model.CustomerTransaction;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerTransactionJsonBenchmark
+ * @Package com.revolut.benchmark
+ * @Description: Jackson serialization and deserialization cost of CustomerTransaction
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class CustomerTransactionJsonBenchmark {
+
+    private final ObjectMapper mapper = new ObjectMapper();
+    private CustomerTransaction transaction;
+    private String json;
+
+    @Setup
+    public void setup() throws IOException {
+        transaction = new CustomerTransaction("EUR", new BigDecimal("100.0000"), 3L, 4L);
+        json = mapper.writeValueAsString(transaction);
+    }
+
+    @Benchmark
+    public String serialize() throws IOException {
+        return mapper.writeValueAsString(transaction);
+    }
+
+    @Benchmark
+    public CustomerTransaction deserialize() throws IOException {
+        return mapper.readValue(json, CustomerTransaction.class);
+    }
+}
@@ -0,0 +1,45 @@
+package com.revolut.benchmark;
+
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.MoneyUtils;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: MoneyUtilsBenchmark
+ * @Package com.revolut.benchmark
+ * @Description: Cost of MoneyUtils.validateCcyCode and the CurrencyRegistry id lookup for valid and invalid codes
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MoneyUtilsBenchmark {
+
+    @Param({"EUR", "XYZ"})
+    public String currencyCode;
+
+    @Benchmark
+    public boolean validateCcyCode() {
+        return MoneyUtils.INSTANCE.validateCcyCode(currencyCode);
+    }
+
+    @Benchmark
+    public short currencyIdOf() {
+        return CurrencyRegistry.INSTANCE.idOf(currencyCode);
+    }
+}
@@ -0,0 +1,105 @@
+package com.revolut.benchmark;
+
+import com.revolut.dao.CustomerAccountDAO;
+import com.revolut.dao.ShardedCustomerAccountDAO;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.ShardedDAOFactory;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.util.BaseException;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ShardScalingBenchmark
+ * @Package com.revolut.benchmark
+ * @Description: Transfer throughput of the sharded DAO by shard count, for random account pairs, most of which
+ * cross shards and commit in two phases, and for pairs within one shard. JMH forks a JVM per shard count, and the
+ * setup sets shard_count before ShardedDAOFactory is loaded, so this benchmark needs jmh.forks of at least 1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class ShardScalingBenchmark {
+
+    // 0.0100 in fixed-point units
+    private static final long AMOUNT = 100L;
+
+    @Param({"1", "2", "4", "8"})
+    public int shards;
+
+    /**
+     * any: two random accounts; local: two random accounts of the same shard
+     */
+    @Param({"any", "local"})
+    public String pairs;
+
+    @Param({"10000"})
+    public int accountCount;
+
+    private BenchmarkData data;
+    private long[][] shardAccountIds;
+    private CustomerAccountDAO accountDAO;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        System.setProperty("shard_count", String.valueOf(shards));
+        data = BenchmarkData.populate(accountCount, 0.0);
+        ShardedDAOFactory factory = (ShardedDAOFactory) DAOFactory.getDAOFactory(DAOFactory.SHARDED);
+        if (ShardedDAOFactory.getShardCount() != shards) {
+            throw new IllegalStateException("ShardedDAOFactory was loaded before shard_count was set to " + shards
+                    + ", run with jmh.forks of at least 1");
+        }
+        factory.loadAccounts();
+        accountDAO = factory.getCustomerAccountDAO();
+        List<List<Long>> byShard = new ArrayList<List<Long>>();
+        for (int i = 0; i < shards; i++) {
+            byShard.add(new ArrayList<Long>());
+        }
+        for (long accountId : data.getAccountIds()) {
+            byShard.get(ShardedCustomerAccountDAO.shardOf(accountId, shards)).add(accountId);
+        }
+        shardAccountIds = new long[shards][];
+        for (int i = 0; i < shards; i++) {
+            shardAccountIds[i] = new long[byShard.get(i).size()];
+            for (int j = 0; j < shardAccountIds[i].length; j++) {
+                shardAccountIds[i][j] = byShard.get(i).get(j);
+            }
+        }
+    }
+
+    @Benchmark
+    public int transferCustomerAccountBalance() throws BaseException {
+        long from = data.pickAccount();
+        long to;
+        if ("local".equals(pairs)) {
+            long[] sameShard = shardAccountIds[ShardedCustomerAccountDAO.shardOf(from, shards)];
+            do {
+                to = sameShard[ThreadLocalRandom.current().nextInt(sameShard.length)];
+            } while (to == from);
+        } else {
+            to = data.pickOtherAccount(from);
+        }
+        return accountDAO.transferCustomerAccountBalance(new CustomerTransaction(BenchmarkData.CURRENCY, AMOUNT, from, to));
+    }
+}
@@ -0,0 +1,85 @@
+package com.revolut.benchmark;
+
+import com.revolut.dao.CustomerAccountDAO;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.util.BaseException;
+import org.h2.tools.DeleteDbFiles;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: StorageProfileBenchmark
+ * @Package com.revolut.benchmark
+ * @Description: Transfer throughput of the in-memory H2 database against the durable profile with each MVStore
+ * setting. JMH forks a JVM per storage value, and the setup chooses the profile through system properties before
+ * H2DAOFactory is loaded, so this benchmark needs jmh.forks of at least 1.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class StorageProfileBenchmark {
+
+    // 0.0100 in fixed-point units
+    private static final long AMOUNT = 100L;
+    private static final String DATA_DIR = "target/storage-benchmark";
+
+    /**
+     * memory: jdbc:h2:mem; durable: 500 ms write delay and 16 MB cache; durable-on-commit: every commit written
+     * before it returns; durable-compressed: compressed pages; durable-small-cache: 1 MB cache
+     */
+    @Param({"memory", "durable", "durable-on-commit", "durable-compressed", "durable-small-cache"})
+    public String storage;
+
+    @Param({"10000"})
+    public int accountCount;
+
+    private BenchmarkData data;
+    private CustomerAccountDAO accountDAO;
+
+    @Setup(Level.Trial)
+    public void setup() throws SQLException {
+        boolean durable = storage.startsWith("durable");
+        if (durable) {
+            DeleteDbFiles.execute(DATA_DIR, storage, true);
+            System.setProperty("h2_profile", "durable");
+            System.setProperty("h2_durable_url", "jdbc:h2:./" + DATA_DIR + "/" + storage);
+            System.setProperty("h2_durable_commit", storage.equals("durable-on-commit") ? "on_commit" : "delayed");
+            System.setProperty("h2_durable_compress", String.valueOf(storage.equals("durable-compressed")));
+            System.setProperty("h2_durable_cache_size_kb", storage.equals("durable-small-cache") ? "1024" : "16384");
+        }
+        data = BenchmarkData.populate(accountCount, 0.0);
+        if (H2DAOFactory.isDurable() != durable) {
+            throw new IllegalStateException("H2DAOFactory was loaded before the " + storage
+                    + " profile was chosen, run with jmh.forks of at least 1");
+        }
+        System.out.println(storage + ": " + H2DAOFactory.getConnectionUrl());
+        accountDAO = DAOFactory.getDAOFactory(DAOFactory.H2).getCustomerAccountDAO();
+    }
+
+    @Benchmark
+    public int transferCustomerAccountBalance() throws BaseException {
+        long from = data.pickAccount();
+        return accountDAO.transferCustomerAccountBalance(
+                new CustomerTransaction(BenchmarkData.CURRENCY, AMOUNT, from, data.pickOtherAccount(from)));
+    }
+}
@@ -0,0 +1,114 @@
+package com.revolut.benchmark.load;
+
+import com.revolut.TransferMoneyApplication;
+import com.revolut.util.ExecutionMode;
+import org.HdrHistogram.Histogram;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ExecutionModeBenchmark
+ * @Package com.revolut.benchmark.load
+ * @Description: Throughput of the server with platform threads against virtual threads at a large number of
+ * concurrent closed-loop clients. Each mode runs in its own server JVM started with -Dexecution_mode, so both see
+ * a fresh database and JIT; the clients run in this JVM on virtual threads when it is JDK 21 or later.
+ */
+public class ExecutionModeBenchmark {
+
+    private static final long SERVER_START_TIMEOUT_MS = TimeUnit.SECONDS.toMillis(60);
+
+    public static void main(String[] args) throws Exception {
+        int clients = Integer.getInteger("modes.clients", 10000);
+        int port = Integer.getInteger("modes.port", 8083);
+        String baseUrl = "http://localhost:" + port;
+        ExecutionMode clientMode = ExecutionMode.isVirtualSupported() ? ExecutionMode.VIRTUAL : ExecutionMode.PLATFORM;
+        Map<ExecutionMode, LoadResult> results = new EnumMap<ExecutionMode, LoadResult>(ExecutionMode.class);
+        for (ExecutionMode mode : ExecutionMode.values()) {
+            if (mode == ExecutionMode.VIRTUAL && !ExecutionMode.isVirtualSupported()) {
+                System.out.println("Skipping " + mode + ": virtual threads need JDK 21 or later");
+                continue;
+            }
+            LoadConfig config = new LoadConfig(baseUrl, port, 1,
+                    Integer.getInteger("load.duration", 60),
+                    Integer.getInteger("load.warmup", 10),
+                    clients,
+                    Integer.getInteger("load.accounts", 1000),
+                    Double.parseDouble(System.getProperty("load.skew", "0.0")),
+                    LoadConfig.parseMix(System.getProperty("load.mix", "transfer=60,deposit=20,read=20")),
+                    System.getProperty("load.histograms", "target/load") + "/" + mode.name().toLowerCase());
+            Process server = startServer(mode, port, new File(config.getHistogramDir()));
+            LoadGenerator generator = new LoadGenerator(config, baseUrl);
+            try {
+                System.out.println(mode + " server, " + config);
+                generator.createAccounts();
+                if (config.getWarmupSec() > 0) {
+                    generator.runClosedLoop(clients, config.getWarmupSec(), clientMode.threadFactory("load-client"));
+                }
+                LoadResult result = generator.runClosedLoop(clients, config.getDurationSec(),
+                        clientMode.threadFactory("load-client"));
+                generator.report(result, System.out);
+                results.put(mode, result);
+            } finally {
+                generator.close();
+                server.destroy();
+                server.waitFor();
+            }
+        }
+        System.out.println(String.format("%-10s %12s %10s %10s", "mode", "req/s", "errors", "p99 ms"));
+        for (Map.Entry<ExecutionMode, LoadResult> entry : results.entrySet()) {
+            printSummary(entry.getKey(), entry.getValue());
+        }
+    }
+
+    /**
+     * Start TransferMoneyApplication in a new JVM with this classpath and wait until it answers.
+     */
+    private static Process startServer(ExecutionMode mode, int port, File logDir) throws IOException, InterruptedException {
+        logDir.mkdirs();
+        String java = System.getProperty("java.home") + File.separator + "bin" + File.separator + "java";
+        Process server = new ProcessBuilder(java, "-Dexecution_mode=" + mode.name(),
+                "-cp", System.getProperty("java.class.path"), TransferMoneyApplication.class.getName(), String.valueOf(port))
+                .redirectErrorStream(true)
+                .redirectOutput(new File(logDir, "server.log"))
+                .start();
+        long deadline = System.currentTimeMillis() + SERVER_START_TIMEOUT_MS;
+        while (System.currentTimeMillis() < deadline) {
+            if (!server.isAlive()) {
+                throw new IOException(mode + " server exited with " + server.exitValue() + ", see " + logDir + "/server.log");
+            }
+            try {
+                HttpURLConnection connection = (HttpURLConnection) new URL("http://localhost:" + port + "/account/1")
+                        .openConnection();
+                if (connection.getResponseCode() == 200) {
+                    connection.disconnect();
+                    return server;
+                }
+            } catch (IOException e) {
+                // not listening yet
+            }
+            Thread.sleep(200);
+        }
+        server.destroy();
+        throw new IOException(mode + " server did not start within " + SERVER_START_TIMEOUT_MS + " ms");
+    }
+
+    private static void printSummary(ExecutionMode mode, LoadResult result) {
+        Histogram total = new Histogram(3);
+        long errors = 0;
+        for (OperationStatistics stats : result.getStatistics().values()) {
+            total.add(stats.getServiceTime());
+            errors += stats.getErrors();
+        }
+        System.out.println(String.format("%-10s %12.1f %10d %10.3f", mode,
+                total.getTotalCount() / (result.getElapsedNanos() / 1e9), errors,
+                total.getValueAtPercentile(99.0) / 1000000.0));
+    }
+}
@@ -0,0 +1,132 @@
+package com.revolut.benchmark.load;
+
+import java.util.EnumMap;
+import java.util.Map;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LoadConfig
+ * @Package com.revolut.benchmark.load
+ * @Description: Load generator settings read from load.* system properties
+ */
+public class LoadConfig {
+
+    private final String baseUrl;
+    private final int port;
+    private final int rate;
+    private final int durationSec;
+    private final int warmupSec;
+    private final int threads;
+    private final int accountCount;
+    private final double hotAccountSkew;
+    private final Map<Operation, Integer> mix;
+    private final String histogramDir;
+
+    public LoadConfig(String baseUrl, int port, int rate, int durationSec, int warmupSec, int threads,
+                      int accountCount, double hotAccountSkew, Map<Operation, Integer> mix, String histogramDir) {
+        if (rate <= 0 || durationSec <= 0 || threads <= 0 || accountCount < 2) {
+            throw new IllegalArgumentException("load.rate, load.duration and load.threads must be positive and load.accounts at least 2");
+        }
+        this.baseUrl = baseUrl;
+        this.port = port;
+        this.rate = rate;
+        this.durationSec = durationSec;
+        this.warmupSec = warmupSec;
+        this.threads = threads;
+        this.accountCount = accountCount;
+        this.hotAccountSkew = hotAccountSkew;
+        this.mix = mix;
+        this.histogramDir = histogramDir;
+    }
+
+    /**
+     * load.url: target an already running server instead of starting one on load.port
+     * load.mix: weights per operation, e.g. transfer=60,deposit=20,read=20
+     */
+    public static LoadConfig fromSystemProperties() {
+        return new LoadConfig(
+                emptyToNull(System.getProperty("load.url")),
+                Integer.getInteger("load.port", 8082),
+                Integer.getInteger("load.rate", 500),
+                Integer.getInteger("load.duration", 60),
+                Integer.getInteger("load.warmup", 10),
+                Integer.getInteger("load.threads", 64),
+                Integer.getInteger("load.accounts", 1000),
+                Double.parseDouble(System.getProperty("load.skew", "0.0")),
+                parseMix(System.getProperty("load.mix", "transfer=60,deposit=20,read=20")),
+                System.getProperty("load.histograms", "target/load"));
+    }
+
+    static Map<Operation, Integer> parseMix(String value) {
+        Map<Operation, Integer> mix = new EnumMap<Operation, Integer>(Operation.class);
+        int total = 0;
+        for (String part : value.split(",")) {
+            String[] pair = part.split("=");
+            if (pair.length != 2) {
+                throw new IllegalArgumentException("Invalid load.mix entry: " + part);
+            }
+            int weight = Integer.parseInt(pair[1].trim());
+            if (weight < 0) {
+                throw new IllegalArgumentException("Negative load.mix weight: " + part);
+            }
+            mix.put(Operation.valueOf(pair[0].trim().toUpperCase()), weight);
+            total += weight;
+        }
+        if (total == 0) {
+            throw new IllegalArgumentException("load.mix has no positive weight: " + value);
+        }
+        return mix;
+    }
+
+    private static String emptyToNull(String value) {
+        return value == null || value.trim().isEmpty() ? null : value.trim();
+    }
+
+    public String getBaseUrl() {
+        return baseUrl;
+    }
+
+    public int getPort() {
+        return port;
+    }
+
+    public int getRate() {
+        return rate;
+    }
+
+    public int getDurationSec() {
+        return durationSec;
+    }
+
+    public int getWarmupSec() {
+        return warmupSec;
+    }
+
+    public int getThreads() {
+        return threads;
+    }
+
+    public int getAccountCount() {
+        return accountCount;
+    }
+
+    public double getHotAccountSkew() {
+        return hotAccountSkew;
+    }
+
+    public Map<Operation, Integer> getMix() {
+        return mix;
+    }
+
+    public String getHistogramDir() {
+        return histogramDir;
+    }
+
+    @Override
+    public String toString() {
+        return "LoadConfig{" + "baseUrl=" + baseUrl + ", rate=" + rate + "/s, duration=" + durationSec + "s, warmup="
+                + warmupSec + "s, threads=" + threads + ", accounts=" + accountCount + ", skew=" + hotAccountSkew
+                + ", mix=" + mix + '}';
+    }
+}
@@ -0,0 +1,286 @@
+package com.revolut.benchmark.load;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.TransferMoneyApplication;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import org.HdrHistogram.Histogram;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.client.methods.HttpPut;
+import org.apache.http.client.methods.HttpUriRequest;
+import org.apache.http.entity.ContentType;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.impl.client.CloseableHttpClient;
+import org.apache.http.impl.client.HttpClients;
+import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
+import org.apache.http.util.EntityUtils;
+import org.eclipse.jetty.server.Server;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.math.BigDecimal;
+import java.util.EnumMap;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LoadGenerator
+ * @Package com.revolut.benchmark.load
+ * @Description: Open-loop HTTP load generator for /transaction and /account/*.
+ * Requests are issued on a fixed schedule regardless of how fast responses come back, and latency is taken
+ * from the scheduled start time, so the reported percentiles are corrected for coordinated omission.
+ */
+public class LoadGenerator {
+
+    private static final String CURRENCY = "USD";
+    private static final BigDecimal INITIAL_BALANCE = new BigDecimal("1000000000.0000");
+    private static final BigDecimal AMOUNT = new BigDecimal("0.0100");
+    private static final double[] PERCENTILES = {50.0, 99.0, 99.9};
+    private static final int MAX_ACCOUNT_PROBE_MISSES = 10000;
+
+    private final LoadConfig config;
+    private final String baseUrl;
+    private final ObjectMapper mapper = new ObjectMapper();
+    private final CloseableHttpClient client;
+    private WorkloadSelector selector;
+
+    public LoadGenerator(LoadConfig config, String baseUrl) {
+        this.config = config;
+        this.baseUrl = baseUrl;
+        PoolingHttpClientConnectionManager connManager = new PoolingHttpClientConnectionManager();
+        connManager.setDefaultMaxPerRoute(config.getThreads());
+        connManager.setMaxTotal(config.getThreads());
+        this.client = HttpClients.custom().setConnectionManager(connManager).build();
+    }
+
+    public static void main(String[] args) throws Exception {
+        LoadConfig config = LoadConfig.fromSystemProperties();
+        Server server = null;
+        String baseUrl = config.getBaseUrl();
+        if (baseUrl == null) {
+            DAOFactory.getDAOFactory(DAOFactory.H2).populateTestData();
+            server = TransferMoneyApplication.startServer(config.getPort());
+            baseUrl = "http://localhost:" + config.getPort();
+        }
+        LoadGenerator generator = new LoadGenerator(config, baseUrl);
+        try {
+            System.out.println("Load generator " + config);
+            generator.createAccounts();
+            if (config.getWarmupSec() > 0) {
+                generator.runPhase(config.getWarmupSec());
+            }
+            generator.report(generator.runPhase(config.getDurationSec()), System.out);
+        } finally {
+            generator.close();
+            if (server != null) {
+                server.stop();
+                server.destroy();
+            }
+        }
+    }
+
+    /**
+     * Create the accounts the workload runs against through the REST API, so an external server can be targeted.
+     * Account ids are not part of the account JSON, so they are found by probing /account/{accountId} upwards from
+     * the number of accounts that existed before: new ids are always above the highest existing one.
+     */
+    public void createAccounts() throws IOException {
+        HttpResponse existing = client.execute(new HttpGet(baseUrl + "/account/all"));
+        int existingCount = mapper.readTree(EntityUtils.toString(existing.getEntity())).size();
+        String namePrefix = "load-" + System.currentTimeMillis() + "-";
+        for (int i = 0; i < config.getAccountCount(); i++) {
+            HttpPost request = new HttpPost(baseUrl + "/account/create");
+            request.setEntity(new StringEntity(mapper.writeValueAsString(
+                    new CustomerAccount(namePrefix + i, INITIAL_BALANCE, CURRENCY)), ContentType.APPLICATION_JSON));
+            HttpResponse response = client.execute(request);
+            String body = EntityUtils.toString(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200) {
+                throw new IOException("Account creation failed: " + response.getStatusLine() + " " + body);
+            }
+        }
+        long[] accountIds = new long[config.getAccountCount()];
+        int found = 0;
+        int misses = 0;
+        for (long accountId = existingCount + 1; found < accountIds.length; accountId++) {
+            HttpResponse response = client.execute(new HttpGet(baseUrl + "/account/" + accountId));
+            String body = response.getEntity() == null ? "" : EntityUtils.toString(response.getEntity());
+            if (response.getStatusLine().getStatusCode() != 200 || body.isEmpty()) {
+                if (++misses > MAX_ACCOUNT_PROBE_MISSES) {
+                    throw new IOException("Only " + found + " of the created accounts found below id " + accountId);
+                }
+                continue;
+            }
+            if (mapper.readTree(body).get("customerName").asText().startsWith(namePrefix)) {
+                accountIds[found++] = accountId;
+            }
+        }
+        selector = new WorkloadSelector(config.getMix(), accountIds, config.getHotAccountSkew());
+    }
+
+    /**
+     * Issue requests at the configured rate for the given duration and wait for all of them to complete.
+     */
+    public LoadResult runPhase(int durationSec) throws InterruptedException {
+        final Map<Operation, OperationStatistics> statistics = new EnumMap<Operation, OperationStatistics>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            statistics.put(operation, new OperationStatistics());
+        }
+        // unbounded queue: when the server falls behind requests wait here and that wait counts towards latency
+        ThreadPoolExecutor workers = new ThreadPoolExecutor(config.getThreads(), config.getThreads(),
+                0L, TimeUnit.MILLISECONDS, new LinkedBlockingQueue<Runnable>());
+        long intervalNanos = TimeUnit.SECONDS.toNanos(1) / config.getRate();
+        long requestCount = (long) durationSec * config.getRate();
+        long start = System.nanoTime();
+        for (long i = 0; i < requestCount; i++) {
+            final long intendedStart = start + i * intervalNanos;
+            long wait;
+            while ((wait = intendedStart - System.nanoTime()) > 0) {
+                LockSupport.parkNanos(wait);
+            }
+            final Operation operation = selector.nextOperation();
+            workers.execute(new Runnable() {
+                public void run() {
+                    long send = System.nanoTime();
+                    boolean success = execute(operation);
+                    statistics.get(operation).record(intendedStart, send, System.nanoTime(), success);
+                }
+            });
+        }
+        workers.shutdown();
+        workers.awaitTermination(1, TimeUnit.HOURS);
+        return new LoadResult(statistics, System.nanoTime() - start, "Target rate " + config.getRate() + " req/s");
+    }
+
+    /**
+     * Closed loop: every client sends its next request as soon as the previous response arrives, for the given
+     * duration. Throughput is what the server sustains at that concurrency, latency is plain service time.
+     * @param threadFactory creates one thread per client
+     */
+    public LoadResult runClosedLoop(int clients, int durationSec, ThreadFactory threadFactory)
+            throws InterruptedException {
+        final Map<Operation, OperationStatistics> statistics = new EnumMap<Operation, OperationStatistics>(Operation.class);
+        for (Operation operation : Operation.values()) {
+            statistics.put(operation, new OperationStatistics());
+        }
+        final CountDownLatch done = new CountDownLatch(clients);
+        long start = System.nanoTime();
+        final long deadline = start + TimeUnit.SECONDS.toNanos(durationSec);
+        for (int i = 0; i < clients; i++) {
+            threadFactory.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        long send;
+                        while ((send = System.nanoTime()) < deadline) {
+                            Operation operation = selector.nextOperation();
+                            boolean success = execute(operation);
+                            statistics.get(operation).record(send, send, System.nanoTime(), success);
+                        }
+                    } finally {
+                        done.countDown();
+                    }
+                }
+            }).start();
+        }
+        done.await();
+        return new LoadResult(statistics, System.nanoTime() - start, clients + " closed-loop clients");
+    }
+
+    private boolean execute(Operation operation) {
+        try {
+            HttpResponse response = client.execute(buildRequest(operation));
+            EntityUtils.consume(response.getEntity());
+            return response.getStatusLine().getStatusCode() == 200;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    private HttpUriRequest buildRequest(Operation operation) throws IOException {
+        long accountId = selector.nextAccount();
+        switch (operation) {
+            case TRANSFER:
+                HttpPost transfer = new HttpPost(baseUrl + "/transaction");
+                transfer.setEntity(new StringEntity(mapper.writeValueAsString(new CustomerTransaction(CURRENCY, AMOUNT,
+                        accountId, selector.nextOtherAccount(accountId))), ContentType.APPLICATION_JSON));
+                return transfer;
+            case DEPOSIT:
+                return new HttpPut(baseUrl + "/account/" + accountId + "/deposit/" + AMOUNT.toPlainString());
+            default:
+                return new HttpGet(baseUrl + "/account/" + accountId);
+        }
+    }
+
+    /**
+     * Print throughput and percentiles per operation and write the full corrected distributions as .hgrm files.
+     */
+    public void report(LoadResult result, PrintStream out) throws IOException {
+        File histogramDir = new File(config.getHistogramDir());
+        histogramDir.mkdirs();
+        Histogram total = new Histogram(3);
+        long totalErrors = 0;
+        out.println(String.format("%-10s %10s %8s %10s %10s %10s %10s %10s | %10s %10s %10s",
+                "operation", "requests", "errors", "req/s", "p50 ms", "p99 ms", "p99.9 ms", "max ms",
+                "svc p50", "svc p99", "svc p99.9"));
+        double elapsedSec = result.getElapsedNanos() / 1e9;
+        for (Map.Entry<Operation, OperationStatistics> entry : result.getStatistics().entrySet()) {
+            OperationStatistics stats = entry.getValue();
+            if (stats.getCount() == 0) {
+                continue;
+            }
+            total.add(stats.getCorrectedLatency());
+            totalErrors += stats.getErrors();
+            printRow(out, entry.getKey().name().toLowerCase(), elapsedSec, stats.getCorrectedLatency(),
+                    stats.getErrors(), stats.getServiceTime());
+            writeDistribution(stats.getCorrectedLatency(), new File(histogramDir, entry.getKey().name().toLowerCase() + ".hgrm"));
+        }
+        printRow(out, "total", elapsedSec, total, totalErrors, null);
+        writeDistribution(total, new File(histogramDir, "total.hgrm"));
+        out.println(result.getSchedule() + ", corrected distributions written to " + histogramDir.getPath());
+    }
+
+    private static void printRow(PrintStream out, String name, double elapsedSec, Histogram corrected, long errors,
+                                 Histogram serviceTime) {
+        StringBuilder row = new StringBuilder(String.format("%-10s %10d %8d %10.1f", name, corrected.getTotalCount(),
+                errors, corrected.getTotalCount() / elapsedSec));
+        for (double percentile : PERCENTILES) {
+            row.append(String.format(" %10.3f", millis(corrected.getValueAtPercentile(percentile))));
+        }
+        row.append(String.format(" %10.3f |", millis(corrected.getMaxValue())));
+        if (serviceTime != null) {
+            for (double percentile : PERCENTILES) {
+                row.append(String.format(" %10.3f", millis(serviceTime.getValueAtPercentile(percentile))));
+            }
+        }
+        out.println(row);
+    }
+
+    private static void writeDistribution(Histogram histogram, File file) throws IOException {
+        PrintStream out = new PrintStream(new FileOutputStream(file), false, "UTF-8");
+        try {
+            histogram.outputPercentileDistribution(out, 1000000.0);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static double millis(long nanos) {
+        return nanos / 1000000.0;
+    }
+
+    public void close() throws IOException {
+        client.close();
+    }
+}
@@ -0,0 +1,39 @@
+package com.revolut.benchmark.load;
+
+import java.util.Map;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LoadResult
+ * @Package com.revolut.benchmark.load
+ * @Description: Statistics of one load phase and its wall-clock duration, from the first scheduled request
+ * until the last response
+ */
+public class LoadResult {
+
+    private final Map<Operation, OperationStatistics> statistics;
+    private final long elapsedNanos;
+    private final String schedule;
+
+    public LoadResult(Map<Operation, OperationStatistics> statistics, long elapsedNanos, String schedule) {
+        this.statistics = statistics;
+        this.elapsedNanos = elapsedNanos;
+        this.schedule = schedule;
+    }
+
+    public Map<Operation, OperationStatistics> getStatistics() {
+        return statistics;
+    }
+
+    public long getElapsedNanos() {
+        return elapsedNanos;
+    }
+
+    /**
+     * How requests were issued, e.g. the target rate of an open-loop phase
+     */
+    public String getSchedule() {
+        return schedule;
+    }
+}
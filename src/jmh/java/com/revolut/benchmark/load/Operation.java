@@ -0,0 +1,17 @@
+package com.revolut.benchmark.load;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: Operation
+ * @Package com.revolut.benchmark.load
+ * @Description: Request types issued by the load generator
+ */
+public enum Operation {
+    /** POST /transaction between two accounts */
+    TRANSFER,
+    /** PUT /account/{accountId}/deposit/{amount} */
+    DEPOSIT,
+    /** GET /account/{accountId} */
+    READ
+}
@@ -0,0 +1,49 @@
+package com.revolut.benchmark.load;
+
+import org.HdrHistogram.ConcurrentHistogram;
+import org.HdrHistogram.Histogram;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: OperationStatistics
+ * @Package com.revolut.benchmark.load
+ * @Description: Latency histograms and counters of one operation type.
+ * Corrected latency is measured from the intended start time of the schedule, so time a request spent waiting
+ * behind a stalled one is counted (coordinated omission); service time is measured from the actual send.
+ */
+public class OperationStatistics {
+
+    private static final long HIGHEST_TRACKABLE_NANOS = TimeUnit.MINUTES.toNanos(5);
+
+    private final Histogram correctedLatency = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+    private final Histogram serviceTime = new ConcurrentHistogram(HIGHEST_TRACKABLE_NANOS, 3);
+    private final LongAdder errors = new LongAdder();
+
+    public void record(long intendedStartNanos, long sendNanos, long endNanos, boolean success) {
+        correctedLatency.recordValue(Math.min(endNanos - intendedStartNanos, HIGHEST_TRACKABLE_NANOS));
+        serviceTime.recordValue(Math.min(endNanos - sendNanos, HIGHEST_TRACKABLE_NANOS));
+        if (!success) {
+            errors.increment();
+        }
+    }
+
+    public Histogram getCorrectedLatency() {
+        return correctedLatency;
+    }
+
+    public Histogram getServiceTime() {
+        return serviceTime;
+    }
+
+    public long getCount() {
+        return correctedLatency.getTotalCount();
+    }
+
+    public long getErrors() {
+        return errors.sum();
+    }
+}
@@ -0,0 +1,64 @@
+package com.revolut.benchmark.load;
+
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: WorkloadSelector
+ * @Package com.revolut.benchmark.load
+ * @Description: Picks the next operation by weight and accounts with a hot-account skew
+ */
+public class WorkloadSelector {
+
+    private final Operation[] operations;
+    private final int[] cumulativeWeights;
+    private final long[] accountIds;
+    private final int hotAccountCount;
+    private final double hotAccountSkew;
+
+    public WorkloadSelector(Map<Operation, Integer> mix, long[] accountIds, double hotAccountSkew) {
+        this.operations = new Operation[mix.size()];
+        this.cumulativeWeights = new int[mix.size()];
+        int i = 0;
+        int total = 0;
+        for (Map.Entry<Operation, Integer> entry : mix.entrySet()) {
+            total += entry.getValue();
+            operations[i] = entry.getKey();
+            cumulativeWeights[i++] = total;
+        }
+        this.accountIds = accountIds;
+        this.hotAccountCount = Math.max(2, accountIds.length / 100);
+        this.hotAccountSkew = hotAccountSkew;
+    }
+
+    public Operation nextOperation() {
+        int r = ThreadLocalRandom.current().nextInt(cumulativeWeights[cumulativeWeights.length - 1]);
+        for (int i = 0; i < cumulativeWeights.length; i++) {
+            if (r < cumulativeWeights[i]) {
+                return operations[i];
+            }
+        }
+        return operations[operations.length - 1];
+    }
+
+    /**
+     * With probability hotAccountSkew pick from the first 1% of the accounts, otherwise uniformly.
+     */
+    public long nextAccount() {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < hotAccountSkew) {
+            return accountIds[random.nextInt(hotAccountCount)];
+        }
+        return accountIds[random.nextInt(accountIds.length)];
+    }
+
+    public long nextOtherAccount(long accountId) {
+        long other;
+        do {
+            other = nextAccount();
+        } while (other == accountId);
+        return other;
+    }
+}
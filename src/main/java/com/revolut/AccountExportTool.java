@@ -0,0 +1,33 @@
+package com.revolut;
+
+import com.revolut.dao.AccountExporter;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import org.apache.log4j.Logger;
+
+import java.nio.file.Paths;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: AccountExportTool
+ * @Package com.revolut
+ * @Description: Command line export of every account and its balance to a file, same as GET /admin/export
+ */
+public class AccountExportTool {
+    private static Logger log = Logger.getLogger(AccountExportTool.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 2 || !AccountExporter.isSupported(args[0])) {
+            System.err.println("Usage: AccountExportTool <ndjson|csv> <file[.gz]>");
+            System.exit(2);
+        }
+        DAOFactory.getDAOFactory(DAOFactory.H2).initialize();
+        if (!H2DAOFactory.isDurable()) {
+            log.warn("Exporting the in-memory database, which only holds the sample data; use -Dh2_profile=durable");
+        }
+        long rows = AccountExporter.fromConfig().exportToFile(args[0], Paths.get(args[1]));
+        System.out.println(rows + " accounts written to " + args[1]);
+        System.exit(0);
+    }
+}
@@ -0,0 +1,45 @@
+package com.revolut;
+
+import com.revolut.dao.BulkImporter;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.BulkImportReport;
+import org.apache.log4j.Logger;
+
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: BulkImportTool
+ * @Package com.revolut
+ * @Description: Command line bulk import of a CSV or NDJSON file into the database, same as POST /admin/import
+ */
+public class BulkImportTool {
+    private static Logger log = Logger.getLogger(BulkImportTool.class);
+
+    public static void main(String[] args) throws Exception {
+        if (args.length != 3 || !BulkImporter.isSupported(args[0], args[1])) {
+            System.err.println("Usage: BulkImportTool <customer|account> <csv|ndjson> <file>");
+            System.exit(2);
+        }
+        DAOFactory.getDAOFactory(DAOFactory.H2).initialize();
+        if (!H2DAOFactory.isDurable()) {
+            log.warn("Importing into the in-memory database, the rows are lost when this tool exits; use -Dh2_profile=durable");
+        }
+        Reader input = new InputStreamReader(new FileInputStream(args[2]), StandardCharsets.UTF_8);
+        try {
+            BulkImportReport report = BulkImporter.fromConfig().importRecords(args[0], args[1], input);
+            System.out.println(report);
+            for (String error : report.getErrors()) {
+                System.out.println(error);
+            }
+        } finally {
+            input.close();
+        }
+        System.exit(0);
+    }
+}
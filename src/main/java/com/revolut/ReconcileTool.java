@@ -0,0 +1,50 @@
+package com.revolut;
+
+import com.revolut.dao.BalanceReconciler;
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.CurrencyTotal;
+import com.revolut.model.ReconciliationReport;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.util.Arrays;
+import java.util.Map;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ReconcileTool
+ * @Package com.revolut
+ * @Description: Command line balance reconciliation, same as POST /admin/reconcile; exits with 1 when unbalanced
+ */
+public class ReconcileTool {
+    private static Logger log = Logger.getLogger(ReconcileTool.class);
+
+    public static void main(String[] args) throws Exception {
+        Map<String, BigDecimal> expectedTotals;
+        try {
+            expectedTotals = BalanceReconciler.parseExpectedTotals(Arrays.asList(args));
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            System.err.println("Usage: ReconcileTool [CODE:expectedTotal ...]");
+            System.exit(2);
+            return;
+        }
+        DAOFactory.getDAOFactory(DAOFactory.H2).initialize();
+        if (!H2DAOFactory.isDurable()) {
+            log.warn("Reconciling the in-memory database, which only holds the sample data; use -Dh2_profile=durable");
+        }
+        ReconciliationReport report = BalanceReconciler.fromConfig().reconcile(expectedTotals);
+        for (CurrencyTotal total : report.getTotals()) {
+            System.out.println(total.getCurrencyCode() + " accounts=" + total.getAccounts() + " balance="
+                    + total.getBalance() + (total.getExpected() == null ? ""
+                    : " expected=" + total.getExpected() + " difference=" + total.getDifference()));
+        }
+        for (String violation : report.getViolations()) {
+            System.out.println(violation);
+        }
+        System.out.println(report);
+        System.exit(report.isBalanced() ? 0 : 1);
+    }
+}
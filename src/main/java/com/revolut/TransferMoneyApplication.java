@@ -1,12 +1,20 @@
 package com.revolut;
 
+import com.revolut.dao.CustomerTransactionJournal;
 import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.metrics.ResourceTimingFeature;
+import com.revolut.service.AdminService;
 import com.revolut.service.CustomerAccountService;
 import com.revolut.service.CustomerService;
 import com.revolut.service.CustomerTransactionService;
+import com.revolut.service.DatabaseExecutor;
+import com.revolut.service.MetricsService;
 import com.revolut.service.ServiceExceptionMapper;
+import com.revolut.util.ExecutionMode;
 import org.apache.log4j.Logger;
 import org.eclipse.jetty.server.Server;
+import org.eclipse.jetty.server.ServerConnector;
 import org.eclipse.jetty.servlet.ServletContextHandler;
 import org.eclipse.jetty.servlet.ServletHolder;
 import org.glassfish.jersey.servlet.ServletContainer;
@@ -23,24 +31,60 @@ public class TransferMoneyApplication {
     public static void main(String[] args) throws Exception {
         log.info("Transfer Money Service Initializing ...");
         DAOFactory h2DaoFactory = DAOFactory.getDAOFactory(DAOFactory.H2);
-        h2DaoFactory.populateTestData();
+        h2DaoFactory.initialize();
         log.info("Transfer Money Service Initialized ...");
 
-        Server server = new Server(8080);
+        final Server server = startServer(args.length > 0 ? Integer.parseInt(args[0]) : 8080);
+        // write out the queued journal entries of completed transfers before the JVM exits
+        Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+            public void run() {
+                log.info("Transfer Money Service Stopping ...");
+                try {
+                    server.stop();
+                } catch (Exception e) {
+                    log.warn("Error stopping the server", e);
+                }
+                CustomerTransactionJournal.getInstance().close();
+                H2DAOFactory.shutdownDatabase();
+                log.info("Transfer Money Service Stopped ...");
+            }
+        }, "transfer-money-shutdown"));
+        try {
+            server.join();
+        } finally {
+            server.destroy();
+            DatabaseExecutor.getInstance().shutdown();
+        }
+    }
+
+    /**
+     * Start the REST services on the given port, also used by the service tests and the load generator
+     * @param port
+     * @return the started server
+     * @throws Exception
+     */
+    public static Server startServer(int port) throws Exception {
+        ExecutionMode executionMode = ExecutionMode.configured();
+        // a null pool keeps Jetty's default QueuedThreadPool of platform threads
+        Server server = new Server(executionMode == ExecutionMode.VIRTUAL ? new VirtualThreadPool() : null);
+        ServerConnector connector = new ServerConnector(server);
+        connector.setPort(port);
+        server.addConnector(connector);
         ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
         context.setContextPath("/");
         server.setHandler(context);
         ServletHolder servletHolder = context.addServlet(ServletContainer.class, "/*");
+        // mutating resources suspend their requests and finish them on the DatabaseExecutor
+        servletHolder.setAsyncSupported(true);
         servletHolder.setInitParameter("jersey.config.server.provider.classnames",
                 CustomerService.class.getCanonicalName() + "," + CustomerAccountService.class.getCanonicalName() + ","
                         + ServiceExceptionMapper.class.getCanonicalName() + ","
-                        + CustomerTransactionService.class.getCanonicalName());
-        try {
-            log.info("Server start on port 8080 ...");
-            server.start();
-            server.join();
-        } finally {
-            server.destroy();
-        }
+                        + CustomerTransactionService.class.getCanonicalName() + ","
+                        + MetricsService.class.getCanonicalName() + ","
+                        + AdminService.class.getCanonicalName() + ","
+                        + ResourceTimingFeature.class.getCanonicalName());
+        log.info("Server start on port " + port + " with " + executionMode + " threads ...");
+        server.start();
+        return server;
     }
 }
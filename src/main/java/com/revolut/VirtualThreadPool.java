@@ -0,0 +1,67 @@
+package com.revolut;
+
+import com.revolut.util.ExecutionMode;
+import org.eclipse.jetty.util.component.AbstractLifeCycle;
+import org.eclipse.jetty.util.thread.ThreadPool;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: VirtualThreadPool
+ * @Package com.revolut
+ * @Description: Jetty thread pool starting one virtual thread per task, so a request blocked on JDBC parks its
+ * virtual thread instead of holding one of a fixed number of platform threads
+ */
+public class VirtualThreadPool extends AbstractLifeCycle implements ThreadPool {
+
+    private final ThreadFactory threadFactory = ExecutionMode.VIRTUAL.threadFactory("jetty-virtual");
+    private final AtomicInteger running = new AtomicInteger();
+    private final CountDownLatch stopped = new CountDownLatch(1);
+
+    public void execute(final Runnable task) {
+        running.incrementAndGet();
+        try {
+            threadFactory.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        task.run();
+                    } finally {
+                        running.decrementAndGet();
+                    }
+                }
+            }).start();
+        } catch (RuntimeException e) {
+            running.decrementAndGet();
+            throw e;
+        }
+    }
+
+    @Override
+    protected void doStop() throws Exception {
+        stopped.countDown();
+        super.doStop();
+    }
+
+    public void join() throws InterruptedException {
+        stopped.await();
+    }
+
+    public int getThreads() {
+        return running.get();
+    }
+
+    public int getIdleThreads() {
+        return 0;
+    }
+
+    /**
+     * A new virtual thread is always available.
+     */
+    public boolean isLowOnThreads() {
+        return false;
+    }
+}
@@ -0,0 +1,209 @@
+package com.revolut.dao;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.CurrencyRegistry;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedOutputStream;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.math.BigDecimal;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: AccountExporter
+ * @Package com.revolut.dao
+ * @Description: Dump of every CustomerAccount and its balance as NDJSON or CSV, optionally gzipped. The rows come
+ * from one forward-only query, which the MVStore answers from a snapshot taken when it starts: the dump is
+ * consistent across accounts, and transfers keep committing while it runs. Rows are written straight from the
+ * ResultSet, so memory use does not grow with the number of accounts.
+ */
+public class AccountExporter {
+
+    private static Logger log = Logger.getLogger(AccountExporter.class);
+
+    public static final String CSV = "csv";
+    public static final String NDJSON = "ndjson";
+
+    private final static String SQL_EXPORT_ACC = "SELECT AccountId, CustomerName, Balance, CurrencyId FROM CustomerAccount ORDER BY AccountId";
+    private static final String CSV_HEADER = "accountId,customerName,balance,currencyCode\n";
+
+    private static final JsonFactory jsonFactory = new JsonFactory();
+
+    private final ConnectionProvider connectionProvider;
+    private final int fetchSize;
+    private final int bufferBytes;
+
+    public AccountExporter(ConnectionProvider connectionProvider, int fetchSize, int bufferBytes) {
+        this.connectionProvider = connectionProvider;
+        this.fetchSize = Math.max(1, fetchSize);
+        this.bufferBytes = Math.max(8192, bufferBytes);
+    }
+
+    /**
+     * Exporter of the main H2 database, tuned by the export_* properties.
+     */
+    public static AccountExporter fromConfig() {
+        return new AccountExporter(new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                return H2DAOFactory.getConnection();
+            }
+        }, CommonUtils.getIntegerProperty("export_fetch_size", 1000),
+                CommonUtils.getIntegerProperty("export_buffer_bytes", 1048576));
+    }
+
+    public static boolean isSupported(String format) {
+        return CSV.equals(format) || NDJSON.equals(format);
+    }
+
+    /**
+     * Write every account to the output, which is flushed but left open.
+     * @param format csv or ndjson
+     * @param gzip compress the whole dump
+     * @return number of accounts written
+     * @throws BaseException if the accounts cannot be read
+     * @throws IOException if the output fails
+     */
+    public long export(String format, boolean gzip, OutputStream output) throws BaseException, IOException {
+        if (!isSupported(format)) {
+            throw new BaseException("Unsupported export format " + format);
+        }
+        long start = System.currentTimeMillis();
+        // the layers below are finished and flushed, never closed, so the caller's stream stays open
+        GZIPOutputStream compressed = gzip ? new GZIPOutputStream(output, 65536) : null;
+        OutputStream target = compressed != null ? compressed : output;
+        Connection conn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        long rows;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.createStatement(ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY);
+            stmt.setFetchSize(fetchSize);
+            rs = stmt.executeQuery(SQL_EXPORT_ACC);
+            rows = CSV.equals(format) ? writeCsv(rs, target) : writeNdjson(rs, target);
+        } catch (SQLException e) {
+            throw new BaseException("export(): Error reading CustomerAccount data", e);
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+        if (compressed != null) {
+            compressed.finish();
+        }
+        output.flush();
+        log.info("export(): " + rows + " accounts as " + format + (gzip ? ".gz" : "") + " in "
+                + (System.currentTimeMillis() - start) + " ms");
+        return rows;
+    }
+
+    /**
+     * Write the dump to a file, gzipped when its name ends with .gz. It is written through a file channel to a
+     * temporary sibling, forced to disk and then renamed, so a reader never sees a partial dump.
+     * @return number of accounts written
+     */
+    public long exportToFile(String format, Path file) throws BaseException {
+        Path absolute = file.toAbsolutePath();
+        Path partial = absolute.resolveSibling(absolute.getFileName() + ".part");
+        FileChannel channel = null;
+        try {
+            channel = FileChannel.open(partial, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            OutputStream output = new BufferedOutputStream(Channels.newOutputStream(channel), bufferBytes);
+            long rows = export(format, absolute.getFileName().toString().endsWith(".gz"), output);
+            channel.force(true);
+            channel.close();
+            Files.move(partial, absolute, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+            return rows;
+        } catch (IOException e) {
+            throw new BaseException("exportToFile(): Error writing " + absolute, e);
+        } finally {
+            if (channel != null && channel.isOpen()) {
+                try {
+                    channel.close();
+                } catch (IOException ignored) {
+                }
+            }
+            try {
+                Files.deleteIfExists(partial);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private static long writeCsv(ResultSet rs, OutputStream target) throws SQLException, IOException {
+        Writer writer = new BufferedWriter(new OutputStreamWriter(target, StandardCharsets.UTF_8), 65536);
+        writer.write(CSV_HEADER);
+        long rows = 0;
+        while (rs.next()) {
+            writer.write(Long.toString(rs.getLong(1)));
+            writer.write(',');
+            writeCsvField(writer, rs.getString(2));
+            writer.write(',');
+            writer.write(plain(rs.getBigDecimal(3)));
+            writer.write(',');
+            writeCsvField(writer, CurrencyRegistry.INSTANCE.codeOf(rs.getShort(4)));
+            writer.write('\n');
+            rows++;
+        }
+        writer.flush();
+        return rows;
+    }
+
+    private static void writeCsvField(Writer writer, String value) throws IOException {
+        if (value == null) {
+            return;
+        }
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0) {
+            writer.write(value);
+            return;
+        }
+        writer.write('"');
+        writer.write(value.replace("\"", "\"\""));
+        writer.write('"');
+    }
+
+    private static long writeNdjson(ResultSet rs, OutputStream target) throws SQLException, IOException {
+        JsonGenerator generator = jsonFactory.createGenerator(target);
+        generator.setRootValueSeparator(null);
+        long rows = 0;
+        while (rs.next()) {
+            generator.writeStartObject();
+            generator.writeNumberField("accountId", rs.getLong(1));
+            generator.writeStringField("customerName", rs.getString(2));
+            generator.writeFieldName("balance");
+            generator.writeNumber(plain(rs.getBigDecimal(3)));
+            generator.writeStringField("currencyCode", CurrencyRegistry.INSTANCE.codeOf(rs.getShort(4)));
+            generator.writeEndObject();
+            generator.writeRaw('\n');
+            rows++;
+        }
+        generator.flush();
+        return rows;
+    }
+
+    private static String plain(BigDecimal balance) {
+        return balance == null ? "0" : balance.toPlainString();
+    }
+
+}
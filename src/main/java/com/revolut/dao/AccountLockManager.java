@@ -0,0 +1,227 @@
+package com.revolut.dao;
+
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: AccountLockManager
+ * @Package com.revolut.dao
+ * @Description: Striped in-JVM account locks taken in canonical stripe order before a connection is opened,
+ * so writers contending on the same account queue here instead of on H2 row locks while holding a connection
+ */
+public class AccountLockManager {
+
+    // counters of one stripe are spread a cache line apart to avoid false sharing between stripes
+    private static final int COUNTER_STRIDE = 8;
+    private static final int ACQUISITIONS = 0;
+    private static final int CONTENDED = 1;
+    private static final int WAIT_NANOS = 2;
+    private static final int MAX_WAIT_NANOS = 3;
+
+    private static final AccountLockManager instance = new AccountLockManager(
+            CommonUtils.getIntegerProperty("account_lock_stripes", 64),
+            CommonUtils.getIntegerProperty("account_lock_timeout_ms", 10000));
+
+    private final ReentrantLock[] stripes;
+    private final int mask;
+    private final long timeoutMs;
+    private final AtomicLongArray counters;
+
+    public AccountLockManager(int stripeCount, long timeoutMs) {
+        int size = Integer.highestOneBit(Math.max(2, stripeCount - 1)) << 1;
+        this.stripes = new ReentrantLock[size];
+        for (int i = 0; i < size; i++) {
+            stripes[i] = new ReentrantLock();
+        }
+        this.mask = size - 1;
+        this.timeoutMs = timeoutMs;
+        this.counters = new AtomicLongArray(size * COUNTER_STRIDE);
+    }
+
+    /**
+     * Shared lock manager for all DAO instances of this JVM.
+     */
+    public static AccountLockManager getInstance() {
+        return instance;
+    }
+
+    public int getStripeCount() {
+        return stripes.length;
+    }
+
+    /**
+     * Lock the stripes of all given accounts in ascending stripe order.
+     * @return handle that must be released in a finally block
+     * @throws BaseException if a stripe cannot be acquired within the lock timeout
+     */
+    public Locks lock(long... accountIds) throws BaseException {
+        int[] stripeIndexes = new int[accountIds.length];
+        for (int i = 0; i < accountIds.length; i++) {
+            stripeIndexes[i] = stripeOf(accountIds[i]);
+        }
+        Arrays.sort(stripeIndexes);
+        int distinct = 0;
+        for (int i = 0; i < stripeIndexes.length; i++) {
+            if (i == 0 || stripeIndexes[i] != stripeIndexes[i - 1]) {
+                stripeIndexes[distinct++] = stripeIndexes[i];
+            }
+        }
+        Locks locks = new Locks(Arrays.copyOf(stripeIndexes, distinct));
+        for (int i = 0; i < distinct; i++) {
+            try {
+                acquire(stripeIndexes[i]);
+            } catch (BaseException e) {
+                locks.release(i);
+                throw e;
+            }
+        }
+        return locks;
+    }
+
+    /**
+     * Per-stripe counters, one entry per stripe.
+     */
+    public List<StripeStatistics> getStripeStatistics() {
+        List<StripeStatistics> statistics = new ArrayList<StripeStatistics>(stripes.length);
+        for (int i = 0; i < stripes.length; i++) {
+            int base = i * COUNTER_STRIDE;
+            statistics.add(new StripeStatistics(i, counters.get(base + ACQUISITIONS), counters.get(base + CONTENDED),
+                    counters.get(base + WAIT_NANOS), counters.get(base + MAX_WAIT_NANOS), stripes[i].getQueueLength()));
+        }
+        return statistics;
+    }
+
+    /**
+     * @return number of distinct stripes lock(accountIds) would hold
+     */
+    public int stripeCountOf(long... accountIds) {
+        Set<Integer> stripeIndexes = new HashSet<Integer>();
+        for (long accountId : accountIds) {
+            stripeIndexes.add(stripeOf(accountId));
+        }
+        return stripeIndexes.size();
+    }
+
+    int stripeOf(long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32)) & mask;
+    }
+
+    private void acquire(int stripe) throws BaseException {
+        ReentrantLock lock = stripes[stripe];
+        int base = stripe * COUNTER_STRIDE;
+        counters.incrementAndGet(base + ACQUISITIONS);
+        if (lock.tryLock()) {
+            return;
+        }
+        counters.incrementAndGet(base + CONTENDED);
+        long start = System.nanoTime();
+        boolean acquired;
+        try {
+            acquired = lock.tryLock(timeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BaseException("Interrupted while waiting for account lock stripe " + stripe, e);
+        } finally {
+            long waited = System.nanoTime() - start;
+            counters.addAndGet(base + WAIT_NANOS, waited);
+            long max;
+            while (waited > (max = counters.get(base + MAX_WAIT_NANOS))
+                    && !counters.compareAndSet(base + MAX_WAIT_NANOS, max, waited)) {
+                // retry until the max reflects this wait
+            }
+        }
+        if (!acquired) {
+            throw new BaseException("Timeout after " + timeoutMs + "ms waiting for account lock stripe " + stripe);
+        }
+    }
+
+    /**
+     * Stripes held by one caller.
+     */
+    public final class Locks {
+        private final int[] stripeIndexes;
+        private boolean released;
+
+        private Locks(int[] stripeIndexes) {
+            this.stripeIndexes = stripeIndexes;
+        }
+
+        public void release() {
+            if (!released) {
+                released = true;
+                release(stripeIndexes.length);
+            }
+        }
+
+        private void release(int count) {
+            for (int i = count - 1; i >= 0; i--) {
+                stripes[stripeIndexes[i]].unlock();
+            }
+        }
+    }
+
+    /**
+     * Snapshot of the counters of one stripe.
+     */
+    public static class StripeStatistics {
+        private final int stripe;
+        private final long acquisitions;
+        private final long contendedAcquisitions;
+        private final long totalWaitNanos;
+        private final long maxWaitNanos;
+        private final int queueLength;
+
+        public StripeStatistics(int stripe, long acquisitions, long contendedAcquisitions, long totalWaitNanos,
+                                long maxWaitNanos, int queueLength) {
+            this.stripe = stripe;
+            this.acquisitions = acquisitions;
+            this.contendedAcquisitions = contendedAcquisitions;
+            this.totalWaitNanos = totalWaitNanos;
+            this.maxWaitNanos = maxWaitNanos;
+            this.queueLength = queueLength;
+        }
+
+        public int getStripe() {
+            return stripe;
+        }
+
+        public long getAcquisitions() {
+            return acquisitions;
+        }
+
+        public long getContendedAcquisitions() {
+            return contendedAcquisitions;
+        }
+
+        public long getTotalWaitNanos() {
+            return totalWaitNanos;
+        }
+
+        public long getMaxWaitNanos() {
+            return maxWaitNanos;
+        }
+
+        public int getQueueLength() {
+            return queueLength;
+        }
+
+        @Override
+        public String toString() {
+            return "StripeStatistics{" + "stripe=" + stripe + ", acquisitions=" + acquisitions + ", contended="
+                    + contendedAcquisitions + ", totalWaitNanos=" + totalWaitNanos + ", maxWaitNanos=" + maxWaitNanos
+                    + ", queueLength=" + queueLength + '}';
+        }
+    }
+}
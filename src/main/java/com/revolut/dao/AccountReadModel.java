@@ -0,0 +1,248 @@
+package com.revolut.dao;
+
+import com.revolut.metrics.MetricsRegistry;
+import com.revolut.model.CustomerAccount;
+import com.revolut.util.CommonUtils;
+
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: AccountReadModel
+ * @Package com.revolut.dao
+ * @Description: In-memory materialized view of the CustomerAccounts for the balance queries, filled on demand by
+ * read-through loads. Writers publish the committed state of each account they changed as an immutable snapshot
+ * stamped with a commit sequence number; readers only do a ConcurrentHashMap lookup, so they never take an account
+ * lock, a cache segment monitor or a database connection. Deleted accounts stay as tombstones so a slow load
+ * cannot bring them back. Past max size a sweep drops the tombstones, then live snapshots down to three quarters
+ * of it, and raises the load floor: a load that started before then may have read what a dropped entry superseded,
+ * so it is returned to its reader but not installed. Loads only run on a miss, so their lock is cheap.
+ */
+public class AccountReadModel {
+
+    private static final AccountReadModel instance = new AccountReadModel();
+
+    static {
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        metrics.counter("account_read_model_reads_total", "Account reads by read model result", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getHitCount();
+            }
+        }, "result", "hit");
+        metrics.counter("account_read_model_reads_total", "Account reads by read model result", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getMissCount();
+            }
+        }, "result", "miss");
+        metrics.gauge("account_read_model_size", "Accounts materialized in the read model", new LongSupplier() {
+            public long getAsLong() {
+                return instance.size();
+            }
+        });
+    }
+
+    private final ConcurrentHashMap<Long, Snapshot> snapshots = new ConcurrentHashMap<Long, Snapshot>();
+    private final AtomicLong sequence = new AtomicLong();
+    // loads that started before this sequence number are not installed; raised under the write lock, checked and
+    // installed under the read lock, so no load can land behind a clear or a sweep
+    private final ReentrantReadWriteLock floorLock = new ReentrantReadWriteLock();
+    private volatile long loadFloor;
+    private final int maxSize;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+
+    public AccountReadModel() {
+        this(CommonUtils.getIntegerProperty("account_read_model_max_size", 100000));
+    }
+
+    public AccountReadModel(int maxSize) {
+        this.maxSize = Math.max(1, maxSize);
+    }
+
+    /**
+     * Shared read model for all DAO instances of this JVM.
+     */
+    public static AccountReadModel getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return the latest snapshot of the account, a deleted one for a tombstone, or null when it was never loaded
+     */
+    public Snapshot lookup(long accountId) {
+        Snapshot snapshot = snapshots.get(accountId);
+        if (snapshot == null) {
+            misses.increment();
+        } else {
+            hits.increment();
+        }
+        return snapshot;
+    }
+
+    /**
+     * Publish the committed state of an account. Must be called after the commit and before the account lock is
+     * released, so snapshots of one account are published in commit order.
+     */
+    public void apply(CustomerAccount account) {
+        snapshots.put(account.getAccountId(), new Snapshot(account, sequence.incrementAndGet()));
+        sweepIfFull();
+    }
+
+    /**
+     * Publish the deletion of an account, under its account lock.
+     */
+    public void remove(long accountId) {
+        snapshots.put(accountId, new Snapshot(accountId, sequence.incrementAndGet()));
+        sweepIfFull();
+    }
+
+    /**
+     * @return the sequence number to pass to load, taken before reading the account from the database
+     */
+    public long loadSequence() {
+        return sequence.get();
+    }
+
+    /**
+     * Install an account read from the database unless a writer has published it meanwhile, or a clear or a sweep
+     * may have dropped what superseded it since loadSequence.
+     */
+    public void load(CustomerAccount account, long loadSequence) {
+        floorLock.readLock().lock();
+        try {
+            if (loadSequence < loadFloor) {
+                return;
+            }
+            snapshots.putIfAbsent(account.getAccountId(), new Snapshot(account, loadSequence));
+        } finally {
+            floorLock.readLock().unlock();
+        }
+        sweepIfFull();
+    }
+
+    /**
+     * Drop every snapshot, used when the table is changed outside the DAO.
+     */
+    public void clear() {
+        floorLock.writeLock().lock();
+        try {
+            long floor = raiseLoadFloor();
+            for (Map.Entry<Long, Snapshot> entry : snapshots.entrySet()) {
+                drop(entry, floor);
+            }
+        } finally {
+            floorLock.writeLock().unlock();
+        }
+    }
+
+    private void sweepIfFull() {
+        if (snapshots.size() <= maxSize || !floorLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            long floor = raiseLoadFloor();
+            for (Map.Entry<Long, Snapshot> entry : snapshots.entrySet()) {
+                if (entry.getValue().isDeleted()) {
+                    drop(entry, floor);
+                }
+            }
+            int target = maxSize - maxSize / 4;
+            for (Iterator<Map.Entry<Long, Snapshot>> it = snapshots.entrySet().iterator();
+                 it.hasNext() && snapshots.size() > target; ) {
+                drop(it.next(), floor);
+            }
+        } finally {
+            floorLock.writeLock().unlock();
+        }
+    }
+
+    private long raiseLoadFloor() {
+        loadFloor = sequence.incrementAndGet();
+        return loadFloor;
+    }
+
+    /**
+     * Drop an entry published before the floor was raised. A later one may be newer than what a load that started
+     * after the raise has read, so it must stay.
+     */
+    private void drop(Map.Entry<Long, Snapshot> entry, long floor) {
+        if (entry.getValue().version < floor) {
+            snapshots.remove(entry.getKey(), entry.getValue());
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public int size() {
+        return snapshots.size();
+    }
+
+    /**
+     * Immutable committed state of one account.
+     */
+    public static final class Snapshot {
+        private final long accountId;
+        private final String customerName;
+        private final long balanceUnits;
+        private final short currencyId;
+        private final long version;
+        private final boolean deleted;
+
+        private Snapshot(CustomerAccount account, long version) {
+            this.accountId = account.getAccountId();
+            this.customerName = account.getCustomerName();
+            this.balanceUnits = account.getBalanceUnits();
+            this.currencyId = account.getCurrencyId();
+            this.version = version;
+            this.deleted = false;
+        }
+
+        private Snapshot(long accountId, long version) {
+            this.accountId = accountId;
+            this.customerName = null;
+            this.balanceUnits = 0;
+            this.currencyId = 0;
+            this.version = version;
+            this.deleted = true;
+        }
+
+        public long getAccountId() {
+            return accountId;
+        }
+
+        public long getBalanceUnits() {
+            return balanceUnits;
+        }
+
+        /**
+         * Commit sequence number of the change that produced this snapshot, growing with every published change.
+         */
+        public long getVersion() {
+            return version;
+        }
+
+        public boolean isDeleted() {
+            return deleted;
+        }
+
+        /**
+         * @return a new CustomerAccount with this state, null for a deleted account
+         */
+        public CustomerAccount toCustomerAccount() {
+            return deleted ? null : new CustomerAccount(accountId, customerName, balanceUnits, currencyId);
+        }
+    }
+}
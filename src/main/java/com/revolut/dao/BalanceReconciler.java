@@ -0,0 +1,523 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.CurrencyTotal;
+import com.revolut.model.ReconciliationReport;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.CurrencyRegistry;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: BalanceReconciler
+ * @Package com.revolut.dao
+ * @Description: Proves money was neither created nor destroyed. The AccountId range of CustomerAccount is split
+ * with fork/join into partitions of at most partition size ids, and each partition is summed per currency and
+ * checked by one indexed range query; only a partition holding a negative balance or an unknown currency is read
+ * row by row. The summed totals are compared with the expected totals given by the caller. When the transfer
+ * journal exists its TransactionId range is checked the same way for entries whose currency is not the currency of
+ * both accounts. To leave room for the transfer path the job runs on its own pool of parallelism threads, so it
+ * borrows at most that many pooled connections, and after each partition it sleeps long enough to stay within its
+ * duty cycle.
+ * Partitions read one after the other would miss or count twice the money a transfer moves between them meanwhile,
+ * and H2 keeps a snapshot for one statement only. When the journal commits with the transfers, each partition query
+ * also reads the newest TransactionId, and the entries journaled after the run started are taken back out of the
+ * partitions that saw them, giving the totals as of the start. This costs one read of the journal tail and leaves
+ * single account changes, such as new accounts and deposits, counted as their partition saw them. Otherwise the
+ * totals come from one GROUP BY statement, a single unthrottled scan holding one snapshot open.
+ */
+public class BalanceReconciler {
+
+    private static Logger log = Logger.getLogger(BalanceReconciler.class);
+
+    /**
+     * Currency code of the totals of a CurrencyId missing from the registry, followed by the id
+     */
+    public static final String UNKNOWN_CURRENCY = "UNKNOWN-";
+
+    private final static String SQL_SUM_ACC = "SELECT CurrencyId, COUNT(*), SUM(Balance) FROM CustomerAccount GROUP BY CurrencyId";
+    private final static String SQL_ACC_RANGE = "SELECT MIN(AccountId), MAX(AccountId) FROM CustomerAccount";
+    private final static String SQL_CHECK_ACC_COLUMNS = "SELECT CurrencyId, COUNT(*), "
+            + "SUM(CASE WHEN Balance IS NULL OR Balance < 0 THEN 1 ELSE 0 END), SUM(Balance)";
+    private final static String SQL_CHECK_ACC_RANGE = " FROM CustomerAccount WHERE AccountId BETWEEN ? AND ? "
+            + "GROUP BY CurrencyId";
+    private final static String SQL_CHECK_ACC = SQL_CHECK_ACC_COLUMNS + SQL_CHECK_ACC_RANGE;
+    // the journal head is read in the same statement, so from the same snapshot as the sums
+    private final static String SQL_CHECK_ACC_JOURNALED = SQL_CHECK_ACC_COLUMNS
+            + ", (SELECT MAX(TransactionId) FROM CustomerTransactionJournal)" + SQL_CHECK_ACC_RANGE;
+    private final static String SQL_GET_ACC_RANGE = "SELECT AccountId, Balance, CurrencyId FROM CustomerAccount "
+            + "WHERE AccountId BETWEEN ? AND ? ORDER BY AccountId";
+    private final static String SQL_JOURNAL_RANGE = "SELECT MIN(TransactionId), MAX(TransactionId) FROM CustomerTransactionJournal";
+    private final static String SQL_JOURNAL_VIOLATION = "j.Amount <= 0 OR f.CurrencyId <> j.CurrencyId OR t.CurrencyId <> j.CurrencyId";
+    private final static String SQL_JOURNAL_JOIN = "FROM CustomerTransactionJournal j "
+            + "LEFT JOIN CustomerAccount f ON f.AccountId = j.FromAccountId "
+            + "LEFT JOIN CustomerAccount t ON t.AccountId = j.ToAccountId WHERE j.TransactionId BETWEEN ? AND ?";
+    private final static String SQL_CHECK_JOURNAL = "SELECT COUNT(*), SUM(CASE WHEN " + SQL_JOURNAL_VIOLATION
+            + " THEN 1 ELSE 0 END) " + SQL_JOURNAL_JOIN;
+    private final static String SQL_GET_JOURNAL_TAIL = "SELECT TransactionId, FromAccountId, ToAccountId, Amount, "
+            + "CurrencyId FROM CustomerTransactionJournal WHERE TransactionId > ? AND TransactionId <= ?";
+    private final static String SQL_GET_JOURNAL_VIOLATIONS = "SELECT j.TransactionId, j.Amount, j.CurrencyId, "
+            + "f.CurrencyId, t.CurrencyId " + SQL_JOURNAL_JOIN + " AND (" + SQL_JOURNAL_VIOLATION + ") ORDER BY j.TransactionId";
+
+    private final ConnectionProvider connectionProvider;
+    private final int parallelism;
+    private final long partitionSize;
+    private final int dutyPercent;
+    private final int maxViolations;
+    private final boolean journaledTransfers;
+
+    /**
+     * @param journaledTransfers true if every transfer of the database commits its journal entries with it, in
+     *                           TransactionId order, so the totals can be summed per partition
+     */
+    public BalanceReconciler(ConnectionProvider connectionProvider, int parallelism, long partitionSize,
+                             int dutyPercent, int maxViolations, boolean journaledTransfers) {
+        this.connectionProvider = connectionProvider;
+        this.parallelism = Math.max(1, parallelism);
+        this.partitionSize = Math.max(1, partitionSize);
+        this.dutyPercent = Math.min(100, Math.max(1, dutyPercent));
+        this.maxViolations = Math.max(0, maxViolations);
+        this.journaledTransfers = journaledTransfers;
+    }
+
+    /**
+     * Reconciler of the main H2 database, tuned by the reconcile_* properties.
+     */
+    public static BalanceReconciler fromConfig() {
+        return new BalanceReconciler(new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                return H2DAOFactory.getConnection();
+            }
+        }, CommonUtils.getIntegerProperty("reconcile_parallelism", 2),
+                CommonUtils.getIntegerProperty("reconcile_partition_size", 100000),
+                CommonUtils.getIntegerProperty("reconcile_duty_percent", 50),
+                CommonUtils.getIntegerProperty("reconcile_max_violations", 100),
+                CustomerTransactionJournal.getInstance().isJournaledWithTransfers());
+    }
+
+    /**
+     * Parse expected totals given as CODE:amount, for example GBP:1000.50.
+     * @throws IllegalArgumentException if a total is malformed, repeated or in an unknown currency
+     */
+    public static Map<String, BigDecimal> parseExpectedTotals(List<String> values) {
+        Map<String, BigDecimal> expectedTotals = new TreeMap<String, BigDecimal>();
+        for (String value : values) {
+            int separator = value.indexOf(':');
+            String currencyCode = separator < 0 ? value : value.substring(0, separator);
+            if (separator < 0 || !CurrencyRegistry.INSTANCE.isValid(currencyCode)) {
+                throw new IllegalArgumentException("Invalid expected total " + value + ", use CODE:amount");
+            }
+            BigDecimal total;
+            try {
+                total = new BigDecimal(value.substring(separator + 1));
+            } catch (NumberFormatException e) {
+                throw new IllegalArgumentException("Invalid expected total " + value + ", use CODE:amount");
+            }
+            if (expectedTotals.put(currencyCode, total) != null) {
+                throw new IllegalArgumentException("Expected total of " + currencyCode + " given twice");
+            }
+        }
+        return expectedTotals;
+    }
+
+    /**
+     * Sum the balances per currency and look for accounts and journal entries breaking an invariant.
+     * @param expectedTotals expected balance total per currency code, may be empty
+     * @throws BaseException if the database cannot be read
+     */
+    public ReconciliationReport reconcile(Map<String, BigDecimal> expectedTotals) throws BaseException {
+        long start = System.nanoTime();
+        ForkJoinPool pool = new ForkJoinPool(parallelism);
+        try {
+            boolean journal = journalExists();
+            // entries journaled after this point are left to the next run
+            long[] entries = journal ? range(SQL_JOURNAL_RANGE) : new long[] { 0, 0 };
+            Run run = new Run(journal && journaledTransfers);
+            if (!run.partitionSums) {
+                sumBalances(run);
+            }
+            long[] accounts = range(SQL_ACC_RANGE);
+            if (accounts[1] > 0) {
+                pool.invoke(new RangeTask(run, false, accounts[0], accounts[1]));
+            }
+            if (entries[1] > 0) {
+                pool.invoke(new RangeTask(run, true, entries[0], entries[1]));
+            }
+            if (run.partitionSums && run.failure.get() == null) {
+                undoJournalTail(run, entries[1]);
+            }
+            if (run.failure.get() != null) {
+                throw new BaseException("reconcile(): Error reading balances", run.failure.get());
+            }
+            ReconciliationReport report = report(run, expectedTotals,
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - start));
+            if (report.isBalanced()) {
+                log.info("reconcile(): " + report);
+            } else {
+                log.error("reconcile(): Unbalanced " + report);
+            }
+            return report;
+        } catch (SQLException e) {
+            throw new BaseException("reconcile(): Error reading balances", e);
+        } finally {
+            pool.shutdown();
+        }
+    }
+
+    private ReconciliationReport report(Run run, Map<String, BigDecimal> expectedTotals, long elapsedMillis) {
+        List<CurrencyTotal> totals = new ArrayList<CurrencyTotal>();
+        boolean balanced = run.violationCount.get() == 0;
+        Map<String, BigDecimal> unmatched = new TreeMap<String, BigDecimal>(expectedTotals);
+        for (Map.Entry<Short, BigDecimal> sum : run.balances.entrySet()) {
+            String currencyCode = CurrencyRegistry.INSTANCE.codeOf(sum.getKey());
+            if (currencyCode == null) {
+                currencyCode = UNKNOWN_CURRENCY + sum.getKey();
+            }
+            CurrencyTotal total = new CurrencyTotal(currencyCode, run.accounts.get(sum.getKey()), sum.getValue(),
+                    unmatched.remove(currencyCode));
+            balanced &= total.getDifference() == null || total.getDifference().signum() == 0;
+            totals.add(total);
+        }
+        // an expected currency without any account
+        for (Map.Entry<String, BigDecimal> expected : unmatched.entrySet()) {
+            CurrencyTotal total = new CurrencyTotal(expected.getKey(), 0, BigDecimal.ZERO, expected.getValue());
+            balanced &= total.getDifference().signum() == 0;
+            totals.add(total);
+        }
+        List<String> violations;
+        synchronized (run.violations) {
+            violations = new ArrayList<String>(run.violations);
+        }
+        return new ReconciliationReport(totals, violations, run.violationCount.get(), run.accountsScanned.get(),
+                run.journalEntriesScanned.get(), run.partitions.get(), elapsedMillis, balanced);
+    }
+
+    private boolean journalExists() throws SQLException {
+        Connection conn = null;
+        ResultSet rs = null;
+        try {
+            conn = connectionProvider.getConnection();
+            rs = conn.getMetaData().getTables(null, null, "CUSTOMERTRANSACTIONJOURNAL", null);
+            return rs.next();
+        } finally {
+            DbUtils.closeQuietly(conn, null, rs);
+        }
+    }
+
+    /**
+     * @return lowest and highest id of the query, 0 and 0 for an empty table
+     */
+    private long[] range(String sql) throws SQLException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(sql);
+            rs = stmt.executeQuery();
+            rs.next();
+            return new long[] { rs.getLong(1), rs.getLong(2) };
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Sum every balance per currency in one statement, so all of them come from the same snapshot, for a journal
+     * that cannot tell which transfers the partitions saw.
+     */
+    private void sumBalances(Run run) throws SQLException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(SQL_SUM_ACC);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                run.add(rs.getShort(1), rs.getLong(2), rs.getBigDecimal(3));
+            }
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    private void checkAccounts(Run run, long lo, long hi) throws SQLException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        boolean suspect = false;
+        boolean summed = false;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(run.partitionSums ? SQL_CHECK_ACC_JOURNALED : SQL_CHECK_ACC);
+            stmt.setLong(1, lo);
+            stmt.setLong(2, hi);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                short currencyId = rs.getShort(1);
+                run.accountsScanned.addAndGet(rs.getLong(2));
+                suspect |= rs.getLong(3) > 0 || CurrencyRegistry.INSTANCE.codeOf(currencyId) == null;
+                if (run.partitionSums) {
+                    run.add(currencyId, rs.getLong(2), rs.getBigDecimal(4));
+                    if (!summed) {
+                        run.summed.add(new Partition(lo, hi, rs.getLong(5)));
+                        summed = true;
+                    }
+                }
+            }
+            if (suspect) {
+                DbUtils.closeQuietly(rs);
+                DbUtils.closeQuietly(stmt);
+                stmt = conn.prepareStatement(SQL_GET_ACC_RANGE);
+                stmt.setLong(1, lo);
+                stmt.setLong(2, hi);
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    BigDecimal balance = rs.getBigDecimal(2);
+                    short currencyId = rs.getShort(3);
+                    if (balance == null || balance.signum() < 0) {
+                        run.violation("account " + rs.getLong(1) + ": negative balance " + balance);
+                    }
+                    if (CurrencyRegistry.INSTANCE.codeOf(currencyId) == null) {
+                        run.violation("account " + rs.getLong(1) + ": unknown currency " + currencyId);
+                    }
+                }
+            }
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Take the transfers journaled after journalHead back out of the partitions whose query saw them, so the partition
+     * sums add up to the totals as of journalHead. Entries of an account outside every summed partition, one created
+     * during the run, only undo the side that was summed, as that account is not counted either.
+     */
+    private void undoJournalTail(Run run, long journalHead) throws SQLException {
+        List<Partition> partitions = new ArrayList<Partition>(run.summed);
+        long newestHead = journalHead;
+        for (Partition partition : partitions) {
+            newestHead = Math.max(newestHead, partition.journalHead);
+        }
+        if (newestHead == journalHead) {
+            return;
+        }
+        Collections.sort(partitions);
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(SQL_GET_JOURNAL_TAIL);
+            stmt.setLong(1, journalHead);
+            stmt.setLong(2, newestHead);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                long transactionId = rs.getLong(1);
+                BigDecimal amount = rs.getBigDecimal(4);
+                BigDecimal undo = BigDecimal.ZERO;
+                Partition from = partitionOf(partitions, rs.getLong(2));
+                if (from != null && transactionId <= from.journalHead) {
+                    undo = undo.add(amount);
+                }
+                Partition to = partitionOf(partitions, rs.getLong(3));
+                if (to != null && transactionId <= to.journalHead) {
+                    undo = undo.subtract(amount);
+                }
+                if (undo.signum() != 0) {
+                    run.add(rs.getShort(5), 0, undo);
+                }
+            }
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * @param partitions summed partitions sorted by their lowest AccountId
+     * @return the partition holding the account, null if it was not summed
+     */
+    private static Partition partitionOf(List<Partition> partitions, long accountId) {
+        int lo = 0;
+        int hi = partitions.size() - 1;
+        while (lo <= hi) {
+            int mid = (lo + hi) >>> 1;
+            Partition partition = partitions.get(mid);
+            if (accountId < partition.lo) {
+                hi = mid - 1;
+            } else if (accountId > partition.hi) {
+                lo = mid + 1;
+            } else {
+                return partition;
+            }
+        }
+        return null;
+    }
+
+    private void checkJournal(Run run, long lo, long hi) throws SQLException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(SQL_CHECK_JOURNAL);
+            stmt.setLong(1, lo);
+            stmt.setLong(2, hi);
+            rs = stmt.executeQuery();
+            rs.next();
+            run.journalEntriesScanned.addAndGet(rs.getLong(1));
+            if (rs.getLong(2) > 0) {
+                DbUtils.closeQuietly(rs);
+                DbUtils.closeQuietly(stmt);
+                stmt = conn.prepareStatement(SQL_GET_JOURNAL_VIOLATIONS);
+                stmt.setLong(1, lo);
+                stmt.setLong(2, hi);
+                rs = stmt.executeQuery();
+                while (rs.next()) {
+                    BigDecimal amount = rs.getBigDecimal(2);
+                    if (amount.signum() <= 0) {
+                        run.violation("transaction " + rs.getLong(1) + ": non-positive amount " + amount);
+                    } else {
+                        run.violation("transaction " + rs.getLong(1) + ": currency " + rs.getShort(3)
+                                + " mismatches accounts in " + rs.getShort(4) + " and " + rs.getShort(5));
+                    }
+                }
+            }
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Split an id range in halves until it fits in one partition.
+     */
+    private final class RangeTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final Run run;
+        private final boolean journal;
+        private final long lo;
+        private final long hi;
+
+        private RangeTask(Run run, boolean journal, long lo, long hi) {
+            this.run = run;
+            this.journal = journal;
+            this.lo = lo;
+            this.hi = hi;
+        }
+
+        protected void compute() {
+            if (hi - lo >= partitionSize) {
+                long mid = lo + (hi - lo) / 2;
+                invokeAll(new RangeTask(run, journal, lo, mid), new RangeTask(run, journal, mid + 1, hi));
+                return;
+            }
+            if (run.failure.get() != null) {
+                return;
+            }
+            long startNanos = System.nanoTime();
+            try {
+                if (journal) {
+                    checkJournal(run, lo, hi);
+                } else {
+                    checkAccounts(run, lo, hi);
+                }
+                run.partitions.incrementAndGet();
+            } catch (SQLException e) {
+                run.failure.compareAndSet(null, e);
+                return;
+            }
+            throttle(System.nanoTime() - startNanos);
+        }
+
+        /**
+         * Rest so the partition queries take no more than dutyPercent of this thread's time.
+         */
+        private void throttle(long busyNanos) {
+            long restNanos = busyNanos * (100 - dutyPercent) / dutyPercent;
+            if (restNanos <= 0) {
+                return;
+            }
+            try {
+                TimeUnit.NANOSECONDS.sleep(restNanos);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    /**
+     * AccountId range of a summed partition and the newest TransactionId its query saw.
+     */
+    private static final class Partition implements Comparable<Partition> {
+        private final long lo;
+        private final long hi;
+        private final long journalHead;
+
+        private Partition(long lo, long hi, long journalHead) {
+            this.lo = lo;
+            this.hi = hi;
+            this.journalHead = journalHead;
+        }
+
+        public int compareTo(Partition other) {
+            return lo < other.lo ? -1 : (lo == other.lo ? 0 : 1);
+        }
+    }
+
+    /**
+     * Sums and findings of one reconciliation, shared by its partitions.
+     */
+    private final class Run {
+        // summed by the partitions, or by sumBalances before they start
+        private final boolean partitionSums;
+        private final List<Partition> summed = Collections.synchronizedList(new ArrayList<Partition>());
+        private final Map<Short, BigDecimal> balances = new TreeMap<Short, BigDecimal>();
+        private final Map<Short, Long> accounts = new TreeMap<Short, Long>();
+        private final AtomicLong accountsScanned = new AtomicLong();
+        private final AtomicLong journalEntriesScanned = new AtomicLong();
+        private final AtomicLong violationCount = new AtomicLong();
+        private final AtomicInteger partitions = new AtomicInteger();
+        private final AtomicReference<SQLException> failure = new AtomicReference<SQLException>();
+        private final List<String> violations = Collections.synchronizedList(new ArrayList<String>());
+
+        private Run(boolean partitionSums) {
+            this.partitionSums = partitionSums;
+        }
+
+        private synchronized void add(short currencyId, long accountCount, BigDecimal balance) {
+            Long count = accounts.get(currencyId);
+            accounts.put(currencyId, count == null ? accountCount : count + accountCount);
+            BigDecimal sum = balances.get(currencyId);
+            BigDecimal added = balance == null ? BigDecimal.ZERO : balance;
+            balances.put(currencyId, sum == null ? added : sum.add(added));
+        }
+
+        private void violation(String violation) {
+            if (violationCount.incrementAndGet() <= maxViolations) {
+                violations.add(violation);
+            }
+        }
+    }
+}
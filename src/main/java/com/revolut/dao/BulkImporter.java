@@ -0,0 +1,465 @@
+package com.revolut.dao;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.BulkImportReport;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.Money;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: BulkImporter
+ * @Package com.revolut.dao
+ * @Description: Streaming import of Customers or CustomerAccounts from CSV or NDJSON. The calling thread parses
+ * one line at a time and hands chunks of rows to worker threads through a bounded queue; each worker keeps one
+ * connection and inserts a chunk as one JDBC batch and one commit. Only queue capacity plus one chunk per worker
+ * is ever in memory, whatever the size of the input. A chunk failing as a whole, typically on a duplicate, is
+ * retried row by row so only the offending rows are rejected.
+ */
+public class BulkImporter {
+
+    private static Logger log = Logger.getLogger(BulkImporter.class);
+
+    public static final String CUSTOMER = "customer";
+    public static final String ACCOUNT = "account";
+    public static final String CSV = "csv";
+    public static final String NDJSON = "ndjson";
+
+    private final static String SQL_INSERT_CUSTOMER = "INSERT INTO Customer (CustomerName, EmailAddress, PhoneNumber) VALUES (?, ?, ?)";
+    private final static String SQL_INSERT_ACC = "INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES (?, ?, ?)";
+
+    private static final String[] CUSTOMER_COLUMNS = { "customerName", "emailAddress", "phoneNumber" };
+    private static final String[] ACCOUNT_COLUMNS = { "customerName", "balance", "currencyCode" };
+
+    // width of the VARCHAR columns of both tables
+    private static final int MAX_TEXT_LENGTH = 30;
+    private static final int MAX_ERRORS = 100;
+
+    private static final Chunk END = new Chunk(0);
+
+    private final ConnectionProvider connectionProvider;
+    private final int threads;
+    private final int chunkSize;
+    private final long progressIntervalMs;
+    private final ObjectMapper mapper = new ObjectMapper();
+
+    public BulkImporter(ConnectionProvider connectionProvider, int threads, int chunkSize, int progressIntervalMs) {
+        this.connectionProvider = connectionProvider;
+        this.threads = Math.max(1, threads);
+        this.chunkSize = Math.max(1, chunkSize);
+        this.progressIntervalMs = Math.max(1, progressIntervalMs);
+    }
+
+    /**
+     * Importer into the main H2 database, sized by the bulk_import_* properties.
+     */
+    public static BulkImporter fromConfig() {
+        return new BulkImporter(new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                return H2DAOFactory.getConnection();
+            }
+        }, CommonUtils.getIntegerProperty("bulk_import_threads", 4),
+                CommonUtils.getIntegerProperty("bulk_import_chunk_size", 1000),
+                CommonUtils.getIntegerProperty("bulk_import_progress_interval_ms", 5000));
+    }
+
+    public static boolean isSupported(String type, String format) {
+        return (CUSTOMER.equals(type) || ACCOUNT.equals(type)) && (CSV.equals(format) || NDJSON.equals(format));
+    }
+
+    /**
+     * Import every record of the input. CSV input starts with a header naming the columns in any order:
+     * customerName, emailAddress, phoneNumber for customers and customerName, balance, currencyCode for accounts;
+     * NDJSON input has one object with the same fields per line. Blank lines are skipped.
+     * @param type customer or account
+     * @param format csv or ndjson
+     * @return counts of the rows read, inserted and rejected, with the first rejection reasons
+     * @throws BaseException if the input cannot be read or the database fails as a whole
+     */
+    public BulkImportReport importRecords(String type, String format, Reader input) throws BaseException {
+        if (!isSupported(type, format)) {
+            throw new BaseException("Unsupported import of " + type + " from " + format);
+        }
+        final Import run = new Import(type, format);
+        final BlockingQueue<Chunk> queue = new ArrayBlockingQueue<Chunk>(threads * 2);
+        List<Thread> workers = new ArrayList<Thread>(threads);
+        for (int i = 0; i < threads; i++) {
+            Thread worker = new Thread(new Runnable() {
+                public void run() {
+                    runWorker(run, queue);
+                }
+            }, "bulk-import-" + i);
+            worker.setDaemon(true);
+            worker.start();
+            workers.add(worker);
+        }
+        try {
+            read(run, new BufferedReader(input), queue);
+        } catch (IOException e) {
+            run.fail(new BaseException("Error reading " + format + " input", e));
+        } finally {
+            for (int i = 0; i < threads; i++) {
+                put(run, queue, END);
+            }
+            for (Thread worker : workers) {
+                try {
+                    worker.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    run.fail(new BaseException("Interrupted while waiting for the import", e));
+                    break;
+                }
+            }
+        }
+        BulkImportReport report = run.report();
+        if (run.failure.get() != null) {
+            log.error("importRecords(): Import stopped after " + report);
+            throw run.failure.get();
+        }
+        log.info("importRecords(): " + report);
+        return report;
+    }
+
+    private void read(Import run, BufferedReader reader, BlockingQueue<Chunk> queue) throws IOException {
+        String[] columns = run.type.equals(CUSTOMER) ? CUSTOMER_COLUMNS : ACCOUNT_COLUMNS;
+        int[] positions = null;
+        long lineNumber = 0;
+        Chunk chunk = new Chunk(chunkSize);
+        String line;
+        while (run.failure.get() == null && (line = reader.readLine()) != null) {
+            lineNumber++;
+            if (line.trim().isEmpty()) {
+                continue;
+            }
+            String[] fields;
+            try {
+                if (run.format.equals(CSV)) {
+                    List<String> values = parseCsvLine(line);
+                    if (positions == null) {
+                        positions = headerPositions(values, columns);
+                        continue;
+                    }
+                    fields = new String[columns.length];
+                    for (int i = 0; i < columns.length; i++) {
+                        fields[i] = positions[i] < values.size() ? values.get(positions[i]) : null;
+                    }
+                } else {
+                    fields = jsonFields(line, columns);
+                }
+            } catch (IllegalArgumentException e) {
+                if (positions == null && run.format.equals(CSV)) {
+                    run.fail(new BaseException("line " + lineNumber + ": " + e.getMessage()));
+                    return;
+                }
+                run.read.incrementAndGet();
+                run.reject(lineNumber, e.getMessage());
+                continue;
+            }
+            run.read.incrementAndGet();
+            try {
+                chunk.add(lineNumber, run.type.equals(CUSTOMER) ? customerRow(fields) : accountRow(fields));
+            } catch (IllegalArgumentException e) {
+                run.reject(lineNumber, e.getMessage());
+                continue;
+            }
+            if (chunk.size() == chunkSize) {
+                put(run, queue, chunk);
+                chunk = new Chunk(chunkSize);
+            }
+            run.progress(progressIntervalMs);
+        }
+        if (chunk.size() > 0) {
+            put(run, queue, chunk);
+        }
+    }
+
+    /**
+     * Hand a chunk to the workers, giving up once the import has failed so a dead worker pool cannot block.
+     */
+    private static void put(Import run, BlockingQueue<Chunk> queue, Chunk chunk) {
+        try {
+            while (!queue.offer(chunk, 100, TimeUnit.MILLISECONDS)) {
+                if (run.failure.get() != null && chunk != END) {
+                    return;
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            run.fail(new BaseException("Interrupted while importing", e));
+        }
+    }
+
+    private void runWorker(Import run, BlockingQueue<Chunk> queue) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+            conn = connectionProvider.getConnection();
+            conn.setAutoCommit(false);
+            stmt = conn.prepareStatement(run.type.equals(CUSTOMER) ? SQL_INSERT_CUSTOMER : SQL_INSERT_ACC);
+            Chunk chunk;
+            while ((chunk = queue.take()) != END) {
+                if (run.failure.get() == null) {
+                    insert(run, conn, stmt, chunk);
+                    run.progress(progressIntervalMs);
+                }
+            }
+        } catch (SQLException e) {
+            run.fail(new BaseException("Error inserting imported rows", e));
+            drain(queue);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } finally {
+            DbUtils.closeQuietly(stmt);
+            if (conn != null) {
+                try {
+                    conn.setAutoCommit(true);
+                } catch (SQLException ignored) {
+                }
+            }
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Keep taking chunks until this worker's end marker so the reader is never left blocked on a full queue.
+     */
+    private static void drain(BlockingQueue<Chunk> queue) {
+        try {
+            while (queue.take() != END) {
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void insert(Import run, Connection conn, PreparedStatement stmt, Chunk chunk) throws SQLException {
+        try {
+            for (Object[] row : chunk.rows) {
+                bind(stmt, row);
+                stmt.addBatch();
+            }
+            stmt.executeBatch();
+            conn.commit();
+            run.inserted.addAndGet(chunk.size());
+            return;
+        } catch (SQLException e) {
+            stmt.clearBatch();
+            conn.rollback();
+        }
+        // isolate the rows the database refuses, each one in its own transaction
+        for (int i = 0; i < chunk.size(); i++) {
+            try {
+                bind(stmt, chunk.rows.get(i));
+                stmt.executeUpdate();
+                conn.commit();
+                run.inserted.incrementAndGet();
+            } catch (SQLException e) {
+                conn.rollback();
+                run.reject(chunk.lineNumbers[i], e.getMessage());
+            }
+        }
+    }
+
+    private static void bind(PreparedStatement stmt, Object[] row) throws SQLException {
+        for (int i = 0; i < row.length; i++) {
+            stmt.setObject(i + 1, row[i]);
+        }
+    }
+
+    private static Object[] customerRow(String[] fields) {
+        return new Object[] { text(fields[0], CUSTOMER_COLUMNS[0]), text(fields[1], CUSTOMER_COLUMNS[1]),
+                text(fields[2], CUSTOMER_COLUMNS[2]) };
+    }
+
+    private static Object[] accountRow(String[] fields) {
+        String customerName = text(fields[0], ACCOUNT_COLUMNS[0]);
+        BigDecimal balance;
+        try {
+            balance = Money.toBigDecimal(Money.fromBigDecimal(new BigDecimal(text(fields[1], ACCOUNT_COLUMNS[1]))));
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("invalid balance " + fields[1]);
+        } catch (ArithmeticException e) {
+            throw new IllegalArgumentException("balance out of range " + fields[1]);
+        }
+        if (balance.signum() < 0) {
+            throw new IllegalArgumentException("negative balance " + fields[1]);
+        }
+        short currencyId = CurrencyRegistry.INSTANCE.idOf(text(fields[2], ACCOUNT_COLUMNS[2]));
+        if (currencyId == CurrencyRegistry.UNKNOWN) {
+            throw new IllegalArgumentException("unknown currency " + fields[2]);
+        }
+        return new Object[] { customerName, balance, currencyId };
+    }
+
+    private static String text(String value, String column) {
+        if (value == null || value.trim().isEmpty()) {
+            throw new IllegalArgumentException("missing " + column);
+        }
+        String trimmed = value.trim();
+        if (trimmed.length() > MAX_TEXT_LENGTH) {
+            throw new IllegalArgumentException(column + " longer than " + MAX_TEXT_LENGTH);
+        }
+        return trimmed;
+    }
+
+    private static int[] headerPositions(List<String> header, String[] columns) {
+        int[] positions = new int[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            positions[i] = -1;
+            for (int j = 0; j < header.size(); j++) {
+                if (header.get(j).trim().equalsIgnoreCase(columns[i])) {
+                    positions[i] = j;
+                }
+            }
+            if (positions[i] < 0) {
+                throw new IllegalArgumentException("header has no " + columns[i] + " column");
+            }
+        }
+        return positions;
+    }
+
+    private String[] jsonFields(String line, String[] columns) {
+        JsonNode node;
+        try {
+            node = mapper.readTree(line);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("invalid JSON");
+        }
+        if (node == null || !node.isObject()) {
+            throw new IllegalArgumentException("not a JSON object");
+        }
+        String[] fields = new String[columns.length];
+        for (int i = 0; i < columns.length; i++) {
+            JsonNode value = node.get(columns[i]);
+            fields[i] = value == null || value.isNull() ? null : value.asText();
+        }
+        return fields;
+    }
+
+    /**
+     * Split one CSV record, fields may be quoted with "" for a literal quote but may not span lines.
+     */
+    static List<String> parseCsvLine(String line) {
+        List<String> values = new ArrayList<String>();
+        StringBuilder field = new StringBuilder();
+        boolean quoted = false;
+        for (int i = 0; i < line.length(); i++) {
+            char c = line.charAt(i);
+            if (quoted) {
+                if (c == '"') {
+                    if (i + 1 < line.length() && line.charAt(i + 1) == '"') {
+                        field.append('"');
+                        i++;
+                    } else {
+                        quoted = false;
+                    }
+                } else {
+                    field.append(c);
+                }
+            } else if (c == '"') {
+                quoted = true;
+            } else if (c == ',') {
+                values.add(field.toString());
+                field.setLength(0);
+            } else {
+                field.append(c);
+            }
+        }
+        if (quoted) {
+            throw new IllegalArgumentException("unterminated quoted field");
+        }
+        values.add(field.toString());
+        return values;
+    }
+
+    private static final class Chunk {
+        private final List<Object[]> rows;
+        private final long[] lineNumbers;
+
+        private Chunk(int capacity) {
+            this.rows = new ArrayList<Object[]>(capacity);
+            this.lineNumbers = new long[capacity];
+        }
+
+        private void add(long lineNumber, Object[] row) {
+            lineNumbers[rows.size()] = lineNumber;
+            rows.add(row);
+        }
+
+        private int size() {
+            return rows.size();
+        }
+    }
+
+    /**
+     * Counters of one import, shared by the reader and the workers.
+     */
+    private static final class Import {
+        private final String type;
+        private final String format;
+        private final long startNanos = System.nanoTime();
+        private final AtomicLong read = new AtomicLong();
+        private final AtomicLong inserted = new AtomicLong();
+        private final AtomicLong rejected = new AtomicLong();
+        private final AtomicLong lastProgressNanos = new AtomicLong(System.nanoTime());
+        private final AtomicReference<BaseException> failure = new AtomicReference<BaseException>();
+        private final List<String> errors = Collections.synchronizedList(new ArrayList<String>());
+
+        private Import(String type, String format) {
+            this.type = type;
+            this.format = format;
+        }
+
+        private void reject(long lineNumber, String reason) {
+            if (rejected.incrementAndGet() <= MAX_ERRORS) {
+                errors.add("line " + lineNumber + ": " + reason);
+            }
+        }
+
+        private void fail(BaseException e) {
+            failure.compareAndSet(null, e);
+        }
+
+        private void progress(long intervalMs) {
+            long last = lastProgressNanos.get();
+            long now = System.nanoTime();
+            if (now - last >= TimeUnit.MILLISECONDS.toNanos(intervalMs) && lastProgressNanos.compareAndSet(last, now)) {
+                long elapsedMs = Math.max(1, TimeUnit.NANOSECONDS.toMillis(now - startNanos));
+                log.info(String.format(Locale.ROOT, "Importing %s from %s: %d read, %d inserted, %d rejected, %d rows/s",
+                        type, format, read.get(), inserted.get(), rejected.get(), inserted.get() * 1000 / elapsedMs));
+            }
+        }
+
+        private BulkImportReport report() {
+            List<String> errorsCopy;
+            synchronized (errors) {
+                errorsCopy = new ArrayList<String>(errors);
+            }
+            return new BulkImportReport(type, format, read.get(), inserted.get(), rejected.get(),
+                    TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos), errorsCopy);
+        }
+    }
+}
@@ -0,0 +1,20 @@
+package com.revolut.dao;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ConnectionProvider
+ * @Package com.revolut.dao
+ * @Description: Source of pooled JDBC connections for a DAO, so the same DAO code can run against the main H2
+ * database or one shard of it
+ */
+public interface ConnectionProvider {
+
+    /**
+     * Borrow a connection; closing it gives it back.
+     */
+    Connection getConnection() throws SQLException;
+}
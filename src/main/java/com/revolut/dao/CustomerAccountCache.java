@@ -0,0 +1,231 @@
+package com.revolut.dao;
+
+import com.revolut.metrics.MetricsRegistry;
+import com.revolut.model.CustomerAccount;
+import com.revolut.util.CommonUtils;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerAccountCache
+ * @Package com.revolut.dao
+ * @Description: Bounded read-through cache of CustomerAccount rows, split into independently locked LRU or FIFO
+ * segments. Every write bumps the version of its segment, and a value loaded from the database is only installed
+ * if the version has not moved since the load started, so a slow reader can never overwrite a newer balance.
+ */
+public class CustomerAccountCache {
+
+    public static final String LRU = "LRU";
+    public static final String FIFO = "FIFO";
+
+    private static final CustomerAccountCache instance = fromConfig();
+
+    static {
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        metrics.counter("account_cache_hits_total", "CustomerAccount cache hits", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getHitCount();
+            }
+        });
+        metrics.counter("account_cache_misses_total", "CustomerAccount cache misses", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getMissCount();
+            }
+        });
+        metrics.counter("account_cache_evictions_total", "CustomerAccount cache evictions", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getEvictionCount();
+            }
+        });
+        metrics.gauge("account_cache_size", "CustomerAccount cache entries", new LongSupplier() {
+            public long getAsLong() {
+                return instance.size();
+            }
+        });
+    }
+
+    private final Segment[] segments;
+    private final int mask;
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
+
+    /**
+     * @param maxSize total number of cached accounts, 0 disables caching
+     * @param segmentCount number of independently locked segments, rounded up to a power of two
+     * @param evictionPolicy LRU evicts the least recently read account, FIFO the least recently loaded one
+     */
+    public CustomerAccountCache(int maxSize, int segmentCount, String evictionPolicy) {
+        if (!LRU.equalsIgnoreCase(evictionPolicy) && !FIFO.equalsIgnoreCase(evictionPolicy)) {
+            throw new IllegalArgumentException("Unknown account cache eviction policy: " + evictionPolicy);
+        }
+        int size = Integer.highestOneBit(Math.max(1, segmentCount - 1)) << 1;
+        boolean accessOrder = LRU.equalsIgnoreCase(evictionPolicy);
+        int segmentCapacity = maxSize <= 0 ? 0 : Math.max(1, (maxSize + size - 1) / size);
+        this.segments = new Segment[size];
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(segmentCapacity, accessOrder);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * New cache sized by the account_cache_* properties.
+     */
+    public static CustomerAccountCache fromConfig() {
+        return new CustomerAccountCache(CommonUtils.getIntegerProperty("account_cache_max_size", 10000),
+                CommonUtils.getIntegerProperty("account_cache_segments", 16),
+                CommonUtils.getStringProperty("account_cache_eviction", LRU));
+    }
+
+    /**
+     * Shared cache for all DAO instances of this JVM.
+     */
+    public static CustomerAccountCache getInstance() {
+        return instance;
+    }
+
+    /**
+     * @return a copy of the cached account, or null on a miss
+     */
+    public CustomerAccount get(long accountId) {
+        Segment segment = segmentOf(accountId);
+        CustomerAccount account;
+        synchronized (segment) {
+            account = segment.accounts.get(accountId);
+        }
+        if (account == null) {
+            misses.increment();
+            return null;
+        }
+        hits.increment();
+        return copyOf(account);
+    }
+
+    /**
+     * Like get but without counting a hit or miss, for writers holding the account lock: under that lock the
+     * cached account is the committed state, since every write updates the cache before releasing it.
+     * @return a copy of the cached account, or null
+     */
+    public CustomerAccount peek(long accountId) {
+        Segment segment = segmentOf(accountId);
+        CustomerAccount account;
+        synchronized (segment) {
+            account = segment.accounts.get(accountId);
+        }
+        return account == null ? null : copyOf(account);
+    }
+
+    /**
+     * Version to pass to putIfUnchanged, taken before the database read.
+     */
+    public long version(long accountId) {
+        Segment segment = segmentOf(accountId);
+        synchronized (segment) {
+            return segment.version;
+        }
+    }
+
+    /**
+     * Install an account loaded from the database unless a write to its segment happened since version was taken.
+     */
+    public void putIfUnchanged(CustomerAccount account, long version) {
+        Segment segment = segmentOf(account.getAccountId());
+        synchronized (segment) {
+            if (segment.version == version && segment.capacity > 0) {
+                segment.accounts.put(account.getAccountId(), copyOf(account));
+            }
+        }
+    }
+
+    /**
+     * Replace the cached account with its committed state. Must be called after the commit and before the
+     * account locks are released.
+     */
+    public void update(CustomerAccount account) {
+        Segment segment = segmentOf(account.getAccountId());
+        synchronized (segment) {
+            segment.version++;
+            if (segment.capacity > 0) {
+                segment.accounts.put(account.getAccountId(), copyOf(account));
+            }
+        }
+    }
+
+    public void invalidate(long accountId) {
+        Segment segment = segmentOf(accountId);
+        synchronized (segment) {
+            segment.version++;
+            segment.accounts.remove(accountId);
+        }
+    }
+
+    /**
+     * Drop every entry, used when the table is changed outside the DAO.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.version++;
+                segment.accounts.clear();
+            }
+        }
+    }
+
+    public long getHitCount() {
+        return hits.sum();
+    }
+
+    public long getMissCount() {
+        return misses.sum();
+    }
+
+    public long getEvictionCount() {
+        return evictions.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.accounts.size();
+            }
+        }
+        return size;
+    }
+
+    private Segment segmentOf(long accountId) {
+        long h = accountId * 0x9E3779B97F4A7C15L;
+        return segments[(int) (h ^ (h >>> 32)) & mask];
+    }
+
+    private static CustomerAccount copyOf(CustomerAccount account) {
+        return new CustomerAccount(account.getAccountId(), account.getCustomerName(), account.getBalanceUnits(),
+                account.getCurrencyId());
+    }
+
+    private class Segment {
+        private final int capacity;
+        private final LinkedHashMap<Long, CustomerAccount> accounts;
+        private long version;
+
+        private Segment(final int capacity, boolean accessOrder) {
+            this.capacity = capacity;
+            this.accounts = new LinkedHashMap<Long, CustomerAccount>(16, 0.75f, accessOrder) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Long, CustomerAccount> eldest) {
+                    if (size() > capacity) {
+                        evictions.increment();
+                        return true;
+                    }
+                    return false;
+                }
+            };
+        }
+    }
+}
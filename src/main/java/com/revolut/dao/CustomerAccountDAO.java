@@ -2,9 +2,10 @@ package com.revolut.dao;
 
 import com.revolut.model.CustomerAccount;
 import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
 import com.revolut.util.BaseException;
 
-import java.math.BigDecimal;
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -17,9 +18,27 @@ import java.util.List;
 public interface CustomerAccountDAO {
 
     List<CustomerAccount> getAllCustomerAccounts() throws BaseException;
+    List<CustomerAccount> getCustomerAccounts(long afterAccountId, int limit) throws BaseException;
+    int forEachCustomerAccount(long afterAccountId, int limit, RowCallback<CustomerAccount> callback)
+            throws BaseException, IOException;
     CustomerAccount getCustomerAccountById(Long CustomerAccountId) throws BaseException;
+    /**
+     * Last committed state of the account from the read model, never waiting for writers of the account.
+     * @return null if the account does not exist
+     */
+    CustomerAccount getCustomerAccountSnapshot(Long CustomerAccountId) throws BaseException;
     long createCustomerAccount(CustomerAccount CustomerAccount) throws BaseException;
     int deleteCustomerAccountById(Long CustomerAccountId) throws BaseException;
-    int updateCustomerAccountBalance(Long CustomerAccountId, BigDecimal deltaAmount) throws BaseException;
+    /**
+     * @param deltaUnits signed change in fixed-point minor units, see Money
+     */
+    int updateCustomerAccountBalance(Long CustomerAccountId, long deltaUnits) throws BaseException;
+    /**
+     * Apply a signed balance change and return the account as updated.
+     * @throws BaseException if the account does not exist, the fund is not sufficient or the balance overflows
+     */
+    CustomerAccount updateAndGetCustomerAccount(Long CustomerAccountId, long deltaUnits) throws BaseException;
     int transferCustomerAccountBalance(CustomerTransaction customerTransaction) throws BaseException;
+    List<CustomerTransactionResult> transferCustomerAccountBalanceBatch(List<CustomerTransaction> customerTransactions,
+                                                                        boolean allOrNothing) throws BaseException;
 }
@@ -3,18 +3,29 @@ package com.revolut.dao;
 import com.revolut.dao.factory.H2DAOFactory;
 import com.revolut.model.CustomerAccount;
 import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
 import com.revolut.util.BaseException;
-import com.revolut.util.MoneyUtils;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.Money;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
 import java.math.BigDecimal;
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
 
 /**
  * @author Guang_Yang
@@ -26,13 +37,69 @@ import java.util.List;
 public class CustomerAccountDAOImpl implements CustomerAccountDAO {
 
     private static Logger log = Logger.getLogger(CustomerAccountDAOImpl.class);
+    private static final SQLRetryPolicy transferRetryPolicy = SQLRetryPolicy.fromConfig("transfer");
+    private static final AccountLockManager lockManager = AccountLockManager.getInstance();
+    private static final CustomerTransactionJournal transactionJournal = CustomerTransactionJournal.getInstance();
+    private static final int transferBatchChunkSize = Math.max(1, CommonUtils.getIntegerProperty("transfer_batch_chunk_size", 500));
+    // account lock stripes one batch transaction may hold, so a batch never locks out most of the JVM
+    private static final int transferBatchMaxStripes = Math.min(lockManager.getStripeCount(),
+            Math.max(2, CommonUtils.getIntegerProperty("transfer_batch_max_stripes", 16)));
     private final static String SQL_GET_ACC_BY_ID = "SELECT * FROM CustomerAccount WHERE AccountId = ? ";
-    private final static String SQL_LOCK_ACC_BY_ID = "SELECT * FROM CustomerAccount WHERE AccountId = ? FOR UPDATE";
-    private final static String SQL_CREATE_ACC = "INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES (?, ?, ?)";
+    private final static String SQL_LOCK_ACC_IN = "SELECT * FROM CustomerAccount WHERE AccountId IN (%s) ORDER BY AccountId FOR UPDATE";
+    // IN list lengths of SQL_LOCK_ACC_IN, padded so the statement cache holds a few shapes instead of one per length
+    private static final int[] LOCK_IN_SIZES = { 8, 32, 128 };
+    private static final String[] SQL_LOCK_ACC_IN_BY_SIZE = new String[LOCK_IN_SIZES.length];
+    private final static String SQL_LOCK_ACC_PAIR = "SELECT * FROM CustomerAccount WHERE AccountId IN (?, ?) ORDER BY AccountId FOR UPDATE";
+    private final static String SQL_CREATE_ACC = "INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES (?, ?, ?)";
     private final static String SQL_UPDATE_ACC_BALANCE = "UPDATE CustomerAccount SET Balance = ? WHERE AccountId = ? ";
+    private final static String SQL_ADD_ACC_BALANCE = "UPDATE CustomerAccount SET Balance = Balance + ? "
+            + "WHERE AccountId = ? AND Balance + ? BETWEEN 0 AND ?";
+    // largest balance the fixed-point long units can hold, the column itself allows more
+    private static final BigDecimal MAX_BALANCE = Money.toBigDecimal(Long.MAX_VALUE);
     private final static String SQL_GET_ALL_ACC = "SELECT * FROM CustomerAccount";
+    private final static String SQL_GET_ACC_AFTER = "SELECT * FROM CustomerAccount WHERE AccountId > ? ORDER BY AccountId LIMIT ?";
     private final static String SQL_DELETE_ACC_BY_ID = "DELETE FROM CustomerAccount WHERE AccountId = ?";
 
+    static {
+        for (int i = 0; i < LOCK_IN_SIZES.length; i++) {
+            StringBuilder placeholders = new StringBuilder("?");
+            for (int j = 1; j < LOCK_IN_SIZES[i]; j++) {
+                placeholders.append(", ?");
+            }
+            SQL_LOCK_ACC_IN_BY_SIZE[i] = String.format(SQL_LOCK_ACC_IN, placeholders);
+        }
+    }
+
+    private static final ConnectionProvider H2_CONNECTIONS = new ConnectionProvider() {
+        public Connection getConnection() throws SQLException {
+            return H2DAOFactory.getConnection();
+        }
+    };
+
+    private final ConnectionProvider connectionProvider;
+    private final CustomerAccountCache accountCache;
+    private final AccountReadModel readModel;
+    // the journal table is in the main database, only its transfers can journal in their own transaction
+    private final boolean journalInTransaction;
+
+    /**
+     * CustomerAccounts of the main H2 database with the shared account cache and read model
+     */
+    public CustomerAccountDAOImpl() {
+        this(H2_CONNECTIONS, CustomerAccountCache.getInstance(), AccountReadModel.getInstance());
+    }
+
+    /**
+     * CustomerAccounts of another database, with the cache and read model holding its accounts
+     */
+    public CustomerAccountDAOImpl(ConnectionProvider connectionProvider, CustomerAccountCache accountCache,
+                                  AccountReadModel readModel) {
+        this.connectionProvider = connectionProvider;
+        this.accountCache = accountCache;
+        this.readModel = readModel;
+        this.journalInTransaction = connectionProvider == H2_CONNECTIONS && transactionJournal.isSynchronous();
+    }
+
     /**
      * Get all CustomerAccounts.
      */
@@ -42,12 +109,12 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
         ResultSet rs = null;
         List<CustomerAccount> allCustomerAccounts = new ArrayList<CustomerAccount>();
         try {
-            conn = H2DAOFactory.getConnection();
+            conn = connectionProvider.getConnection();
             stmt = conn.prepareStatement(SQL_GET_ALL_ACC);
             rs = stmt.executeQuery();
             while (rs.next()) {
                 CustomerAccount acc = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
-                        rs.getBigDecimal("Balance"), rs.getString("CurrencyCode"));
+                        Money.fromBigDecimal(rs.getBigDecimal("Balance")), rs.getShort("CurrencyId"));
                 if (log.isDebugEnabled())
                     log.debug("getAllCustomerAccounts(): Get  CustomerAccount " + acc);
                 allCustomerAccounts.add(acc);
@@ -61,23 +128,76 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
     }
 
     /**
-     * Get CustomerAccount by AccountId
+     * Get one keyset page of CustomerAccounts ordered by AccountId
+     */
+    public List<CustomerAccount> getCustomerAccounts(long afterAccountId, int limit) throws BaseException {
+        final List<CustomerAccount> customerAccounts = new ArrayList<CustomerAccount>(Math.min(limit, 1024));
+        try {
+            forEachCustomerAccount(afterAccountId, limit, new RowCallback<CustomerAccount>() {
+                public void onRow(CustomerAccount customerAccount) {
+                    customerAccounts.add(customerAccount);
+                }
+            });
+        } catch (IOException e) {
+            throw new BaseException("getCustomerAccounts(): Error collecting CustomerAccount data", e);
+        }
+        return customerAccounts;
+    }
+
+    /**
+     * Hand up to limit CustomerAccounts with an AccountId above afterAccountId to the callback in AccountId order,
+     * straight from the ResultSet
+     * @return number of CustomerAccounts visited
+     */
+    public int forEachCustomerAccount(long afterAccountId, int limit, RowCallback<CustomerAccount> callback)
+            throws BaseException, IOException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        int count = 0;
+        try {
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(SQL_GET_ACC_AFTER);
+            stmt.setLong(1, afterAccountId);
+            stmt.setInt(2, limit);
+            stmt.setFetchSize(limit);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                callback.onRow(new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
+                        Money.fromBigDecimal(rs.getBigDecimal("Balance")), rs.getShort("CurrencyId")));
+                count++;
+            }
+            return count;
+        } catch (SQLException e) {
+            throw new BaseException("forEachCustomerAccount(): Error reading CustomerAccount data", e);
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    /**
+     * Get CustomerAccount by AccountId, served from the account cache when present
      */
     public CustomerAccount getCustomerAccountById(Long accountId) throws BaseException {
+        CustomerAccount acc = accountCache.get(accountId);
+        if (acc != null) {
+            return acc;
+        }
+        long cacheVersion = accountCache.version(accountId);
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet rs = null;
-        CustomerAccount acc = null;
         try {
-            conn = H2DAOFactory.getConnection();
+            conn = connectionProvider.getConnection();
             stmt = conn.prepareStatement(SQL_GET_ACC_BY_ID);
             stmt.setLong(1, accountId);
             rs = stmt.executeQuery();
             if (rs.next()) {
-                acc = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"), rs.getBigDecimal("Balance"),
-                        rs.getString("CurrencyCode"));
+                acc = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"), Money.fromBigDecimal(rs.getBigDecimal("Balance")),
+                        rs.getShort("CurrencyId"));
                 if (log.isDebugEnabled())
                     log.debug("Retrieve CustomerAccount By Id: " + acc);
+                accountCache.putIfUnchanged(acc, cacheVersion);
             }
             return acc;
         } catch (SQLException e) {
@@ -87,19 +207,46 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
         }
     }
 
+    /**
+     * Get CustomerAccount by AccountId from the read model, loading it from the database on the first read
+     */
+    public CustomerAccount getCustomerAccountSnapshot(Long accountId) throws BaseException {
+        AccountReadModel.Snapshot snapshot = readModel.lookup(accountId);
+        if (snapshot != null) {
+            return snapshot.toCustomerAccount();
+        }
+        long loadSequence = readModel.loadSequence();
+        Connection conn = null;
+        try {
+            conn = connectionProvider.getConnection();
+            CustomerAccount acc = readCustomerAccount(conn, accountId);
+            if (acc != null) {
+                readModel.load(acc, loadSequence);
+            }
+            return acc;
+        } catch (SQLException e) {
+            throw new BaseException("getCustomerAccountSnapshot(): Error reading CustomerAccount data", e);
+        } finally {
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
     /**
      * Create CustomerAccount
      */
     public long createCustomerAccount(CustomerAccount customerAccount) throws BaseException {
+        if (customerAccount.getCurrencyId() == CurrencyRegistry.UNKNOWN) {
+            throw new BaseException("createCustomerAccount(): Invalid currency for CustomerAccount " + customerAccount);
+        }
         Connection conn = null;
         PreparedStatement stmt = null;
         ResultSet generatedKeys = null;
         try {
-            conn = H2DAOFactory.getConnection();
+            conn = connectionProvider.getConnection();
             stmt = conn.prepareStatement(SQL_CREATE_ACC);
             stmt.setString(1, customerAccount.getCustomerName());
             stmt.setBigDecimal(2, customerAccount.getBalance());
-            stmt.setString(3, customerAccount.getCurrencyCode());
+            stmt.setShort(3, customerAccount.getCurrencyId());
             int affectedRows = stmt.executeUpdate();
             if (affectedRows == 0) {
                 log.error("createCustomerAccount(): Creating CustomerAccount failed, no rows affected.");
@@ -107,7 +254,11 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
             }
             generatedKeys = stmt.getGeneratedKeys();
             if (generatedKeys.next()) {
-                return generatedKeys.getLong(1);
+                long accountId = generatedKeys.getLong(1);
+                // prime the cache for the read that usually follows a create
+                committed(new CustomerAccount(accountId, customerAccount.getCustomerName(),
+                        customerAccount.getBalanceUnits(), customerAccount.getCurrencyId()));
+                return accountId;
             } else {
                 log.error("Creating CustomerAccount failed, no ID obtained.");
                 throw new BaseException("CustomerAccount Cannot be created");
@@ -126,82 +277,169 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
     public int deleteCustomerAccountById(Long AccountId) throws BaseException {
         Connection conn = null;
         PreparedStatement stmt = null;
+        // serialize with balance updates so a concurrent update cannot re-cache the deleted account
+        AccountLockManager.Locks accountLocks = lockManager.lock(AccountId);
         try {
-            conn = H2DAOFactory.getConnection();
+            conn = connectionProvider.getConnection();
             stmt = conn.prepareStatement(SQL_DELETE_ACC_BY_ID);
             stmt.setLong(1, AccountId);
-            return stmt.executeUpdate();
+            int deleteCount = stmt.executeUpdate();
+            deleted(AccountId);
+            return deleteCount;
         } catch (SQLException e) {
             throw new BaseException("deleteCustomerAccountById(): Error deleting user CustomerAccount Id " + AccountId, e);
         } finally {
             DbUtils.closeQuietly(conn);
             DbUtils.closeQuietly(stmt);
+            accountLocks.release();
         }
     }
 
     /**
      * Update CustomerAccount balance
      */
-    public int updateCustomerAccountBalance(Long AccountId, BigDecimal deltaAmount) throws BaseException {
+    public int updateCustomerAccountBalance(Long AccountId, long deltaUnits) throws BaseException {
+        updateAndGetCustomerAccount(AccountId, deltaUnits);
+        return 1;
+    }
+
+    /**
+     * Apply a signed balance change with one conditional UPDATE that only matches while the new balance stays
+     * within 0 and the fixed-point range, and return the updated CustomerAccount.
+     * Under the account lock a cached account is the committed state, so a cache hit needs no other statement and
+     * refuses an insufficient fund or overflow without touching the database; a miss reads the new row once.
+     */
+    public CustomerAccount updateAndGetCustomerAccount(Long AccountId, long deltaUnits) throws BaseException {
         Connection conn = null;
-        PreparedStatement lockStmt = null;
-        PreparedStatement updateStmt = null;
-        ResultSet rs = null;
-        CustomerAccount targetCustomerAccount = null;
-        int updateCount = -1;
+        PreparedStatement stmt = null;
+        // settle contention in the JVM before holding a connection
+        AccountLockManager.Locks accountLocks = lockManager.lock(AccountId);
         try {
-            conn = H2DAOFactory.getConnection();
-            conn.setAutoCommit(false);
-            // lock CustomerAccount for writing:
-            lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
-            lockStmt.setLong(1, AccountId);
-            rs = lockStmt.executeQuery();
-            if (rs.next()) {
-                targetCustomerAccount = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
-                        rs.getBigDecimal("Balance"), rs.getString("CurrencyCode"));
-                if (log.isDebugEnabled())
-                    log.debug("updateCustomerAccountBalance from CustomerAccount: " + targetCustomerAccount);
-            }
-
-            if (targetCustomerAccount == null) {
-                throw new BaseException("updateCustomerAccountBalance(): fail to lock CustomerAccount : " + AccountId);
+            CustomerAccount targetCustomerAccount = accountCache.peek(AccountId);
+            if (targetCustomerAccount != null) {
+                checkBalance(AccountId, addUnits(targetCustomerAccount.getBalanceUnits(), deltaUnits));
             }
-            /* update CustomerAccount upon success locking */
-            BigDecimal balance = targetCustomerAccount.getBalance().add(deltaAmount);
-            if (balance.compareTo(MoneyUtils.zeroAmount) < 0) {
-                throw new BaseException("Not sufficient Fund for CustomerAccount: " + AccountId);
+            conn = connectionProvider.getConnection();
+            stmt = conn.prepareStatement(SQL_ADD_ACC_BALANCE);
+            BigDecimal delta = Money.toBigDecimal(deltaUnits);
+            stmt.setBigDecimal(1, delta);
+            stmt.setLong(2, AccountId);
+            stmt.setBigDecimal(3, delta);
+            stmt.setBigDecimal(4, MAX_BALANCE);
+            int updateCount = stmt.executeUpdate();
+            if (updateCount == 1 && targetCustomerAccount != null) {
+                targetCustomerAccount.setBalanceUnits(targetCustomerAccount.getBalanceUnits() + deltaUnits);
+            } else {
+                targetCustomerAccount = readCustomerAccount(conn, AccountId);
+                if (targetCustomerAccount == null) {
+                    deleted(AccountId);
+                    throw new BaseException("updateCustomerAccountBalance(): fail to lock CustomerAccount : " + AccountId);
+                }
+                if (updateCount == 0) {
+                    // the row refused the change, tell why
+                    committed(targetCustomerAccount);
+                    checkBalance(AccountId, addUnits(targetCustomerAccount.getBalanceUnits(), deltaUnits));
+                    throw new BaseException("updateCustomerAccountBalance(): CustomerAccount " + AccountId
+                            + " changed outside the DAO");
+                }
             }
-
-            updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
-            updateStmt.setBigDecimal(1, balance);
-            updateStmt.setLong(2, AccountId);
-            updateCount = updateStmt.executeUpdate();
-            conn.commit();
+            committed(targetCustomerAccount);
             if (log.isDebugEnabled())
                 log.debug("New Balance after Update: " + targetCustomerAccount);
-            return updateCount;
+            return targetCustomerAccount;
         } catch (SQLException se) {
-            // rollback CustomerTransaction if exception occurs
-            log.error("updateCustomerAccountBalance(): User CustomerTransaction Failed, rollback initiated for: " + AccountId, se);
-            try {
-                if (conn != null)
-                    conn.rollback();
-            } catch (SQLException re) {
-                throw new BaseException("Fail to rollback CustomerTransaction", re);
-            }
+            log.error("updateCustomerAccountBalance(): User CustomerTransaction Failed for: " + AccountId, se);
+            throw new BaseException("updateCustomerAccountBalance(): Error updating CustomerAccount " + AccountId, se);
         } finally {
+            DbUtils.closeQuietly(stmt);
             DbUtils.closeQuietly(conn);
+            accountLocks.release();
+        }
+    }
+
+    /**
+     * Publish the committed state of an account to the cache and the read model, before its lock is released.
+     */
+    void committed(CustomerAccount account) {
+        accountCache.update(account);
+        readModel.apply(account);
+    }
+
+    private void deleted(long accountId) {
+        accountCache.invalidate(accountId);
+        readModel.remove(accountId);
+    }
+
+    private static CustomerAccount readCustomerAccount(Connection conn, long accountId) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(SQL_GET_ACC_BY_ID);
+            stmt.setLong(1, accountId);
+            rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            return new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
+                    Money.fromBigDecimal(rs.getBigDecimal("Balance")), rs.getShort("CurrencyId"));
+        } finally {
             DbUtils.closeQuietly(rs);
-            DbUtils.closeQuietly(lockStmt);
-            DbUtils.closeQuietly(updateStmt);
+            DbUtils.closeQuietly(stmt);
+        }
+    }
+
+    private static void checkBalance(Long accountId, long balanceUnits) throws BaseException {
+        if (balanceUnits < Money.ZERO) {
+            throw new BaseException("Not sufficient Fund for CustomerAccount: " + accountId);
         }
-        return updateCount;
     }
 
     /**
      * Transfer balance between two CustomerAccounts.
+     * Lock timeouts and deadlocks are retried with jittered backoff up to the configured number of attempts.
      */
     public int transferCustomerAccountBalance(CustomerTransaction customerTransaction) throws BaseException {
+        if (customerTransaction.getFromAccountId().equals(customerTransaction.getToAccountId())) {
+            throw new BaseException("Fail to transfer Fund, the source and destination CustomerAccount are the same");
+        }
+        // settle contention in the JVM before holding a connection
+        AccountLockManager.Locks accountLocks = lockManager.lock(customerTransaction.getFromAccountId(),
+                customerTransaction.getToAccountId());
+        int result;
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    result = doTransferCustomerAccountBalance(customerTransaction);
+                    break;
+                } catch (SQLException se) {
+                    if (attempt < transferRetryPolicy.getMaxAttempts() && transferRetryPolicy.isRetryable(se)) {
+                        log.warn("transferCustomerAccountBalance(): lock conflict on attempt " + attempt + ", retrying: "
+                                + customerTransaction);
+                        if (transferRetryPolicy.backoff(attempt)) {
+                            continue;
+                        }
+                    }
+                    log.error("transferCustomerAccountBalance(): User CustomerTransaction Failed after " + attempt
+                            + " attempt(s): " + customerTransaction, se);
+                    return -1;
+                }
+            }
+        } finally {
+            accountLocks.release();
+        }
+        if (!journalInTransaction) {
+            // journaled outside the account locks, the transfer stands even if the journal fails
+            transactionJournal.awaitCommitted(transactionJournal.recordCommitted(
+                    Collections.singletonList(customerTransaction)));
+        }
+        return result;
+    }
+
+    /**
+     * Lock both CustomerAccounts with a single statement in ascending AccountId order, so that opposite
+     * transfers between the same pair always queue on the same row first instead of deadlocking.
+     */
+    private int doTransferCustomerAccountBalance(CustomerTransaction customerTransaction) throws BaseException, SQLException {
         int result = -1;
         Connection conn = null;
         PreparedStatement lockStmt = null;
@@ -209,29 +447,29 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
         ResultSet rs = null;
         CustomerAccount fromCustomerAccount = null;
         CustomerAccount toCustomerAccount = null;
+        long fromAccountId = customerTransaction.getFromAccountId();
+        long toAccountId = customerTransaction.getToAccountId();
 
         try {
-            conn = H2DAOFactory.getConnection();
+            conn = connectionProvider.getConnection();
             conn.setAutoCommit(false);
             // lock the credit and debit CustomerAccount for writing:
-            lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
-            lockStmt.setLong(1, customerTransaction.getFromAccountId());
+            lockStmt = conn.prepareStatement(SQL_LOCK_ACC_PAIR);
+            lockStmt.setLong(1, Math.min(fromAccountId, toAccountId));
+            lockStmt.setLong(2, Math.max(fromAccountId, toAccountId));
             rs = lockStmt.executeQuery();
-            if (rs.next()) {
-                fromCustomerAccount = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
-                        rs.getBigDecimal("Balance"), rs.getString("CurrencyCode"));
-                if (log.isDebugEnabled())
-                    log.debug("transferCustomerAccountBalance from CustomerAccount: " + fromCustomerAccount);
-            }
-            lockStmt = conn.prepareStatement(SQL_LOCK_ACC_BY_ID);
-            lockStmt.setLong(1, customerTransaction.getToAccountId());
-            rs = lockStmt.executeQuery();
-            if (rs.next()) {
-                toCustomerAccount = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"), rs.getBigDecimal("Balance"),
-                        rs.getString("CurrencyCode"));
-                if (log.isDebugEnabled())
-                    log.debug("transferCustomerAccountBalance to CustomerAccount: " + toCustomerAccount);
+            while (rs.next()) {
+                CustomerAccount acc = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
+                        Money.fromBigDecimal(rs.getBigDecimal("Balance")), rs.getShort("CurrencyId"));
+                if (acc.getAccountId() == fromAccountId) {
+                    fromCustomerAccount = acc;
+                } else {
+                    toCustomerAccount = acc;
+                }
             }
+            if (log.isDebugEnabled())
+                log.debug("transferCustomerAccountBalance from CustomerAccount: " + fromCustomerAccount
+                        + " to CustomerAccount: " + toCustomerAccount);
 
             // check locking status
             if (fromCustomerAccount == null || toCustomerAccount == null) {
@@ -239,27 +477,30 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
             }
 
             // check CustomerTransaction currency
-            if (!fromCustomerAccount.getCurrencyCode().equals(customerTransaction.getCurrencyCode())) {
+            if (fromCustomerAccount.getCurrencyId() != customerTransaction.getCurrencyId()) {
                 throw new BaseException("Fail to transfer Fund, CustomerTransaction ccy are different from source/destination");
             }
 
             // check ccy is the same for both CustomerAccounts
-            if (!fromCustomerAccount.getCurrencyCode().equals(toCustomerAccount.getCurrencyCode())) {
+            if (fromCustomerAccount.getCurrencyId() != toCustomerAccount.getCurrencyId()) {
                 throw new BaseException("Fail to transfer Fund, the source and destination CustomerAccount are in different currency");
             }
 
             // check enough fund in source CustomerAccount
-            BigDecimal fromCustomerAccountLeftOver = fromCustomerAccount.getBalance().subtract(customerTransaction.getAmount());
-            if (fromCustomerAccountLeftOver.compareTo(MoneyUtils.zeroAmount) < 0) {
+            long fromCustomerAccountLeftOver = subtractUnits(fromCustomerAccount.getBalanceUnits(), customerTransaction.getAmountUnits());
+            if (fromCustomerAccountLeftOver < Money.ZERO) {
                 throw new BaseException("Not enough Fund from source CustomerAccount ");
             }
             // proceed with update
+            long toCustomerAccountBalance = addUnits(toCustomerAccount.getBalanceUnits(), customerTransaction.getAmountUnits());
+            fromCustomerAccount.setBalanceUnits(fromCustomerAccountLeftOver);
+            toCustomerAccount.setBalanceUnits(toCustomerAccountBalance);
             updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
-            updateStmt.setBigDecimal(1, fromCustomerAccountLeftOver);
-            updateStmt.setLong(2, customerTransaction.getFromAccountId());
+            updateStmt.setBigDecimal(1, fromCustomerAccount.getBalance());
+            updateStmt.setLong(2, fromAccountId);
             updateStmt.addBatch();
-            updateStmt.setBigDecimal(1, toCustomerAccount.getBalance().add(customerTransaction.getAmount()));
-            updateStmt.setLong(2, customerTransaction.getToAccountId());
+            updateStmt.setBigDecimal(1, toCustomerAccount.getBalance());
+            updateStmt.setLong(2, toAccountId);
             updateStmt.addBatch();
             int[] rowsUpdated = updateStmt.executeBatch();
             result = rowsUpdated[0] + rowsUpdated[1];
@@ -267,24 +508,326 @@ public class CustomerAccountDAOImpl implements CustomerAccountDAO {
                 log.debug("Number of rows updated for the transfer : " + result);
             }
             // If there is no error, commit the CustomerTransaction
-            conn.commit();
+            commit(conn, Collections.singletonList(customerTransaction));
+            committed(fromCustomerAccount);
+            committed(toCustomerAccount);
+            return result;
         } catch (SQLException se) {
-            // rollback CustomerTransaction if exception occurs
-            log.error("transferCustomerAccountBalance(): User CustomerTransaction Failed, rollback initiated for: " + customerTransaction,
-                    se);
+            // rollback CustomerTransaction, the caller decides whether to retry
             try {
                 if (conn != null)
                     conn.rollback();
             } catch (SQLException re) {
                 throw new BaseException("Fail to rollback CustomerTransaction", re);
             }
+            throw se;
         } finally {
             DbUtils.closeQuietly(conn);
             DbUtils.closeQuietly(rs);
             DbUtils.closeQuietly(lockStmt);
             DbUtils.closeQuietly(updateStmt);
         }
-        return result;
+    }
+
+    /**
+     * Transfer a batch of CustomerTransactions with JDBC batched updates in chunked database transactions.
+     * In all-or-nothing mode the whole batch runs in one database transaction and the first failure rolls back
+     * every transfer; in best-effort mode each chunk commits on its own and failed transfers are skipped.
+     * A transaction holds the account lock stripes of every account it changes until it commits, so a best-effort
+     * chunk is cut short before it needs more than transfer_batch_max_stripes of them, and an all-or-nothing batch
+     * needing more is refused as a whole.
+     */
+    public List<CustomerTransactionResult> transferCustomerAccountBalanceBatch(List<CustomerTransaction> customerTransactions,
+                                                                               boolean allOrNothing) throws BaseException {
+        List<CustomerTransactionResult> results = new ArrayList<CustomerTransactionResult>(customerTransactions.size());
+        for (int i = 0; i < customerTransactions.size(); i++) {
+            results.add(new CustomerTransactionResult(i));
+        }
+        List<CompletableFuture<Void>> journaled = new ArrayList<CompletableFuture<Void>>();
+        if (allOrNothing) {
+            int stripes = lockManager.stripeCountOf(accountIdsOf(customerTransactions, 0, customerTransactions.size()));
+            if (stripes > transferBatchMaxStripes) {
+                for (CustomerTransactionResult result : results) {
+                    result.fail(CustomerTransactionResult.FAILED, "Batch needs " + stripes
+                            + " account lock stripes, at most " + transferBatchMaxStripes + " in one transaction");
+                }
+                return results;
+            }
+            journaled.add(transferBatchRange(customerTransactions, results, 0, customerTransactions.size(), true));
+        } else {
+            for (int from = 0, to; from < customerTransactions.size(); from = to) {
+                to = endOfBatchRange(customerTransactions, from);
+                journaled.add(transferBatchRange(customerTransactions, results, from, to, false));
+            }
+        }
+        for (CompletableFuture<Void> committed : journaled) {
+            transactionJournal.awaitCommitted(committed);
+        }
+        return results;
+    }
+
+    /**
+     * @return end of the best-effort range starting at from, at most the chunk size and cut before the transfer that
+     * would take it over the stripe cap; a range always holds at least one transfer
+     */
+    private static int endOfBatchRange(List<CustomerTransaction> customerTransactions, int from) {
+        Set<Integer> stripes = new HashSet<Integer>();
+        int to = from;
+        while (to < customerTransactions.size() && to - from < transferBatchChunkSize) {
+            Set<Integer> transferStripes = new HashSet<Integer>(stripes);
+            for (long accountId : accountIdsOf(customerTransactions, to, to + 1)) {
+                transferStripes.add(lockManager.stripeOf(accountId));
+            }
+            if (to > from && transferStripes.size() > transferBatchMaxStripes) {
+                break;
+            }
+            stripes = transferStripes;
+            to++;
+        }
+        return to;
+    }
+
+    /**
+     * Run one database transaction over [from, to) holding the account stripes of every transfer in the range,
+     * retrying lock conflicts like a single transfer. The completed transfers are queued for the journal once the
+     * stripes are released, unless the transaction journaled them itself.
+     * @return the journal future of the completed transfers, see CustomerTransactionJournal.recordCommitted
+     */
+    private CompletableFuture<Void> transferBatchRange(List<CustomerTransaction> customerTransactions,
+                                                       List<CustomerTransactionResult> results, int from, int to,
+                                                       boolean allOrNothing) throws BaseException {
+        AccountLockManager.Locks accountLocks = lockManager.lock(accountIdsOf(customerTransactions, from, to));
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    applyTransferBatch(customerTransactions, results, from, to, allOrNothing);
+                    break;
+                } catch (SQLException se) {
+                    if (attempt < transferRetryPolicy.getMaxAttempts() && transferRetryPolicy.isRetryable(se)) {
+                        log.warn("transferCustomerAccountBalanceBatch(): lock conflict on attempt " + attempt
+                                + ", retrying transfers " + from + " to " + (to - 1));
+                        if (transferRetryPolicy.backoff(attempt)) {
+                            continue;
+                        }
+                    }
+                    log.error("transferCustomerAccountBalanceBatch(): Batch Failed, rollback initiated for transfers "
+                            + from + " to " + (to - 1), se);
+                    for (int i = from; i < to; i++) {
+                        results.get(i).fail(CustomerTransactionResult.FAILED, "Database error, transfer not applied");
+                    }
+                    return null;
+                }
+            }
+        } finally {
+            accountLocks.release();
+        }
+        if (journalInTransaction) {
+            return null;
+        }
+        return transactionJournal.recordCommitted(completed(customerTransactions, results, from, to));
+    }
+
+    private static List<CustomerTransaction> completed(List<CustomerTransaction> customerTransactions,
+                                                       List<CustomerTransactionResult> results, int from, int to) {
+        List<CustomerTransaction> completed = new ArrayList<CustomerTransaction>(to - from);
+        for (int i = from; i < to; i++) {
+            if (CustomerTransactionResult.COMPLETED.equals(results.get(i).getStatus())) {
+                completed.add(customerTransactions.get(i));
+            }
+        }
+        return completed;
+    }
+
+    /**
+     * Commit transfers, with their journal entries when the journal is synchronous and in this database.
+     */
+    private void commit(Connection conn, List<CustomerTransaction> completed) throws SQLException {
+        if (journalInTransaction) {
+            transactionJournal.commitWith(conn, completed);
+        } else {
+            conn.commit();
+        }
+    }
+
+    private void applyTransferBatch(List<CustomerTransaction> customerTransactions, List<CustomerTransactionResult> results,
+                                    int from, int to, boolean allOrNothing) throws BaseException, SQLException {
+        Connection conn = null;
+        PreparedStatement updateStmt = null;
+        Map<Long, CustomerAccount> lockedAccounts = new HashMap<Long, CustomerAccount>();
+        Set<Long> dirtyAccountIds = new TreeSet<Long>();
+        try {
+            conn = connectionProvider.getConnection();
+            conn.setAutoCommit(false);
+            updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
+            for (int chunkStart = from; chunkStart < to; chunkStart += transferBatchChunkSize) {
+                int chunkEnd = Math.min(to, chunkStart + transferBatchChunkSize);
+                lockAccounts(conn, lockedAccounts, accountIdsOf(customerTransactions, chunkStart, chunkEnd));
+                for (int i = chunkStart; i < chunkEnd; i++) {
+                    String error = applyTransfer(lockedAccounts, dirtyAccountIds, customerTransactions.get(i));
+                    if (error == null) {
+                        results.get(i).complete();
+                    } else if (allOrNothing) {
+                        conn.rollback();
+                        for (int j = from; j < to; j++) {
+                            results.get(j).fail(CustomerTransactionResult.ROLLED_BACK, "Batch rolled back by transfer " + i);
+                        }
+                        results.get(i).fail(CustomerTransactionResult.FAILED, error);
+                        return;
+                    } else {
+                        results.get(i).fail(CustomerTransactionResult.FAILED, error);
+                    }
+                }
+                for (Long accountId : dirtyAccountIds) {
+                    updateStmt.setBigDecimal(1, lockedAccounts.get(accountId).getBalance());
+                    updateStmt.setLong(2, accountId);
+                    updateStmt.addBatch();
+                }
+                if (!dirtyAccountIds.isEmpty()) {
+                    updateStmt.executeBatch();
+                    dirtyAccountIds.clear();
+                }
+            }
+            commit(conn, completed(customerTransactions, results, from, to));
+            for (CustomerAccount account : lockedAccounts.values()) {
+                committed(account);
+            }
+        } catch (SQLException se) {
+            try {
+                if (conn != null)
+                    conn.rollback();
+            } catch (SQLException re) {
+                throw new BaseException("Fail to rollback CustomerTransaction", re);
+            }
+            throw se;
+        } finally {
+            DbUtils.closeQuietly(updateStmt);
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    /**
+     * Lock the not yet locked accounts in AccountId order and add them to lockedAccounts, with statements of the
+     * fixed IN list lengths: the last account of a statement fills its unused parameters.
+     */
+    static void lockAccounts(Connection conn, Map<Long, CustomerAccount> lockedAccounts, long[] accountIds) throws SQLException {
+        List<Long> toLock = new ArrayList<Long>(accountIds.length);
+        for (long accountId : accountIds) {
+            if (!lockedAccounts.containsKey(accountId)) {
+                toLock.add(accountId);
+            }
+        }
+        // ascending across the statements too, so concurrent lockers queue on the same row first
+        Collections.sort(toLock);
+        for (int start = 0; start < toLock.size(); ) {
+            int size = 0;
+            while (size < LOCK_IN_SIZES.length - 1 && LOCK_IN_SIZES[size] < toLock.size() - start) {
+                size++;
+            }
+            int count = Math.min(LOCK_IN_SIZES[size], toLock.size() - start);
+            PreparedStatement lockStmt = null;
+            ResultSet rs = null;
+            try {
+                lockStmt = conn.prepareStatement(SQL_LOCK_ACC_IN_BY_SIZE[size]);
+                for (int i = 0; i < LOCK_IN_SIZES[size]; i++) {
+                    lockStmt.setLong(i + 1, toLock.get(start + Math.min(i, count - 1)));
+                }
+                rs = lockStmt.executeQuery();
+                while (rs.next()) {
+                    CustomerAccount acc = new CustomerAccount(rs.getLong("AccountId"), rs.getString("CustomerName"),
+                            Money.fromBigDecimal(rs.getBigDecimal("Balance")), rs.getShort("CurrencyId"));
+                    lockedAccounts.put(acc.getAccountId(), acc);
+                }
+            } finally {
+                DbUtils.closeQuietly(rs);
+                DbUtils.closeQuietly(lockStmt);
+            }
+            start += count;
+        }
+    }
+
+    /**
+     * Apply one transfer to the locked in-memory balances.
+     * @return null on success, otherwise the reason the transfer was rejected
+     */
+    static String applyTransfer(Map<Long, CustomerAccount> lockedAccounts, Set<Long> dirtyAccountIds,
+                                        CustomerTransaction customerTransaction) {
+        if (customerTransaction == null || customerTransaction.getFromAccountId() == null
+                || customerTransaction.getToAccountId() == null) {
+            return "Invalid CustomerTransaction";
+        }
+        if (customerTransaction.getAmountUnits() <= Money.ZERO) {
+            return "Invalid transfer amount";
+        }
+        if (customerTransaction.getFromAccountId().equals(customerTransaction.getToAccountId())) {
+            return "Fail to transfer Fund, the source and destination CustomerAccount are the same";
+        }
+        CustomerAccount fromCustomerAccount = lockedAccounts.get(customerTransaction.getFromAccountId());
+        CustomerAccount toCustomerAccount = lockedAccounts.get(customerTransaction.getToAccountId());
+        if (fromCustomerAccount == null || toCustomerAccount == null) {
+            return "Fail to lock both CustomerAccounts for write";
+        }
+        if (fromCustomerAccount.getCurrencyId() != customerTransaction.getCurrencyId()) {
+            return "Fail to transfer Fund, CustomerTransaction ccy are different from source/destination";
+        }
+        if (fromCustomerAccount.getCurrencyId() != toCustomerAccount.getCurrencyId()) {
+            return "Fail to transfer Fund, the source and destination CustomerAccount are in different currency";
+        }
+        long fromCustomerAccountLeftOver = fromCustomerAccount.getBalanceUnits() - customerTransaction.getAmountUnits();
+        if (fromCustomerAccountLeftOver < Money.ZERO) {
+            return "Not enough Fund from source CustomerAccount ";
+        }
+        long toCustomerAccountBalance;
+        try {
+            toCustomerAccountBalance = Money.add(toCustomerAccount.getBalanceUnits(), customerTransaction.getAmountUnits());
+        } catch (ArithmeticException e) {
+            return "Balance overflow for destination CustomerAccount";
+        }
+        fromCustomerAccount.setBalanceUnits(fromCustomerAccountLeftOver);
+        toCustomerAccount.setBalanceUnits(toCustomerAccountBalance);
+        dirtyAccountIds.add(fromCustomerAccount.getAccountId());
+        dirtyAccountIds.add(toCustomerAccount.getAccountId());
+        return null;
+    }
+
+    /**
+     * Checked fixed-point addition surfacing overflow as a BaseException.
+     */
+    private static long addUnits(long balanceUnits, long deltaUnits) throws BaseException {
+        try {
+            return Money.add(balanceUnits, deltaUnits);
+        } catch (ArithmeticException e) {
+            throw new BaseException("Balance overflow, amount out of range", e);
+        }
+    }
+
+    private static long subtractUnits(long balanceUnits, long amountUnits) throws BaseException {
+        try {
+            return Money.subtract(balanceUnits, amountUnits);
+        } catch (ArithmeticException e) {
+            throw new BaseException("Balance overflow, amount out of range", e);
+        }
+    }
+
+    static long[] accountIdsOf(List<CustomerTransaction> customerTransactions, int from, int to) {
+        Set<Long> accountIds = new TreeSet<Long>();
+        for (int i = from; i < to; i++) {
+            CustomerTransaction customerTransaction = customerTransactions.get(i);
+            if (customerTransaction == null) {
+                continue;
+            }
+            if (customerTransaction.getFromAccountId() != null) {
+                accountIds.add(customerTransaction.getFromAccountId());
+            }
+            if (customerTransaction.getToAccountId() != null) {
+                accountIds.add(customerTransaction.getToAccountId());
+            }
+        }
+        long[] ids = new long[accountIds.size()];
+        int i = 0;
+        for (Long accountId : accountIds) {
+            ids[i++] = accountId;
+        }
+        return ids;
     }
 
 }
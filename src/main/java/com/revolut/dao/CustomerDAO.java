@@ -3,6 +3,7 @@ package com.revolut.dao;
 import com.revolut.model.Customer;
 import com.revolut.util.BaseException;
 
+import java.io.IOException;
 import java.util.List;
 
 /**
@@ -16,6 +17,10 @@ public interface CustomerDAO {
 	
 	List<Customer> getAllCustomers() throws BaseException;
 
+	List<Customer> getCustomers(long afterCustomerId, int limit) throws BaseException;
+
+	int forEachCustomer(long afterCustomerId, int limit, RowCallback<Customer> callback) throws BaseException, IOException;
+
 	Customer getCustomerById(Long customerId) throws BaseException;
 
 	Customer getCustomerByName(String customerName) throws BaseException;
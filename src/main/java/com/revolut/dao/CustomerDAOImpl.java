@@ -6,6 +6,7 @@ import com.revolut.util.BaseException;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.log4j.Logger;
 
+import java.io.IOException;
 import java.sql.*;
 import java.util.ArrayList;
 import java.util.List;
@@ -22,6 +23,7 @@ public class CustomerDAOImpl implements CustomerDAO {
     private static Logger log = Logger.getLogger(CustomerDAOImpl.class);
     private final static String SQL_GET_CUSTOMER_BY_ID = "SELECT * FROM Customer WHERE CustomerId = ? ";
     private final static String SQL_GET_ALL_CUSTOMERS = "SELECT * FROM Customer";
+    private final static String SQL_GET_CUSTOMERS_AFTER = "SELECT * FROM Customer WHERE CustomerId > ? ORDER BY CustomerId LIMIT ?";
     private final static String SQL_GET_CUSTOMER_BY_NAME = "SELECT * FROM Customer WHERE CustomerName = ? ";
     private final static String SQL_INSERT_CUSTOMER = "INSERT INTO Customer (CustomerName, EmailAddress, PhoneNumber) VALUES (?, ?, ?)";
     private final static String SQL_UPDATE_CUSTOMER = "UPDATE Customer SET CustomerName = ?, EmailAddress = ?, PhoneNumber = ? WHERE CustomerId = ? ";
@@ -53,6 +55,52 @@ public class CustomerDAOImpl implements CustomerDAO {
         }
     }
 
+    /**
+     * Get one keyset page of customers ordered by customerId
+     */
+    public List<Customer> getCustomers(long afterCustomerId, int limit) throws BaseException {
+        final List<Customer> customers = new ArrayList<Customer>(Math.min(limit, 1024));
+        try {
+            forEachCustomer(afterCustomerId, limit, new RowCallback<Customer>() {
+                public void onRow(Customer customer) {
+                    customers.add(customer);
+                }
+            });
+        } catch (IOException e) {
+            throw new BaseException("Error collecting customer data", e);
+        }
+        return customers;
+    }
+
+    /**
+     * Hand up to limit customers with a customerId above afterCustomerId to the callback in customerId order,
+     * straight from the ResultSet
+     * @return number of customers visited
+     */
+    public int forEachCustomer(long afterCustomerId, int limit, RowCallback<Customer> callback) throws BaseException, IOException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        int count = 0;
+        try {
+            conn = H2DAOFactory.getConnection();
+            stmt = conn.prepareStatement(SQL_GET_CUSTOMERS_AFTER);
+            stmt.setLong(1, afterCustomerId);
+            stmt.setInt(2, limit);
+            stmt.setFetchSize(limit);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                callback.onRow(new Customer(rs.getLong("CustomerId"), rs.getString("CustomerName"), rs.getString("EmailAddress"), rs.getString("PhoneNumber")));
+                count++;
+            }
+            return count;
+        } catch (SQLException e) {
+            throw new BaseException("Error reading customer data", e);
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
     /**
      * Find customer by customerId
      */
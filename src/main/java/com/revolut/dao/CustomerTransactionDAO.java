@@ -0,0 +1,27 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerTransactionRecord;
+import com.revolut.util.BaseException;
+
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerTransactionDAO
+ * @Package com.revolut.dao
+ * @Description: Customer Transaction history Data Access Object Interface
+ */
+public interface CustomerTransactionDAO {
+
+    /**
+     * One keyset page of the completed transfers from or to the account, in the order they were journaled, which is
+     * transactionId order, starting after the cursor of the previous page.
+     * @param from first transactionDate included, null for no lower bound
+     * @param to first transactionDate excluded, null for no upper bound
+     * @param afterTransactionId transactionId of the last record of the previous page, 0 for the first page
+     */
+    List<CustomerTransactionRecord> getCustomerTransactions(long accountId, Date from, Date to,
+                                                            long afterTransactionId, int limit) throws BaseException;
+}
@@ -0,0 +1,113 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.CustomerTransactionRecord;
+import com.revolut.util.BaseException;
+import com.revolut.util.Money;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerTransactionDAOImpl
+ * @Package com.revolut.dao
+ * @Description: Transaction history read from the CustomerTransactionJournal table, paged by TransactionId. The
+ * journal has a single writer thread committing its batches in order, so every entry becomes visible with a higher
+ * TransactionId than the entries already visible and nothing lands behind a client's cursor. The writer stamps
+ * TransactionDate too, never going backwards, so the from and to bounds become the first TransactionId stamped at
+ * or after each, found by a seek of the (TransactionDate, TransactionId) index. Each side of a transfer has its own
+ * (AccountId, TransactionId, TransactionDate) index, so a page is two index seeks to the later of the cursor and
+ * the from bound, reading limit rows each, whatever the depth of the page or the size of the table.
+ */
+public class CustomerTransactionDAOImpl implements CustomerTransactionDAO {
+
+    private static Logger log = Logger.getLogger(CustomerTransactionDAOImpl.class);
+
+    // the inner query reads only indexed columns, otherwise H2 prefers a primary key range scan from the cursor;
+    // its ORDER BY repeats the leading index column so H2 reads the index in order and stops after LIMIT rows.
+    // The date bounds are subqueries of the same statement, so they see the same snapshot as the page
+    private final static String SQL_FIRST_ID_AT = "COALESCE((SELECT TransactionId FROM CustomerTransactionJournal "
+            + "WHERE TransactionDate >= ? ORDER BY TransactionDate, TransactionId LIMIT 1), " + Long.MAX_VALUE + ")";
+    private final static String SQL_GET_TRANSACTIONS = "SELECT j.* FROM (SELECT TransactionId FROM CustomerTransactionJournal "
+            + "WHERE %1$s = ? AND TransactionId > ? AND TransactionId >= " + SQL_FIRST_ID_AT
+            + " AND TransactionId < " + SQL_FIRST_ID_AT + " ORDER BY %1$s, TransactionId LIMIT ?) k "
+            + "JOIN CustomerTransactionJournal j ON j.TransactionId = k.TransactionId ORDER BY j.TransactionId";
+    private final static String SQL_GET_TRANSACTIONS_FROM = String.format(SQL_GET_TRANSACTIONS, "FromAccountId");
+    private final static String SQL_GET_TRANSACTIONS_TO = String.format(SQL_GET_TRANSACTIONS, "ToAccountId");
+    private static final Timestamp MIN_DATE = new Timestamp(0L);
+    // 9999-12-31 23:59:59.999 UTC
+    private static final Timestamp MAX_DATE = new Timestamp(253402300799999L);
+
+    /**
+     * Merge the pages of the debit and the credit side, each already in TransactionId order.
+     */
+    public List<CustomerTransactionRecord> getCustomerTransactions(long accountId, Date from, Date to,
+                                                                   long afterTransactionId, int limit) throws BaseException {
+        Timestamp lower = from == null ? MIN_DATE : new Timestamp(from.getTime());
+        Timestamp upper = to == null ? MAX_DATE : new Timestamp(to.getTime());
+        Connection conn = null;
+        try {
+            conn = H2DAOFactory.getConnection();
+            List<CustomerTransactionRecord> debits = readPage(conn, SQL_GET_TRANSACTIONS_FROM, accountId,
+                    afterTransactionId, lower, upper, limit);
+            List<CustomerTransactionRecord> credits = readPage(conn, SQL_GET_TRANSACTIONS_TO, accountId,
+                    afterTransactionId, lower, upper, limit);
+            List<CustomerTransactionRecord> page = new ArrayList<CustomerTransactionRecord>(Math.min(limit,
+                    debits.size() + credits.size()));
+            int d = 0;
+            int c = 0;
+            while (page.size() < limit && (d < debits.size() || c < credits.size())) {
+                if (c == credits.size()
+                        || (d < debits.size() && debits.get(d).getTransactionId() < credits.get(c).getTransactionId())) {
+                    page.add(debits.get(d++));
+                } else {
+                    page.add(credits.get(c++));
+                }
+            }
+            if (log.isDebugEnabled())
+                log.debug("getCustomerTransactions(): " + page.size() + " records of CustomerAccount " + accountId);
+            return page;
+        } catch (SQLException e) {
+            throw new BaseException("getCustomerTransactions(): Error reading transaction history of CustomerAccount "
+                    + accountId, e);
+        } finally {
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    private static List<CustomerTransactionRecord> readPage(Connection conn, String sql, long accountId,
+                                                            long afterTransactionId, Timestamp lower, Timestamp upper,
+                                                            int limit) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        List<CustomerTransactionRecord> records = new ArrayList<CustomerTransactionRecord>();
+        try {
+            stmt = conn.prepareStatement(sql);
+            stmt.setLong(1, accountId);
+            stmt.setLong(2, afterTransactionId);
+            stmt.setTimestamp(3, lower);
+            stmt.setTimestamp(4, upper);
+            stmt.setInt(5, limit);
+            rs = stmt.executeQuery();
+            while (rs.next()) {
+                records.add(new CustomerTransactionRecord(rs.getLong("TransactionId"), rs.getLong("FromAccountId"),
+                        rs.getLong("ToAccountId"), Money.fromBigDecimal(rs.getBigDecimal("Amount")),
+                        rs.getShort("CurrencyId"), rs.getTimestamp("TransactionDate"), rs.getTimestamp("RequestedDate")));
+            }
+            return records;
+        } finally {
+            DbUtils.closeQuietly(rs);
+            DbUtils.closeQuietly(stmt);
+        }
+    }
+}
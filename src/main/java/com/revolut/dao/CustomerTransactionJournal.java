@@ -0,0 +1,441 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.metrics.LatencyHistogram;
+import com.revolut.metrics.MetricsRegistry;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.Money;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.sql.Timestamp;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerTransactionJournal
+ * @Package com.revolut.dao
+ * @Description: Append-only history of completed transfers in the CustomerTransactionJournal table. Transfers only
+ * enqueue their entries; one writer thread drains the queue and inserts up to batch size entries per database
+ * transaction, lingering up to the flush interval to let concurrent transfers share a commit, so a crash can lose
+ * the last queued entries. In synchronous mode transfers of the main database insert their entries in the
+ * transaction that changes the balances instead, see commitWith. Transfers of other databases still go through the
+ * writer and wait for its commit. Every journal commit stamps its TransactionDate in commit order, never earlier
+ * than the one before, so dates ascend with TransactionId.
+ */
+public class CustomerTransactionJournal {
+
+    private static Logger log = Logger.getLogger(CustomerTransactionJournal.class);
+
+    private final static String SQL_INSERT_JOURNAL = "INSERT INTO CustomerTransactionJournal "
+            + "(FromAccountId, ToAccountId, Amount, CurrencyId, TransactionDate, RequestedDate) VALUES (?, ?, ?, ?, ?, ?)";
+    private final static String SQL_GET_LAST_DATE = "SELECT MAX(TransactionDate) FROM CustomerTransactionJournal";
+
+    private static final CustomerTransactionJournal instance = new CustomerTransactionJournal(
+            Boolean.parseBoolean(CommonUtils.getStringProperty("transaction_journal_enabled", "true")),
+            CommonUtils.getIntegerProperty("transaction_journal_flush_interval_ms", 5),
+            CommonUtils.getIntegerProperty("transaction_journal_batch_size", 256),
+            CommonUtils.getIntegerProperty("transaction_journal_queue_capacity", 65536),
+            Boolean.parseBoolean(CommonUtils.getStringProperty("transaction_journal_sync", "false")));
+
+    static {
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        metrics.gauge("transaction_journal_queue_size", "Transfers waiting to be journaled", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getQueueSize();
+            }
+        });
+        metrics.counter("transaction_journal_entries_total", "Transfers written to the journal", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getWrittenCount();
+            }
+        });
+        metrics.counter("transaction_journal_failed_entries_total", "Transfers the journal failed to write", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getFailedCount();
+            }
+        });
+    }
+
+    private final boolean enabled;
+    private final long flushIntervalNanos;
+    private final int batchSize;
+    private final boolean synchronous;
+    private final BlockingQueue<Entry> queue;
+    private final LongAdder written = new LongAdder();
+    private final LongAdder failed = new LongAdder();
+    private final LatencyHistogram commitLatency = MetricsRegistry.INSTANCE.histogram(
+            "transaction_journal_commit_seconds", "Time to insert and commit one journal batch");
+    private final Thread writer;
+    private volatile boolean running = true;
+    // held from stamping entries to committing them, so TransactionId, TransactionDate and commit order agree
+    private final ReentrantLock commitOrder = new ReentrantLock();
+    // TransactionDate of the last commit, -1 until read from the table, guarded by commitOrder
+    private long lastTimestamp = -1;
+
+    public CustomerTransactionJournal(boolean enabled, int flushIntervalMs, int batchSize, int queueCapacity,
+                                      boolean synchronous) {
+        this.enabled = enabled;
+        this.flushIntervalNanos = TimeUnit.MILLISECONDS.toNanos(Math.max(0, flushIntervalMs));
+        this.batchSize = Math.max(1, batchSize);
+        this.synchronous = synchronous;
+        this.queue = new LinkedBlockingQueue<Entry>(Math.max(1, queueCapacity));
+        this.writer = new Thread(new Runnable() {
+            public void run() {
+                runWriter();
+            }
+        }, "transaction-journal-writer");
+        writer.setDaemon(true);
+        if (enabled) {
+            writer.start();
+        }
+    }
+
+    /**
+     * Shared journal for all DAO instances of this JVM.
+     */
+    public static CustomerTransactionJournal getInstance() {
+        return instance;
+    }
+
+    public boolean isSynchronous() {
+        return synchronous;
+    }
+
+    /**
+     * @return true if the transfers of the main database commit their entries with them, see commitWith
+     */
+    public boolean isJournaledWithTransfers() {
+        return enabled && synchronous;
+    }
+
+    /**
+     * Queue committed transfers for the journal, blocking only while the queue is full.
+     * @return future completed once the entries are committed in synchronous mode, null otherwise
+     */
+    public CompletableFuture<Void> record(List<CustomerTransaction> customerTransactions) throws BaseException {
+        if (!enabled || customerTransactions.isEmpty()) {
+            return null;
+        }
+        CompletableFuture<Void> committed = synchronous ? new CompletableFuture<Void>() : null;
+        for (int i = 0; i < customerTransactions.size(); i++) {
+            boolean last = i == customerTransactions.size() - 1;
+            enqueue(new Entry(customerTransactions.get(i), committed, last));
+        }
+        return committed;
+    }
+
+    public CompletableFuture<Void> record(CustomerTransaction customerTransaction) throws BaseException {
+        return record(Collections.singletonList(customerTransaction));
+    }
+
+    /**
+     * Wait for a future returned by record; a null future returns at once.
+     * @throws BaseException if the batch holding the entries failed to commit
+     */
+    public void await(CompletableFuture<Void> committed) throws BaseException {
+        if (committed == null) {
+            return;
+        }
+        try {
+            committed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BaseException("Interrupted while waiting for the transaction journal", e);
+        } catch (ExecutionException e) {
+            throw new BaseException("Transfer applied but not journaled", e.getCause());
+        }
+    }
+
+    /**
+     * In synchronous mode, insert the entries of the transfers with the transaction applying them and commit it, so
+     * the balances and the history commit or fail together; otherwise only commit. The connection must be of the
+     * main database.
+     */
+    public void commitWith(Connection conn, List<CustomerTransaction> customerTransactions) throws SQLException {
+        if (!enabled || !synchronous || customerTransactions.isEmpty()) {
+            conn.commit();
+            return;
+        }
+        PreparedStatement stmt = null;
+        commitOrder.lock();
+        try {
+            Timestamp timestamp = nextTimestamp(conn);
+            stmt = conn.prepareStatement(SQL_INSERT_JOURNAL);
+            for (CustomerTransaction customerTransaction : customerTransactions) {
+                addEntry(stmt, customerTransaction, timestamp);
+            }
+            stmt.executeBatch();
+            conn.commit();
+            written.add(customerTransactions.size());
+        } finally {
+            commitOrder.unlock();
+            DbUtils.closeQuietly(stmt);
+        }
+    }
+
+    /**
+     * Queue transfers the database has already committed, once the caller has released its account locks so a full
+     * queue never stalls other transfers of the same accounts. A failure is logged and counted rather than thrown:
+     * the transfers stand, and reporting them as failed would make a client apply them twice.
+     * @return future for awaitCommitted, null if nothing was queued or the journal is asynchronous
+     */
+    public CompletableFuture<Void> recordCommitted(List<CustomerTransaction> customerTransactions) {
+        try {
+            return record(customerTransactions);
+        } catch (BaseException e) {
+            failed.add(customerTransactions.size());
+            log.error("recordCommitted(): Transfers applied but not journaled: " + customerTransactions, e);
+            return null;
+        }
+    }
+
+    /**
+     * Wait for a future returned by recordCommitted; a failed journal batch is logged, not thrown.
+     */
+    public void awaitCommitted(CompletableFuture<Void> committed) {
+        try {
+            await(committed);
+        } catch (BaseException e) {
+            // the writer has already counted the failed entries
+            log.error("awaitCommitted(): " + e.getMessage(), e);
+        }
+    }
+
+    /**
+     * Wait until every entry queued before this call is committed or has failed.
+     */
+    public void flush() throws BaseException {
+        if (!enabled || !running) {
+            return;
+        }
+        CompletableFuture<Void> flushed = new CompletableFuture<Void>();
+        enqueue(new Entry(null, flushed, true));
+        try {
+            flushed.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BaseException("Interrupted while flushing the transaction journal", e);
+        } catch (ExecutionException e) {
+            // failed entries are already logged and counted by the writer
+        }
+    }
+
+    /**
+     * Write out the queued entries and stop the writer thread.
+     */
+    public void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        if (enabled) {
+            try {
+                writer.join();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            }
+        }
+    }
+
+    public int getQueueSize() {
+        return queue.size();
+    }
+
+    public long getWrittenCount() {
+        return written.sum();
+    }
+
+    public long getFailedCount() {
+        return failed.sum();
+    }
+
+    private void enqueue(Entry entry) throws BaseException {
+        if (!running) {
+            throw new BaseException("Transaction journal is closed");
+        }
+        try {
+            queue.put(entry);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BaseException("Interrupted while queueing for the transaction journal", e);
+        }
+    }
+
+    private void runWriter() {
+        List<Entry> batch = new ArrayList<Entry>(batchSize);
+        while (running || !queue.isEmpty()) {
+            try {
+                Entry first = queue.poll(100, TimeUnit.MILLISECONDS);
+                if (first == null) {
+                    continue;
+                }
+                batch.add(first);
+                fillBatch(batch);
+                writeBatch(batch);
+            } catch (InterruptedException e) {
+                log.warn("runWriter(): Interrupted, draining the queue before stopping");
+                running = false;
+                if (!batch.isEmpty()) {
+                    writeBatch(batch);
+                }
+            } catch (RuntimeException e) {
+                log.error("runWriter(): Unexpected failure writing the transaction journal", e);
+                fail(batch, e);
+            } finally {
+                batch.clear();
+            }
+        }
+    }
+
+    /**
+     * Take whatever is queued, then linger up to the flush interval for more until the batch is full.
+     */
+    private void fillBatch(List<Entry> batch) throws InterruptedException {
+        long deadline = System.nanoTime() + flushIntervalNanos;
+        while (batch.size() < batchSize) {
+            if (queue.drainTo(batch, batchSize - batch.size()) > 0) {
+                continue;
+            }
+            long remaining = deadline - System.nanoTime();
+            if (remaining <= 0) {
+                return;
+            }
+            Entry next = queue.poll(remaining, TimeUnit.NANOSECONDS);
+            if (next == null) {
+                return;
+            }
+            batch.add(next);
+        }
+    }
+
+    private void writeBatch(List<Entry> batch) {
+        long start = System.nanoTime();
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        Timestamp timestamp = null;
+        int entries = 0;
+        try {
+            for (Entry entry : batch) {
+                if (entry.transaction == null) {
+                    continue;
+                }
+                if (stmt == null) {
+                    // connection first, a transfer waiting in commitWith already holds one
+                    conn = H2DAOFactory.getConnection();
+                    conn.setAutoCommit(false);
+                    commitOrder.lock();
+                    timestamp = nextTimestamp(conn);
+                    stmt = conn.prepareStatement(SQL_INSERT_JOURNAL);
+                }
+                addEntry(stmt, entry.transaction, timestamp);
+                entries++;
+            }
+            // a batch of flush markers only needs no database round trip
+            if (entries > 0) {
+                stmt.executeBatch();
+                conn.commit();
+                written.add(entries);
+                commitLatency.recordSince(start);
+            }
+            for (Entry entry : batch) {
+                if (entry.last && entry.committed != null) {
+                    entry.committed.complete(null);
+                }
+            }
+        } catch (SQLException e) {
+            log.error("writeBatch(): Failed to journal " + entries + " transfers", e);
+            try {
+                if (conn != null)
+                    conn.rollback();
+            } catch (SQLException re) {
+                log.error("writeBatch(): Fail to rollback journal batch", re);
+            }
+            fail(batch, e);
+        } finally {
+            if (commitOrder.isHeldByCurrentThread()) {
+                commitOrder.unlock();
+            }
+            DbUtils.closeQuietly(stmt);
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    private static void addEntry(PreparedStatement stmt, CustomerTransaction customerTransaction, Timestamp timestamp)
+            throws SQLException {
+        stmt.setLong(1, customerTransaction.getFromAccountId());
+        stmt.setLong(2, customerTransaction.getToAccountId());
+        stmt.setBigDecimal(3, Money.toBigDecimal(customerTransaction.getAmountUnits()));
+        stmt.setShort(4, customerTransaction.getCurrencyId());
+        stmt.setTimestamp(5, timestamp);
+        Date requestedDate = customerTransaction.getTransactionDate();
+        stmt.setTimestamp(6, requestedDate == null ? null : new Timestamp(requestedDate.getTime()));
+        stmt.addBatch();
+    }
+
+    /**
+     * Current time, held back to the previous commit's if the clock went backwards, including across restarts.
+     */
+    private Timestamp nextTimestamp(Connection conn) throws SQLException {
+        if (lastTimestamp < 0) {
+            Statement stmt = null;
+            ResultSet rs = null;
+            try {
+                stmt = conn.createStatement();
+                rs = stmt.executeQuery(SQL_GET_LAST_DATE);
+                Timestamp last = rs.next() ? rs.getTimestamp(1) : null;
+                lastTimestamp = last == null ? 0 : last.getTime();
+            } finally {
+                DbUtils.closeQuietly(rs);
+                DbUtils.closeQuietly(stmt);
+            }
+        }
+        lastTimestamp = Math.max(lastTimestamp, System.currentTimeMillis());
+        return new Timestamp(lastTimestamp);
+    }
+
+    private void fail(List<Entry> batch, Exception cause) {
+        for (Entry entry : batch) {
+            if (entry.transaction != null) {
+                failed.increment();
+            }
+            if (entry.committed != null) {
+                entry.committed.completeExceptionally(cause);
+            }
+        }
+    }
+
+    /**
+     * One queued transfer; a null transaction marks a flush request.
+     */
+    private static final class Entry {
+        private final CustomerTransaction transaction;
+        private final CompletableFuture<Void> committed;
+        private final boolean last;
+
+        private Entry(CustomerTransaction transaction, CompletableFuture<Void> committed, boolean last) {
+            this.transaction = transaction;
+            this.committed = committed;
+            this.last = last;
+        }
+    }
+}
@@ -0,0 +1,396 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.metrics.MetricsRegistry;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Timestamp;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: IdempotencyStore
+ * @Package com.revolut.dao
+ * @Description: Bounded store of Idempotency-Key outcomes split into independently locked segments. The first request
+ * with a key runs, concurrent requests with the same key get a future of its outcome, so no thread waits for it, and
+ * later retries get the recorded outcome until the key expires. Only terminal outcomes are recorded, a request that
+ * applied nothing releases its key. Outcomes can also be written to H2 so they survive a restart.
+ */
+public class IdempotencyStore {
+
+    private static Logger log = Logger.getLogger(IdempotencyStore.class);
+
+    private final static String SQL_GET_KEY = "SELECT Fingerprint, Status, Message FROM IdempotencyKey "
+            + "WHERE IdempotencyKey = ? AND ExpiresAt > ?";
+    private final static String SQL_MERGE_KEY = "MERGE INTO IdempotencyKey (IdempotencyKey, Fingerprint, Status, Message, ExpiresAt) "
+            + "KEY (IdempotencyKey) VALUES (?, ?, ?, ?, ?)";
+    private final static String SQL_DELETE_EXPIRED = "DELETE FROM IdempotencyKey WHERE ExpiresAt <= ?";
+    private static final long PURGE_INTERVAL_MS = 60000;
+
+    private static final IdempotencyStore instance = new IdempotencyStore(
+            CommonUtils.getIntegerProperty("idempotency_store_max_size", 100000),
+            CommonUtils.getIntegerProperty("idempotency_store_segments", 16),
+            CommonUtils.getIntegerProperty("idempotency_key_ttl_sec", 86400),
+            CommonUtils.getIntegerProperty("idempotency_key_wait_ms", 10000),
+            Boolean.parseBoolean(CommonUtils.getStringProperty("idempotency_store_persist", "false")));
+
+    static {
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        metrics.counter("idempotency_replays_total", "Requests answered from a recorded Idempotency-Key outcome",
+                new LongSupplier() {
+                    public long getAsLong() {
+                        return instance.getReplayCount();
+                    }
+                });
+        metrics.gauge("idempotency_keys", "Idempotency keys held in memory", new LongSupplier() {
+            public long getAsLong() {
+                return instance.size();
+            }
+        });
+    }
+
+    private final Segment[] segments;
+    private final int mask;
+    private final long ttlMs;
+    private final long waitMs;
+    private final boolean persistent;
+    // gives up on waits for a running request, its tasks are removed as soon as the request finishes
+    private final ScheduledThreadPoolExecutor waitTimer;
+    private final LongAdder replays = new LongAdder();
+    private volatile long nextPurgeMs;
+
+    public IdempotencyStore(int maxSize, int segmentCount, int ttlSec, int waitMs, boolean persistent) {
+        int size = Integer.highestOneBit(Math.max(1, segmentCount - 1)) << 1;
+        this.segments = new Segment[size];
+        int capacity = Math.max(1, (maxSize + size - 1) / size);
+        for (int i = 0; i < size; i++) {
+            segments[i] = new Segment(capacity);
+        }
+        this.mask = size - 1;
+        this.ttlMs = TimeUnit.SECONDS.toMillis(ttlSec);
+        this.waitMs = Math.max(0, waitMs);
+        this.persistent = persistent;
+        this.waitTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "idempotency-key-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        this.waitTimer.setRemoveOnCancelPolicy(true);
+    }
+
+    /**
+     * Shared store for all service instances of this JVM.
+     */
+    public static IdempotencyStore getInstance() {
+        return instance;
+    }
+
+    /**
+     * Run the call at most once per key within the key's time to live. When the key is free the call runs on the
+     * calling thread; when it is held by a running call the caller gets a future of that call's outcome instead of
+     * waiting for it.
+     * @param fingerprint identifies the request body; reusing a key for a different request is rejected
+     * @return the outcome of the call, or of the earlier call with the same key marked as replayed. The future is
+     * complete on return unless the earlier call is still running. It then completes with that call's outcome or
+     * failure, or with a KeyConflictException if the call runs longer than the wait time
+     * @throws KeyConflictException if the key belongs to a different request
+     */
+    public CompletableFuture<Outcome> execute(String key, String fingerprint, Call call) throws BaseException {
+        Segment segment = segmentOf(key);
+        Entry entry;
+        boolean owner = false;
+        long now = System.currentTimeMillis();
+        synchronized (segment) {
+            segment.purge(now);
+            entry = segment.entries.get(key);
+            if (entry == null) {
+                entry = new Entry(fingerprint, now + ttlMs);
+                segment.entries.put(key, entry);
+                owner = true;
+            }
+        }
+        if (!entry.fingerprint.equals(fingerprint)) {
+            throw new KeyConflictException("Idempotency-Key " + key + " was already used for a different request");
+        }
+        if (owner) {
+            return CompletableFuture.completedFuture(runOwned(segment, key, entry, call));
+        }
+        return awaitOutcome(key, entry);
+    }
+
+    /**
+     * Future of the outcome of the running call holding the key, failed with a KeyConflictException after waitMs.
+     */
+    private CompletableFuture<Outcome> awaitOutcome(final String key, Entry entry) {
+        final CompletableFuture<Outcome> replay = new CompletableFuture<Outcome>();
+        final ScheduledFuture<?> timeout = entry.outcome.isDone() ? null : waitTimer.schedule(new Runnable() {
+            public void run() {
+                replay.completeExceptionally(new KeyConflictException("Idempotency-Key " + key
+                        + " is still being processed"));
+            }
+        }, waitMs, TimeUnit.MILLISECONDS);
+        entry.outcome.whenComplete(new BiConsumer<Outcome, Throwable>() {
+            public void accept(Outcome outcome, Throwable failure) {
+                if (timeout != null) {
+                    timeout.cancel(false);
+                }
+                if (failure != null) {
+                    replay.completeExceptionally(failure instanceof CompletionException && failure.getCause() != null
+                            ? failure.getCause() : failure);
+                } else if (replay.complete(outcome.replayed())) {
+                    replays.increment();
+                }
+            }
+        });
+        return replay;
+    }
+
+    public long getReplayCount() {
+        return replays.sum();
+    }
+
+    public int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.entries.size();
+            }
+        }
+        return size;
+    }
+
+    /**
+     * Drop every in-memory key, used when the database is reset.
+     */
+    public void clear() {
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                segment.entries.clear();
+            }
+        }
+    }
+
+    private Outcome runOwned(Segment segment, String key, Entry entry, Call call) throws BaseException {
+        Outcome outcome;
+        try {
+            Outcome persisted = persistent ? load(key, entry.fingerprint) : null;
+            if (persisted != null) {
+                replays.increment();
+                outcome = persisted.replayed();
+            } else {
+                outcome = call.run();
+                if (persistent && outcome.isTerminal()) {
+                    persist(key, entry, outcome);
+                }
+            }
+        } catch (Throwable e) {
+            // unexpected failure, release the key so a retry can run and fail the requests waiting for it
+            release(segment, key, entry);
+            entry.outcome.completeExceptionally(e);
+            throw e;
+        }
+        if (!outcome.isTerminal()) {
+            // nothing applied, the waiting requests get the same answer but a later retry runs again
+            release(segment, key, entry);
+        }
+        entry.outcome.complete(outcome);
+        return outcome;
+    }
+
+    private void release(Segment segment, String key, Entry entry) {
+        synchronized (segment) {
+            segment.entries.remove(key, entry);
+        }
+    }
+
+    private Outcome load(String key, String fingerprint) throws BaseException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = H2DAOFactory.getConnection();
+            stmt = conn.prepareStatement(SQL_GET_KEY);
+            stmt.setString(1, key);
+            stmt.setTimestamp(2, new Timestamp(System.currentTimeMillis()));
+            rs = stmt.executeQuery();
+            if (!rs.next()) {
+                return null;
+            }
+            if (!fingerprint.equals(rs.getString("Fingerprint"))) {
+                throw new KeyConflictException("Idempotency-Key " + key + " was already used for a different request");
+            }
+            return new Outcome(rs.getInt("Status"), rs.getString("Message"));
+        } catch (SQLException e) {
+            throw new BaseException("load(): Error reading Idempotency-Key " + key, e);
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    private void persist(String key, Entry entry, Outcome outcome) {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        try {
+            conn = H2DAOFactory.getConnection();
+            stmt = conn.prepareStatement(SQL_MERGE_KEY);
+            stmt.setString(1, key);
+            stmt.setString(2, entry.fingerprint);
+            stmt.setInt(3, outcome.getStatus());
+            stmt.setString(4, outcome.getMessage());
+            stmt.setTimestamp(5, new Timestamp(entry.expiresAtMs));
+            stmt.executeUpdate();
+            long now = System.currentTimeMillis();
+            if (now >= nextPurgeMs) {
+                nextPurgeMs = now + PURGE_INTERVAL_MS;
+                DbUtils.closeQuietly(stmt);
+                stmt = conn.prepareStatement(SQL_DELETE_EXPIRED);
+                stmt.setTimestamp(1, new Timestamp(now));
+                stmt.executeUpdate();
+            }
+        } catch (SQLException e) {
+            // the outcome is still held in memory, only a restart could lose it
+            log.error("persist(): Error writing Idempotency-Key " + key, e);
+        } finally {
+            DbUtils.closeQuietly(stmt);
+            DbUtils.closeQuietly(conn);
+        }
+    }
+
+    private Segment segmentOf(String key) {
+        int h = key.hashCode() * 0x9E3779B9;
+        return segments[(h ^ (h >>> 16)) & mask];
+    }
+
+    /**
+     * The request executed under a key.
+     */
+    public interface Call {
+        Outcome run() throws BaseException;
+    }
+
+    /**
+     * Status and message of a completed request, enough to answer a retry the same way.
+     */
+    public static final class Outcome {
+        private final int status;
+        private final String message;
+        private final boolean terminal;
+        private final boolean replayed;
+
+        public Outcome(int status, String message) {
+            this(status, message, true, false);
+        }
+
+        private Outcome(int status, String message, boolean terminal, boolean replayed) {
+            this.status = status;
+            this.message = message;
+            this.terminal = terminal;
+            this.replayed = replayed;
+        }
+
+        /**
+         * Outcome of a request that applied nothing and may succeed when retried: it answers this request only and
+         * releases the key.
+         */
+        public static Outcome retryable(int status, String message) {
+            return new Outcome(status, message, false, false);
+        }
+
+        public int getStatus() {
+            return status;
+        }
+
+        public String getMessage() {
+            return message;
+        }
+
+        /**
+         * @return true if this outcome is recorded and answers every retry with the same key
+         */
+        public boolean isTerminal() {
+            return terminal;
+        }
+
+        /**
+         * @return true if this outcome was recorded by an earlier request with the same key
+         */
+        public boolean isReplayed() {
+            return replayed;
+        }
+
+        private Outcome replayed() {
+            return new Outcome(status, message, terminal, true);
+        }
+    }
+
+    /**
+     * The key is held by a different request or by a request that has not finished in time.
+     */
+    public static class KeyConflictException extends BaseException {
+        private static final long serialVersionUID = 1L;
+
+        public KeyConflictException(String msg) {
+            super(msg);
+        }
+    }
+
+    private static final class Entry {
+        private final String fingerprint;
+        private final long expiresAtMs;
+        // completed with the owner's outcome, terminal or not, or with its failure
+        private final CompletableFuture<Outcome> outcome = new CompletableFuture<Outcome>();
+
+        private Entry(String fingerprint, long expiresAtMs) {
+            this.fingerprint = fingerprint;
+            this.expiresAtMs = expiresAtMs;
+        }
+    }
+
+    private static final class Segment {
+        private final int capacity;
+        // insertion order is expiry order, since every key lives for the same ttl
+        private final LinkedHashMap<String, Entry> entries = new LinkedHashMap<String, Entry>();
+
+        private Segment(int capacity) {
+            this.capacity = capacity;
+        }
+
+        /**
+         * Drop expired keys, then the oldest completed keys while over capacity; running requests are never evicted.
+         */
+        private void purge(long now) {
+            Iterator<Map.Entry<String, Entry>> it = entries.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                boolean expired = entry.expiresAtMs <= now && entry.outcome.isDone();
+                if (!expired && entries.size() < capacity) {
+                    return;
+                }
+                if (entry.outcome.isDone()) {
+                    it.remove();
+                }
+            }
+        }
+    }
+}
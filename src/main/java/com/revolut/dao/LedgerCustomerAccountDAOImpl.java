@@ -0,0 +1,124 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
+import com.revolut.util.BaseException;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LedgerCustomerAccountDAOImpl
+ * @Package com.revolut.dao
+ * @Description: Customer Account Data Access Object backed by the in-memory single-writer ledger
+ */
+public class LedgerCustomerAccountDAOImpl implements CustomerAccountDAO {
+
+    private static final CustomerTransactionJournal transactionJournal = CustomerTransactionJournal.getInstance();
+
+    private final LedgerEngine ledgerEngine;
+
+    public LedgerCustomerAccountDAOImpl(LedgerEngine ledgerEngine) {
+        this.ledgerEngine = ledgerEngine;
+    }
+
+    /**
+     * Get all CustomerAccounts.
+     */
+    public List<CustomerAccount> getAllCustomerAccounts() throws BaseException {
+        return ledgerEngine.getAllAccounts();
+    }
+
+    /**
+     * Get one keyset page of CustomerAccounts ordered by AccountId
+     */
+    public List<CustomerAccount> getCustomerAccounts(long afterAccountId, int limit) throws BaseException {
+        return ledgerEngine.getAccounts(afterAccountId, limit);
+    }
+
+    /**
+     * Hand one keyset page of CustomerAccounts to the callback
+     */
+    public int forEachCustomerAccount(long afterAccountId, int limit, RowCallback<CustomerAccount> callback)
+            throws BaseException, IOException {
+        List<CustomerAccount> page = ledgerEngine.getAccounts(afterAccountId, limit);
+        for (CustomerAccount customerAccount : page) {
+            callback.onRow(customerAccount);
+        }
+        return page.size();
+    }
+
+    /**
+     * Get CustomerAccount by AccountId
+     */
+    public CustomerAccount getCustomerAccountById(Long accountId) throws BaseException {
+        return ledgerEngine.getAccount(accountId);
+    }
+
+    /**
+     * The ledger already serves reads from memory without waiting for writers
+     */
+    public CustomerAccount getCustomerAccountSnapshot(Long accountId) throws BaseException {
+        return ledgerEngine.getAccount(accountId);
+    }
+
+    /**
+     * Create CustomerAccount
+     */
+    public long createCustomerAccount(CustomerAccount customerAccount) throws BaseException {
+        return ledgerEngine.createAccount(customerAccount);
+    }
+
+    /**
+     * Delete CustomerAccount by AccountId
+     */
+    public int deleteCustomerAccountById(Long accountId) throws BaseException {
+        return ledgerEngine.deleteAccount(accountId);
+    }
+
+    /**
+     * Update CustomerAccount balance
+     */
+    public int updateCustomerAccountBalance(Long accountId, long deltaUnits) throws BaseException {
+        return ledgerEngine.updateBalance(accountId, deltaUnits);
+    }
+
+    /**
+     * Update CustomerAccount balance and read it back; a later command may already be applied to the copy read.
+     */
+    public CustomerAccount updateAndGetCustomerAccount(Long accountId, long deltaUnits) throws BaseException {
+        ledgerEngine.updateBalance(accountId, deltaUnits);
+        return ledgerEngine.getAccount(accountId);
+    }
+
+    /**
+     * Transfer balance between two CustomerAccounts, journaled in H2 for the transaction history.
+     */
+    public int transferCustomerAccountBalance(CustomerTransaction customerTransaction) throws BaseException {
+        int result = ledgerEngine.transfer(customerTransaction);
+        transactionJournal.awaitCommitted(transactionJournal.recordCommitted(
+                Collections.singletonList(customerTransaction)));
+        return result;
+    }
+
+    /**
+     * Transfer a batch of CustomerTransactions as one sequencer command.
+     */
+    public List<CustomerTransactionResult> transferCustomerAccountBalanceBatch(List<CustomerTransaction> customerTransactions,
+                                                                               boolean allOrNothing) throws BaseException {
+        List<CustomerTransactionResult> results = ledgerEngine.transferBatch(customerTransactions, allOrNothing);
+        List<CustomerTransaction> completed = new ArrayList<CustomerTransaction>(customerTransactions.size());
+        for (int i = 0; i < results.size(); i++) {
+            if (CustomerTransactionResult.COMPLETED.equals(results.get(i).getStatus())) {
+                completed.add(customerTransactions.get(i));
+            }
+        }
+        transactionJournal.awaitCommitted(transactionJournal.recordCommitted(completed));
+        return results;
+    }
+}
@@ -0,0 +1,636 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
+import com.revolut.util.BaseException;
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.Money;
+import org.apache.log4j.Logger;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LedgerEngine
+ * @Package com.revolut.dao
+ * @Description: In-memory single-writer ledger. Every mutation is published to a ring buffer and applied by one
+ * sequencer thread, which appends the resulting state change to a journal file and group-flushes it before
+ * acknowledging the batch. Reads are served lock-free from the last flushed snapshot. A command that fails before
+ * journaling anything fails alone, and callers wait at most commandTimeoutMs for the sequencer.
+ */
+public class LedgerEngine {
+
+    private static Logger log = Logger.getLogger(LedgerEngine.class);
+
+    // balances are journaled as fixed-point units
+    private static final byte EVENT_CREATE = 'c';
+    private static final byte EVENT_BALANCE = 'b';
+    private static final byte EVENT_TRANSFER = 't';
+    private static final byte EVENT_DELETE = 'D';
+    private static final int MAX_BATCH_SIZE = 256;
+    private static final int SPIN_TRIES = 1000;
+
+    private final File journalFile;
+    private final boolean fsync;
+    private final long commandTimeoutMs;
+    private final LedgerRingBuffer<Command> ringBuffer;
+
+    // sequencer-owned state
+    private final Map<Long, CustomerAccount> accounts = new HashMap<Long, CustomerAccount>();
+    private final Set<String> accountKeys = new HashSet<String>();
+    private final List<Command> batch = new ArrayList<Command>();
+    private final Map<Long, CustomerAccount> pendingSnapshots = new HashMap<Long, CustomerAccount>();
+    private long nextAccountId = 1;
+    private long replayedEvents;
+    private FileOutputStream journalFileStream;
+    private DataOutputStream journal;
+
+    // published state, read by any thread
+    // ordered by AccountId so keyset pages are a tail view, not a sorted copy
+    private final ConcurrentSkipListMap<Long, CustomerAccount> snapshots = new ConcurrentSkipListMap<Long, CustomerAccount>();
+    private volatile boolean running;
+    private volatile Throwable failure;
+    private Thread sequencer;
+
+    public LedgerEngine(File journalFile, int ringBufferSize, boolean fsync, long commandTimeoutMs) {
+        this.journalFile = journalFile;
+        this.fsync = fsync;
+        this.commandTimeoutMs = commandTimeoutMs;
+        this.ringBuffer = new LedgerRingBuffer<Command>(ringBufferSize);
+    }
+
+    /**
+     * Rebuild state from the journal and start the sequencer thread.
+     */
+    public synchronized void start() throws IOException {
+        if (running) {
+            return;
+        }
+        replayJournal();
+        openJournal(true);
+        snapshots.putAll(accounts);
+        running = true;
+        sequencer = new Thread(new Runnable() {
+            public void run() {
+                runSequencer();
+            }
+        }, "ledger-sequencer");
+        sequencer.setDaemon(true);
+        sequencer.start();
+        log.info("start(): Ledger started with " + accounts.size() + " accounts from journal " + journalFile);
+    }
+
+    /**
+     * Drain outstanding commands, flush the journal and stop the sequencer.
+     */
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        try {
+            sequencer.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+        closeJournal();
+    }
+
+    /**
+     * @return number of journal events start() replayed, 0 for a new or empty journal
+     */
+    public synchronized long getReplayedEvents() {
+        return replayedEvents;
+    }
+
+    public CustomerAccount getAccount(long accountId) {
+        return snapshots.get(accountId);
+    }
+
+    public List<CustomerAccount> getAllAccounts() {
+        return new ArrayList<CustomerAccount>(snapshots.values());
+    }
+
+    /**
+     * Up to limit accounts with an id above afterAccountId, in id order.
+     */
+    public List<CustomerAccount> getAccounts(long afterAccountId, int limit) {
+        List<CustomerAccount> page = new ArrayList<CustomerAccount>(Math.min(limit, 1024));
+        for (CustomerAccount account : snapshots.tailMap(afterAccountId, false).values()) {
+            if (page.size() == limit) {
+                break;
+            }
+            page.add(account);
+        }
+        return page;
+    }
+
+    public long createAccount(CustomerAccount customerAccount) throws BaseException {
+        Command command = new Command(CommandType.CREATE);
+        command.account = customerAccount;
+        return (Long) submit(command);
+    }
+
+    public int deleteAccount(long accountId) throws BaseException {
+        Command command = new Command(CommandType.DELETE);
+        command.accountId = accountId;
+        return (Integer) submit(command);
+    }
+
+    public int updateBalance(long accountId, long deltaUnits) throws BaseException {
+        Command command = new Command(CommandType.UPDATE_BALANCE);
+        command.accountId = accountId;
+        command.amountUnits = deltaUnits;
+        return (Integer) submit(command);
+    }
+
+    public int transfer(CustomerTransaction customerTransaction) throws BaseException {
+        Command command = new Command(CommandType.TRANSFER);
+        command.transaction = customerTransaction;
+        return (Integer) submit(command);
+    }
+
+    @SuppressWarnings("unchecked")
+    public List<CustomerTransactionResult> transferBatch(List<CustomerTransaction> customerTransactions,
+                                                         boolean allOrNothing) throws BaseException {
+        Command command = new Command(CommandType.TRANSFER_BATCH);
+        command.transactions = customerTransactions;
+        command.allOrNothing = allOrNothing;
+        return (List<CustomerTransactionResult>) submit(command);
+    }
+
+    /**
+     * Discard all state, truncate the journal and load the given accounts keeping their ids.
+     */
+    public void reset(List<CustomerAccount> seedAccounts) throws BaseException {
+        Command command = new Command(CommandType.RESET);
+        command.seedAccounts = seedAccounts;
+        submit(command);
+    }
+
+    private Object submit(Command command) throws BaseException {
+        if (!running) {
+            throw new BaseException("Ledger is not running");
+        }
+        if (failure != null) {
+            throw new BaseException("Ledger halted after journal failure", failure);
+        }
+        ringBuffer.publish(command);
+        try {
+            return command.result.get(commandTimeoutMs, TimeUnit.MILLISECONDS);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new BaseException("Interrupted while waiting for ledger", e);
+        } catch (TimeoutException e) {
+            // the command stays queued and may still be applied
+            throw new BaseException("Timed out after " + commandTimeoutMs + "ms waiting for ledger", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof BaseException) {
+                throw (BaseException) e.getCause();
+            }
+            throw new BaseException("Ledger command failed", e.getCause());
+        }
+    }
+
+    private void runSequencer() {
+        int idleSpins = 0;
+        try {
+            while (running || !ringBuffer.isEmpty()) {
+                Command command = ringBuffer.poll();
+                if (command == null) {
+                    if (!batch.isEmpty()) {
+                        endOfBatch();
+                    } else if (++idleSpins > SPIN_TRIES) {
+                        LockSupport.parkNanos(50000L);
+                    } else {
+                        Thread.yield();
+                    }
+                    continue;
+                }
+                idleSpins = 0;
+                execute(command);
+                batch.add(command);
+                if (batch.size() >= MAX_BATCH_SIZE) {
+                    endOfBatch();
+                }
+            }
+            if (!batch.isEmpty()) {
+                endOfBatch();
+            }
+        } catch (Throwable e) {
+            // an Error escaped a command, fail what was taken so far and let later submits fail fast
+            log.error("runSequencer(): Ledger sequencer died, halting ledger", e);
+            failure = e;
+            endOfBatch();
+        }
+    }
+
+    private void execute(Command command) {
+        if (failure != null) {
+            command.error = new BaseException("Ledger halted after journal failure", failure);
+            return;
+        }
+        DataOutputStream journaled = journal;
+        int journaledSize = journal.size();
+        try {
+            switch (command.type) {
+                case CREATE:
+                    command.value = applyCreate(command.account);
+                    break;
+                case DELETE:
+                    command.value = applyDelete(command.accountId);
+                    break;
+                case UPDATE_BALANCE:
+                    command.value = applyUpdateBalance(command.accountId, command.amountUnits);
+                    break;
+                case TRANSFER:
+                    command.value = applyTransfer(command.transaction);
+                    break;
+                case TRANSFER_BATCH:
+                    command.value = applyTransferBatch(command.transactions, command.allOrNothing);
+                    break;
+                case RESET:
+                    applyReset(command.seedAccounts);
+                    command.value = Boolean.TRUE;
+                    break;
+            }
+        } catch (BaseException e) {
+            command.error = e;
+        } catch (IOException e) {
+            log.error("execute(): Journal write failed, halting ledger", e);
+            failure = e;
+            command.error = new BaseException("Ledger journal write failed", e);
+        } catch (RuntimeException e) {
+            if (journal != journaled || journal.size() != journaledSize) {
+                // part of an event may be in the journal, stop before anything is appended after it
+                log.error("execute(): " + command.type + " failed after writing to the journal, halting ledger", e);
+                failure = e;
+            } else {
+                log.error("execute(): " + command.type + " failed", e);
+            }
+            command.error = new BaseException("Ledger command failed", e);
+        }
+    }
+
+    /**
+     * Flush the journal once for the whole batch, then publish the new snapshots and acknowledge the callers.
+     */
+    private void endOfBatch() {
+        if (failure == null) {
+            try {
+                journal.flush();
+                if (fsync) {
+                    journalFileStream.getFD().sync();
+                }
+            } catch (IOException e) {
+                log.error("endOfBatch(): Journal flush failed, halting ledger", e);
+                failure = e;
+            }
+        }
+        if (failure == null) {
+            for (Map.Entry<Long, CustomerAccount> entry : pendingSnapshots.entrySet()) {
+                if (entry.getValue() == null) {
+                    snapshots.remove(entry.getKey());
+                } else {
+                    snapshots.put(entry.getKey(), entry.getValue());
+                }
+            }
+        }
+        pendingSnapshots.clear();
+        for (Command command : batch) {
+            if (failure != null && command.error == null) {
+                command.result.completeExceptionally(new BaseException("Ledger journal write failed", failure));
+            } else if (command.error != null) {
+                command.result.completeExceptionally(command.error);
+            } else {
+                command.result.complete(command.value);
+            }
+        }
+        batch.clear();
+    }
+
+    private long applyCreate(CustomerAccount customerAccount) throws BaseException, IOException {
+        if (customerAccount == null || customerAccount.getCustomerName() == null) {
+            throw new BaseException("createCustomerAccount(): CustomerName is required");
+        }
+        String key = accountKey(customerAccount.getCustomerName(), customerAccount.getCurrencyId());
+        if (customerAccount.getCurrencyId() == CurrencyRegistry.UNKNOWN || !accountKeys.add(key)) {
+            throw new BaseException("createCustomerAccount(): Error creating user CustomerAccount " + customerAccount);
+        }
+        long accountId = nextAccountId++;
+        CustomerAccount created = new CustomerAccount(accountId, customerAccount.getCustomerName(),
+                customerAccount.getBalanceUnits(), customerAccount.getCurrencyId());
+        journal.writeByte(EVENT_CREATE);
+        writeAccount(created);
+        putAccount(created);
+        return accountId;
+    }
+
+    private int applyDelete(long accountId) throws IOException {
+        CustomerAccount removed = accounts.remove(accountId);
+        if (removed == null) {
+            return 0;
+        }
+        accountKeys.remove(accountKey(removed.getCustomerName(), removed.getCurrencyId()));
+        journal.writeByte(EVENT_DELETE);
+        journal.writeLong(accountId);
+        pendingSnapshots.put(accountId, null);
+        return 1;
+    }
+
+    private int applyUpdateBalance(long accountId, long deltaUnits) throws BaseException, IOException {
+        CustomerAccount account = accounts.get(accountId);
+        if (account == null) {
+            throw new BaseException("updateCustomerAccountBalance(): fail to lock CustomerAccount : " + accountId);
+        }
+        long balance = checkedUnits(account.getBalanceUnits(), deltaUnits);
+        if (balance < Money.ZERO) {
+            throw new BaseException("Not sufficient Fund for CustomerAccount: " + accountId);
+        }
+        journal.writeByte(EVENT_BALANCE);
+        journal.writeLong(accountId);
+        journal.writeLong(balance);
+        putAccount(withBalance(account, balance));
+        return 1;
+    }
+
+    private int applyTransfer(CustomerTransaction customerTransaction) throws BaseException, IOException {
+        if (customerTransaction == null) {
+            throw new BaseException("Invalid CustomerTransaction");
+        }
+        CustomerAccount from = accounts.get(customerTransaction.getFromAccountId());
+        CustomerAccount to = accounts.get(customerTransaction.getToAccountId());
+        long[] balances = checkTransfer(from, to, customerTransaction);
+        journal.writeByte(EVENT_TRANSFER);
+        journal.writeLong(from.getAccountId());
+        journal.writeLong(balances[0]);
+        journal.writeLong(to.getAccountId());
+        journal.writeLong(balances[1]);
+        putAccount(withBalance(from, balances[0]));
+        putAccount(withBalance(to, balances[1]));
+        return 2;
+    }
+
+    /**
+     * Apply a batch of transfers in order. In all-or-nothing mode the batch is first dry-run against an overlay of
+     * the current balances, so nothing is journaled unless every transfer succeeds.
+     */
+    private List<CustomerTransactionResult> applyTransferBatch(List<CustomerTransaction> customerTransactions,
+                                                               boolean allOrNothing) throws IOException {
+        List<CustomerTransactionResult> results = new ArrayList<CustomerTransactionResult>(customerTransactions.size());
+        for (int i = 0; i < customerTransactions.size(); i++) {
+            results.add(new CustomerTransactionResult(i));
+        }
+        if (allOrNothing) {
+            Map<Long, CustomerAccount> overlay = new HashMap<Long, CustomerAccount>();
+            for (int i = 0; i < customerTransactions.size(); i++) {
+                CustomerTransaction customerTransaction = customerTransactions.get(i);
+                try {
+                    checkBatchItem(customerTransaction);
+                    CustomerAccount from = overlayAccount(overlay, customerTransaction.getFromAccountId());
+                    CustomerAccount to = overlayAccount(overlay, customerTransaction.getToAccountId());
+                    long[] balances = checkTransfer(from, to, customerTransaction);
+                    overlay.put(from.getAccountId(), withBalance(from, balances[0]));
+                    overlay.put(to.getAccountId(), withBalance(to, balances[1]));
+                } catch (BaseException e) {
+                    for (CustomerTransactionResult result : results) {
+                        result.fail(CustomerTransactionResult.ROLLED_BACK, "Batch rolled back by transfer " + i);
+                    }
+                    results.get(i).fail(CustomerTransactionResult.FAILED, e.getMessage());
+                    return results;
+                }
+            }
+        }
+        for (int i = 0; i < customerTransactions.size(); i++) {
+            try {
+                checkBatchItem(customerTransactions.get(i));
+                applyTransfer(customerTransactions.get(i));
+                results.get(i).complete();
+            } catch (BaseException e) {
+                results.get(i).fail(CustomerTransactionResult.FAILED, e.getMessage());
+            }
+        }
+        return results;
+    }
+
+    private CustomerAccount overlayAccount(Map<Long, CustomerAccount> overlay, Long accountId) {
+        CustomerAccount account = overlay.get(accountId);
+        return account != null ? account : accounts.get(accountId);
+    }
+
+    private static void checkBatchItem(CustomerTransaction customerTransaction) throws BaseException {
+        if (customerTransaction == null || customerTransaction.getFromAccountId() == null
+                || customerTransaction.getToAccountId() == null) {
+            throw new BaseException("Invalid CustomerTransaction");
+        }
+        if (customerTransaction.getAmountUnits() <= Money.ZERO) {
+            throw new BaseException("Invalid transfer amount");
+        }
+    }
+
+    /**
+     * Validate a transfer between the given accounts.
+     * @return the new source and destination balances
+     */
+    private static long[] checkTransfer(CustomerAccount from, CustomerAccount to,
+                                        CustomerTransaction customerTransaction) throws BaseException {
+        if (from == null || to == null) {
+            throw new BaseException("Fail to lock both CustomerAccounts for write");
+        }
+        if (from.getAccountId().equals(to.getAccountId())) {
+            throw new BaseException("Fail to transfer Fund, the source and destination CustomerAccount are the same");
+        }
+        if (from.getCurrencyId() != customerTransaction.getCurrencyId()) {
+            throw new BaseException("Fail to transfer Fund, CustomerTransaction ccy are different from source/destination");
+        }
+        if (from.getCurrencyId() != to.getCurrencyId()) {
+            throw new BaseException("Fail to transfer Fund, the source and destination CustomerAccount are in different currency");
+        }
+        long fromBalance;
+        long toBalance;
+        try {
+            fromBalance = Money.subtract(from.getBalanceUnits(), customerTransaction.getAmountUnits());
+            toBalance = Money.add(to.getBalanceUnits(), customerTransaction.getAmountUnits());
+        } catch (ArithmeticException e) {
+            throw new BaseException("Balance overflow, amount out of range", e);
+        }
+        if (fromBalance < Money.ZERO) {
+            throw new BaseException("Not enough Fund from source CustomerAccount ");
+        }
+        return new long[] { fromBalance, toBalance };
+    }
+
+    private static long checkedUnits(long balanceUnits, long deltaUnits) throws BaseException {
+        try {
+            return Money.add(balanceUnits, deltaUnits);
+        } catch (ArithmeticException e) {
+            throw new BaseException("Balance overflow, amount out of range", e);
+        }
+    }
+
+    private void applyReset(List<CustomerAccount> seedAccounts) throws IOException {
+        for (Long accountId : accounts.keySet()) {
+            pendingSnapshots.put(accountId, null);
+        }
+        accounts.clear();
+        accountKeys.clear();
+        nextAccountId = 1;
+        closeJournal();
+        openJournal(false);
+        for (CustomerAccount seed : seedAccounts) {
+            journal.writeByte(EVENT_CREATE);
+            writeAccount(seed);
+            restoreAccount(seed);
+            pendingSnapshots.put(seed.getAccountId(), seed);
+        }
+    }
+
+    private void replayJournal() throws IOException {
+        if (!journalFile.exists()) {
+            return;
+        }
+        DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(journalFile)));
+        long events = 0;
+        try {
+            while (true) {
+                int type;
+                try {
+                    type = in.readByte();
+                } catch (EOFException e) {
+                    break;
+                }
+                switch (type) {
+                    case EVENT_CREATE:
+                        restoreAccount(readAccount(in));
+                        break;
+                    case EVENT_BALANCE:
+                        replayBalance(in.readLong(), in.readLong());
+                        break;
+                    case EVENT_TRANSFER:
+                        replayBalance(in.readLong(), in.readLong());
+                        replayBalance(in.readLong(), in.readLong());
+                        break;
+                    case EVENT_DELETE:
+                        CustomerAccount removed = accounts.remove(in.readLong());
+                        if (removed != null) {
+                            accountKeys.remove(accountKey(removed.getCustomerName(), removed.getCurrencyId()));
+                        }
+                        break;
+                    default:
+                        throw new IOException("Corrupted ledger journal " + journalFile + " at event " + events);
+                }
+                events++;
+            }
+        } catch (EOFException e) {
+            // a crash in the middle of a write leaves a torn last event, which was never acknowledged
+            log.warn("replayJournal(): Ignoring incomplete last event in " + journalFile);
+        } finally {
+            in.close();
+        }
+        replayedEvents = events;
+        log.info("replayJournal(): Replayed " + events + " events from " + journalFile);
+    }
+
+    private void replayBalance(long accountId, long balance) {
+        CustomerAccount account = accounts.get(accountId);
+        if (account != null) {
+            accounts.put(accountId, withBalance(account, balance));
+        }
+    }
+
+    private void restoreAccount(CustomerAccount account) {
+        accounts.put(account.getAccountId(), account);
+        accountKeys.add(accountKey(account.getCustomerName(), account.getCurrencyId()));
+        nextAccountId = Math.max(nextAccountId, account.getAccountId() + 1);
+    }
+
+    private void putAccount(CustomerAccount account) {
+        accounts.put(account.getAccountId(), account);
+        pendingSnapshots.put(account.getAccountId(), account);
+    }
+
+    private void writeAccount(CustomerAccount account) throws IOException {
+        journal.writeLong(account.getAccountId());
+        journal.writeUTF(account.getCustomerName());
+        journal.writeLong(account.getBalanceUnits());
+        journal.writeUTF(account.getCurrencyCode());
+    }
+
+    private static CustomerAccount readAccount(DataInputStream in) throws IOException {
+        long accountId = in.readLong();
+        String customerName = in.readUTF();
+        long balance = in.readLong();
+        return new CustomerAccount(accountId, customerName, balance, in.readUTF());
+    }
+
+    private static CustomerAccount withBalance(CustomerAccount account, long balance) {
+        return new CustomerAccount(account.getAccountId(), account.getCustomerName(), balance,
+                account.getCurrencyId());
+    }
+
+    private static String accountKey(String customerName, short currencyId) {
+        return customerName + '\u0000' + currencyId;
+    }
+
+    private void openJournal(boolean append) throws IOException {
+        journalFileStream = new FileOutputStream(journalFile, append);
+        journal = new DataOutputStream(new BufferedOutputStream(journalFileStream, 64 * 1024));
+    }
+
+    private void closeJournal() {
+        try {
+            if (journal != null) {
+                journal.close();
+            }
+        } catch (IOException e) {
+            log.warn("closeJournal(): Error closing ledger journal " + journalFile, e);
+        }
+    }
+
+    private enum CommandType {
+        CREATE, DELETE, UPDATE_BALANCE, TRANSFER, TRANSFER_BATCH, RESET
+    }
+
+    /**
+     * Ring buffer entry; the result future is completed by the sequencer once the batch is journaled.
+     */
+    private static final class Command {
+        private final CommandType type;
+        private final CompletableFuture<Object> result = new CompletableFuture<Object>();
+        private long accountId;
+        private long amountUnits;
+        private CustomerAccount account;
+        private CustomerTransaction transaction;
+        private List<CustomerTransaction> transactions;
+        private boolean allOrNothing;
+        private List<CustomerAccount> seedAccounts;
+        private Object value;
+        private BaseException error;
+
+        Command(CommandType type) {
+            this.type = type;
+        }
+    }
+}
@@ -0,0 +1,65 @@
+package com.revolut.dao;
+
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LedgerRingBuffer
+ * @Package com.revolut.dao
+ * @Description: Pre-allocated multi-producer, single-consumer ring buffer feeding the ledger sequencer
+ */
+class LedgerRingBuffer<E> {
+
+    private final Object[] entries;
+    private final AtomicLongArray publishedSequences;
+    private final int mask;
+    private final AtomicLong claimSequence = new AtomicLong(-1);
+    private volatile long consumedSequence = -1;
+
+    LedgerRingBuffer(int requestedSize) {
+        int size = Integer.highestOneBit(Math.max(2, requestedSize - 1)) << 1;
+        this.entries = new Object[size];
+        this.publishedSequences = new AtomicLongArray(size);
+        for (int i = 0; i < size; i++) {
+            publishedSequences.set(i, -1);
+        }
+        this.mask = size - 1;
+    }
+
+    /**
+     * Claim the next slot, waiting while the consumer is a full lap behind, and publish the entry into it.
+     */
+    void publish(E entry) {
+        long sequence = claimSequence.incrementAndGet();
+        while (sequence - consumedSequence > entries.length) {
+            LockSupport.parkNanos(1000L);
+        }
+        int index = (int) sequence & mask;
+        entries[index] = entry;
+        publishedSequences.lazySet(index, sequence);
+    }
+
+    /**
+     * Take the next published entry, or null if the producer that claimed it has not published yet.
+     * Must only be called from the single consumer thread.
+     */
+    @SuppressWarnings("unchecked")
+    E poll() {
+        long next = consumedSequence + 1;
+        int index = (int) next & mask;
+        if (publishedSequences.get(index) != next) {
+            return null;
+        }
+        E entry = (E) entries[index];
+        entries[index] = null;
+        consumedSequence = next;
+        return entry;
+    }
+
+    boolean isEmpty() {
+        return claimSequence.get() == consumedSequence;
+    }
+}
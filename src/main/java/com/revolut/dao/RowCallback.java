@@ -0,0 +1,17 @@
+package com.revolut.dao;
+
+import java.io.IOException;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: RowCallback
+ * @Package com.revolut.dao
+ * @Description: Receives rows one at a time while the DAO still holds the ResultSet, so callers can process
+ * them without collecting a list. The pooled connection stays borrowed until the last row, so a callback must not
+ * wait on anything slow such as a client socket
+ */
+public interface RowCallback<T> {
+
+    void onRow(T row) throws IOException;
+}
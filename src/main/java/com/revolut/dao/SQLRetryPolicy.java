@@ -0,0 +1,74 @@
+package com.revolut.dao;
+
+import com.revolut.util.CommonUtils;
+import org.h2.api.ErrorCode;
+
+import java.sql.SQLException;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: SQLRetryPolicy
+ * @Package com.revolut.dao
+ * @Description: Bounded retry with full-jitter exponential backoff for lock timeouts and deadlocks
+ */
+public class SQLRetryPolicy {
+
+    private final int maxAttempts;
+    private final long baseDelayMs;
+    private final long maxDelayMs;
+
+    public SQLRetryPolicy(int maxAttempts, long baseDelayMs, long maxDelayMs) {
+        this.maxAttempts = Math.max(1, maxAttempts);
+        this.baseDelayMs = Math.max(1, baseDelayMs);
+        this.maxDelayMs = Math.max(this.baseDelayMs, maxDelayMs);
+    }
+
+    /**
+     * Build the policy from application.properties, keys prefixed with the given name.
+     */
+    public static SQLRetryPolicy fromConfig(String prefix) {
+        return new SQLRetryPolicy(CommonUtils.getIntegerProperty(prefix + "_retry_max_attempts", 5),
+                CommonUtils.getIntegerProperty(prefix + "_retry_base_delay_ms", 5),
+                CommonUtils.getIntegerProperty(prefix + "_retry_max_delay_ms", 200));
+    }
+
+    public int getMaxAttempts() {
+        return maxAttempts;
+    }
+
+    /**
+     * @return true if the failure is caused by lock contention and the statement can safely be run again
+     */
+    public boolean isRetryable(SQLException e) {
+        for (SQLException cur = e; cur != null; cur = cur.getNextException()) {
+            switch (cur.getErrorCode()) {
+                case ErrorCode.LOCK_TIMEOUT_1:
+                case ErrorCode.DEADLOCK_1:
+                case ErrorCode.CONCURRENT_UPDATE_1:
+                    return true;
+                default:
+                    if ("40001".equals(cur.getSQLState()) || "40P01".equals(cur.getSQLState())) {
+                        return true;
+                    }
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Sleep a random time between zero and the capped exponential delay for the given attempt (starting at 1).
+     * @return false if the thread was interrupted and the caller should give up
+     */
+    public boolean backoff(int attempt) {
+        long cap = Math.min(maxDelayMs, baseDelayMs << Math.min(attempt - 1, 20));
+        try {
+            Thread.sleep(ThreadLocalRandom.current().nextLong(cap + 1));
+            return true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return false;
+        }
+    }
+}
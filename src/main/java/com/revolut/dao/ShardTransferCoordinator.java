@@ -0,0 +1,658 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ShardTransferCoordinator
+ * @Package com.revolut.dao
+ * @Description: Two-phase commit of transfers whose accounts live in different shards. Every shard involved locks
+ * and updates its rows in a local transaction and votes with H2's PREPARE COMMIT; once all have prepared, the
+ * decision is appended to the recovery log before any shard commits. After a crash, recover() commits the in-doubt
+ * shard transactions named in the log and rolls back the others (presumed abort). A shard failing to commit a decided
+ * transaction keeps its connection open, since H2 rolls back a prepared transaction whose session closes, and its
+ * decision stays in the log until a later transfer, the pending commit timer or recover() has committed it. The
+ * transfer then fails with an UnconfirmedCommitException, it must not be retried.
+ */
+public class ShardTransferCoordinator {
+
+    private static Logger log = Logger.getLogger(ShardTransferCoordinator.class);
+    private static final SQLRetryPolicy transferRetryPolicy = SQLRetryPolicy.fromConfig("transfer");
+    private static final AccountLockManager lockManager = AccountLockManager.getInstance();
+    private static final CustomerTransactionJournal transactionJournal = CustomerTransactionJournal.getInstance();
+    private final static String SQL_UPDATE_ACC_BALANCE = "UPDATE CustomerAccount SET Balance = ? WHERE AccountId = ? ";
+    private final static String SQL_GET_IN_DOUBT = "SELECT TRANSACTION FROM INFORMATION_SCHEMA.IN_DOUBT";
+    private final static String SQL_GET_ACC_BALANCE = "SELECT Balance FROM CustomerAccount WHERE AccountId = ? ";
+    private static final int pendingCommitRetryMs = CommonUtils.getIntegerProperty("shard_pending_commit_retry_ms", 1000);
+    private static final String COMMIT_RECORD = "COMMIT ";
+
+    static final String DATABASE_ERROR = "Database error, transfer not applied";
+
+    private final ConnectionProvider[] shards;
+    private final CustomerAccountDAOImpl[] shardDAOs;
+    private final File decisionLogFile;
+    private final boolean fsync;
+    private final long decisionLogMaxBytes;
+    // distinguishes the transaction names of this run from those a crashed run left in doubt
+    private final String transactionPrefix = "XS" + Long.toString(System.currentTimeMillis(), 36).toUpperCase() + "_";
+    private final AtomicLong transactionCount = new AtomicLong();
+    // held shared from logging a decision until every shard has committed or it is pending, exclusively to truncate
+    // the log
+    private final ReentrantReadWriteLock decisionLogLock = new ReentrantReadWriteLock();
+    // decided transactions some shard has not committed yet, their records survive a truncation of the log
+    private final List<PendingCommit> pendingCommits = new ArrayList<PendingCommit>();
+    private FileOutputStream decisionLog;
+    private long decisionLogBytes;
+    private ScheduledThreadPoolExecutor pendingCommitTimer;
+
+    /**
+     * @param shards connections of each shard, by shard index
+     * @param shardDAOs DAOs of the same shards, publishing committed accounts to the cache and read model
+     * @param decisionLogFile recovery log of commit decisions
+     * @param fsync force every decision to disk before the shards commit
+     * @param decisionLogMaxBytes size after which the log is truncated once no decision is outstanding
+     */
+    public ShardTransferCoordinator(ConnectionProvider[] shards, CustomerAccountDAOImpl[] shardDAOs, File decisionLogFile,
+                                    boolean fsync, long decisionLogMaxBytes) {
+        this.shards = shards;
+        this.shardDAOs = shardDAOs;
+        this.decisionLogFile = decisionLogFile;
+        this.fsync = fsync;
+        this.decisionLogMaxBytes = decisionLogMaxBytes;
+    }
+
+    /**
+     * Resolve the shard transactions a crash left prepared: commit those whose decision is in the log and roll back
+     * the others, then start an empty log. Must be called once before the first transfer.
+     */
+    public void recover() throws BaseException {
+        Set<String> committed = readDecisions();
+        for (int shard = 0; shard < shards.length; shard++) {
+            Connection conn = null;
+            Statement stmt = null;
+            ResultSet rs = null;
+            try {
+                conn = shards[shard].getConnection();
+                stmt = conn.createStatement();
+                rs = stmt.executeQuery(SQL_GET_IN_DOUBT);
+                List<String> inDoubt = new ArrayList<String>();
+                while (rs.next()) {
+                    inDoubt.add(rs.getString(1));
+                }
+                for (String transactionName : inDoubt) {
+                    boolean commit = committed.contains(transactionName);
+                    log.warn("recover(): " + (commit ? "Committing" : "Rolling back") + " in-doubt transaction "
+                            + transactionName + " of shard " + shard);
+                    stmt.execute((commit ? "COMMIT TRANSACTION " : "ROLLBACK TRANSACTION ") + transactionName);
+                }
+            } catch (SQLException e) {
+                throw new BaseException("recover(): Error resolving in-doubt transactions of shard " + shard, e);
+            } finally {
+                DbUtils.closeQuietly(conn, stmt, rs);
+            }
+        }
+        synchronized (this) {
+            try {
+                openDecisionLog();
+            } catch (IOException e) {
+                throw new BaseException("recover(): Error opening shard transfer log " + decisionLogFile, e);
+            }
+            if (pendingCommitTimer == null) {
+                startPendingCommitTimer();
+            }
+        }
+    }
+
+    /**
+     * Prepared transactions keep their row locks, so a pending commit is retried on its own rather than waiting for
+     * the next cross-shard transfer.
+     */
+    private void startPendingCommitTimer() {
+        pendingCommitTimer = new ScheduledThreadPoolExecutor(1, new ThreadFactory() {
+            public Thread newThread(Runnable r) {
+                Thread thread = new Thread(r, "shard-pending-commit-timer");
+                thread.setDaemon(true);
+                return thread;
+            }
+        });
+        pendingCommitTimer.scheduleWithFixedDelay(new Runnable() {
+            public void run() {
+                resolvePendingCommits();
+            }
+        }, pendingCommitRetryMs, pendingCommitRetryMs, TimeUnit.MILLISECONDS);
+    }
+
+    /**
+     * Apply the transfers as one atomic unit over every shard they touch: all of them complete, or on the first
+     * rejected transfer none does. Lock timeouts and deadlocks are retried like a local transfer.
+     * @param results one per transfer, filled in like an all-or-nothing batch of CustomerAccountDAOImpl
+     * @return the journal future of the completed transfers, see CustomerTransactionJournal.recordCommitted
+     * @throws UnconfirmedCommitException if a shard has not confirmed committing the decided transfers
+     */
+    public CompletableFuture<Void> execute(List<CustomerTransaction> customerTransactions,
+                                           List<CustomerTransactionResult> results) throws BaseException {
+        resolvePendingCommits();
+        UnconfirmedCommitException unconfirmed = null;
+        AccountLockManager.Locks accountLocks = lockManager.lock(
+                CustomerAccountDAOImpl.accountIdsOf(customerTransactions, 0, customerTransactions.size()));
+        try {
+            for (int attempt = 1; ; attempt++) {
+                try {
+                    if (!apply(customerTransactions, results)) {
+                        return null;
+                    }
+                    break;
+                } catch (UnconfirmedCommitException e) {
+                    unconfirmed = e;
+                    break;
+                } catch (SQLException se) {
+                    if (attempt < transferRetryPolicy.getMaxAttempts() && transferRetryPolicy.isRetryable(se)) {
+                        log.warn("execute(): lock conflict on attempt " + attempt + ", retrying cross-shard transfers");
+                        if (transferRetryPolicy.backoff(attempt)) {
+                            continue;
+                        }
+                    }
+                    log.error("execute(): Cross-shard transfers failed after " + attempt + " attempt(s)", se);
+                    for (CustomerTransactionResult result : results) {
+                        result.fail(CustomerTransactionResult.FAILED, DATABASE_ERROR);
+                    }
+                    return null;
+                }
+            }
+        } finally {
+            accountLocks.release();
+        }
+        // decided, so journaled even when a shard is yet to commit
+        CompletableFuture<Void> journaled = transactionJournal.recordCommitted(customerTransactions);
+        if (unconfirmed != null) {
+            throw unconfirmed;
+        }
+        return journaled;
+    }
+
+    /**
+     * @return false if a transfer was rejected and everything was rolled back
+     */
+    private boolean apply(List<CustomerTransaction> customerTransactions, List<CustomerTransactionResult> results)
+            throws BaseException, SQLException {
+        // ascending shard order, so two coordinators lock rows of the same shards in the same order
+        TreeMap<Integer, Connection> connections = new TreeMap<Integer, Connection>();
+        Map<Long, CustomerAccount> lockedAccounts = new HashMap<Long, CustomerAccount>();
+        Set<Long> dirtyAccountIds = new TreeSet<Long>();
+        Set<Integer> unfinishedShards = new HashSet<Integer>();
+        try {
+            for (Map.Entry<Integer, long[]> shard : byShard(
+                    CustomerAccountDAOImpl.accountIdsOf(customerTransactions, 0, customerTransactions.size())).entrySet()) {
+                Connection conn = shards[shard.getKey()].getConnection();
+                connections.put(shard.getKey(), conn);
+                conn.setAutoCommit(false);
+                CustomerAccountDAOImpl.lockAccounts(conn, lockedAccounts, shard.getValue());
+            }
+            for (int i = 0; i < customerTransactions.size(); i++) {
+                String error = CustomerAccountDAOImpl.applyTransfer(lockedAccounts, dirtyAccountIds,
+                        customerTransactions.get(i));
+                if (error != null) {
+                    rollback(connections);
+                    for (CustomerTransactionResult result : results) {
+                        result.fail(CustomerTransactionResult.ROLLED_BACK, "Batch rolled back by transfer " + i);
+                    }
+                    results.get(i).fail(CustomerTransactionResult.FAILED, error);
+                    return false;
+                }
+                results.get(i).complete();
+            }
+            for (Map.Entry<Integer, Connection> shard : connections.entrySet()) {
+                updateBalances(shard.getValue(), shard.getKey(), lockedAccounts, dirtyAccountIds);
+            }
+            unfinishedShards = commit(connections, lockedAccounts, dirtyAccountIds);
+        } catch (SQLException se) {
+            rollback(connections);
+            throw se;
+        } finally {
+            for (Map.Entry<Integer, Connection> shard : connections.entrySet()) {
+                if (!unfinishedShards.contains(shard.getKey())) {
+                    DbUtils.closeQuietly(shard.getValue());
+                }
+            }
+        }
+        // accounts of a shard still in doubt are published once resolvePendingCommits() has committed it
+        for (Long accountId : dirtyAccountIds) {
+            int shard = ShardedCustomerAccountDAO.shardOf(accountId, shards.length);
+            if (!unfinishedShards.contains(shard)) {
+                shardDAOs[shard].committed(lockedAccounts.get(accountId));
+            }
+        }
+        if (!unfinishedShards.isEmpty()) {
+            throw new UnconfirmedCommitException("Transfer is decided but shard(s) " + unfinishedShards
+                    + " have not confirmed committing it");
+        }
+        return true;
+    }
+
+    private void updateBalances(Connection conn, int shard, Map<Long, CustomerAccount> lockedAccounts,
+                                Set<Long> dirtyAccountIds) throws SQLException {
+        PreparedStatement updateStmt = null;
+        try {
+            updateStmt = conn.prepareStatement(SQL_UPDATE_ACC_BALANCE);
+            for (Long accountId : dirtyAccountIds) {
+                if (ShardedCustomerAccountDAO.shardOf(accountId, shards.length) == shard) {
+                    updateStmt.setBigDecimal(1, lockedAccounts.get(accountId).getBalance());
+                    updateStmt.setLong(2, accountId);
+                    updateStmt.addBatch();
+                }
+            }
+            updateStmt.executeBatch();
+        } finally {
+            DbUtils.closeQuietly(updateStmt);
+        }
+    }
+
+    /**
+     * One shard commits directly; several prepare, the decision is logged, then each commits.
+     * @return the shards that could not commit the decided transaction, their connections must stay open
+     */
+    private Set<Integer> commit(TreeMap<Integer, Connection> connections, Map<Long, CustomerAccount> lockedAccounts,
+                                Set<Long> dirtyAccountIds) throws BaseException, SQLException {
+        Set<Integer> unfinishedShards = new HashSet<Integer>();
+        if (connections.size() == 1) {
+            connections.firstEntry().getValue().commit();
+            return unfinishedShards;
+        }
+        String transactionName = transactionPrefix + transactionCount.incrementAndGet();
+        for (Connection conn : connections.values()) {
+            Statement stmt = conn.createStatement();
+            try {
+                stmt.execute("PREPARE COMMIT " + transactionName);
+            } finally {
+                DbUtils.closeQuietly(stmt);
+            }
+        }
+        decisionLogLock.readLock().lock();
+        try {
+            try {
+                logDecision(transactionName);
+            } catch (IOException e) {
+                rollback(connections);
+                throw new BaseException("Fail to log the commit decision of cross-shard transfer " + transactionName, e);
+            }
+            // decided: from here a failing shard must not roll the others back
+            for (Map.Entry<Integer, Connection> shard : connections.entrySet()) {
+                List<CustomerAccount> accounts = new ArrayList<CustomerAccount>();
+                for (Long accountId : dirtyAccountIds) {
+                    if (ShardedCustomerAccountDAO.shardOf(accountId, shards.length) == shard.getKey()) {
+                        accounts.add(lockedAccounts.get(accountId));
+                    }
+                }
+                CommitState state = commitDecided(shard.getKey(), shard.getValue(), transactionName, accounts,
+                        transferRetryPolicy.getMaxAttempts());
+                if (state == CommitState.COMMITTED) {
+                    continue;
+                }
+                unfinishedShards.add(shard.getKey());
+                if (state == CommitState.LOST) {
+                    log.error("commit(): Shard " + shard.getKey() + " rolled back decided transaction "
+                            + transactionName + ", its accounts " + accounts + " need to be reconciled");
+                    DbUtils.closeQuietly(shard.getValue());
+                    continue;
+                }
+                log.error("commit(): Shard " + shard.getKey() + " left decided transaction " + transactionName
+                        + " in doubt, it is retried in the background");
+                // registered before the read lock is released, so a truncation keeps the decision
+                synchronized (this) {
+                    pendingCommits.add(new PendingCommit(transactionName, shard.getKey(), shard.getValue(), accounts));
+                }
+            }
+        } finally {
+            decisionLogLock.readLock().unlock();
+        }
+        truncateDecisionLogIfFull();
+        return unfinishedShards;
+    }
+
+    /**
+     * Commit a decided transaction on one shard, retrying the commit and then resolving it from another session.
+     * A failed commit may still have gone through, or H2 may have rolled it back with its session, so when the
+     * transaction is no longer in doubt the balances it wrote tell which. The stripe locks of its accounts must be
+     * held, so no other transfer can have written them since.
+     * @param accounts the accounts the transaction wrote on this shard
+     */
+    private CommitState commitDecided(int shard, Connection conn, String transactionName,
+                                      List<CustomerAccount> accounts, int maxAttempts) {
+        for (int attempt = 1; ; attempt++) {
+            try {
+                conn.commit();
+                return CommitState.COMMITTED;
+            } catch (SQLException e) {
+                log.warn("commitDecided(): Shard " + shard + " failed to commit decided transaction "
+                        + transactionName + " on attempt " + attempt, e);
+                if (attempt >= maxAttempts || !transferRetryPolicy.backoff(attempt)) {
+                    break;
+                }
+            }
+        }
+        Connection inDoubtConn = null;
+        Statement stmt = null;
+        ResultSet rs = null;
+        try {
+            inDoubtConn = shards[shard].getConnection();
+            stmt = inDoubtConn.createStatement();
+            rs = stmt.executeQuery(SQL_GET_IN_DOUBT);
+            boolean inDoubt = false;
+            while (rs.next()) {
+                inDoubt |= transactionName.equals(rs.getString(1));
+            }
+            if (inDoubt) {
+                stmt.execute("COMMIT TRANSACTION " + transactionName);
+                return CommitState.COMMITTED;
+            }
+            return hasBalances(inDoubtConn, accounts) ? CommitState.COMMITTED : CommitState.LOST;
+        } catch (SQLException e) {
+            log.error("commitDecided(): Error committing in-doubt transaction " + transactionName + " of shard "
+                    + shard, e);
+            return CommitState.IN_DOUBT;
+        } finally {
+            DbUtils.closeQuietly(inDoubtConn, stmt, rs);
+        }
+    }
+
+    /**
+     * @return true if every account has the committed balance given
+     */
+    private static boolean hasBalances(Connection conn, List<CustomerAccount> accounts) throws SQLException {
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            stmt = conn.prepareStatement(SQL_GET_ACC_BALANCE);
+            for (CustomerAccount account : accounts) {
+                stmt.setLong(1, account.getAccountId());
+                rs = stmt.executeQuery();
+                if (!rs.next() || rs.getBigDecimal(1).compareTo(account.getBalance()) != 0) {
+                    return false;
+                }
+                DbUtils.closeQuietly(rs);
+            }
+            return true;
+        } finally {
+            DbUtils.closeQuietly(rs);
+            DbUtils.closeQuietly(stmt);
+        }
+    }
+
+    /**
+     * Retry the shards that left a decided transaction in doubt, then publish their accounts and return their
+     * connections to the pool. Runs before every cross-shard transfer and on the pending commit timer.
+     */
+    private void resolvePendingCommits() {
+        List<PendingCommit> pending;
+        synchronized (this) {
+            if (pendingCommits.isEmpty()) {
+                return;
+            }
+            pending = new ArrayList<PendingCommit>(pendingCommits);
+        }
+        for (PendingCommit pendingCommit : pending) {
+            AccountLockManager.Locks accountLocks;
+            try {
+                accountLocks = lockManager.lock(pendingCommit.accountIds());
+            } catch (BaseException e) {
+                log.warn("resolvePendingCommits(): " + e.getMessage());
+                continue;
+            }
+            try {
+                synchronized (this) {
+                    if (!pendingCommits.contains(pendingCommit)) {
+                        continue;
+                    }
+                }
+                CommitState state = commitDecided(pendingCommit.shard, pendingCommit.connection,
+                        pendingCommit.transactionName, pendingCommit.accounts, 1);
+                if (state == CommitState.IN_DOUBT) {
+                    continue;
+                }
+                synchronized (this) {
+                    pendingCommits.remove(pendingCommit);
+                }
+                DbUtils.closeQuietly(pendingCommit.connection);
+                if (state == CommitState.LOST) {
+                    log.error("resolvePendingCommits(): Shard " + pendingCommit.shard + " rolled back decided transaction "
+                            + pendingCommit.transactionName + ", its accounts " + pendingCommit.accounts
+                            + " need to be reconciled");
+                    continue;
+                }
+                log.info("resolvePendingCommits(): Shard " + pendingCommit.shard + " committed decided transaction "
+                        + pendingCommit.transactionName);
+                for (CustomerAccount account : pendingCommit.accounts) {
+                    shardDAOs[pendingCommit.shard].committed(account);
+                }
+            } finally {
+                accountLocks.release();
+            }
+        }
+    }
+
+    private static void rollback(Map<Integer, Connection> connections) {
+        for (Map.Entry<Integer, Connection> shard : connections.entrySet()) {
+            try {
+                shard.getValue().rollback();
+            } catch (SQLException e) {
+                log.error("rollback(): Error rolling back shard " + shard.getKey(), e);
+            }
+        }
+    }
+
+    private Map<Integer, long[]> byShard(long[] accountIds) {
+        Map<Integer, List<Long>> grouped = new TreeMap<Integer, List<Long>>();
+        for (long accountId : accountIds) {
+            int shard = ShardedCustomerAccountDAO.shardOf(accountId, shards.length);
+            List<Long> ids = grouped.get(shard);
+            if (ids == null) {
+                ids = new ArrayList<Long>();
+                grouped.put(shard, ids);
+            }
+            ids.add(accountId);
+        }
+        Map<Integer, long[]> result = new TreeMap<Integer, long[]>();
+        for (Map.Entry<Integer, List<Long>> shard : grouped.entrySet()) {
+            long[] ids = new long[shard.getValue().size()];
+            for (int i = 0; i < ids.length; i++) {
+                ids[i] = shard.getValue().get(i);
+            }
+            result.put(shard.getKey(), ids);
+        }
+        return result;
+    }
+
+    private synchronized void logDecision(String transactionName) throws IOException {
+        if (decisionLog == null) {
+            throw new IOException("Shard transfer log is not open, recover() has not run");
+        }
+        byte[] record = decisionRecord(transactionName);
+        decisionLog.write(record);
+        if (fsync) {
+            decisionLog.getFD().sync();
+        }
+        decisionLogBytes += record.length;
+    }
+
+    private static byte[] decisionRecord(String transactionName) {
+        return (COMMIT_RECORD + transactionName + "\n").getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Once every logged decision has been carried out by all its shards, the log holds nothing recover() needs but
+     * the pending decisions.
+     */
+    private void truncateDecisionLogIfFull() {
+        synchronized (this) {
+            if (decisionLogBytes < decisionLogMaxBytes) {
+                return;
+            }
+        }
+        if (!decisionLogLock.writeLock().tryLock()) {
+            return;
+        }
+        try {
+            synchronized (this) {
+                openDecisionLog();
+            }
+        } catch (IOException e) {
+            log.error("truncateDecisionLogIfFull(): Error truncating shard transfer log " + decisionLogFile, e);
+        } finally {
+            decisionLogLock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Replace the log by one holding the pending decisions only. It is written aside and renamed over the old one,
+     * so a crash meanwhile never loses a decision.
+     */
+    private void openDecisionLog() throws IOException {
+        closeDecisionLog();
+        Set<String> pendingDecisions = new LinkedHashSet<String>();
+        for (PendingCommit pendingCommit : pendingCommits) {
+            pendingDecisions.add(pendingCommit.transactionName);
+        }
+        File nextLogFile = new File(decisionLogFile.getPath() + ".next");
+        FileOutputStream nextLog = new FileOutputStream(nextLogFile, false);
+        long bytes = 0;
+        try {
+            for (String transactionName : pendingDecisions) {
+                byte[] record = decisionRecord(transactionName);
+                nextLog.write(record);
+                bytes += record.length;
+            }
+            if (fsync) {
+                nextLog.getFD().sync();
+            }
+        } finally {
+            nextLog.close();
+        }
+        Files.move(nextLogFile.toPath(), decisionLogFile.toPath(), StandardCopyOption.REPLACE_EXISTING,
+                StandardCopyOption.ATOMIC_MOVE);
+        decisionLog = new FileOutputStream(decisionLogFile, true);
+        decisionLogBytes = bytes;
+    }
+
+    private Set<String> readDecisions() throws BaseException {
+        Set<String> committed = new HashSet<String>();
+        if (!decisionLogFile.exists()) {
+            return committed;
+        }
+        String records;
+        try {
+            records = new String(Files.readAllBytes(decisionLogFile.toPath()), StandardCharsets.US_ASCII);
+        } catch (IOException e) {
+            throw new BaseException("readDecisions(): Error reading shard transfer log " + decisionLogFile, e);
+        }
+        // only newline terminated records count, a torn last record is a decision that was never taken
+        int start = 0;
+        for (int end = records.indexOf('\n'); end >= 0; start = end + 1, end = records.indexOf('\n', start)) {
+            String record = records.substring(start, end);
+            if (record.startsWith(COMMIT_RECORD)) {
+                committed.add(record.substring(COMMIT_RECORD.length()));
+            }
+        }
+        return committed;
+    }
+
+    private void closeDecisionLog() {
+        if (decisionLog == null) {
+            return;
+        }
+        try {
+            decisionLog.close();
+        } catch (IOException e) {
+            log.warn("closeDecisionLog(): Error closing shard transfer log " + decisionLogFile, e);
+        }
+        decisionLog = null;
+    }
+
+    /**
+     * Close the recovery log, outstanding decisions stay in it for the next recover().
+     */
+    public synchronized void close() {
+        if (pendingCommitTimer != null) {
+            pendingCommitTimer.shutdownNow();
+            pendingCommitTimer = null;
+        }
+        if (!pendingCommits.isEmpty()) {
+            log.warn("close(): " + pendingCommits.size() + " shard commit(s) still in doubt, left to recover()");
+        }
+        closeDecisionLog();
+    }
+
+    /**
+     * The transfers are decided, but a shard has not confirmed committing them. They are committed in the background,
+     * or reported for reconciliation if the shard rolled them back, and must not be applied again.
+     */
+    public static class UnconfirmedCommitException extends BaseException {
+        private static final long serialVersionUID = 1L;
+
+        public UnconfirmedCommitException(String msg) {
+            super(msg);
+        }
+    }
+
+    private enum CommitState {
+        COMMITTED, IN_DOUBT, LOST
+    }
+
+    /**
+     * Decided transaction a shard has not committed, holding the connection of its prepared transaction open.
+     */
+    private static final class PendingCommit {
+        private final String transactionName;
+        private final int shard;
+        private final Connection connection;
+        private final List<CustomerAccount> accounts;
+
+        PendingCommit(String transactionName, int shard, Connection connection, List<CustomerAccount> accounts) {
+            this.transactionName = transactionName;
+            this.shard = shard;
+            this.connection = connection;
+            this.accounts = accounts;
+        }
+
+        long[] accountIds() {
+            long[] accountIds = new long[accounts.size()];
+            for (int i = 0; i < accountIds.length; i++) {
+                accountIds[i] = accounts.get(i).getAccountId();
+            }
+            return accountIds;
+        }
+    }
+}
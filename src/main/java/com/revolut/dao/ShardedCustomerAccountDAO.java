@@ -0,0 +1,343 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
+import com.revolut.util.BaseException;
+import org.apache.commons.dbutils.DbUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ShardedCustomerAccountDAO
+ * @Package com.revolut.dao
+ * @Description: CustomerAccounts spread over several H2 databases. Account (AccountId - 1) mod N lives in shard
+ * (AccountId - 1) mod N, and each shard hands out only its own ids with a stepped AUTO_INCREMENT, so routing never
+ * needs a lookup. Work on one shard goes to a CustomerAccountDAOImpl of that shard; transfers between shards are
+ * committed atomically by the ShardTransferCoordinator.
+ */
+public class ShardedCustomerAccountDAO implements CustomerAccountDAO {
+
+    private static Logger log = Logger.getLogger(ShardedCustomerAccountDAO.class);
+    private static final CustomerTransactionJournal transactionJournal = CustomerTransactionJournal.getInstance();
+    private final static String SQL_DROP_ACC = "DROP TABLE IF EXISTS CustomerAccount";
+    private final static String SQL_CREATE_ACC_TABLE = "CREATE TABLE CustomerAccount ("
+            + "AccountId LONG PRIMARY KEY AUTO_INCREMENT(%d, %d) NOT NULL, CustomerName VARCHAR(30), "
+            + "Balance DECIMAL(19,4), CurrencyId SMALLINT NOT NULL)";
+    private final static String SQL_CREATE_ACC_INDEX = "CREATE UNIQUE INDEX idx_acc on CustomerAccount(CustomerName, CurrencyId)";
+    private final static String SQL_INSERT_ACC = "INSERT INTO CustomerAccount (AccountId, CustomerName, Balance, CurrencyId) "
+            + "VALUES (?, ?, ?, ?)";
+    private final static String SQL_FIND_ACC = "SELECT AccountId FROM CustomerAccount WHERE CustomerName = ? AND CurrencyId = ?";
+    private static final int CREATE_LOCK_STRIPES = 64;
+
+    private static final Comparator<CustomerAccount> BY_ACCOUNT_ID = new Comparator<CustomerAccount>() {
+        public int compare(CustomerAccount a, CustomerAccount b) {
+            return Long.compare(a.getAccountId(), b.getAccountId());
+        }
+    };
+
+    private final ConnectionProvider[] shards;
+    private final CustomerAccountDAOImpl[] shardDAOs;
+    private final CustomerAccountCache accountCache;
+    private final AccountReadModel readModel;
+    private final ShardTransferCoordinator coordinator;
+    // the unique index only covers one shard, creates of the same customer and currency are serialized here
+    private final Object[] createLocks = new Object[CREATE_LOCK_STRIPES];
+
+    /**
+     * @param shards connections of each shard, by shard index
+     * @param accountCache cache of the accounts of all shards
+     * @param readModel read model of the accounts of all shards
+     * @param decisionLogFile recovery log of the cross-shard transfer coordinator
+     * @param fsync force every commit decision to disk before the shards commit
+     * @param decisionLogMaxBytes size after which the recovery log is truncated
+     */
+    public ShardedCustomerAccountDAO(ConnectionProvider[] shards, CustomerAccountCache accountCache,
+                                     AccountReadModel readModel, File decisionLogFile, boolean fsync,
+                                     long decisionLogMaxBytes) {
+        if (shards.length == 0) {
+            throw new IllegalArgumentException("At least one shard is required");
+        }
+        this.shards = shards;
+        this.accountCache = accountCache;
+        this.readModel = readModel;
+        this.shardDAOs = new CustomerAccountDAOImpl[shards.length];
+        for (int i = 0; i < shards.length; i++) {
+            shardDAOs[i] = new CustomerAccountDAOImpl(shards[i], accountCache, readModel);
+        }
+        for (int i = 0; i < CREATE_LOCK_STRIPES; i++) {
+            createLocks[i] = new Object();
+        }
+        this.coordinator = new ShardTransferCoordinator(shards, shardDAOs, decisionLogFile, fsync, decisionLogMaxBytes);
+    }
+
+    /**
+     * Shard holding the account, see the stepped AUTO_INCREMENT created by reset.
+     */
+    public static int shardOf(long accountId, int shardCount) {
+        return (int) Math.floorMod(accountId - 1, (long) shardCount);
+    }
+
+    public int getShardCount() {
+        return shards.length;
+    }
+
+    /**
+     * Resolve cross-shard transfers a crash left in doubt, before the first use.
+     */
+    public void recover() throws BaseException {
+        coordinator.recover();
+    }
+
+    public void close() {
+        coordinator.close();
+    }
+
+    /**
+     * @return true when every shard already holds its CustomerAccount table, false when none does
+     * @throws BaseException if only some shards hold it, which a reseed would silently repair by dropping data
+     */
+    public boolean isSeeded() throws BaseException {
+        int seeded = 0;
+        for (int shard = 0; shard < shards.length; shard++) {
+            Connection conn = null;
+            ResultSet rs = null;
+            try {
+                conn = shards[shard].getConnection();
+                rs = conn.getMetaData().getTables(null, null, "CUSTOMERACCOUNT", null);
+                if (rs.next()) {
+                    seeded++;
+                }
+            } catch (SQLException e) {
+                throw new BaseException("isSeeded(): Error reading metadata of shard " + shard, e);
+            } finally {
+                DbUtils.closeQuietly(conn, null, rs);
+            }
+        }
+        if (seeded > 0 && seeded < shards.length) {
+            throw new BaseException("isSeeded(): Only " + seeded + " of " + shards.length
+                    + " shards hold a CustomerAccount table");
+        }
+        return seeded == shards.length;
+    }
+
+    /**
+     * Recreate the CustomerAccount table of every shard with its id sequence and insert the accounts, keeping
+     * their AccountId, into the shards owning them.
+     */
+    public void reset(List<CustomerAccount> customerAccounts) throws BaseException {
+        for (int shard = 0; shard < shards.length; shard++) {
+            Connection conn = null;
+            Statement stmt = null;
+            PreparedStatement insertStmt = null;
+            try {
+                conn = shards[shard].getConnection();
+                stmt = conn.createStatement();
+                stmt.execute(SQL_DROP_ACC);
+                stmt.execute(String.format(SQL_CREATE_ACC_TABLE, shard + 1, shards.length));
+                stmt.execute(SQL_CREATE_ACC_INDEX);
+                insertStmt = conn.prepareStatement(SQL_INSERT_ACC);
+                for (CustomerAccount account : customerAccounts) {
+                    if (shardOf(account.getAccountId(), shards.length) == shard) {
+                        insertStmt.setLong(1, account.getAccountId());
+                        insertStmt.setString(2, account.getCustomerName());
+                        insertStmt.setBigDecimal(3, account.getBalance());
+                        insertStmt.setShort(4, account.getCurrencyId());
+                        insertStmt.addBatch();
+                    }
+                }
+                insertStmt.executeBatch();
+            } catch (SQLException e) {
+                throw new BaseException("reset(): Error recreating CustomerAccount table of shard " + shard, e);
+            } finally {
+                DbUtils.closeQuietly(insertStmt);
+                DbUtils.closeQuietly(stmt);
+                DbUtils.closeQuietly(conn);
+            }
+        }
+        accountCache.clear();
+        readModel.clear();
+    }
+
+    private CustomerAccountDAOImpl shardDAO(long accountId) {
+        return shardDAOs[shardOf(accountId, shards.length)];
+    }
+
+    /**
+     * Get all CustomerAccounts of every shard in AccountId order.
+     */
+    public List<CustomerAccount> getAllCustomerAccounts() throws BaseException {
+        List<CustomerAccount> allCustomerAccounts = new ArrayList<CustomerAccount>();
+        for (CustomerAccountDAOImpl shardDAO : shardDAOs) {
+            allCustomerAccounts.addAll(shardDAO.getAllCustomerAccounts());
+        }
+        Collections.sort(allCustomerAccounts, BY_ACCOUNT_ID);
+        return allCustomerAccounts;
+    }
+
+    /**
+     * Get one keyset page ordered by AccountId, merged from the same page of every shard
+     */
+    public List<CustomerAccount> getCustomerAccounts(long afterAccountId, int limit) throws BaseException {
+        List<CustomerAccount> customerAccounts = new ArrayList<CustomerAccount>();
+        for (CustomerAccountDAOImpl shardDAO : shardDAOs) {
+            customerAccounts.addAll(shardDAO.getCustomerAccounts(afterAccountId, limit));
+        }
+        Collections.sort(customerAccounts, BY_ACCOUNT_ID);
+        return customerAccounts.size() > limit ? new ArrayList<CustomerAccount>(customerAccounts.subList(0, limit))
+                : customerAccounts;
+    }
+
+    public int forEachCustomerAccount(long afterAccountId, int limit, RowCallback<CustomerAccount> callback)
+            throws BaseException, IOException {
+        List<CustomerAccount> customerAccounts = getCustomerAccounts(afterAccountId, limit);
+        for (CustomerAccount customerAccount : customerAccounts) {
+            callback.onRow(customerAccount);
+        }
+        return customerAccounts.size();
+    }
+
+    public CustomerAccount getCustomerAccountById(Long accountId) throws BaseException {
+        return shardDAO(accountId).getCustomerAccountById(accountId);
+    }
+
+    public CustomerAccount getCustomerAccountSnapshot(Long accountId) throws BaseException {
+        return shardDAO(accountId).getCustomerAccountSnapshot(accountId);
+    }
+
+    /**
+     * Create the CustomerAccount in the shard its customer name hashes to, after checking no other shard has an
+     * account of the same customer and currency.
+     */
+    public long createCustomerAccount(CustomerAccount customerAccount) throws BaseException {
+        String customerName = customerAccount.getCustomerName();
+        int shard = Math.floorMod(customerName == null ? 0 : customerName.hashCode(), shards.length);
+        Object createLock = createLocks[Math.floorMod(
+                (customerName == null ? 0 : customerName.hashCode()) * 31 + customerAccount.getCurrencyId(),
+                CREATE_LOCK_STRIPES)];
+        synchronized (createLock) {
+            for (int other = 0; other < shards.length; other++) {
+                if (other != shard && existsIn(other, customerAccount)) {
+                    throw new BaseException("createCustomerAccount(): CustomerAccount already exists in shard " + other
+                            + ": " + customerAccount);
+                }
+            }
+            return shardDAOs[shard].createCustomerAccount(customerAccount);
+        }
+    }
+
+    private boolean existsIn(int shard, CustomerAccount customerAccount) throws BaseException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = shards[shard].getConnection();
+            stmt = conn.prepareStatement(SQL_FIND_ACC);
+            stmt.setString(1, customerAccount.getCustomerName());
+            stmt.setShort(2, customerAccount.getCurrencyId());
+            rs = stmt.executeQuery();
+            return rs.next();
+        } catch (SQLException e) {
+            throw new BaseException("createCustomerAccount(): Error reading CustomerAccount data of shard " + shard, e);
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+
+    public int deleteCustomerAccountById(Long accountId) throws BaseException {
+        return shardDAO(accountId).deleteCustomerAccountById(accountId);
+    }
+
+    public int updateCustomerAccountBalance(Long accountId, long deltaUnits) throws BaseException {
+        return shardDAO(accountId).updateCustomerAccountBalance(accountId, deltaUnits);
+    }
+
+    public CustomerAccount updateAndGetCustomerAccount(Long accountId, long deltaUnits) throws BaseException {
+        return shardDAO(accountId).updateAndGetCustomerAccount(accountId, deltaUnits);
+    }
+
+    /**
+     * Transfer within one shard as a local transaction, or between two shards with two-phase commit.
+     */
+    public int transferCustomerAccountBalance(CustomerTransaction customerTransaction) throws BaseException {
+        if (customerTransaction.getFromAccountId().equals(customerTransaction.getToAccountId())) {
+            throw new BaseException("Fail to transfer Fund, the source and destination CustomerAccount are the same");
+        }
+        int fromShard = shardOf(customerTransaction.getFromAccountId(), shards.length);
+        if (fromShard == shardOf(customerTransaction.getToAccountId(), shards.length)) {
+            return shardDAOs[fromShard].transferCustomerAccountBalance(customerTransaction);
+        }
+        List<CustomerTransactionResult> results = new ArrayList<CustomerTransactionResult>(1);
+        results.add(new CustomerTransactionResult(0));
+        CompletableFuture<Void> journaled = coordinator.execute(Collections.singletonList(customerTransaction), results);
+        CustomerTransactionResult result = results.get(0);
+        if (CustomerTransactionResult.COMPLETED.equals(result.getStatus())) {
+            transactionJournal.awaitCommitted(journaled);
+            return 2;
+        }
+        if (ShardTransferCoordinator.DATABASE_ERROR.equals(result.getMessage())) {
+            return -1;
+        }
+        throw new BaseException(result.getMessage());
+    }
+
+    /**
+     * A batch within one shard runs like CustomerAccountDAOImpl. Otherwise an all-or-nothing batch is one
+     * cross-shard transaction, and a best-effort batch commits each transfer on its own.
+     */
+    public List<CustomerTransactionResult> transferCustomerAccountBalanceBatch(List<CustomerTransaction> customerTransactions,
+                                                                               boolean allOrNothing) throws BaseException {
+        int shard = singleShardOf(customerTransactions);
+        if (shard >= 0) {
+            return shardDAOs[shard].transferCustomerAccountBalanceBatch(customerTransactions, allOrNothing);
+        }
+        List<CustomerTransactionResult> results = new ArrayList<CustomerTransactionResult>(customerTransactions.size());
+        for (int i = 0; i < customerTransactions.size(); i++) {
+            results.add(new CustomerTransactionResult(i));
+        }
+        List<CompletableFuture<Void>> journaled = new ArrayList<CompletableFuture<Void>>();
+        if (allOrNothing) {
+            journaled.add(coordinator.execute(customerTransactions, results));
+        } else {
+            for (int i = 0; i < customerTransactions.size(); i++) {
+                journaled.add(coordinator.execute(customerTransactions.subList(i, i + 1), results.subList(i, i + 1)));
+            }
+        }
+        for (CompletableFuture<Void> committed : journaled) {
+            transactionJournal.awaitCommitted(committed);
+        }
+        if (log.isDebugEnabled())
+            log.debug("transferCustomerAccountBalanceBatch(): " + customerTransactions.size()
+                    + " transfers over several shards");
+        return results;
+    }
+
+    /**
+     * @return the shard of every account in the transfers, or -1 if they span several
+     */
+    private int singleShardOf(List<CustomerTransaction> customerTransactions) {
+        int shard = -1;
+        for (long accountId : CustomerAccountDAOImpl.accountIdsOf(customerTransactions, 0, customerTransactions.size())) {
+            int accountShard = shardOf(accountId, shards.length);
+            if (shard >= 0 && accountShard != shard) {
+                return -1;
+            }
+            shard = accountShard;
+        }
+        return Math.max(shard, 0);
+    }
+}
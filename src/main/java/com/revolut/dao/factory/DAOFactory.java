@@ -2,6 +2,7 @@ package com.revolut.dao.factory;
 
 import com.revolut.dao.CustomerAccountDAO;
 import com.revolut.dao.CustomerDAO;
+import com.revolut.dao.CustomerTransactionDAO;
 
 /**
  * @author Guang_Yang
@@ -13,18 +14,33 @@ import com.revolut.dao.CustomerDAO;
 public abstract class DAOFactory {
 
 	public static final int H2 = 1;
+	public static final int LEDGER = 2;
+	public static final int SHARDED = 3;
 
 	public abstract CustomerDAO getCustomerDAO();
 
 	public abstract CustomerAccountDAO getCustomerAccountDAO();
 
+	public abstract CustomerTransactionDAO getCustomerTransactionDAO();
+
 	public abstract void populateTestData();
 
+	/**
+	 * Prepare the storage at application start, by default by loading the sample data.
+	 */
+	public void initialize() {
+		populateTestData();
+	}
+
 	public static DAOFactory getDAOFactory(int factoryCode) {
 
 		switch (factoryCode) {
 		case H2:
 			return new H2DAOFactory();
+		case LEDGER:
+			return new LedgerDAOFactory();
+		case SHARDED:
+			return new ShardedDAOFactory();
 		default:
 			// by default using H2 in memory database
 			return new H2DAOFactory();
@@ -0,0 +1,469 @@
+package com.revolut.dao.factory;
+
+import com.revolut.dao.ConnectionProvider;
+import com.revolut.metrics.LatencyHistogram;
+import com.revolut.metrics.MetricsRegistry;
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.LinkedBlockingDeque;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: H2ConnectionPool
+ * @Package com.revolut.dao.factory
+ * @Description: Bounded JDBC connection pool with acquire timeout, idle eviction and validation. Each physical
+ * connection keeps its prepared statements in a bounded LRU keyed by SQL text, so the fixed DAO statements are parsed
+ * once per connection; closing a cached statement only hands it back to the cache.
+ */
+class H2ConnectionPool implements ConnectionProvider {
+	private static Logger log = Logger.getLogger(H2ConnectionPool.class);
+
+	private final String url;
+	private final String user;
+	private final String password;
+	private final int minSize;
+	private final int maxSize;
+	private final long acquireTimeoutMs;
+	private final long idleTimeoutMs;
+	private final long validationIntervalMs;
+	private final int validationTimeoutSec;
+	private final int statementCacheSize;
+
+	// most recently returned connection at the head, so hot connections are reused first
+	private final LinkedBlockingDeque<PooledConnection> idleConnections = new LinkedBlockingDeque<PooledConnection>();
+	private final Semaphore permits;
+	private final AtomicInteger totalConnections = new AtomicInteger();
+	private final AtomicBoolean closed = new AtomicBoolean();
+	private final ScheduledExecutorService evictor;
+
+	private final AtomicLong createdCount = new AtomicLong();
+	private final AtomicLong destroyedCount = new AtomicLong();
+	private final AtomicLong acquiredCount = new AtomicLong();
+	private final AtomicLong acquireTimeoutCount = new AtomicLong();
+	private final AtomicLong validationFailureCount = new AtomicLong();
+	private final AtomicLong totalAcquireWaitNanos = new AtomicLong();
+	private final AtomicLong statementCacheHits = new AtomicLong();
+	private final AtomicLong statementCacheMisses = new AtomicLong();
+	private final AtomicLong statementCacheEvictions = new AtomicLong();
+	private final LatencyHistogram acquireLatency = MetricsRegistry.INSTANCE.histogram("db_connection_acquire_seconds",
+			"Time spent waiting for a pooled H2 connection");
+
+	H2ConnectionPool(String url, String user, String password, int minSize, int maxSize, long acquireTimeoutMs,
+			long idleTimeoutMs, long validationIntervalMs, int validationTimeoutSec, long evictionIntervalMs) {
+		this(url, user, password, minSize, maxSize, acquireTimeoutMs, idleTimeoutMs, validationIntervalMs,
+				validationTimeoutSec, evictionIntervalMs, 0);
+	}
+
+	/**
+	 * @param statementCacheSize prepared statements kept per connection, 0 disables the statement cache
+	 */
+	H2ConnectionPool(String url, String user, String password, int minSize, int maxSize, long acquireTimeoutMs,
+			long idleTimeoutMs, long validationIntervalMs, int validationTimeoutSec, long evictionIntervalMs,
+			int statementCacheSize) {
+		this.url = url;
+		this.user = user;
+		this.password = password;
+		this.maxSize = Math.max(1, maxSize);
+		this.minSize = Math.max(0, Math.min(minSize, this.maxSize));
+		this.acquireTimeoutMs = acquireTimeoutMs;
+		this.idleTimeoutMs = idleTimeoutMs;
+		this.validationIntervalMs = validationIntervalMs;
+		this.validationTimeoutSec = validationTimeoutSec;
+		this.statementCacheSize = Math.max(0, statementCacheSize);
+		this.permits = new Semaphore(this.maxSize, true);
+		this.evictor = Executors.newSingleThreadScheduledExecutor(new ThreadFactory() {
+			public Thread newThread(Runnable r) {
+				Thread thread = new Thread(r, "h2-pool-evictor");
+				thread.setDaemon(true);
+				return thread;
+			}
+		});
+		this.evictor.scheduleWithFixedDelay(new Runnable() {
+			public void run() {
+				evictIdleConnections();
+			}
+		}, 0, evictionIntervalMs, TimeUnit.MILLISECONDS);
+	}
+
+	/**
+	 * Borrow a connection, waiting up to the acquire timeout for one to become free.
+	 * Closing the returned connection hands it back to the pool.
+	 */
+	public Connection getConnection() throws SQLException {
+		if (closed.get()) {
+			throw new SQLException("Connection pool has been closed");
+		}
+		long start = System.nanoTime();
+		try {
+			if (!permits.tryAcquire(acquireTimeoutMs, TimeUnit.MILLISECONDS)) {
+				acquireTimeoutCount.incrementAndGet();
+				throw new SQLTransientConnectionException("Timeout after " + acquireTimeoutMs
+						+ "ms waiting for a connection, pool statistics: " + getStatistics());
+			}
+		} catch (InterruptedException e) {
+			Thread.currentThread().interrupt();
+			throw new SQLTransientConnectionException("Interrupted while waiting for a connection", e);
+		}
+		try {
+			PooledConnection pooled;
+			while ((pooled = idleConnections.pollFirst()) != null) {
+				if (validateOnBorrow(pooled)) {
+					break;
+				}
+				destroy(pooled);
+			}
+			if (pooled == null) {
+				pooled = create();
+			}
+			long waited = System.nanoTime() - start;
+			totalAcquireWaitNanos.addAndGet(waited);
+			acquireLatency.record(waited);
+			acquiredCount.incrementAndGet();
+			return pooled.checkout();
+		} catch (SQLException e) {
+			permits.release();
+			throw e;
+		} catch (RuntimeException e) {
+			permits.release();
+			throw e;
+		}
+	}
+
+	PoolStatistics getStatistics() {
+		int idle = idleConnections.size();
+		int total = totalConnections.get();
+		long acquired = acquiredCount.get();
+		return new PoolStatistics(minSize, maxSize, total, idle, Math.max(0, total - idle), permits.getQueueLength(),
+				createdCount.get(), destroyedCount.get(), acquired, acquireTimeoutCount.get(),
+				validationFailureCount.get(), acquired == 0 ? 0 : totalAcquireWaitNanos.get() / acquired / 1000,
+				statementCacheHits.get(), statementCacheMisses.get(), statementCacheEvictions.get());
+	}
+
+	/**
+	 * Close all idle connections and stop the evictor; borrowed connections are closed when returned.
+	 */
+	void close() {
+		if (closed.compareAndSet(false, true)) {
+			evictor.shutdownNow();
+			PooledConnection pooled;
+			while ((pooled = idleConnections.pollFirst()) != null) {
+				destroy(pooled);
+			}
+		}
+	}
+
+	private PooledConnection create() throws SQLException {
+		Connection raw = DriverManager.getConnection(url, user, password);
+		totalConnections.incrementAndGet();
+		createdCount.incrementAndGet();
+		if (log.isDebugEnabled())
+			log.debug("create(): New pooled connection, statistics: " + getStatistics());
+		return new PooledConnection(raw);
+	}
+
+	private void destroy(PooledConnection pooled) {
+		totalConnections.decrementAndGet();
+		destroyedCount.incrementAndGet();
+		try {
+			pooled.raw.close();
+		} catch (SQLException e) {
+			log.warn("destroy(): Error closing pooled connection", e);
+		}
+	}
+
+	private boolean validateOnBorrow(PooledConnection pooled) {
+		if (System.currentTimeMillis() - pooled.lastReturnedAt < validationIntervalMs) {
+			return true;
+		}
+		return validate(pooled);
+	}
+
+	private boolean validate(PooledConnection pooled) {
+		try {
+			if (pooled.raw.isValid(validationTimeoutSec)) {
+				return true;
+			}
+		} catch (SQLException e) {
+			log.warn("validate(): Error validating pooled connection", e);
+		}
+		validationFailureCount.incrementAndGet();
+		return false;
+	}
+
+	private void release(PooledConnection pooled) {
+		// statements a borrower left open go back to the cache with the connection
+		pooled.statements.releaseAll();
+		try {
+			// never hand an open transaction to the next borrower
+			if (!pooled.raw.getAutoCommit()) {
+				pooled.raw.rollback();
+				pooled.raw.setAutoCommit(true);
+			}
+		} catch (SQLException e) {
+			log.warn("release(): Error resetting pooled connection, discarding it", e);
+			destroy(pooled);
+			permits.release();
+			return;
+		}
+		if (closed.get()) {
+			destroy(pooled);
+		} else {
+			pooled.lastReturnedAt = System.currentTimeMillis();
+			idleConnections.offerFirst(pooled);
+		}
+		permits.release();
+	}
+
+	/**
+	 * Drop connections idle longer than the idle timeout or failing validation, then top the pool back up to its
+	 * minimum size.
+	 */
+	private void evictIdleConnections() {
+		try {
+			long now = System.currentTimeMillis();
+			Iterator<PooledConnection> it = idleConnections.descendingIterator();
+			while (it.hasNext()) {
+				PooledConnection pooled = it.next();
+				boolean expired = now - pooled.lastReturnedAt > idleTimeoutMs && totalConnections.get() > minSize;
+				if ((expired || !validate(pooled)) && idleConnections.removeLastOccurrence(pooled)) {
+					destroy(pooled);
+				}
+			}
+			while (!closed.get() && totalConnections.get() < minSize && permits.tryAcquire()) {
+				try {
+					PooledConnection pooled = create();
+					pooled.lastReturnedAt = System.currentTimeMillis();
+					idleConnections.offerLast(pooled);
+				} finally {
+					permits.release();
+				}
+			}
+		} catch (Exception e) {
+			log.warn("evictIdleConnections(): Error maintaining connection pool", e);
+		}
+	}
+
+	/**
+	 * Physical connection owned by the pool. Each checkout hands out a fresh proxy so a stale reference closed twice
+	 * cannot return the connection while somebody else is using it.
+	 */
+	private final class PooledConnection {
+		private final Connection raw;
+		private final StatementCache statements = new StatementCache();
+		private volatile long lastReturnedAt = System.currentTimeMillis();
+
+		PooledConnection(Connection raw) {
+			this.raw = raw;
+		}
+
+		Connection checkout() {
+			return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+					new Class<?>[] { Connection.class }, new CheckoutHandler(this));
+		}
+	}
+
+	private final class CheckoutHandler implements InvocationHandler {
+		private final PooledConnection pooled;
+		private final AtomicBoolean returned = new AtomicBoolean();
+
+		CheckoutHandler(PooledConnection pooled) {
+			this.pooled = pooled;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			if ("close".equals(name)) {
+				if (returned.compareAndSet(false, true)) {
+					release(pooled);
+				}
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return returned.get() || pooled.raw.isClosed();
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("toString".equals(name)) {
+				return "Pooled" + pooled.raw;
+			}
+			if (returned.get()) {
+				throw new SQLException("Connection has already been returned to the pool");
+			}
+			if ("prepareStatement".equals(name) && statementCacheSize > 0 && isCacheable(method)) {
+				return pooled.statements.prepare(pooled.raw, (Connection) proxy, args);
+			}
+			try {
+				return method.invoke(pooled.raw, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+
+	/**
+	 * prepareStatement(String) and prepareStatement(String, int autoGeneratedKeys); other variants carry cursor
+	 * settings the cache does not key on.
+	 */
+	private static boolean isCacheable(Method method) {
+		Class<?>[] parameterTypes = method.getParameterTypes();
+		return parameterTypes.length == 1 || (parameterTypes.length == 2 && parameterTypes[1] == int.class);
+	}
+
+	/**
+	 * Prepared statements of one physical connection, least recently used evicted first. Only the current borrower
+	 * of the connection touches it, so it needs no locking. It is keyed by SQL text, so generated SQL must come in a
+	 * few fixed shapes, like the padded IN lists of CustomerAccountDAOImpl, or it evicts the constant statements.
+	 */
+	private final class StatementCache {
+		private final LinkedHashMap<String, CachedStatement> statements = new LinkedHashMap<String, CachedStatement>(
+				16, 0.75f, true);
+
+		PreparedStatement prepare(Connection raw, Connection connection, Object[] args) throws SQLException {
+			String sql = (String) args[0];
+			String key = args.length == 1 ? sql : args[1] + "|" + sql;
+			CachedStatement cached = statements.get(key);
+			if (cached != null && !cached.inUse && !cached.statement.isClosed()) {
+				statementCacheHits.incrementAndGet();
+				return cached.checkout(connection);
+			}
+			statementCacheMisses.incrementAndGet();
+			PreparedStatement statement = args.length == 1 ? raw.prepareStatement(sql)
+					: raw.prepareStatement(sql, (Integer) args[1]);
+			if (cached != null && cached.inUse) {
+				// the same SQL is open twice in one checkout, the second statement stays uncached
+				return statement;
+			}
+			cached = new CachedStatement(statement);
+			statements.put(key, cached);
+			evictOverflow();
+			return cached.checkout(connection);
+		}
+
+		private void evictOverflow() {
+			Iterator<CachedStatement> it = statements.values().iterator();
+			while (statements.size() > statementCacheSize && it.hasNext()) {
+				CachedStatement eldest = it.next();
+				if (!eldest.inUse) {
+					it.remove();
+					statementCacheEvictions.incrementAndGet();
+					eldest.closeQuietly();
+				}
+			}
+		}
+
+		void releaseAll() {
+			for (CachedStatement cached : statements.values()) {
+				if (cached.inUse) {
+					cached.release();
+				}
+			}
+		}
+	}
+
+	private static final class CachedStatement {
+		private final PreparedStatement statement;
+		private boolean inUse;
+		// bumped on every checkout so a stale handle cannot release a later borrower's lease
+		private int lease;
+
+		CachedStatement(PreparedStatement statement) {
+			this.statement = statement;
+		}
+
+		PreparedStatement checkout(Connection connection) {
+			inUse = true;
+			lease++;
+			return (PreparedStatement) Proxy.newProxyInstance(PreparedStatement.class.getClassLoader(),
+					new Class<?>[] { PreparedStatement.class }, new StatementHandler(this, lease, connection));
+		}
+
+		void release() {
+			inUse = false;
+			try {
+				statement.clearParameters();
+				statement.clearBatch();
+			} catch (SQLException e) {
+				// a statement that cannot be reset is replaced on its next prepare
+				closeQuietly();
+			}
+		}
+
+		void closeQuietly() {
+			try {
+				statement.close();
+			} catch (SQLException e) {
+				log.warn("closeQuietly(): Error closing cached statement", e);
+			}
+		}
+	}
+
+	private static final class StatementHandler implements InvocationHandler {
+		private final CachedStatement cached;
+		private final int lease;
+		private final Connection connection;
+
+		StatementHandler(CachedStatement cached, int lease, Connection connection) {
+			this.cached = cached;
+			this.lease = lease;
+			this.connection = connection;
+		}
+
+		public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+			String name = method.getName();
+			boolean open = cached.inUse && cached.lease == lease;
+			if ("close".equals(name)) {
+				if (open) {
+					cached.release();
+				}
+				return null;
+			}
+			if ("isClosed".equals(name)) {
+				return !open || cached.statement.isClosed();
+			}
+			if ("getConnection".equals(name)) {
+				return connection;
+			}
+			if ("equals".equals(name)) {
+				return proxy == args[0];
+			}
+			if ("hashCode".equals(name)) {
+				return System.identityHashCode(proxy);
+			}
+			if ("toString".equals(name)) {
+				return "Cached" + cached.statement;
+			}
+			if (!open) {
+				throw new SQLException("Statement has already been closed");
+			}
+			try {
+				return method.invoke(cached.statement, args);
+			} catch (InvocationTargetException e) {
+				throw e.getCause();
+			}
+		}
+	}
+}
@@ -1,26 +1,41 @@
 package com.revolut.dao.factory;
 
+import com.revolut.dao.AccountReadModel;
+import com.revolut.dao.CustomerAccountCache;
 import com.revolut.dao.CustomerAccountDAO;
 import com.revolut.dao.CustomerAccountDAOImpl;
 import com.revolut.dao.CustomerDAO;
 import com.revolut.dao.CustomerDAOImpl;
+import com.revolut.dao.CustomerTransactionDAO;
+import com.revolut.dao.CustomerTransactionDAOImpl;
+import com.revolut.dao.CustomerTransactionJournal;
+import com.revolut.dao.IdempotencyStore;
+import com.revolut.metrics.MetricsRegistry;
+import com.revolut.metrics.TimedProxy;
+import com.revolut.util.BaseException;
 import com.revolut.util.CommonUtils;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.log4j.Logger;
 import org.h2.tools.RunScript;
 
-import java.io.FileNotFoundException;
-import java.io.FileReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
 import java.sql.Connection;
-import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.function.LongSupplier;
 
 /**
  * @author Guang_Yang
  * @version V1.0
  * @Title: DAOFactory
  * @Package com.revolut.dao.factory
- * @Description: H2 Database Data Access Object Factory Class
+ * @Description: H2 Database Data Access Object Factory Class. The memory profile (default) runs h2_connection_url
+ * and is rebuilt from the schema script at every start; the durable profile (h2_profile=durable) opens a file
+ * backed MVStore database that keeps its data across restarts, tuned by the h2_durable_* properties.
  */
 public class H2DAOFactory extends DAOFactory {
 	private static final String h2_driver = CommonUtils.getStringProperty("h2_driver");
@@ -29,17 +44,151 @@ public class H2DAOFactory extends DAOFactory {
 	private static final String h2_password = CommonUtils.getStringProperty("h2_password");
 	private static Logger log = Logger.getLogger(H2DAOFactory.class);
 
-	private final CustomerDAOImpl customerDAO = new CustomerDAOImpl();
-	private final CustomerAccountDAOImpl customerAccountDAO = new CustomerAccountDAOImpl();
+	private static final String SCHEMA_SCRIPT = "transfer-money.sql";
+	private static final String PROFILE_DURABLE = "durable";
+	private static final String COMMIT_ON_COMMIT = "on_commit";
+	// brings a durable database created by an older schema script up to date, every statement is idempotent
+	private static final String[] SCHEMA_UPGRADE = {
+			"ALTER TABLE CustomerTransactionJournal ADD COLUMN IF NOT EXISTS RequestedDate TIMESTAMP",
+			"DROP INDEX IF EXISTS idx_journal_from",
+			"DROP INDEX IF EXISTS idx_journal_to",
+			"CREATE INDEX IF NOT EXISTS idx_journal_from_id on CustomerTransactionJournal(FromAccountId, TransactionId, TransactionDate)",
+			"CREATE INDEX IF NOT EXISTS idx_journal_to_id on CustomerTransactionJournal(ToAccountId, TransactionId, TransactionDate)",
+			"CREATE INDEX IF NOT EXISTS idx_journal_date on CustomerTransactionJournal(TransactionDate, TransactionId)" };
+
+	private static final boolean durable = PROFILE_DURABLE.equalsIgnoreCase(
+			CommonUtils.getStringProperty("h2_profile", "memory").trim());
+	private static final String connectionUrl = durable ? durableUrl() : h2_connection_url;
+
+	private static final H2ConnectionPool connectionPool = new H2ConnectionPool(connectionUrl, h2_user, h2_password,
+			CommonUtils.getIntegerProperty("h2_pool_min_size", 2),
+			CommonUtils.getIntegerProperty("h2_pool_max_size", 20),
+			CommonUtils.getIntegerProperty("h2_pool_acquire_timeout_ms", 30000),
+			CommonUtils.getIntegerProperty("h2_pool_idle_timeout_ms", 600000),
+			CommonUtils.getIntegerProperty("h2_pool_validation_interval_ms", 30000),
+			CommonUtils.getIntegerProperty("h2_pool_validation_timeout_sec", 1),
+			CommonUtils.getIntegerProperty("h2_pool_eviction_interval_ms", 60000),
+			CommonUtils.getIntegerProperty("h2_statement_cache_size", 32));
+
+	private static final CustomerDAO customerDAO = TimedProxy.wrap(CustomerDAO.class, new CustomerDAOImpl());
+	private static final CustomerAccountDAO customerAccountDAO =
+			TimedProxy.wrap(CustomerAccountDAO.class, new CustomerAccountDAOImpl());
+	private static final CustomerTransactionDAO customerTransactionDAO =
+			TimedProxy.wrap(CustomerTransactionDAO.class, new CustomerTransactionDAOImpl());
+
+	static {
+		MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+		metrics.gauge("db_pool_connections", "H2 pool connections by state", new LongSupplier() {
+			public long getAsLong() {
+				return connectionPool.getStatistics().getActiveConnections();
+			}
+		}, "state", "active");
+		metrics.gauge("db_pool_connections", "H2 pool connections by state", new LongSupplier() {
+			public long getAsLong() {
+				return connectionPool.getStatistics().getIdleConnections();
+			}
+		}, "state", "idle");
+		metrics.gauge("db_pool_waiting_threads", "Threads waiting for an H2 pool connection", new LongSupplier() {
+			public long getAsLong() {
+				return connectionPool.getStatistics().getWaitingThreads();
+			}
+		});
+		metrics.counter("db_pool_acquire_timeouts_total", "H2 pool acquisitions that timed out", new LongSupplier() {
+			public long getAsLong() {
+				return connectionPool.getStatistics().getAcquireTimeoutCount();
+			}
+		});
+		metrics.counter("db_statement_cache_requests_total", "prepareStatement calls by statement cache result",
+				new LongSupplier() {
+					public long getAsLong() {
+						return connectionPool.getStatistics().getStatementCacheHits();
+					}
+				}, "result", "hit");
+		metrics.counter("db_statement_cache_requests_total", "prepareStatement calls by statement cache result",
+				new LongSupplier() {
+					public long getAsLong() {
+						return connectionPool.getStatistics().getStatementCacheMisses();
+					}
+				}, "result", "miss");
+		metrics.counter("db_statement_cache_evictions_total", "Prepared statements closed to keep the cache bounded",
+				new LongSupplier() {
+					public long getAsLong() {
+						return connectionPool.getStatistics().getStatementCacheEvictions();
+					}
+				});
+	}
 
 	H2DAOFactory() {
 		// init: load driver
 		DbUtils.loadDriver(h2_driver);
 	}
 
+	/**
+	 * File database URL with the MVStore settings of the durable profile:
+	 * CACHE_SIZE from h2_durable_cache_size_kb, COMPRESS from h2_durable_compress, and WRITE_DELAY from
+	 * h2_durable_write_delay_ms when h2_durable_commit is delayed, or 0 when it is on_commit so every commit is
+	 * written to the file before it returns. H2 does not close it on exit by itself, shutdownDatabase() does once
+	 * the transaction journal is flushed.
+	 */
+	static String durableUrl() {
+		StringBuilder url = new StringBuilder(
+				CommonUtils.getStringProperty("h2_durable_url", "jdbc:h2:./data/transfer-money"));
+		url.append(";CACHE_SIZE=").append(CommonUtils.getIntegerProperty("h2_durable_cache_size_kb", 16384));
+		boolean onCommit = COMMIT_ON_COMMIT.equalsIgnoreCase(
+				CommonUtils.getStringProperty("h2_durable_commit", "delayed").trim());
+		url.append(";WRITE_DELAY=").append(onCommit ? 0 : CommonUtils.getIntegerProperty("h2_durable_write_delay_ms", 500));
+		if (Boolean.parseBoolean(CommonUtils.getStringProperty("h2_durable_compress", "false"))) {
+			url.append(";COMPRESS=TRUE");
+		}
+		url.append(";DB_CLOSE_ON_EXIT=FALSE");
+		return url.toString();
+	}
+
+	/**
+	 * Close the durable database, writing out delayed commits; the in-memory database is left to H2.
+	 */
+	public static void shutdownDatabase() {
+		if (!durable) {
+			return;
+		}
+		Connection conn = null;
+		try {
+			conn = getConnection();
+			conn.createStatement().execute("SHUTDOWN");
+		} catch (SQLException e) {
+			log.error("shutdownDatabase(): Error closing the durable database", e);
+		} finally {
+			DbUtils.closeQuietly(conn);
+		}
+		connectionPool.close();
+	}
+
+	/**
+	 * @return true when running the file backed durable profile
+	 */
+	public static boolean isDurable() {
+		return durable;
+	}
+
+	/**
+	 * JDBC URL of the pooled connections, including the durable profile settings.
+	 */
+	public static String getConnectionUrl() {
+		return connectionUrl;
+	}
+
+	/**
+	 * Borrow a pooled connection; closing it returns it to the pool.
+	 */
 	public static Connection getConnection() throws SQLException {
-		return DriverManager.getConnection(h2_connection_url, h2_user, h2_password);
+		return connectionPool.getConnection();
+	}
 
+	/**
+	 * Live connection pool statistics.
+	 */
+	public static PoolStatistics getPoolStatistics() {
+		return connectionPool.getStatistics();
 	}
 
 	public CustomerDAO getCustomerDAO() {
@@ -50,21 +199,90 @@ public class H2DAOFactory extends DAOFactory {
 		return customerAccountDAO;
 	}
 
+	public CustomerTransactionDAO getCustomerTransactionDAO() {
+		return customerTransactionDAO;
+	}
+
+	/**
+	 * A durable database that already holds the schema keeps its data, anything else gets the sample script.
+	 */
+	@Override
+	public void initialize() {
+		if (durable && schemaExists()) {
+			log.info("Using existing durable database " + connectionUrl);
+			try {
+				upgradeSchema();
+			} catch (BaseException e) {
+				log.error("initialize(): Error upgrading schema: ", e);
+				throw new RuntimeException(e);
+			}
+			return;
+		}
+		populateTestData();
+	}
+
+	private static void upgradeSchema() throws BaseException {
+		Connection conn = null;
+		Statement stmt = null;
+		try {
+			conn = H2DAOFactory.getConnection();
+			stmt = conn.createStatement();
+			for (String sql : SCHEMA_UPGRADE) {
+				stmt.execute(sql);
+			}
+		} catch (SQLException e) {
+			throw new BaseException("upgradeSchema(): Error upgrading the durable database schema", e);
+		} finally {
+			DbUtils.closeQuietly(stmt);
+			DbUtils.closeQuietly(conn);
+		}
+	}
+
+	private static boolean schemaExists() {
+		Connection conn = null;
+		ResultSet rs = null;
+		try {
+			conn = H2DAOFactory.getConnection();
+			rs = conn.getMetaData().getTables(null, null, "CUSTOMERACCOUNT", null);
+			return rs.next();
+		} catch (SQLException e) {
+			log.error("schemaExists(): Error reading database metadata: ", e);
+			throw new RuntimeException(e);
+		} finally {
+			DbUtils.closeQuietly(conn, null, rs);
+		}
+	}
+
 	@Override
 	public void populateTestData() {
 		log.info("Populating Customer Table and Data ... ");
 		Connection conn = null;
+		// read from the classpath so the packaged jar runs from any working directory
+		InputStream script = H2DAOFactory.class.getClassLoader().getResourceAsStream(SCHEMA_SCRIPT);
+		if (script == null) {
+			throw new IllegalStateException("Schema script " + SCHEMA_SCRIPT + " not found on the classpath");
+		}
 		try {
+			// let queued journal entries land before the script recreates the table
+			CustomerTransactionJournal.getInstance().flush();
 			conn = H2DAOFactory.getConnection();
-			RunScript.execute(conn, new FileReader("src/main/resources/transfer-money.sql"));
+			RunScript.execute(conn, new InputStreamReader(script, StandardCharsets.UTF_8));
+			CustomerAccountCache.getInstance().clear();
+			AccountReadModel.getInstance().clear();
+			IdempotencyStore.getInstance().clear();
 		} catch (SQLException e) {
 			log.error("populateTestData(): Error populating customer data: ", e);
 			throw new RuntimeException(e);
-		} catch (FileNotFoundException e) {
-			log.error("populateTestData(): Error finding test script file ", e);
+		} catch (BaseException e) {
+			log.error("populateTestData(): Error flushing transaction journal: ", e);
 			throw new RuntimeException(e);
 		} finally {
 			DbUtils.closeQuietly(conn);
+			try {
+				script.close();
+			} catch (IOException e) {
+				log.warn("populateTestData(): Error closing schema script", e);
+			}
 		}
 	}
 
@@ -0,0 +1,99 @@
+package com.revolut.dao.factory;
+
+import com.revolut.dao.CustomerAccountDAO;
+import com.revolut.dao.CustomerAccountDAOImpl;
+import com.revolut.dao.CustomerDAO;
+import com.revolut.dao.CustomerDAOImpl;
+import com.revolut.dao.CustomerTransactionDAO;
+import com.revolut.dao.LedgerCustomerAccountDAOImpl;
+import com.revolut.dao.LedgerEngine;
+import com.revolut.metrics.TimedProxy;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LedgerDAOFactory
+ * @Package com.revolut.dao.factory
+ * @Description: Data Access Object Factory keeping account balances in the in-memory ledger, customers in H2
+ */
+public class LedgerDAOFactory extends DAOFactory {
+	private static Logger log = Logger.getLogger(LedgerDAOFactory.class);
+
+	private static final LedgerEngine ledgerEngine = startLedger();
+
+	private final H2DAOFactory h2DAOFactory = new H2DAOFactory();
+	private static final CustomerDAO customerDAO = TimedProxy.wrap(CustomerDAO.class, new CustomerDAOImpl());
+	private static final CustomerAccountDAO customerAccountDAO =
+			TimedProxy.wrap(CustomerAccountDAO.class, new LedgerCustomerAccountDAOImpl(ledgerEngine));
+
+	LedgerDAOFactory() {
+	}
+
+	private static LedgerEngine startLedger() {
+		LedgerEngine engine = new LedgerEngine(
+				new File(CommonUtils.getStringProperty("ledger_journal_file", "ledger.journal")),
+				CommonUtils.getIntegerProperty("ledger_ring_buffer_size", 1024),
+				Boolean.parseBoolean(CommonUtils.getStringProperty("ledger_journal_fsync", "false")),
+				CommonUtils.getIntegerProperty("ledger_command_timeout_ms", 5000));
+		try {
+			engine.start();
+		} catch (IOException e) {
+			log.error("startLedger(): Error replaying ledger journal", e);
+			throw new RuntimeException(e);
+		}
+		return engine;
+	}
+
+	public CustomerDAO getCustomerDAO() {
+		return customerDAO;
+	}
+
+	public CustomerAccountDAO getCustomerAccountDAO() {
+		return customerAccountDAO;
+	}
+
+	/**
+	 * Transfers are journaled in H2 with the customers.
+	 */
+	public CustomerTransactionDAO getCustomerTransactionDAO() {
+		return h2DAOFactory.getCustomerTransactionDAO();
+	}
+
+	/**
+	 * A ledger whose journal already held events keeps the state it replayed, only a new ledger is seeded.
+	 */
+	@Override
+	public void initialize() {
+		h2DAOFactory.initialize();
+		if (ledgerEngine.getReplayedEvents() > 0) {
+			log.info("Using existing ledger journal with " + ledgerEngine.getReplayedEvents() + " events");
+			return;
+		}
+		seedLedger();
+	}
+
+	/**
+	 * Load the sample script into H2 and seed the ledger from its CustomerAccount table.
+	 */
+	@Override
+	public void populateTestData() {
+		h2DAOFactory.populateTestData();
+		seedLedger();
+	}
+
+	private static void seedLedger() {
+		try {
+			ledgerEngine.reset(new CustomerAccountDAOImpl().getAllCustomerAccounts());
+		} catch (BaseException e) {
+			log.error("seedLedger(): Error seeding ledger accounts: ", e);
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,127 @@
+package com.revolut.dao.factory;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: PoolStatistics
+ * @Package com.revolut.dao.factory
+ * @Description: Point-in-time snapshot of the connection pool counters
+ */
+public class PoolStatistics {
+
+	private final int minSize;
+	private final int maxSize;
+	private final int totalConnections;
+	private final int idleConnections;
+	private final int activeConnections;
+	private final int waitingThreads;
+	private final long createdCount;
+	private final long destroyedCount;
+	private final long acquiredCount;
+	private final long acquireTimeoutCount;
+	private final long validationFailureCount;
+	private final long averageAcquireWaitMicros;
+	private final long statementCacheHits;
+	private final long statementCacheMisses;
+	private final long statementCacheEvictions;
+
+	public PoolStatistics(int minSize, int maxSize, int totalConnections, int idleConnections, int activeConnections,
+			int waitingThreads, long createdCount, long destroyedCount, long acquiredCount, long acquireTimeoutCount,
+			long validationFailureCount, long averageAcquireWaitMicros, long statementCacheHits,
+			long statementCacheMisses, long statementCacheEvictions) {
+		this.minSize = minSize;
+		this.maxSize = maxSize;
+		this.totalConnections = totalConnections;
+		this.idleConnections = idleConnections;
+		this.activeConnections = activeConnections;
+		this.waitingThreads = waitingThreads;
+		this.createdCount = createdCount;
+		this.destroyedCount = destroyedCount;
+		this.acquiredCount = acquiredCount;
+		this.acquireTimeoutCount = acquireTimeoutCount;
+		this.validationFailureCount = validationFailureCount;
+		this.averageAcquireWaitMicros = averageAcquireWaitMicros;
+		this.statementCacheHits = statementCacheHits;
+		this.statementCacheMisses = statementCacheMisses;
+		this.statementCacheEvictions = statementCacheEvictions;
+	}
+
+	public int getMinSize() {
+		return minSize;
+	}
+
+	public int getMaxSize() {
+		return maxSize;
+	}
+
+	public int getTotalConnections() {
+		return totalConnections;
+	}
+
+	public int getIdleConnections() {
+		return idleConnections;
+	}
+
+	public int getActiveConnections() {
+		return activeConnections;
+	}
+
+	public int getWaitingThreads() {
+		return waitingThreads;
+	}
+
+	public long getCreatedCount() {
+		return createdCount;
+	}
+
+	public long getDestroyedCount() {
+		return destroyedCount;
+	}
+
+	public long getAcquiredCount() {
+		return acquiredCount;
+	}
+
+	public long getAcquireTimeoutCount() {
+		return acquireTimeoutCount;
+	}
+
+	public long getValidationFailureCount() {
+		return validationFailureCount;
+	}
+
+	public long getAverageAcquireWaitMicros() {
+		return averageAcquireWaitMicros;
+	}
+
+	public long getStatementCacheHits() {
+		return statementCacheHits;
+	}
+
+	public long getStatementCacheMisses() {
+		return statementCacheMisses;
+	}
+
+	public long getStatementCacheEvictions() {
+		return statementCacheEvictions;
+	}
+
+	/**
+	 * @return share of prepareStatement calls served from the statement cache, 0 before the first call
+	 */
+	public double getStatementCacheHitRate() {
+		long total = statementCacheHits + statementCacheMisses;
+		return total == 0 ? 0 : (double) statementCacheHits / total;
+	}
+
+	@Override
+	public String toString() {
+		return "PoolStatistics{" + "minSize=" + minSize + ", maxSize=" + maxSize + ", total=" + totalConnections
+				+ ", idle=" + idleConnections + ", active=" + activeConnections + ", waiting=" + waitingThreads
+				+ ", created=" + createdCount + ", destroyed=" + destroyedCount + ", acquired=" + acquiredCount
+				+ ", acquireTimeouts=" + acquireTimeoutCount + ", validationFailures=" + validationFailureCount
+				+ ", avgAcquireWaitMicros=" + averageAcquireWaitMicros + ", statementCacheHits=" + statementCacheHits
+				+ ", statementCacheMisses=" + statementCacheMisses + ", statementCacheEvictions=" + statementCacheEvictions
+				+ '}';
+	}
+}
@@ -0,0 +1,136 @@
+package com.revolut.dao.factory;
+
+import com.revolut.dao.AccountReadModel;
+import com.revolut.dao.ConnectionProvider;
+import com.revolut.dao.CustomerAccountCache;
+import com.revolut.dao.CustomerAccountDAO;
+import com.revolut.dao.CustomerAccountDAOImpl;
+import com.revolut.dao.CustomerDAO;
+import com.revolut.dao.CustomerDAOImpl;
+import com.revolut.dao.CustomerTransactionDAO;
+import com.revolut.dao.ShardedCustomerAccountDAO;
+import com.revolut.metrics.TimedProxy;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+import org.apache.log4j.Logger;
+
+import java.io.File;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ShardedDAOFactory
+ * @Package com.revolut.dao.factory
+ * @Description: Data Access Object Factory spreading CustomerAccounts over shard_count H2 databases, each with its
+ * own connection pool, customers in H2
+ */
+public class ShardedDAOFactory extends DAOFactory {
+	private static Logger log = Logger.getLogger(ShardedDAOFactory.class);
+
+	private static final int shardCount = Math.max(1, CommonUtils.getIntegerProperty("shard_count", 4));
+	private static final String shardConnectionUrl = CommonUtils.getStringProperty("shard_connection_url",
+			"jdbc:h2:mem:transfer-money-shard-%d;DB_CLOSE_DELAY=-1");
+
+	private static final ShardedCustomerAccountDAO shardedAccountDAO = startShards();
+
+	private final H2DAOFactory h2DAOFactory = new H2DAOFactory();
+	private static final CustomerDAO customerDAO = TimedProxy.wrap(CustomerDAO.class, new CustomerDAOImpl());
+	private static final CustomerAccountDAO customerAccountDAO =
+			TimedProxy.wrap(CustomerAccountDAO.class, shardedAccountDAO);
+
+	ShardedDAOFactory() {
+	}
+
+	private static ShardedCustomerAccountDAO startShards() {
+		// the shards share the H2 driver and credentials of the main database
+		new H2DAOFactory();
+		ConnectionProvider[] shards = new ConnectionProvider[shardCount];
+		for (int i = 0; i < shardCount; i++) {
+			shards[i] = new H2ConnectionPool(String.format(shardConnectionUrl, i),
+					CommonUtils.getStringProperty("h2_user"), CommonUtils.getStringProperty("h2_password"),
+					CommonUtils.getIntegerProperty("h2_pool_min_size", 2),
+					CommonUtils.getIntegerProperty("h2_pool_max_size", 20),
+					CommonUtils.getIntegerProperty("h2_pool_acquire_timeout_ms", 30000),
+					CommonUtils.getIntegerProperty("h2_pool_idle_timeout_ms", 600000),
+					CommonUtils.getIntegerProperty("h2_pool_validation_interval_ms", 30000),
+					CommonUtils.getIntegerProperty("h2_pool_validation_timeout_sec", 1),
+					CommonUtils.getIntegerProperty("h2_pool_eviction_interval_ms", 60000),
+					CommonUtils.getIntegerProperty("h2_statement_cache_size", 32));
+		}
+		ShardedCustomerAccountDAO accountDAO = new ShardedCustomerAccountDAO(shards,
+				CustomerAccountCache.fromConfig(), new AccountReadModel(),
+				new File(CommonUtils.getStringProperty("shard_transfer_log", "shard-transfer.log")),
+				Boolean.parseBoolean(CommonUtils.getStringProperty("shard_transfer_log_fsync", "false")),
+				CommonUtils.getIntegerProperty("shard_transfer_log_max_bytes", 16777216));
+		try {
+			accountDAO.recover();
+		} catch (BaseException e) {
+			log.error("startShards(): Error recovering cross-shard transfers", e);
+			throw new RuntimeException(e);
+		}
+		log.info("Started " + shardCount + " CustomerAccount shards at " + shardConnectionUrl);
+		return accountDAO;
+	}
+
+	/**
+	 * Number of CustomerAccount shards of this JVM.
+	 */
+	public static int getShardCount() {
+		return shardCount;
+	}
+
+	public CustomerDAO getCustomerDAO() {
+		return customerDAO;
+	}
+
+	public CustomerAccountDAO getCustomerAccountDAO() {
+		return customerAccountDAO;
+	}
+
+	/**
+	 * Transfers are journaled in H2 with the customers.
+	 */
+	public CustomerTransactionDAO getCustomerTransactionDAO() {
+		return h2DAOFactory.getCustomerTransactionDAO();
+	}
+
+	/**
+	 * Shards that already hold their accounts keep them, only new shards are seeded from H2.
+	 */
+	@Override
+	public void initialize() {
+		h2DAOFactory.initialize();
+		try {
+			if (shardedAccountDAO.isSeeded()) {
+				log.info("Using existing CustomerAccount shards at " + shardConnectionUrl);
+				return;
+			}
+		} catch (BaseException e) {
+			log.error("initialize(): Error checking CustomerAccount shards: ", e);
+			throw new RuntimeException(e);
+		}
+		loadAccounts();
+	}
+
+	/**
+	 * Load the sample script into H2 and copy its CustomerAccount table into the shards.
+	 */
+	@Override
+	public void populateTestData() {
+		h2DAOFactory.populateTestData();
+		loadAccounts();
+	}
+
+	/**
+	 * Replace the accounts of the shards with the CustomerAccount table of the main database, keeping AccountIds.
+	 */
+	public void loadAccounts() {
+		try {
+			shardedAccountDAO.reset(new CustomerAccountDAOImpl().getAllCustomerAccounts());
+		} catch (BaseException e) {
+			log.error("loadAccounts(): Error seeding shard accounts: ", e);
+			throw new RuntimeException(e);
+		}
+	}
+
+}
@@ -0,0 +1,75 @@
+package com.revolut.metrics;
+
+import java.util.Arrays;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: LatencyHistogram
+ * @Package com.revolut.metrics
+ * @Description: Lock-free latency histogram with fixed bucket bounds, one LongAdder per bucket
+ */
+public class LatencyHistogram {
+
+    /** Upper bounds of the buckets in seconds, from 50 microseconds to 10 seconds */
+    static final double[] BUCKET_BOUNDS_SECONDS = {0.00005, 0.0001, 0.00025, 0.0005, 0.001, 0.0025, 0.005, 0.01,
+            0.025, 0.05, 0.1, 0.25, 0.5, 1.0, 2.5, 5.0, 10.0};
+
+    private static final long[] BUCKET_BOUNDS_NANOS = new long[BUCKET_BOUNDS_SECONDS.length];
+
+    static {
+        for (int i = 0; i < BUCKET_BOUNDS_SECONDS.length; i++) {
+            BUCKET_BOUNDS_NANOS[i] = (long) (BUCKET_BOUNDS_SECONDS[i] * TimeUnit.SECONDS.toNanos(1));
+        }
+    }
+
+    // last bucket counts everything above the highest bound (+Inf)
+    private final LongAdder[] buckets = new LongAdder[BUCKET_BOUNDS_NANOS.length + 1];
+    private final LongAdder sumNanos = new LongAdder();
+
+    public LatencyHistogram() {
+        for (int i = 0; i < buckets.length; i++) {
+            buckets[i] = new LongAdder();
+        }
+    }
+
+    public void record(long nanos) {
+        int index = Arrays.binarySearch(BUCKET_BOUNDS_NANOS, nanos);
+        buckets[index >= 0 ? index : -index - 1].increment();
+        sumNanos.add(nanos);
+    }
+
+    /**
+     * Record the time elapsed since startNanos, taken from System.nanoTime().
+     */
+    public void recordSince(long startNanos) {
+        record(System.nanoTime() - startNanos);
+    }
+
+    /**
+     * Cumulative counts per bucket bound, the last entry is the total count.
+     */
+    public long[] getCumulativeCounts() {
+        long[] counts = new long[buckets.length];
+        long total = 0;
+        for (int i = 0; i < buckets.length; i++) {
+            total += buckets[i].sum();
+            counts[i] = total;
+        }
+        return counts;
+    }
+
+    public long getCount() {
+        long count = 0;
+        for (LongAdder bucket : buckets) {
+            count += bucket.sum();
+        }
+        return count;
+    }
+
+    public double getSumSeconds() {
+        return sumNanos.sum() / (double) TimeUnit.SECONDS.toNanos(1);
+    }
+}
@@ -0,0 +1,152 @@
+package com.revolut.metrics;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: MetricsRegistry
+ * @Package com.revolut.metrics
+ * @Description: Process wide registry of histograms, counters and gauges, exported in the Prometheus text format.
+ * Look metrics up once and keep the reference on hot paths, recording itself never locks.
+ */
+public enum MetricsRegistry {
+
+    INSTANCE;
+
+    private static final String HISTOGRAM = "histogram";
+    private static final String COUNTER = "counter";
+    private static final String GAUGE = "gauge";
+
+    private final ConcurrentMap<String, Family> families = new ConcurrentSkipListMap<String, Family>();
+
+    /**
+     * @param name metric name, e.g. http_server_request_seconds
+     * @param help one line description
+     * @param labels alternating label names and values
+     */
+    public LatencyHistogram histogram(String name, String help, String... labels) {
+        return (LatencyHistogram) family(name, help, HISTOGRAM).get(formatLabels(labels));
+    }
+
+    public LongAdder counter(String name, String help, String... labels) {
+        return (LongAdder) family(name, help, COUNTER).get(formatLabels(labels));
+    }
+
+    /**
+     * Register a counter maintained elsewhere and read at scrape time, replacing any with the same name and labels.
+     */
+    public void counter(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, COUNTER).metrics.put(formatLabels(labels), supplier);
+    }
+
+    /**
+     * Register a gauge read at scrape time, replacing any gauge with the same name and labels.
+     */
+    public void gauge(String name, String help, LongSupplier supplier, String... labels) {
+        family(name, help, GAUGE).metrics.put(formatLabels(labels), supplier);
+    }
+
+    /**
+     * Render all metrics in the Prometheus text exposition format 0.0.4.
+     */
+    public String scrape() {
+        StringBuilder out = new StringBuilder(8192);
+        for (Map.Entry<String, Family> entry : families.entrySet()) {
+            String name = entry.getKey();
+            Family family = entry.getValue();
+            out.append("# HELP ").append(name).append(' ').append(family.help).append('\n');
+            out.append("# TYPE ").append(name).append(' ').append(family.type).append('\n');
+            for (Map.Entry<String, Object> metric : family.metrics.entrySet()) {
+                String labels = metric.getKey();
+                Object value = metric.getValue();
+                if (value instanceof LatencyHistogram) {
+                    writeHistogram(out, name, labels, (LatencyHistogram) value);
+                } else if (value instanceof LongAdder) {
+                    writeSample(out, name, labels, Long.toString(((LongAdder) value).sum()));
+                } else {
+                    writeSample(out, name, labels, Long.toString(((LongSupplier) value).getAsLong()));
+                }
+            }
+        }
+        return out.toString();
+    }
+
+    private Family family(String name, String help, String type) {
+        Family family = families.get(name);
+        if (family == null) {
+            Family created = new Family(help, type);
+            family = families.putIfAbsent(name, created);
+            if (family == null) {
+                family = created;
+            }
+        }
+        if (!family.type.equals(type)) {
+            throw new IllegalArgumentException("Metric " + name + " is already registered as a " + family.type);
+        }
+        return family;
+    }
+
+    private static void writeHistogram(StringBuilder out, String name, String labels, LatencyHistogram histogram) {
+        long[] cumulative = histogram.getCumulativeCounts();
+        String prefix = labels.isEmpty() ? "" : labels + ",";
+        for (int i = 0; i < LatencyHistogram.BUCKET_BOUNDS_SECONDS.length; i++) {
+            writeSample(out, name + "_bucket", prefix + "le=\"" + LatencyHistogram.BUCKET_BOUNDS_SECONDS[i] + "\"",
+                    Long.toString(cumulative[i]));
+        }
+        long count = cumulative[cumulative.length - 1];
+        writeSample(out, name + "_bucket", prefix + "le=\"+Inf\"", Long.toString(count));
+        writeSample(out, name + "_sum", labels, Double.toString(histogram.getSumSeconds()));
+        writeSample(out, name + "_count", labels, Long.toString(count));
+    }
+
+    private static void writeSample(StringBuilder out, String name, String labels, String value) {
+        out.append(name);
+        if (!labels.isEmpty()) {
+            out.append('{').append(labels).append('}');
+        }
+        out.append(' ').append(value).append('\n');
+    }
+
+    static String formatLabels(String... labels) {
+        if (labels.length % 2 != 0) {
+            throw new IllegalArgumentException("Labels must be name and value pairs");
+        }
+        StringBuilder formatted = new StringBuilder();
+        for (int i = 0; i < labels.length; i += 2) {
+            if (i > 0) {
+                formatted.append(',');
+            }
+            formatted.append(labels[i]).append("=\"").append(labels[i + 1].replace("\\", "\\\\")
+                    .replace("\"", "\\\"").replace("\n", "\\n")).append('"');
+        }
+        return formatted.toString();
+    }
+
+    private static class Family {
+        private final String help;
+        private final String type;
+        private final ConcurrentMap<String, Object> metrics = new ConcurrentSkipListMap<String, Object>();
+
+        private Family(String help, String type) {
+            this.help = help;
+            this.type = type;
+        }
+
+        private Object get(String labels) {
+            Object metric = metrics.get(labels);
+            if (metric == null) {
+                Object created = HISTOGRAM.equals(type) ? new LatencyHistogram() : new LongAdder();
+                metric = metrics.putIfAbsent(labels, created);
+                if (metric == null) {
+                    metric = created;
+                }
+            }
+            return metric;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.revolut.metrics;
+
+import javax.ws.rs.container.ContainerRequestContext;
+import javax.ws.rs.container.ContainerRequestFilter;
+import javax.ws.rs.container.ContainerResponseContext;
+import javax.ws.rs.container.ContainerResponseFilter;
+import javax.ws.rs.container.DynamicFeature;
+import javax.ws.rs.container.ResourceInfo;
+import javax.ws.rs.core.FeatureContext;
+import javax.ws.rs.ext.Provider;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ResourceTimingFeature
+ * @Package com.revolut.metrics
+ * @Description: Binds a timing filter to every resource method at startup, so each request only touches
+ * metrics that were resolved once for its method
+ */
+@Provider
+public class ResourceTimingFeature implements DynamicFeature {
+
+    public static final String REQUEST_SECONDS = "http_server_request_seconds";
+    public static final String REQUESTS_TOTAL = "http_server_requests_total";
+
+    public void configure(ResourceInfo resourceInfo, FeatureContext context) {
+        context.register(new TimingFilter(resourceInfo.getResourceClass().getSimpleName(),
+                resourceInfo.getResourceMethod().getName()));
+    }
+
+    private static class TimingFilter implements ContainerRequestFilter, ContainerResponseFilter {
+        private static final String START_PROPERTY = TimingFilter.class.getName() + ".start";
+
+        private final LatencyHistogram histogram;
+        // one counter per status class 1xx to 5xx
+        private final LongAdder[] statusCounters = new LongAdder[5];
+
+        private TimingFilter(String resource, String method) {
+            this.histogram = MetricsRegistry.INSTANCE.histogram(REQUEST_SECONDS,
+                    "Latency of REST resource methods", "resource", resource, "method", method);
+            for (int i = 0; i < statusCounters.length; i++) {
+                statusCounters[i] = MetricsRegistry.INSTANCE.counter(REQUESTS_TOTAL,
+                        "REST requests by resource method and status class",
+                        "resource", resource, "method", method, "status", (i + 1) + "xx");
+            }
+        }
+
+        public void filter(ContainerRequestContext requestContext) {
+            requestContext.setProperty(START_PROPERTY, System.nanoTime());
+        }
+
+        public void filter(ContainerRequestContext requestContext, ContainerResponseContext responseContext) {
+            Object start = requestContext.getProperty(START_PROPERTY);
+            if (start != null) {
+                histogram.recordSince((Long) start);
+            }
+            int statusClass = responseContext.getStatus() / 100;
+            if (statusClass >= 1 && statusClass <= statusCounters.length) {
+                statusCounters[statusClass - 1].increment();
+            }
+        }
+    }
+}
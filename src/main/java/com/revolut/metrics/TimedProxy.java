@@ -0,0 +1,71 @@
+package com.revolut.metrics;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TimedProxy
+ * @Package com.revolut.metrics
+ * @Description: Dynamic proxy recording a latency histogram and an error counter for every interface method,
+ * labelled with the implementation class
+ */
+public class TimedProxy implements InvocationHandler {
+
+    public static final String DAO_CALL_SECONDS = "dao_call_seconds";
+    public static final String DAO_CALL_ERRORS = "dao_call_errors_total";
+
+    private final Object target;
+    private final Map<Method, LatencyHistogram> histograms = new HashMap<Method, LatencyHistogram>();
+    private final Map<Method, LongAdder> errors = new HashMap<Method, LongAdder>();
+
+    private TimedProxy(Class<?> type, Object target) {
+        this.target = target;
+        String dao = target.getClass().getSimpleName();
+        // resolve all metrics up front, the maps are read-only afterwards
+        for (Method method : type.getMethods()) {
+            histograms.put(method, MetricsRegistry.INSTANCE.histogram(DAO_CALL_SECONDS,
+                    "Latency of DAO method calls", "dao", dao, "method", method.getName()));
+            errors.put(method, MetricsRegistry.INSTANCE.counter(DAO_CALL_ERRORS,
+                    "DAO method calls that threw an exception", "dao", dao, "method", method.getName()));
+        }
+    }
+
+    /**
+     * Wrap target so that every call through the given interface is timed.
+     */
+    public static <T> T wrap(Class<T> type, T target) {
+        return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[]{type}, new TimedProxy(type, target)));
+    }
+
+    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+        LatencyHistogram histogram = histograms.get(method);
+        if (histogram == null) {
+            // Object methods such as toString
+            return invokeTarget(method, args);
+        }
+        long start = System.nanoTime();
+        try {
+            return invokeTarget(method, args);
+        } catch (Throwable e) {
+            errors.get(method).increment();
+            throw e;
+        } finally {
+            histogram.recordSince(start);
+        }
+    }
+
+    private Object invokeTarget(Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+}
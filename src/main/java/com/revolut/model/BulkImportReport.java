@@ -0,0 +1,117 @@
+package com.revolut.model;
+
+import java.util.List;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: BulkImportReport
+ * @Package com.revolut.model
+ * @Description: Outcome of one bulk import
+ */
+public class BulkImportReport {
+
+	private String type;
+
+	private String format;
+
+	private long rowsRead;
+
+	private long rowsInserted;
+
+	private long rowsRejected;
+
+	private long elapsedMillis;
+
+	private long rowsPerSecond;
+
+	// first rejected rows with their line number and reason
+	private List<String> errors;
+
+	public BulkImportReport() {
+	}
+
+	public BulkImportReport(String type, String format, long rowsRead, long rowsInserted, long rowsRejected,
+			long elapsedMillis, List<String> errors) {
+		this.type = type;
+		this.format = format;
+		this.rowsRead = rowsRead;
+		this.rowsInserted = rowsInserted;
+		this.rowsRejected = rowsRejected;
+		this.elapsedMillis = elapsedMillis;
+		this.errors = errors;
+		this.rowsPerSecond = elapsedMillis == 0 ? rowsInserted * 1000 : rowsInserted * 1000 / elapsedMillis;
+	}
+
+	public String getType() {
+		return type;
+	}
+
+	public void setType(String type) {
+		this.type = type;
+	}
+
+	public String getFormat() {
+		return format;
+	}
+
+	public void setFormat(String format) {
+		this.format = format;
+	}
+
+	public long getRowsRead() {
+		return rowsRead;
+	}
+
+	public void setRowsRead(long rowsRead) {
+		this.rowsRead = rowsRead;
+	}
+
+	public long getRowsInserted() {
+		return rowsInserted;
+	}
+
+	public void setRowsInserted(long rowsInserted) {
+		this.rowsInserted = rowsInserted;
+	}
+
+	public long getRowsRejected() {
+		return rowsRejected;
+	}
+
+	public void setRowsRejected(long rowsRejected) {
+		this.rowsRejected = rowsRejected;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	public long getRowsPerSecond() {
+		return rowsPerSecond;
+	}
+
+	public void setRowsPerSecond(long rowsPerSecond) {
+		this.rowsPerSecond = rowsPerSecond;
+	}
+
+	public List<String> getErrors() {
+		return errors;
+	}
+
+	public void setErrors(List<String> errors) {
+		this.errors = errors;
+	}
+
+	@Override
+	public String toString() {
+		return "BulkImportReport{" + "type='" + type + '\'' + ", format='" + format + '\'' + ", rowsRead=" + rowsRead
+				+ ", rowsInserted=" + rowsInserted + ", rowsRejected=" + rowsRejected + ", elapsedMillis="
+				+ elapsedMillis + ", rowsPerSecond=" + rowsPerSecond + '}';
+	}
+
+}
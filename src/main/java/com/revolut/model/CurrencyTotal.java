@@ -0,0 +1,81 @@
+package com.revolut.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnoreProperties;
+
+import java.math.BigDecimal;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CurrencyTotal
+ * @Package com.revolut.model
+ * @Description: Sum of the CustomerAccount balances of one currency, against the expected total when one was given
+ */
+@JsonIgnoreProperties(value = "difference", allowGetters = true)
+public class CurrencyTotal {
+
+	private String currencyCode;
+
+	private long accounts;
+
+	private BigDecimal balance;
+
+	// null when no expected total was given for the currency
+	private BigDecimal expected;
+
+	public CurrencyTotal() {
+	}
+
+	public CurrencyTotal(String currencyCode, long accounts, BigDecimal balance, BigDecimal expected) {
+		this.currencyCode = currencyCode;
+		this.accounts = accounts;
+		this.balance = balance;
+		this.expected = expected;
+	}
+
+	public String getCurrencyCode() {
+		return currencyCode;
+	}
+
+	public void setCurrencyCode(String currencyCode) {
+		this.currencyCode = currencyCode;
+	}
+
+	public long getAccounts() {
+		return accounts;
+	}
+
+	public void setAccounts(long accounts) {
+		this.accounts = accounts;
+	}
+
+	public BigDecimal getBalance() {
+		return balance;
+	}
+
+	public void setBalance(BigDecimal balance) {
+		this.balance = balance;
+	}
+
+	public BigDecimal getExpected() {
+		return expected;
+	}
+
+	public void setExpected(BigDecimal expected) {
+		this.expected = expected;
+	}
+
+	/**
+	 * @return balance minus expected, null without an expected total
+	 */
+	public BigDecimal getDifference() {
+		return expected == null ? null : balance.subtract(expected);
+	}
+
+	@Override
+	public String toString() {
+		return "CurrencyTotal{" + "currencyCode='" + currencyCode + '\'' + ", accounts=" + accounts + ", balance="
+				+ balance + ", expected=" + expected + '}';
+	}
+
+}
@@ -3,6 +3,9 @@ package com.revolut.model;
 import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
 
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.Money;
+
 import java.math.BigDecimal;
 
 /**
@@ -20,26 +23,34 @@ public class CustomerAccount {
     @JsonProperty(required = true)
     private String customerName;
 
-    @JsonProperty(required = true)
-    private BigDecimal balance;
+    // fixed-point minor units, see Money
+    @JsonIgnore
+    private long balanceUnits;
 
-    @JsonProperty(required = true)
-    private String currencyCode;
+    // ISO numeric code, see CurrencyRegistry
+    @JsonIgnore
+    private short currencyId;
 
     public CustomerAccount() {
     }
 
-    public CustomerAccount(Long accountId, String customerName, BigDecimal balance, String currencyCode) {
+    public CustomerAccount(Long accountId, String customerName, long balanceUnits, short currencyId) {
         this.accountId = accountId;
         this.customerName = customerName;
-        this.balance = balance;
-        this.currencyCode = currencyCode;
+        this.balanceUnits = balanceUnits;
+        this.currencyId = currencyId;
+    }
+
+    public CustomerAccount(Long accountId, String customerName, long balanceUnits, String currencyCode) {
+        this(accountId, customerName, balanceUnits, CurrencyRegistry.INSTANCE.idOf(currencyCode));
+    }
+
+    public CustomerAccount(Long accountId, String customerName, BigDecimal balance, String currencyCode) {
+        this(accountId, customerName, Money.fromBigDecimal(balance), currencyCode);
     }
 
     public CustomerAccount(String customerName, BigDecimal balance, String currencyCode) {
-        this.customerName = customerName;
-        this.balance = balance;
-        this.currencyCode = currencyCode;
+        this(null, customerName, balance, currencyCode);
     }
 
     public Long getAccountId() {
@@ -54,20 +65,56 @@ public class CustomerAccount {
         this.customerName = customerName;
     }
 
+    @JsonProperty(value = "balance", required = true)
     public BigDecimal getBalance() {
-        return balance;
+        return Money.toBigDecimal(balanceUnits);
     }
 
+    /**
+     * @throws ArithmeticException if the balance does not fit the fixed-point range
+     */
+    @JsonProperty(value = "balance", required = true)
     public void setBalance(BigDecimal balance) {
-        this.balance = balance;
+        if (balance == null) {
+            throw new IllegalArgumentException("balance is required");
+        }
+        this.balanceUnits = Money.fromBigDecimal(balance);
     }
 
+    @JsonIgnore
+    public long getBalanceUnits() {
+        return balanceUnits;
+    }
+
+    @JsonIgnore
+    public void setBalanceUnits(long balanceUnits) {
+        this.balanceUnits = balanceUnits;
+    }
+
+    /**
+     * @return the ISO code, or null if the account was given an unknown currency
+     */
+    @JsonProperty(value = "currencyCode", required = true)
     public String getCurrencyCode() {
-        return currencyCode;
+        return CurrencyRegistry.INSTANCE.codeOf(currencyId);
     }
 
+    /**
+     * Unknown codes are kept as CurrencyRegistry.UNKNOWN and rejected when the account is created
+     */
+    @JsonProperty(value = "currencyCode", required = true)
     public void setCurrencyCode(String currencyCode) {
-        this.currencyCode = currencyCode;
+        this.currencyId = CurrencyRegistry.INSTANCE.idOf(currencyCode);
+    }
+
+    @JsonIgnore
+    public short getCurrencyId() {
+        return currencyId;
+    }
+
+    @JsonIgnore
+    public void setCurrencyId(short currencyId) {
+        this.currencyId = currencyId;
     }
 
     @Override
@@ -79,8 +126,8 @@ public class CustomerAccount {
 
         if (accountId != account.accountId) return false;
         if (!customerName.equals(account.customerName)) return false;
-        if (!balance.equals(account.balance)) return false;
-        return currencyCode.equals(account.currencyCode);
+        if (balanceUnits != account.balanceUnits) return false;
+        return currencyId == account.currencyId;
 
     }
 
@@ -88,8 +135,8 @@ public class CustomerAccount {
     public int hashCode() {
         int result = (int) (accountId ^ (accountId >>> 32));
         result = 31 * result + customerName.hashCode();
-        result = 31 * result + balance.hashCode();
-        result = 31 * result + currencyCode.hashCode();
+        result = 31 * result + (int) (balanceUnits ^ (balanceUnits >>> 32));
+        result = 31 * result + currencyId;
         return result;
     }
 
@@ -98,8 +145,8 @@ public class CustomerAccount {
         return "Account{" +
                 "accountId=" + accountId +
                 ", userName='" + customerName + '\'' +
-                ", balance=" + balance +
-                ", currencyCode='" + currencyCode + '\'' +
+                ", balance=" + Money.toString(balanceUnits) +
+                ", currencyCode='" + getCurrencyCode() + '\'' +
                 '}';
     }
 }
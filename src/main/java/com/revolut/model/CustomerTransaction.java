@@ -1,6 +1,9 @@
 package com.revolut.model;
 
+import com.fasterxml.jackson.annotation.JsonIgnore;
 import com.fasterxml.jackson.annotation.JsonProperty;
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.Money;
 
 import java.math.BigDecimal;
 import java.util.Date;
@@ -17,8 +20,13 @@ public class CustomerTransaction {
 	@JsonProperty(required = true)
 	private String currencyCode;
 
-	@JsonProperty(required = true)
-	private BigDecimal amount;
+	// resolved once from currencyCode, CurrencyRegistry.UNKNOWN if the code is invalid
+	@JsonIgnore
+	private short currencyId;
+
+	// fixed-point minor units, see Money
+	@JsonIgnore
+	private long amountUnits;
 
 	@JsonProperty(required = true)
 	private Long fromAccountId;
@@ -32,27 +40,55 @@ public class CustomerTransaction {
 	public CustomerTransaction() {
 	}
 
-	public CustomerTransaction(String currencyCode, BigDecimal amount, Long fromAccountId, Long toAccountId) {
-		this.currencyCode = currencyCode;
-		this.amount = amount;
+	public CustomerTransaction(String currencyCode, long amountUnits, Long fromAccountId, Long toAccountId) {
+		setCurrencyCode(currencyCode);
+		this.amountUnits = amountUnits;
 		this.fromAccountId = fromAccountId;
 		this.toAccountId = toAccountId;
 	}
 
+	public CustomerTransaction(String currencyCode, BigDecimal amount, Long fromAccountId, Long toAccountId) {
+		this(currencyCode, Money.fromBigDecimal(amount), fromAccountId, toAccountId);
+	}
+
 	public String getCurrencyCode() {
 		return currencyCode;
 	}
 
 	public void setCurrencyCode(String currencyCode) {
 		this.currencyCode = currencyCode;
+		this.currencyId = CurrencyRegistry.INSTANCE.idOf(currencyCode);
 	}
 
+	@JsonIgnore
+	public short getCurrencyId() {
+		return currencyId;
+	}
+
+	@JsonProperty(value = "amount", required = true)
 	public BigDecimal getAmount() {
-		return amount;
+		return Money.toBigDecimal(amountUnits);
 	}
 
+	/**
+	 * @throws ArithmeticException if the amount does not fit the fixed-point range
+	 */
+	@JsonProperty(value = "amount", required = true)
 	public void setAmount(BigDecimal amount) {
-		this.amount = amount;
+		if (amount == null) {
+			throw new IllegalArgumentException("amount is required");
+		}
+		this.amountUnits = Money.fromBigDecimal(amount);
+	}
+
+	@JsonIgnore
+	public long getAmountUnits() {
+		return amountUnits;
+	}
+
+	@JsonIgnore
+	public void setAmountUnits(long amountUnits) {
+		this.amountUnits = amountUnits;
 	}
 
 	public Long getFromAccountId() {
@@ -90,7 +126,7 @@ public class CustomerTransaction {
 
 		if (!currencyCode.equals(that.currencyCode))
 			return false;
-		if (!amount.equals(that.amount))
+		if (amountUnits != that.amountUnits)
 			return false;
 		if (!fromAccountId.equals(that.fromAccountId))
 			return false;
@@ -101,7 +137,7 @@ public class CustomerTransaction {
 	@Override
 	public int hashCode() {
 		int result = currencyCode.hashCode();
-		result = 31 * result + amount.hashCode();
+		result = 31 * result + (int) (amountUnits ^ (amountUnits >>> 32));
 		result = 31 * result + fromAccountId.hashCode();
 		result = 31 * result + toAccountId.hashCode();
 		return result;
@@ -109,7 +145,7 @@ public class CustomerTransaction {
 
 	@Override
 	public String toString() {
-		return "UserTransaction{" + "currencyCode='" + currencyCode + '\'' + ", amount=" + amount + ", fromAccountId="
+		return "UserTransaction{" + "currencyCode='" + currencyCode + '\'' + ", amount=" + Money.toString(amountUnits) + ", fromAccountId="
 				+ fromAccountId + ", toAccountId=" + toAccountId + '}';
 	}
 
@@ -0,0 +1,131 @@
+package com.revolut.model;
+
+import com.fasterxml.jackson.annotation.JsonIgnore;
+import com.fasterxml.jackson.annotation.JsonProperty;
+import com.revolut.util.CurrencyRegistry;
+import com.revolut.util.Money;
+
+import java.math.BigDecimal;
+import java.util.Date;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerTransactionRecord
+ * @Package com.revolut.model
+ * @Description: Completed CustomerTransaction as kept in the transaction history
+ */
+public class CustomerTransactionRecord {
+
+	private long transactionId;
+
+	private Long fromAccountId;
+
+	private Long toAccountId;
+
+	// fixed-point minor units, see Money
+	@JsonIgnore
+	private long amountUnits;
+
+	// ISO numeric code, see CurrencyRegistry
+	@JsonIgnore
+	private short currencyId;
+
+	// when the committed transfer was queued for the journal, the history is ordered by transactionId
+	private Date transactionDate;
+
+	// transactionDate given by the customer in the request, null if none was given
+	private Date requestedDate;
+
+	public CustomerTransactionRecord() {
+	}
+
+	public CustomerTransactionRecord(long transactionId, Long fromAccountId, Long toAccountId, long amountUnits,
+			short currencyId, Date transactionDate, Date requestedDate) {
+		this.transactionId = transactionId;
+		this.fromAccountId = fromAccountId;
+		this.toAccountId = toAccountId;
+		this.amountUnits = amountUnits;
+		this.currencyId = currencyId;
+		this.transactionDate = transactionDate;
+		this.requestedDate = requestedDate;
+	}
+
+	public long getTransactionId() {
+		return transactionId;
+	}
+
+	public void setTransactionId(long transactionId) {
+		this.transactionId = transactionId;
+	}
+
+	public Long getFromAccountId() {
+		return fromAccountId;
+	}
+
+	public void setFromAccountId(Long fromAccountId) {
+		this.fromAccountId = fromAccountId;
+	}
+
+	public Long getToAccountId() {
+		return toAccountId;
+	}
+
+	public void setToAccountId(Long toAccountId) {
+		this.toAccountId = toAccountId;
+	}
+
+	@JsonProperty("amount")
+	public BigDecimal getAmount() {
+		return Money.toBigDecimal(amountUnits);
+	}
+
+	@JsonProperty("amount")
+	public void setAmount(BigDecimal amount) {
+		this.amountUnits = Money.fromBigDecimal(amount);
+	}
+
+	@JsonIgnore
+	public long getAmountUnits() {
+		return amountUnits;
+	}
+
+	@JsonProperty("currencyCode")
+	public String getCurrencyCode() {
+		return CurrencyRegistry.INSTANCE.codeOf(currencyId);
+	}
+
+	@JsonProperty("currencyCode")
+	public void setCurrencyCode(String currencyCode) {
+		this.currencyId = CurrencyRegistry.INSTANCE.idOf(currencyCode);
+	}
+
+	@JsonIgnore
+	public short getCurrencyId() {
+		return currencyId;
+	}
+
+	public Date getTransactionDate() {
+		return transactionDate;
+	}
+
+	public void setTransactionDate(Date transactionDate) {
+		this.transactionDate = transactionDate;
+	}
+
+	public Date getRequestedDate() {
+		return requestedDate;
+	}
+
+	public void setRequestedDate(Date requestedDate) {
+		this.requestedDate = requestedDate;
+	}
+
+	@Override
+	public String toString() {
+		return "CustomerTransactionRecord{" + "transactionId=" + transactionId + ", fromAccountId=" + fromAccountId
+				+ ", toAccountId=" + toAccountId + ", amount=" + Money.toString(amountUnits) + ", currencyId="
+				+ currencyId + ", transactionDate=" + transactionDate + '}';
+	}
+
+}
@@ -0,0 +1,73 @@
+package com.revolut.model;
+
+import com.fasterxml.jackson.annotation.JsonProperty;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CustomerTransactionResult
+ * @Package com.revolut.model
+ * @Description: Outcome of one CustomerTransaction within a batch transfer
+ */
+public class CustomerTransactionResult {
+
+	public static final String COMPLETED = "COMPLETED";
+	public static final String FAILED = "FAILED";
+	public static final String ROLLED_BACK = "ROLLED_BACK";
+
+	@JsonProperty(required = true)
+	private int index;
+
+	@JsonProperty(required = true)
+	private String status;
+
+	@JsonProperty
+	private String message;
+
+	public CustomerTransactionResult() {
+	}
+
+	public CustomerTransactionResult(int index) {
+		this.index = index;
+	}
+
+	public int getIndex() {
+		return index;
+	}
+
+	public void setIndex(int index) {
+		this.index = index;
+	}
+
+	public String getStatus() {
+		return status;
+	}
+
+	public void setStatus(String status) {
+		this.status = status;
+	}
+
+	public String getMessage() {
+		return message;
+	}
+
+	public void setMessage(String message) {
+		this.message = message;
+	}
+
+	public void complete() {
+		this.status = COMPLETED;
+		this.message = null;
+	}
+
+	public void fail(String status, String message) {
+		this.status = status;
+		this.message = message;
+	}
+
+	@Override
+	public String toString() {
+		return "CustomerTransactionResult{" + "index=" + index + ", status='" + status + '\'' + ", message='" + message
+				+ '\'' + '}';
+	}
+}
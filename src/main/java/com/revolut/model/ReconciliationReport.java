@@ -0,0 +1,120 @@
+package com.revolut.model;
+
+import java.util.List;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ReconciliationReport
+ * @Package com.revolut.model
+ * @Description: Outcome of one balance reconciliation
+ */
+public class ReconciliationReport {
+
+	private List<CurrencyTotal> totals;
+
+	// first accounts and journal entries breaking an invariant, with the reason
+	private List<String> violations;
+
+	private long violationCount;
+
+	private long accountsScanned;
+
+	private long journalEntriesScanned;
+
+	private int partitions;
+
+	private long elapsedMillis;
+
+	private boolean balanced;
+
+	public ReconciliationReport() {
+	}
+
+	public ReconciliationReport(List<CurrencyTotal> totals, List<String> violations, long violationCount,
+			long accountsScanned, long journalEntriesScanned, int partitions, long elapsedMillis, boolean balanced) {
+		this.totals = totals;
+		this.violations = violations;
+		this.violationCount = violationCount;
+		this.accountsScanned = accountsScanned;
+		this.journalEntriesScanned = journalEntriesScanned;
+		this.partitions = partitions;
+		this.elapsedMillis = elapsedMillis;
+		this.balanced = balanced;
+	}
+
+	public List<CurrencyTotal> getTotals() {
+		return totals;
+	}
+
+	public void setTotals(List<CurrencyTotal> totals) {
+		this.totals = totals;
+	}
+
+	public List<String> getViolations() {
+		return violations;
+	}
+
+	public void setViolations(List<String> violations) {
+		this.violations = violations;
+	}
+
+	public long getViolationCount() {
+		return violationCount;
+	}
+
+	public void setViolationCount(long violationCount) {
+		this.violationCount = violationCount;
+	}
+
+	public long getAccountsScanned() {
+		return accountsScanned;
+	}
+
+	public void setAccountsScanned(long accountsScanned) {
+		this.accountsScanned = accountsScanned;
+	}
+
+	public long getJournalEntriesScanned() {
+		return journalEntriesScanned;
+	}
+
+	public void setJournalEntriesScanned(long journalEntriesScanned) {
+		this.journalEntriesScanned = journalEntriesScanned;
+	}
+
+	public int getPartitions() {
+		return partitions;
+	}
+
+	public void setPartitions(int partitions) {
+		this.partitions = partitions;
+	}
+
+	public long getElapsedMillis() {
+		return elapsedMillis;
+	}
+
+	public void setElapsedMillis(long elapsedMillis) {
+		this.elapsedMillis = elapsedMillis;
+	}
+
+	/**
+	 * @return true when no invariant is broken and every expected total matches
+	 */
+	public boolean isBalanced() {
+		return balanced;
+	}
+
+	public void setBalanced(boolean balanced) {
+		this.balanced = balanced;
+	}
+
+	@Override
+	public String toString() {
+		return "ReconciliationReport{" + "totals=" + totals + ", violationCount=" + violationCount
+				+ ", accountsScanned=" + accountsScanned + ", journalEntriesScanned=" + journalEntriesScanned
+				+ ", partitions=" + partitions + ", elapsedMillis=" + elapsedMillis + ", balanced=" + balanced + '}';
+	}
+
+}
@@ -0,0 +1,116 @@
+package com.revolut.service;
+
+import com.revolut.dao.AccountExporter;
+import com.revolut.dao.BalanceReconciler;
+import com.revolut.dao.BulkImporter;
+import com.revolut.model.BulkImportReport;
+import com.revolut.model.ReconciliationReport;
+import com.revolut.util.BaseException;
+
+import javax.ws.rs.Consumes;
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.GET;
+import javax.ws.rs.POST;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
+import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: AdminService
+ * @Package com.revolut.service
+ * @Description: Administrative operations, bulk import of customers and accounts, export of the accounts and
+ * balance reconciliation
+ */
+@Path("/admin")
+@Produces(MediaType.APPLICATION_JSON)
+public class AdminService {
+
+    private static final BulkImporter importer = BulkImporter.fromConfig();
+    private static final AccountExporter exporter = AccountExporter.fromConfig();
+    private static final BalanceReconciler reconciler = BalanceReconciler.fromConfig();
+
+    /**
+     * Import the request body into the database while it is being uploaded, the body is never held in memory.
+     * Rows the database refuses, such as duplicates, are counted and reported rather than failing the import.
+     * @param type customer or account
+     * @param format csv or ndjson, UTF-8 encoded
+     * @param body
+     * @return BulkImportReport
+     * @throws BaseException
+     */
+    @POST
+    @Path("/import")
+    @Consumes(MediaType.WILDCARD)
+    public BulkImportReport importRecords(@QueryParam("type") String type,
+                                          @QueryParam("format") @DefaultValue(BulkImporter.CSV) String format,
+                                          InputStream body) throws BaseException {
+        if (!BulkImporter.isSupported(type, format)) {
+            throw new WebApplicationException("type must be customer or account and format csv or ndjson",
+                    Response.Status.BAD_REQUEST);
+        }
+        return importer.importRecords(type, format, new InputStreamReader(body, StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Stream a consistent snapshot of every account and its balance, one record per line.
+     * @param format ndjson or csv
+     * @param gzip compress the response, served as application/gzip
+     * @return Response
+     */
+    @GET
+    @Path("/export")
+    public Response exportAccounts(@QueryParam("format") @DefaultValue(AccountExporter.NDJSON) final String format,
+                                   @QueryParam("gzip") @DefaultValue("false") final boolean gzip) {
+        if (!AccountExporter.isSupported(format)) {
+            throw new WebApplicationException("format must be ndjson or csv", Response.Status.BAD_REQUEST);
+        }
+        StreamingOutput output = new StreamingOutput() {
+            public void write(OutputStream output) throws IOException {
+                try {
+                    exporter.export(format, gzip, output);
+                } catch (BaseException e) {
+                    // the status line is already sent, abort the response instead of ending it cleanly
+                    throw new IOException("Export aborted", e);
+                }
+            }
+        };
+        String fileName = "accounts." + format + (gzip ? ".gz" : "");
+        String mediaType = gzip ? "application/gzip"
+                : AccountExporter.CSV.equals(format) ? "text/csv; charset=utf-8" : "application/x-ndjson";
+        return Response.ok(output, mediaType)
+                .header("Content-Disposition", "attachment; filename=\"" + fileName + "\"").build();
+    }
+
+    /**
+     * Sum the balances per currency against the expected totals and report the accounts and journal entries
+     * breaking an invariant. The job throttles itself, so on a large database it takes minutes.
+     * @param expected expected totals as CODE:amount, for example GBP:1000.50, repeated per currency
+     * @return ReconciliationReport, balanced is false on any violation or difference
+     * @throws BaseException
+     */
+    @POST
+    @Path("/reconcile")
+    public ReconciliationReport reconcile(@QueryParam("expected") List<String> expected) throws BaseException {
+        Map<String, BigDecimal> expectedTotals;
+        try {
+            expectedTotals = BalanceReconciler.parseExpectedTotals(expected);
+        } catch (IllegalArgumentException e) {
+            throw new WebApplicationException(e.getMessage(), Response.Status.BAD_REQUEST);
+        }
+        return reconciler.reconcile(expectedTotals);
+    }
+}
@@ -2,16 +2,21 @@ package com.revolut.service;
 
 import com.revolut.dao.factory.DAOFactory;
 import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransactionRecord;
 import com.revolut.util.BaseException;
-import com.revolut.util.MoneyUtils;
+import com.revolut.util.Money;
 import org.apache.log4j.Logger;
 
 import javax.ws.rs.*;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.math.BigDecimal;
-import java.math.RoundingMode;
+import java.util.Date;
 import java.util.List;
+import java.util.concurrent.Callable;
 
 /**
  * @author Guang_Yang
@@ -25,23 +30,54 @@ import java.util.List;
 public class CustomerAccountService {
 	
     private final DAOFactory daoFactory = DAOFactory.getDAOFactory(DAOFactory.H2);
+
+    private final DatabaseExecutor databaseExecutor = DatabaseExecutor.getInstance();
     
     private static Logger log = Logger.getLogger(CustomerAccountService.class);
 
     
     /**
-     * getAllCustomerAccounts
-     * @return List<CustomerAccount>
+     * getAllCustomerAccounts after the given accountId in accountId order.
+     * Without a limit the whole table is streamed, with a limit one page is returned and the
+     * X-Next-After header carries the cursor of the next page when there may be more.
+     * @param after accountId to continue after
+     * @param limit page size
+     * @return Response
      * @throws BaseException
      */
     @GET
     @Path("/all")
-    public List<CustomerAccount> getAllCustomerAccounts() throws BaseException {
-        return daoFactory.getCustomerAccountDAO().getAllCustomerAccounts();
+    public Response getAllCustomerAccounts(@QueryParam("after") @DefaultValue("0") long after,
+                                           @QueryParam("limit") Integer limit) throws BaseException {
+        if (after < 0) {
+            throw new WebApplicationException("Invalid after parameter", Response.Status.BAD_REQUEST);
+        }
+        if (limit == null) {
+            return Response.ok(new KeysetStreamingOutput<CustomerAccount>(after) {
+                protected List<CustomerAccount> fetchPage(long afterId, int pageSize) throws BaseException {
+                    return daoFactory.getCustomerAccountDAO().getCustomerAccounts(afterId, pageSize);
+                }
+
+                protected long idOf(CustomerAccount customerAccount) {
+                    return customerAccount.getAccountId();
+                }
+            }).build();
+        }
+        if (limit < 1 || limit > KeysetStreamingOutput.PAGE_MAX_LIMIT) {
+            throw new WebApplicationException("limit must be between 1 and " + KeysetStreamingOutput.PAGE_MAX_LIMIT,
+                    Response.Status.BAD_REQUEST);
+        }
+        List<CustomerAccount> customerAccounts = daoFactory.getCustomerAccountDAO().getCustomerAccounts(after, limit);
+        Response.ResponseBuilder response = Response.ok(new GenericEntity<List<CustomerAccount>>(customerAccounts) {});
+        if (customerAccounts.size() == limit) {
+            response.header(CustomerService.NEXT_AFTER_HEADER,
+                    customerAccounts.get(customerAccounts.size() - 1).getAccountId());
+        }
+        return response.build();
     }
 
     /**
-     * Find by account id
+     * Find by account id, served from the read model
      * @param accountId
      * @return CustomerAccount
      * @throws BaseException
@@ -49,11 +85,11 @@ public class CustomerAccountService {
     @GET
     @Path("/{accountId}")
     public CustomerAccount getCustomerAccount(@PathParam("accountId") Long accountId) throws BaseException {
-        return daoFactory.getCustomerAccountDAO().getCustomerAccountById(accountId);
+        return daoFactory.getCustomerAccountDAO().getCustomerAccountSnapshot(accountId);
     }
     
     /**
-     * Find balance by account Id
+     * Find balance by account Id, served from the read model
      * @param accountId
      * @return BigDecimal
      * @throws BaseException
@@ -61,7 +97,7 @@ public class CustomerAccountService {
     @GET
     @Path("/{accountId}/balance")
     public BigDecimal getBalance(@PathParam("accountId") Long accountId) throws BaseException {
-        final CustomerAccount customerAccount = daoFactory.getCustomerAccountDAO().getCustomerAccountById(accountId);
+        final CustomerAccount customerAccount = daoFactory.getCustomerAccountDAO().getCustomerAccountSnapshot(accountId);
 
         if(customerAccount == null){
             throw new WebApplicationException("CustomerAccount not found", Response.Status.NOT_FOUND);
@@ -70,72 +106,141 @@ public class CustomerAccountService {
     }
     
     /**
-     * Create Account
-     * @param customerAccount
-     * @return CustomerAccount
+     * Completed transfers from or to the account in the order they were journaled, one keyset page at a time.
+     * The X-Next-After header carries the cursor of the next page when the page is full.
+     * @param accountId
+     * @param from first transactionDate included, in epoch milliseconds
+     * @param to first transactionDate excluded, in epoch milliseconds
+     * @param after transactionId to continue after
+     * @param limit page size
+     * @return Response
      * @throws BaseException
      */
+    @GET
+    @Path("/{accountId}/transactions")
+    public Response getTransactions(@PathParam("accountId") Long accountId, @QueryParam("from") Long from,
+                                    @QueryParam("to") Long to, @QueryParam("after") String after,
+                                    @QueryParam("limit") @DefaultValue("100") int limit) throws BaseException {
+        if (limit < 1 || limit > KeysetStreamingOutput.PAGE_MAX_LIMIT) {
+            throw new WebApplicationException("limit must be between 1 and " + KeysetStreamingOutput.PAGE_MAX_LIMIT,
+                    Response.Status.BAD_REQUEST);
+        }
+        if (from != null && to != null && from > to) {
+            throw new WebApplicationException("from must not be after to", Response.Status.BAD_REQUEST);
+        }
+        long afterTransactionId = 0;
+        if (after != null) {
+            try {
+                afterTransactionId = Long.parseLong(after);
+            } catch (NumberFormatException e) {
+                throw new WebApplicationException("Invalid after parameter", Response.Status.BAD_REQUEST);
+            }
+        }
+        if (afterTransactionId < 0) {
+            throw new WebApplicationException("Invalid after parameter", Response.Status.BAD_REQUEST);
+        }
+        List<CustomerTransactionRecord> records = daoFactory.getCustomerTransactionDAO().getCustomerTransactions(
+                accountId, from == null ? null : new Date(from), to == null ? null : new Date(to),
+                afterTransactionId, limit);
+        Response.ResponseBuilder response = Response.ok(new GenericEntity<List<CustomerTransactionRecord>>(records) {});
+        if (records.size() == limit) {
+            response.header(CustomerService.NEXT_AFTER_HEADER, records.get(records.size() - 1).getTransactionId());
+        }
+        return response.build();
+    }
+
+    /**
+     * Create Account on the DatabaseExecutor
+     * @param customerAccount
+     * @param asyncResponse resumed with the created CustomerAccount
+     */
     @POST
     @Path("/create")
-    public CustomerAccount createAccount(CustomerAccount customerAccount) throws BaseException {
-        final Long accountId = daoFactory.getCustomerAccountDAO().createCustomerAccount(customerAccount);
-        return daoFactory.getCustomerAccountDAO().getCustomerAccountById(accountId);
+    public void createAccount(final CustomerAccount customerAccount, @Suspended AsyncResponse asyncResponse) {
+        databaseExecutor.submit(asyncResponse, new Callable<CustomerAccount>() {
+            public CustomerAccount call() throws BaseException {
+                final Long accountId = daoFactory.getCustomerAccountDAO().createCustomerAccount(customerAccount);
+                return daoFactory.getCustomerAccountDAO().getCustomerAccountById(accountId);
+            }
+        });
     }
 
     /**
-     * Deposit amount by account Id
+     * Deposit amount by account Id on the DatabaseExecutor
      * @param accountId
      * @param amount
-     * @return CustomerAccount
-     * @throws BaseException
+     * @param asyncResponse resumed with the updated CustomerAccount
      */
     @PUT
     @Path("/{accountId}/deposit/{amount}")
-    public CustomerAccount deposit(@PathParam("accountId") Long accountId,@PathParam("amount") BigDecimal amount) throws BaseException {
+    public void deposit(@PathParam("accountId") final Long accountId, @PathParam("amount") BigDecimal amount,
+                        @Suspended AsyncResponse asyncResponse) {
 
-        if (amount.compareTo(MoneyUtils.zeroAmount) <=0){
+        final long units = toUnits(amount);
+        if (units <= Money.ZERO){
             throw new WebApplicationException("Invalid Deposit amount", Response.Status.BAD_REQUEST);
         }
-        daoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(accountId, amount.setScale(4, RoundingMode.HALF_EVEN));
-        return daoFactory.getCustomerAccountDAO().getCustomerAccountById(accountId);
+        databaseExecutor.submit(asyncResponse, new Callable<CustomerAccount>() {
+            public CustomerAccount call() throws BaseException {
+                return daoFactory.getCustomerAccountDAO().updateAndGetCustomerAccount(accountId, units);
+            }
+        });
     }
 
     /**
-     * Withdraw amount by account Id
+     * Withdraw amount by account Id on the DatabaseExecutor
      * @param accountId
      * @param amount
-     * @return CustomerAccount
-     * @throws BaseException
+     * @param asyncResponse resumed with the updated CustomerAccount
      */
     @PUT
     @Path("/{accountId}/withdraw/{amount}")
-    public CustomerAccount withdraw(@PathParam("accountId") Long accountId,@PathParam("amount") BigDecimal amount) throws BaseException {
+    public void withdraw(@PathParam("accountId") final Long accountId, @PathParam("amount") BigDecimal amount,
+                         @Suspended AsyncResponse asyncResponse) {
 
-        if (amount.compareTo(MoneyUtils.zeroAmount) <=0){
+        long units = toUnits(amount);
+        if (units <= Money.ZERO){
             throw new WebApplicationException("Invalid Deposit amount", Response.Status.BAD_REQUEST);
         }
-        BigDecimal delta = amount.negate();
+        final long delta = -units;
         if (log.isDebugEnabled())
-            log.debug("Withdraw service: delta change to account  " + delta + " Account ID = " +accountId);
-        daoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(accountId, delta.setScale(4, RoundingMode.HALF_EVEN));
-        return daoFactory.getCustomerAccountDAO().getCustomerAccountById(accountId);
+            log.debug("Withdraw service: delta change to account  " + Money.toString(delta) + " Account ID = " +accountId);
+        databaseExecutor.submit(asyncResponse, new Callable<CustomerAccount>() {
+            public CustomerAccount call() throws BaseException {
+                return daoFactory.getCustomerAccountDAO().updateAndGetCustomerAccount(accountId, delta);
+            }
+        });
     }
 
 
     /**
-     * Delete amount by account Id
+     * Delete amount by account Id on the DatabaseExecutor
      * @param accountId
-     * @return Response
-     * @throws BaseException
+     * @param asyncResponse resumed with the Response
      */
     @DELETE
     @Path("/{accountId}")
-    public Response deleteAccount(@PathParam("accountId") Long accountId) throws BaseException {
-        int deleteCount = daoFactory.getCustomerAccountDAO().deleteCustomerAccountById(accountId);
-        if (deleteCount == 1) {
-            return Response.status(Response.Status.OK).build();
-        } else {
-            return Response.status(Response.Status.NOT_FOUND).build();
+    public void deleteAccount(@PathParam("accountId") final Long accountId, @Suspended AsyncResponse asyncResponse) {
+        databaseExecutor.submit(asyncResponse, new Callable<Response>() {
+            public Response call() throws BaseException {
+                int deleteCount = daoFactory.getCustomerAccountDAO().deleteCustomerAccountById(accountId);
+                if (deleteCount == 1) {
+                    return Response.status(Response.Status.OK).build();
+                } else {
+                    return Response.status(Response.Status.NOT_FOUND).build();
+                }
+            }
+        });
+    }
+
+    /**
+     * Convert a path amount to fixed-point units once at the boundary, rounding to scale 4
+     */
+    private static long toUnits(BigDecimal amount) {
+        try {
+            return Money.fromBigDecimal(amount);
+        } catch (ArithmeticException e) {
+            throw new WebApplicationException("Amount out of range", Response.Status.BAD_REQUEST);
         }
     }
 
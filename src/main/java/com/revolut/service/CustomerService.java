@@ -5,6 +5,7 @@ import com.revolut.model.Customer;
 import com.revolut.util.BaseException;
 import org.apache.log4j.Logger;
 import javax.ws.rs.*;
+import javax.ws.rs.core.GenericEntity;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
 import java.util.List;
@@ -17,15 +18,45 @@ public class CustomerService {
     
 	private static Logger log = Logger.getLogger(CustomerService.class);
 
+	public static final String NEXT_AFTER_HEADER = "X-Next-After";
+
     /**
-     * Find all customers
-     * @return List<Customer>
+     * Find all customers after the given customerId in customerId order.
+     * Without a limit the whole table is streamed, with a limit one page is returned and the
+     * X-Next-After header carries the cursor of the next page when there may be more.
+     * @param after customerId to continue after
+     * @param limit page size
+     * @return Response
      * @throws BaseException
      */
     @GET
     @Path("/all")
-    public List<Customer> getAllUsers() throws BaseException {
-        return daoFactory.getCustomerDAO().getAllCustomers();
+    public Response getAllUsers(@QueryParam("after") @DefaultValue("0") long after,
+                                @QueryParam("limit") Integer limit) throws BaseException {
+        if (after < 0) {
+            throw new WebApplicationException("Invalid after parameter", Response.Status.BAD_REQUEST);
+        }
+        if (limit == null) {
+            return Response.ok(new KeysetStreamingOutput<Customer>(after) {
+                protected List<Customer> fetchPage(long afterId, int pageSize) throws BaseException {
+                    return daoFactory.getCustomerDAO().getCustomers(afterId, pageSize);
+                }
+
+                protected long idOf(Customer customer) {
+                    return customer.getCustomerId();
+                }
+            }).build();
+        }
+        if (limit < 1 || limit > KeysetStreamingOutput.PAGE_MAX_LIMIT) {
+            throw new WebApplicationException("limit must be between 1 and " + KeysetStreamingOutput.PAGE_MAX_LIMIT,
+                    Response.Status.BAD_REQUEST);
+        }
+        List<Customer> customers = daoFactory.getCustomerDAO().getCustomers(after, limit);
+        Response.ResponseBuilder response = Response.ok(new GenericEntity<List<Customer>>(customers) {});
+        if (customers.size() == limit) {
+            response.header(NEXT_AFTER_HEADER, customers.get(customers.size() - 1).getCustomerId());
+        }
+        return response.build();
     }
     /**
      * Find by customerId
@@ -1,40 +1,165 @@
 package com.revolut.service;
 
+import com.revolut.dao.IdempotencyStore;
+import com.revolut.dao.ShardTransferCoordinator;
 import com.revolut.dao.factory.DAOFactory;
 import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
 import com.revolut.util.BaseException;
-import com.revolut.util.MoneyUtils;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.CurrencyRegistry;
 
+import javax.ws.rs.DefaultValue;
+import javax.ws.rs.HeaderParam;
 import javax.ws.rs.POST;
 import javax.ws.rs.Path;
 import javax.ws.rs.Produces;
+import javax.ws.rs.QueryParam;
 import javax.ws.rs.WebApplicationException;
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.container.Suspended;
 import javax.ws.rs.core.MediaType;
 import javax.ws.rs.core.Response;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.BiFunction;
 
 @Path("/transaction")
 @Produces(MediaType.APPLICATION_JSON)
 public class CustomerTransactionService {
 
+	static final String MODE_ALL_OR_NOTHING = "ALL_OR_NOTHING";
+	static final String MODE_BEST_EFFORT = "BEST_EFFORT";
+	static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	static final String IDEMPOTENT_REPLAYED_HEADER = "Idempotent-Replayed";
+	private static final int MAX_IDEMPOTENCY_KEY_LENGTH = 255;
+	private static final int STATUS_CONFLICT = 409;
+	private static final String TRANSACTION_FAILED = "Transaction failed";
+
+	private static final int maxBatchSize = CommonUtils.getIntegerProperty("transfer_batch_max_size", 10000);
+
 	private final DAOFactory daoFactory = DAOFactory.getDAOFactory(DAOFactory.H2);
 	
+	private final IdempotencyStore idempotencyStore = IdempotencyStore.getInstance();
+
+	private final DatabaseExecutor databaseExecutor = DatabaseExecutor.getInstance();
+
 	/**
-	 * Transfer fund between two accounts.
+	 * Transfer fund between two accounts on the DatabaseExecutor, answering 503 when it is saturated.
+	 * A retry carrying the Idempotency-Key of an earlier request gets that request's result without a second
+	 * transfer. While the earlier request is still running the retry is resumed with its result once it finishes,
+	 * holding no executor thread, or with 409 after idempotency_key_wait_ms. A request that applied nothing releases
+	 * its key, so retrying it runs the transfer again.
 	 * @param customerTransaction
-	 * @return Response
-	 * @throws BaseException
+	 * @param idempotencyKey optional client generated key, unique per transfer
+	 * @param asyncResponse resumed with the Response
 	 */
 	@POST
-	public Response transferFund(CustomerTransaction customerTransaction) throws BaseException {
+	public void transferFund(final CustomerTransaction customerTransaction,
+			@HeaderParam(IDEMPOTENCY_KEY_HEADER) final String idempotencyKey,
+			@Suspended AsyncResponse asyncResponse) {
+		databaseExecutor.submit(asyncResponse, new Callable<Object>() {
+			public Object call() throws BaseException {
+				return transferFund(customerTransaction, idempotencyKey);
+			}
+		});
+	}
+
+	private Object transferFund(final CustomerTransaction customerTransaction, String idempotencyKey)
+			throws BaseException {
+		if (customerTransaction == null) {
+			throw new WebApplicationException("Empty transaction", Response.Status.BAD_REQUEST);
+		}
+		if (idempotencyKey == null) {
+			return doTransferFund(customerTransaction);
+		}
+		if (idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_IDEMPOTENCY_KEY_LENGTH) {
+			throw new WebApplicationException("Invalid " + IDEMPOTENCY_KEY_HEADER, Response.Status.BAD_REQUEST);
+		}
+		CompletableFuture<IdempotencyStore.Outcome> outcome;
+		try {
+			outcome = idempotencyStore.execute(idempotencyKey, fingerprintOf(customerTransaction),
+					new IdempotencyStore.Call() {
+						public IdempotencyStore.Outcome run() {
+							try {
+								return new IdempotencyStore.Outcome(doTransferFund(customerTransaction).getStatus(), null);
+							} catch (WebApplicationException e) {
+								if (TRANSACTION_FAILED.equals(e.getMessage())) {
+									// database error after the retries, the transfer was not applied
+									return IdempotencyStore.Outcome.retryable(e.getResponse().getStatus(), e.getMessage());
+								}
+								return new IdempotencyStore.Outcome(e.getResponse().getStatus(), e.getMessage());
+							} catch (ShardTransferCoordinator.UnconfirmedCommitException e) {
+								// decided and committed in the background, running it again would apply it twice
+								return new IdempotencyStore.Outcome(
+										Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
+							} catch (BaseException e) {
+								// the DAOs throw before a transfer is applied, a journal failure after it is only logged
+								return IdempotencyStore.Outcome.retryable(
+										Response.Status.INTERNAL_SERVER_ERROR.getStatusCode(), e.getMessage());
+							}
+						}
+					});
+		} catch (IdempotencyStore.KeyConflictException e) {
+			throw new WebApplicationException(e.getMessage(), STATUS_CONFLICT);
+		}
+		if (outcome.isDone()) {
+			return toResponse(outcome.join());
+		}
+		// the first request with the key is still running, answer when it finishes
+		return outcome.handle(new BiFunction<IdempotencyStore.Outcome, Throwable, Response>() {
+			public Response apply(IdempotencyStore.Outcome replayed, Throwable failure) {
+				if (failure instanceof IdempotencyStore.KeyConflictException) {
+					throw new WebApplicationException(failure.getMessage(), STATUS_CONFLICT);
+				}
+				if (failure != null) {
+					// the DatabaseExecutor resumes the response with the cause
+					throw new CompletionException(failure);
+				}
+				try {
+					return toResponse(replayed);
+				} catch (BaseException e) {
+					throw new CompletionException(e);
+				}
+			}
+		});
+	}
+
+	/**
+	 * Fields identifying the transfer, a retry with the same key must repeat every one of them.
+	 */
+	private static String fingerprintOf(CustomerTransaction customerTransaction) {
+		return customerTransaction.getCurrencyCode() + '|' + customerTransaction.getAmountUnits() + '|'
+				+ customerTransaction.getFromAccountId() + '|' + customerTransaction.getToAccountId() + '|'
+				+ (customerTransaction.getTransactionDate() == null ? ""
+						: customerTransaction.getTransactionDate().getTime());
+	}
+
+	/**
+	 * Answer with a recorded outcome the same way the original request was answered.
+	 */
+	private static Response toResponse(IdempotencyStore.Outcome outcome) throws BaseException {
+		if (outcome.getStatus() == Response.Status.INTERNAL_SERVER_ERROR.getStatusCode()) {
+			throw new BaseException(outcome.getMessage());
+		}
+		Response response = Response.status(outcome.getStatus())
+				.header(IDEMPOTENT_REPLAYED_HEADER, String.valueOf(outcome.isReplayed())).build();
+		if (outcome.getStatus() >= Response.Status.BAD_REQUEST.getStatusCode()) {
+			throw new WebApplicationException(outcome.getMessage(), response);
+		}
+		return response;
+	}
 
-		String currency = customerTransaction.getCurrencyCode();
-		if (MoneyUtils.INSTANCE.validateCcyCode(currency)) {
+	private Response doTransferFund(CustomerTransaction customerTransaction) throws BaseException {
+		if (customerTransaction.getCurrencyId() != CurrencyRegistry.UNKNOWN) {
 			int updateCount = daoFactory.getCustomerAccountDAO().transferCustomerAccountBalance(customerTransaction);
 			if (updateCount == 2) {
 				return Response.status(Response.Status.OK).build();
 			} else {
 				// transaction failed
-				throw new WebApplicationException("Transaction failed", Response.Status.BAD_REQUEST);
+				throw new WebApplicationException(TRANSACTION_FAILED, Response.Status.BAD_REQUEST);
 			}
 		} else {
 			throw new WebApplicationException("Currency Code Invalid ", Response.Status.BAD_REQUEST);
@@ -42,4 +167,54 @@ public class CustomerTransactionService {
 
 	}
 
+	/**
+	 * Transfer fund for a batch of transactions.
+	 * @param customerTransactions transfers applied in list order
+	 * @param mode ALL_OR_NOTHING to roll back the whole batch on the first failure, BEST_EFFORT to skip failures
+	 * @param asyncResponse resumed with one CustomerTransactionResult per transaction
+	 */
+	@POST
+	@Path("/batch")
+	public void transferFundBatch(final List<CustomerTransaction> customerTransactions,
+			@QueryParam("mode") @DefaultValue(MODE_BEST_EFFORT) final String mode,
+			@Suspended AsyncResponse asyncResponse) {
+		databaseExecutor.submit(asyncResponse, new Callable<Response>() {
+			public Response call() throws BaseException {
+				return transferFundBatch(customerTransactions, mode);
+			}
+		});
+	}
+
+	private Response transferFundBatch(List<CustomerTransaction> customerTransactions, String mode)
+			throws BaseException {
+
+		boolean allOrNothing;
+		if (MODE_ALL_OR_NOTHING.equalsIgnoreCase(mode)) {
+			allOrNothing = true;
+		} else if (MODE_BEST_EFFORT.equalsIgnoreCase(mode)) {
+			allOrNothing = false;
+		} else {
+			throw new WebApplicationException("Invalid batch mode " + mode, Response.Status.BAD_REQUEST);
+		}
+		if (customerTransactions == null || customerTransactions.isEmpty()) {
+			throw new WebApplicationException("Empty transaction batch", Response.Status.BAD_REQUEST);
+		}
+		if (customerTransactions.size() > maxBatchSize) {
+			throw new WebApplicationException("Transaction batch exceeds " + maxBatchSize, Response.Status.BAD_REQUEST);
+		}
+		for (CustomerTransaction customerTransaction : customerTransactions) {
+			if (customerTransaction == null || customerTransaction.getCurrencyId() == CurrencyRegistry.UNKNOWN) {
+				throw new WebApplicationException("Currency Code Invalid ", Response.Status.BAD_REQUEST);
+			}
+		}
+		List<CustomerTransactionResult> results = daoFactory.getCustomerAccountDAO()
+				.transferCustomerAccountBalanceBatch(customerTransactions, allOrNothing);
+		if (allOrNothing && !results.isEmpty()
+				&& !CustomerTransactionResult.COMPLETED.equals(results.get(0).getStatus())) {
+			// transaction failed
+			return Response.status(Response.Status.BAD_REQUEST).entity(results).type(MediaType.APPLICATION_JSON).build();
+		}
+		return Response.status(Response.Status.OK).entity(results).type(MediaType.APPLICATION_JSON).build();
+	}
+
 }
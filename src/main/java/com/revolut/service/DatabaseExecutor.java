@@ -0,0 +1,210 @@
+package com.revolut.service;
+
+import com.revolut.metrics.LatencyHistogram;
+import com.revolut.metrics.MetricsRegistry;
+import com.revolut.util.BaseResponse;
+import com.revolut.util.CommonUtils;
+import com.revolut.util.ExecutionMode;
+import org.apache.log4j.Logger;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.MediaType;
+import javax.ws.rs.core.Response;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.CompletionStage;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.BiConsumer;
+import java.util.function.LongSupplier;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: DatabaseExecutor
+ * @Package com.revolut.service
+ * @Description: Bounded thread pool running the database work of suspended requests, so Jetty threads are not
+ * parked on row locks. When every thread is busy and the queue is full the request is answered at once with
+ * 503 and a Retry-After header instead of waiting for a slot. In VIRTUAL execution mode every task gets its own
+ * virtual thread and the same number of requests, threads plus queue capacity, is admitted at a time.
+ */
+public class DatabaseExecutor {
+
+    private static Logger log = Logger.getLogger(DatabaseExecutor.class);
+
+    static final String RETRY_AFTER_HEADER = "Retry-After";
+
+    private static final DatabaseExecutor instance = new DatabaseExecutor(ExecutionMode.configured(),
+            CommonUtils.getIntegerProperty("db_executor_threads", 20),
+            CommonUtils.getIntegerProperty("db_executor_queue_capacity", 1000),
+            CommonUtils.getIntegerProperty("db_executor_retry_after_sec", 1));
+
+    static {
+        MetricsRegistry metrics = MetricsRegistry.INSTANCE;
+        metrics.gauge("db_executor_queue_size", "Requests waiting for a database executor thread", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getQueueSize();
+            }
+        });
+        metrics.gauge("db_executor_active_threads", "Database executor threads running a request", new LongSupplier() {
+            public long getAsLong() {
+                return instance.getActiveCount();
+            }
+        });
+        metrics.counter("db_executor_rejected_total", "Requests rejected with 503 because the queue was full",
+                new LongSupplier() {
+                    public long getAsLong() {
+                        return instance.getRejectedCount();
+                    }
+                });
+    }
+
+    // exactly one of executor and virtualThreads is set
+    private final ThreadPoolExecutor executor;
+    private final ThreadFactory virtualThreads;
+    private final Semaphore virtualAdmission;
+    private final int admissionLimit;
+    private final int retryAfterSec;
+    private final LongAdder rejected = new LongAdder();
+    private final LatencyHistogram queueWait = MetricsRegistry.INSTANCE.histogram(
+            "db_executor_queue_wait_seconds", "Time a request waited for a database executor thread");
+
+    public DatabaseExecutor(int threads, int queueCapacity, int retryAfterSec) {
+        this(ExecutionMode.PLATFORM, threads, queueCapacity, retryAfterSec);
+    }
+
+    public DatabaseExecutor(ExecutionMode mode, int threads, int queueCapacity, int retryAfterSec) {
+        int poolSize = Math.max(1, threads);
+        int capacity = Math.max(1, queueCapacity);
+        this.admissionLimit = poolSize + capacity;
+        this.retryAfterSec = Math.max(0, retryAfterSec);
+        if (mode == ExecutionMode.VIRTUAL) {
+            this.executor = null;
+            this.virtualThreads = mode.threadFactory("db-executor");
+            this.virtualAdmission = new Semaphore(admissionLimit);
+        } else {
+            this.executor = new ThreadPoolExecutor(poolSize, poolSize, 60, TimeUnit.SECONDS,
+                    new ArrayBlockingQueue<Runnable>(capacity), mode.threadFactory("db-executor"),
+                    new ThreadPoolExecutor.AbortPolicy());
+            executor.allowCoreThreadTimeOut(true);
+            this.virtualThreads = null;
+            this.virtualAdmission = null;
+        }
+    }
+
+    /**
+     * Shared executor for all resources of this JVM, sized next to the connection pool.
+     */
+    public static DatabaseExecutor getInstance() {
+        return instance;
+    }
+
+    /**
+     * Run the task on a database thread and resume the response with its result, or with its exception so the
+     * usual exception mappers answer. Never blocks the calling thread. A task returning a CompletionStage hands
+     * the response over to it: the response is resumed when the stage completes and the thread is free meanwhile.
+     * @param asyncResponse suspended response of the calling resource method
+     * @param task database work producing the response entity or Response, or a CompletionStage of either
+     */
+    public void submit(final AsyncResponse asyncResponse, final Callable<?> task) {
+        final long queued = System.nanoTime();
+        Runnable run = new Runnable() {
+            public void run() {
+                queueWait.recordSince(queued);
+                Object result;
+                try {
+                    result = task.call();
+                } catch (Throwable e) {
+                    asyncResponse.resume(e);
+                    return;
+                }
+                if (result instanceof CompletionStage) {
+                    ((CompletionStage<?>) result).whenComplete(new BiConsumer<Object, Throwable>() {
+                        public void accept(Object value, Throwable failure) {
+                            if (failure == null) {
+                                asyncResponse.resume(value);
+                            } else {
+                                asyncResponse.resume(failure instanceof CompletionException && failure.getCause() != null
+                                        ? failure.getCause() : failure);
+                            }
+                        }
+                    });
+                    return;
+                }
+                asyncResponse.resume(result);
+            }
+        };
+        try {
+            if (executor != null) {
+                executor.execute(run);
+            } else {
+                executeVirtual(run);
+            }
+        } catch (RejectedExecutionException e) {
+            rejected.increment();
+            if (log.isDebugEnabled())
+                log.debug("submit(): Database executor saturated, rejecting request");
+            asyncResponse.resume(Response.status(Response.Status.SERVICE_UNAVAILABLE)
+                    .header(RETRY_AFTER_HEADER, retryAfterSec)
+                    .entity(new BaseResponse("503", "Server busy, retry after " + retryAfterSec + " seconds"))
+                    .type(MediaType.APPLICATION_JSON).build());
+        }
+    }
+
+    private void executeVirtual(final Runnable run) {
+        if (!virtualAdmission.tryAcquire()) {
+            throw new RejectedExecutionException("More than " + admissionLimit + " requests in flight");
+        }
+        try {
+            virtualThreads.newThread(new Runnable() {
+                public void run() {
+                    try {
+                        run.run();
+                    } finally {
+                        virtualAdmission.release();
+                    }
+                }
+            }).start();
+        } catch (RuntimeException e) {
+            virtualAdmission.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return requests waiting for a thread, always 0 with virtual threads
+     */
+    public int getQueueSize() {
+        return executor != null ? executor.getQueue().size() : 0;
+    }
+
+    public int getActiveCount() {
+        return executor != null ? executor.getActiveCount() : admissionLimit - virtualAdmission.availablePermits();
+    }
+
+    public long getRejectedCount() {
+        return rejected.sum();
+    }
+
+    /**
+     * Stop taking requests and wait for the queued ones to finish.
+     */
+    public void shutdown() {
+        if (executor == null) {
+            return;
+        }
+        executor.shutdown();
+        try {
+            if (!executor.awaitTermination(30, TimeUnit.SECONDS)) {
+                log.warn("shutdown(): Database executor still busy after 30 seconds");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,68 @@
+package com.revolut.service;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
+import com.revolut.util.BaseException;
+import com.revolut.util.CommonUtils;
+
+import javax.ws.rs.core.StreamingOutput;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: KeysetStreamingOutput
+ * @Package com.revolut.service
+ * @Description: Writes a whole table as one JSON array, fetching it in keyset pages. Each page is read into a list
+ * and its connection returned to the pool before the page is written, so a slow client never holds a connection and
+ * memory use is bounded by one page, not by the table
+ */
+abstract class KeysetStreamingOutput<T> implements StreamingOutput {
+
+    static final int PAGE_MAX_LIMIT = CommonUtils.getIntegerProperty("list_page_max_limit", 1000);
+    private static final int STREAM_PAGE_SIZE = Math.max(1, CommonUtils.getIntegerProperty("list_stream_page_size", 500));
+    // flushing after every value would mean one socket write per row
+    private static final ObjectWriter writer = new ObjectMapper().writer().without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+
+    private final long afterId;
+
+    KeysetStreamingOutput(long afterId) {
+        this.afterId = afterId;
+    }
+
+    /**
+     * Read up to limit rows with an id above afterId in id order, releasing the connection before returning.
+     */
+    protected abstract List<T> fetchPage(long afterId, int limit) throws BaseException;
+
+    protected abstract long idOf(T row);
+
+    public void write(OutputStream output) throws IOException {
+        JsonGenerator generator = writer.getFactory().createGenerator(output);
+        generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+        long lastId = afterId;
+        generator.writeStartArray();
+        List<T> page;
+        do {
+            try {
+                page = fetchPage(lastId, STREAM_PAGE_SIZE);
+            } catch (BaseException e) {
+                // the status line is already sent, abort the response instead of closing the array
+                throw new IOException("Streaming aborted after id " + lastId, e);
+            }
+            for (T row : page) {
+                writer.writeValue(generator, row);
+            }
+            if (!page.isEmpty()) {
+                lastId = idOf(page.get(page.size() - 1));
+            }
+            generator.flush();
+        } while (page.size() == STREAM_PAGE_SIZE);
+        generator.writeEndArray();
+        generator.close();
+    }
+}
@@ -0,0 +1,30 @@
+package com.revolut.service;
+
+import com.revolut.metrics.MetricsRegistry;
+
+import javax.ws.rs.GET;
+import javax.ws.rs.Path;
+import javax.ws.rs.Produces;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: MetricsService
+ * @Package com.revolut.service
+ * @Description: Prometheus scrape endpoint
+ */
+@Path("/metrics")
+public class MetricsService {
+
+    public static final String PROMETHEUS_TEXT = "text/plain; version=0.0.4; charset=utf-8";
+
+    /**
+     * All registered metrics in the Prometheus text format
+     * @return String
+     */
+    @GET
+    @Produces(PROMETHEUS_TEXT)
+    public String scrape() {
+        return MetricsRegistry.INSTANCE.scrape();
+    }
+}
@@ -0,0 +1,92 @@
+package com.revolut.util;
+
+import org.apache.log4j.Logger;
+
+import java.util.Currency;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: CurrencyRegistry
+ * @Package com.revolut.util
+ * @Description: Dictionary of ISO 4217 currencies keyed by their numeric code, which is the id persisted in the
+ * CurrencyId column. Codes are resolved by indexing an array with the three letters, so validation and comparison
+ * on the transfer path never hash, allocate or throw.
+ */
+public enum CurrencyRegistry {
+
+    INSTANCE;
+
+    // id of an unknown or invalid currency code, never assigned by ISO 4217
+    public static final short UNKNOWN = 0;
+
+    private static final int LETTERS = 26;
+    private static final int MAX_ID = 999;
+
+    private final short[] idsByCode = new short[LETTERS * LETTERS * LETTERS];
+    private final String[] codesById = new String[MAX_ID + 1];
+
+    CurrencyRegistry() {
+        Map<Integer, String> byNumericCode = new HashMap<Integer, String>();
+        Map<Integer, String> shared = new HashMap<Integer, String>();
+        for (Currency currency : Currency.getAvailableCurrencies()) {
+            int numericCode = currency.getNumericCode();
+            if (numericCode <= 0 || numericCode > MAX_ID) {
+                continue;
+            }
+            String previous = byNumericCode.put(numericCode, currency.getCurrencyCode());
+            if (previous != null) {
+                shared.put(numericCode, previous + "/" + currency.getCurrencyCode());
+            }
+        }
+        for (Map.Entry<Integer, String> entry : byNumericCode.entrySet()) {
+            // withdrawn codes sharing a numeric code with another one cannot be told apart by id, leave both out
+            if (shared.containsKey(entry.getKey())) {
+                continue;
+            }
+            idsByCode[slotOf(entry.getValue())] = entry.getKey().shortValue();
+            codesById[entry.getKey()] = entry.getValue();
+        }
+        if (!shared.isEmpty()) {
+            // enum constants are built before static fields, so no static logger here
+            Logger.getLogger(CurrencyRegistry.class).info("CurrencyRegistry(): Currencies without a unique numeric code are not supported: " + shared.values());
+        }
+    }
+
+    /**
+     * @param currencyCode three letter ISO code
+     * @return the ISO numeric code, or UNKNOWN if the code is not a supported currency
+     */
+    public short idOf(String currencyCode) {
+        if (currencyCode == null || currencyCode.length() != 3) {
+            return UNKNOWN;
+        }
+        int slot = slotOf(currencyCode);
+        return slot < 0 ? UNKNOWN : idsByCode[slot];
+    }
+
+    /**
+     * @return the three letter ISO code of the id, or null if the id is not a supported currency
+     */
+    public String codeOf(int currencyId) {
+        return currencyId <= UNKNOWN || currencyId > MAX_ID ? null : codesById[currencyId];
+    }
+
+    public boolean isValid(String currencyCode) {
+        return idOf(currencyCode) != UNKNOWN;
+    }
+
+    private static int slotOf(String currencyCode) {
+        int slot = 0;
+        for (int i = 0; i < 3; i++) {
+            int letter = currencyCode.charAt(i) - 'A';
+            if (letter < 0 || letter >= LETTERS) {
+                return -1;
+            }
+            slot = slot * LETTERS + letter;
+        }
+        return slot;
+    }
+}
@@ -0,0 +1,110 @@
+package com.revolut.util;
+
+import org.apache.log4j.Logger;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: ExecutionMode
+ * @Package com.revolut.util
+ * @Description: Kind of threads running request handling and DAO work. VIRTUAL needs JDK 21 or later; the Thread
+ * builder API is looked up by reflection so the Java 8 build keeps running with platform threads elsewhere.
+ */
+public enum ExecutionMode {
+    PLATFORM,
+    VIRTUAL;
+
+    private static Logger log = Logger.getLogger(ExecutionMode.class);
+
+    private static final int VIRTUAL_MIN_JAVA_VERSION = 21;
+
+    // Thread.ofVirtual(), Thread.Builder.name(String, long) and Thread.Builder.factory(), null before JDK 21
+    private static final Method[] VIRTUAL_BUILDER = lookupVirtualBuilder();
+
+    /**
+     * Mode from the execution_mode property, falling back to PLATFORM when virtual threads are not available.
+     */
+    public static ExecutionMode configured() {
+        String value = CommonUtils.getStringProperty("execution_mode", PLATFORM.name()).trim().toUpperCase();
+        ExecutionMode mode;
+        try {
+            mode = valueOf(value);
+        } catch (IllegalArgumentException e) {
+            log.warn("configured(): Unknown execution_mode " + value + ", using " + PLATFORM);
+            return PLATFORM;
+        }
+        if (mode == VIRTUAL && !isVirtualSupported()) {
+            log.warn("configured(): Virtual threads need JDK 21 or later, running on " + System.getProperty("java.version")
+                    + ", using " + PLATFORM);
+            return PLATFORM;
+        }
+        return mode;
+    }
+
+    public static boolean isVirtualSupported() {
+        return VIRTUAL_BUILDER != null;
+    }
+
+    /**
+     * Factory for threads of this mode named prefix-N, platform threads are created as daemons.
+     * @throws UnsupportedOperationException for VIRTUAL before JDK 21
+     */
+    public ThreadFactory threadFactory(final String namePrefix) {
+        if (this == PLATFORM) {
+            return new ThreadFactory() {
+                private final AtomicInteger count = new AtomicInteger();
+
+                public Thread newThread(Runnable r) {
+                    Thread thread = new Thread(r, namePrefix + "-" + count.incrementAndGet());
+                    thread.setDaemon(true);
+                    return thread;
+                }
+            };
+        }
+        if (!isVirtualSupported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later");
+        }
+        try {
+            // Thread.ofVirtual().name(namePrefix + "-", 1).factory()
+            Object builder = VIRTUAL_BUILDER[0].invoke(null);
+            builder = VIRTUAL_BUILDER[1].invoke(builder, namePrefix + "-", 1L);
+            return (ThreadFactory) VIRTUAL_BUILDER[2].invoke(builder);
+        } catch (ReflectiveOperationException e) {
+            throw new UnsupportedOperationException("Cannot create virtual thread factory", e);
+        }
+    }
+
+    private static Method[] lookupVirtualBuilder() {
+        // JDK 19 and 20 only have virtual threads as a preview feature
+        if (javaFeatureVersion() < VIRTUAL_MIN_JAVA_VERSION) {
+            return null;
+        }
+        try {
+            // resolved on the public interface, the builder implementation class is not accessible
+            Class<?> builder = Class.forName("java.lang.Thread$Builder");
+            return new Method[]{Thread.class.getMethod("ofVirtual"), builder.getMethod("name", String.class, long.class),
+                    builder.getMethod("factory")};
+        } catch (ReflectiveOperationException e) {
+            return null;
+        }
+    }
+
+    /**
+     * 8 for "1.8", 21 for "21"
+     */
+    private static int javaFeatureVersion() {
+        String version = System.getProperty("java.specification.version", "1.8");
+        if (version.startsWith("1.")) {
+            version = version.substring(2);
+        }
+        try {
+            return Integer.parseInt(version);
+        } catch (NumberFormatException e) {
+            return 0;
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.revolut.util;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: Money
+ * @Package com.revolut.util
+ * @Description: Fixed-point money held in a primitive long of minor units at scale 4 (1.2345 is 12345).
+ * Arithmetic is overflow checked and allocation free; BigDecimal is only used to convert at the JSON and JDBC
+ * boundaries.
+ */
+public final class Money {
+
+    public static final int SCALE = 4;
+    public static final long ZERO = 0L;
+    /** units in one whole currency unit */
+    public static final long ONE = 10000L;
+
+    private Money() {
+    }
+
+    /**
+     * Round to scale 4 with financial rounding and convert to units.
+     * @throws ArithmeticException if the amount does not fit in a long at scale 4
+     */
+    public static long fromBigDecimal(BigDecimal amount) {
+        return amount.setScale(SCALE, RoundingMode.HALF_EVEN).unscaledValue().longValueExact();
+    }
+
+    public static BigDecimal toBigDecimal(long units) {
+        return BigDecimal.valueOf(units, SCALE);
+    }
+
+    /**
+     * @throws ArithmeticException on overflow
+     */
+    public static long add(long a, long b) {
+        return Math.addExact(a, b);
+    }
+
+    /**
+     * @throws ArithmeticException on overflow
+     */
+    public static long subtract(long a, long b) {
+        return Math.subtractExact(a, b);
+    }
+
+    /**
+     * @throws ArithmeticException on overflow
+     */
+    public static long negate(long units) {
+        return Math.negateExact(units);
+    }
+
+    /**
+     * Plain decimal string, e.g. 1000.0000, for logs and journals.
+     */
+    public static String toString(long units) {
+        return toBigDecimal(units).toPlainString();
+    }
+}
@@ -4,7 +4,6 @@ import org.apache.log4j.Logger;
 
 import java.math.BigDecimal;
 import java.math.RoundingMode;
-import java.util.Currency;
 
 /**
  * @author Guang_Yang
@@ -25,18 +24,13 @@ public enum MoneyUtils {
 
     /**
      * @param inputCcyCode String Currency code to be validated
-     * @return true if currency code is valid ISO code, false otherwise
+     * @return true if currency code is a valid ISO code known to CurrencyRegistry, false otherwise
      */
     public boolean validateCcyCode(String inputCcyCode) {
-        try {
-            Currency instance = Currency.getInstance(inputCcyCode);
-            if(log.isDebugEnabled()){
-                log.debug("Validate Currency Code: " + instance.getSymbol());
-            }
-            return instance.getCurrencyCode().equals(inputCcyCode);
-        } catch (Exception e) {
-            log.warn("Cannot parse the input Currency Code, Validation Failed: ", e);
+        boolean valid = CurrencyRegistry.INSTANCE.isValid(inputCcyCode);
+        if (!valid && log.isDebugEnabled()) {
+            log.debug("Validate Currency Code failed: " + inputCcyCode);
         }
-        return false;
+        return valid;
     }
 }
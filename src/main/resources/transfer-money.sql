@@ -17,19 +17,48 @@ INSERT INTO Customer (CustomerName, EmailAddress, PhoneNumber) VALUES ('Frank','
 
 DROP TABLE IF EXISTS CustomerAccount;
 
+-- CurrencyId is the ISO 4217 numeric code, see CurrencyRegistry: 156 CNY, 826 GBP, 840 USD, 978 EUR
 CREATE TABLE CustomerAccount (AccountId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL,
 CustomerName VARCHAR(30),
 Balance DECIMAL(19,4),
-CurrencyCode VARCHAR(30)
+CurrencyId SMALLINT NOT NULL
 );
 
-CREATE UNIQUE INDEX idx_acc on CustomerAccount(CustomerName, CurrencyCode);
+CREATE UNIQUE INDEX idx_acc on CustomerAccount(CustomerName, CurrencyId);
 
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Allen',1000.0000,'CNY');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Bob',2000.0000,'CNY');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Carl',3000.0000,'EUR');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('David',4000.0000,'EUR');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Ellen',5000.0000,'GBP');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Frank',5000.0000,'GBP');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Gary',2000.0000,'GBP');
-INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyCode) VALUES ('Howard',3000.0000,'USD');
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Allen',1000.0000,156);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Bob',2000.0000,156);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Carl',3000.0000,978);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('David',4000.0000,978);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Ellen',5000.0000,826);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Frank',5000.0000,826);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Gary',2000.0000,826);
+INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES ('Howard',3000.0000,840);
+
+DROP TABLE IF EXISTS CustomerTransactionJournal;
+
+-- history of completed transfers, appended by CustomerTransactionJournal
+CREATE TABLE CustomerTransactionJournal (TransactionId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL,
+FromAccountId LONG NOT NULL,
+ToAccountId LONG NOT NULL,
+Amount DECIMAL(19,4) NOT NULL,
+CurrencyId SMALLINT NOT NULL,
+TransactionDate TIMESTAMP NOT NULL,
+RequestedDate TIMESTAMP
+);
+
+-- keyset pages of GET /account/{id}/transactions, one index per side of the transfer
+CREATE INDEX idx_journal_from_id on CustomerTransactionJournal(FromAccountId, TransactionId, TransactionDate);
+CREATE INDEX idx_journal_to_id on CustomerTransactionJournal(ToAccountId, TransactionId, TransactionDate);
+-- TransactionDate ascends with TransactionId, the ?from=&to= bounds are looked up as TransactionIds
+CREATE INDEX idx_journal_date on CustomerTransactionJournal(TransactionDate, TransactionId);
+
+DROP TABLE IF EXISTS IdempotencyKey;
+
+-- outcomes of POST /transaction by Idempotency-Key, written when idempotency_store_persist=true
+CREATE TABLE IdempotencyKey (IdempotencyKey VARCHAR(255) PRIMARY KEY NOT NULL,
+Fingerprint VARCHAR(1000) NOT NULL,
+Status INT NOT NULL,
+Message VARCHAR(1000),
+ExpiresAt TIMESTAMP NOT NULL
+);
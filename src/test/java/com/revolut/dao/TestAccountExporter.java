@@ -0,0 +1,173 @@
+package com.revolut.dao;
+
+import com.revolut.util.BaseException;
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStreamReader;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.zip.GZIPInputStream;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestAccountExporter
+ * @Package com.revolut.dao
+ * @Description: Test Account Exporter against its own in-memory database of 20000 accounts holding 100 GBP each
+ */
+public class TestAccountExporter {
+
+    private static final String URL = "jdbc:h2:mem:account-export;DB_CLOSE_DELAY=-1";
+    private static final int ACCOUNTS = 20000;
+
+    private Connection keeper;
+    private AccountExporter exporter;
+
+    @Before
+    public void setup() throws SQLException {
+        keeper = DriverManager.getConnection(URL, "sa", "sa");
+        keeper.createStatement().execute("CREATE TABLE CustomerAccount (AccountId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL, "
+                + "CustomerName VARCHAR(30), Balance DECIMAL(19,4), CurrencyId SMALLINT NOT NULL)");
+        keeper.setAutoCommit(false);
+        PreparedStatement stmt = keeper.prepareStatement("INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) VALUES (?, 100, 826)");
+        for (int i = 1; i <= ACCOUNTS; i++) {
+            stmt.setString(1, i == 1 ? "Export, \"First\"" : "Export" + i);
+            stmt.addBatch();
+            if (i % 1000 == 0) {
+                stmt.executeBatch();
+            }
+        }
+        keeper.commit();
+        keeper.setAutoCommit(true);
+        exporter = new AccountExporter(new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                return DriverManager.getConnection(URL, "sa", "sa");
+            }
+        }, 500, 65536);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        keeper.createStatement().execute("DROP ALL OBJECTS");
+        DbUtils.closeQuietly(keeper);
+    }
+
+    /**
+     * Test a gzipped CSV file export is complete, quotes names and leaves no partial file behind
+     */
+    @Test
+    public void testExportGzipCsvFile() throws Exception {
+        File file = File.createTempFile("accounts", ".csv.gz");
+        try {
+            assertEquals(ACCOUNTS, exporter.exportToFile(AccountExporter.CSV, file.toPath()));
+            assertTrue(!new File(file.getPath() + ".part").exists());
+            BufferedReader reader = new BufferedReader(new InputStreamReader(
+                    new GZIPInputStream(new FileInputStream(file)), StandardCharsets.UTF_8));
+            assertEquals("accountId,customerName,balance,currencyCode", reader.readLine());
+            assertEquals("1,\"Export, \"\"First\"\"\",100.0000,GBP", reader.readLine());
+            int lines = 1;
+            while (reader.readLine() != null) {
+                lines++;
+            }
+            reader.close();
+            assertEquals(ACCOUNTS, lines);
+        } finally {
+            file.delete();
+        }
+    }
+
+    /**
+     * Test NDJSON exports taken while transfers commit always add up to the total balance and do not stop the transfers
+     */
+    @Test
+    public void testExportIsConsistentSnapshot() throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong transfers = new AtomicLong();
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                Connection conn = null;
+                try {
+                    conn = DriverManager.getConnection(URL, "sa", "sa");
+                    conn.setAutoCommit(false);
+                    PreparedStatement stmt = conn.prepareStatement("UPDATE CustomerAccount SET Balance = Balance + ? WHERE AccountId = ?");
+                    Random random = new Random(7);
+                    while (!stop.get()) {
+                        stmt.setInt(1, -1);
+                        stmt.setLong(2, 1 + random.nextInt(ACCOUNTS));
+                        stmt.executeUpdate();
+                        stmt.setInt(1, 1);
+                        stmt.setLong(2, 1 + random.nextInt(ACCOUNTS));
+                        stmt.executeUpdate();
+                        conn.commit();
+                        transfers.incrementAndGet();
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                } finally {
+                    DbUtils.closeQuietly(conn);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                long before = transfers.get();
+                ByteArrayOutputStream output = new ByteArrayOutputStream();
+                assertEquals(ACCOUNTS, exporter.export(AccountExporter.NDJSON, false, output));
+                assertTrue(transfers.get() > before);
+                BigDecimal total = BigDecimal.ZERO;
+                for (String line : new String(output.toByteArray(), StandardCharsets.UTF_8).split("\n")) {
+                    int start = line.indexOf("\"balance\":") + "\"balance\":".length();
+                    total = total.add(new BigDecimal(line.substring(start, line.indexOf(',', start))));
+                }
+                assertEquals(new BigDecimal(100 * ACCOUNTS).setScale(4), total);
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    /**
+     * Test an account with an unknown CurrencyId is exported with an empty CSV field and a null NDJSON currencyCode
+     */
+    @Test
+    public void testExportUnknownCurrency() throws Exception {
+        keeper.createStatement().execute("UPDATE CustomerAccount SET CurrencyId = 1 WHERE AccountId = 2");
+        ByteArrayOutputStream csv = new ByteArrayOutputStream();
+        assertEquals(ACCOUNTS, exporter.export(AccountExporter.CSV, false, csv));
+        String[] csvLines = new String(csv.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals("2,Export2,100.0000,", csvLines[2]);
+
+        ByteArrayOutputStream ndjson = new ByteArrayOutputStream();
+        assertEquals(ACCOUNTS, exporter.export(AccountExporter.NDJSON, false, ndjson));
+        String[] ndjsonLines = new String(ndjson.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals("{\"accountId\":2,\"customerName\":\"Export2\",\"balance\":100.0000,\"currencyCode\":null}",
+                ndjsonLines[1]);
+    }
+
+    /**
+     * Test an unknown format is refused
+     */
+    @Test(expected = BaseException.class)
+    public void testExportUnknownFormat() throws Exception {
+        exporter.export("xml", false, new ByteArrayOutputStream());
+    }
+}
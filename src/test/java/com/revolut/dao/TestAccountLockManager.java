@@ -0,0 +1,122 @@
+package com.revolut.dao;
+
+import com.revolut.util.BaseException;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestAccountLockManager
+ * @Package com.revolut.dao
+ * @Description: Test Striped Account Lock Manager
+ */
+public class TestAccountLockManager {
+
+    private static final int THREADS_COUNT = 50;
+
+    /**
+     * Test opposite lock orders from many threads never deadlock
+     * @throws InterruptedException
+     */
+    @Test
+    public void testOppositeOrderDoesNotDeadlock() throws InterruptedException {
+        final AccountLockManager lockManager = new AccountLockManager(16, 5000);
+        final CountDownLatch latch = new CountDownLatch(THREADS_COUNT);
+        final AtomicInteger locked = new AtomicInteger();
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            final boolean forward = i % 2 == 0;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        for (int j = 0; j < 100; j++) {
+                            AccountLockManager.Locks locks = forward ? lockManager.lock(1L, 2L) : lockManager.lock(2L, 1L);
+                            try {
+                                locked.incrementAndGet();
+                            } finally {
+                                locks.release();
+                            }
+                        }
+                    } catch (BaseException e) {
+                        // counted as missing below
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        assertTrue(latch.await(30, TimeUnit.SECONDS));
+        assertEquals(THREADS_COUNT * 100, locked.get());
+    }
+
+    /**
+     * Test accounts sharing a stripe are only locked once and wait counters are recorded
+     * @throws Exception
+     */
+    @Test
+    public void testSameStripeAndStatistics() throws Exception {
+        final AccountLockManager lockManager = new AccountLockManager(2, 5000);
+        long first = 1L;
+        long sameStripe = 2L;
+        while (lockManager.stripeOf(sameStripe) != lockManager.stripeOf(first)) {
+            sameStripe++;
+        }
+        // reentrant acquisition of one stripe for both accounts must not self-deadlock or double count
+        AccountLockManager.Locks locks = lockManager.lock(first, sameStripe);
+        final CountDownLatch acquired = new CountDownLatch(1);
+        Thread waiter = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    lockManager.lock(1L).release();
+                    acquired.countDown();
+                } catch (BaseException e) {
+                    // leave latch untouched
+                }
+            }
+        });
+        waiter.start();
+        Thread.sleep(50);
+        locks.release();
+        assertTrue(acquired.await(5, TimeUnit.SECONDS));
+
+        AccountLockManager.StripeStatistics stats = lockManager.getStripeStatistics().get(lockManager.stripeOf(first));
+        assertEquals(2, stats.getAcquisitions());
+        assertEquals(1, stats.getContendedAcquisitions());
+        assertTrue(stats.getTotalWaitNanos() > 0);
+    }
+
+    /**
+     * Test lock timeout surfaces as a BaseException
+     * @throws Exception
+     */
+    @Test(expected = BaseException.class)
+    public void testLockTimeout() throws Exception {
+        final AccountLockManager lockManager = new AccountLockManager(4, 50);
+        final CountDownLatch held = new CountDownLatch(1);
+        final CountDownLatch done = new CountDownLatch(1);
+        new Thread(new Runnable() {
+            public void run() {
+                try {
+                    AccountLockManager.Locks locks = lockManager.lock(7L);
+                    held.countDown();
+                    done.await();
+                    locks.release();
+                } catch (Exception e) {
+                    held.countDown();
+                }
+            }
+        }).start();
+        held.await();
+        try {
+            lockManager.lock(7L);
+        } finally {
+            done.countDown();
+        }
+    }
+}
@@ -0,0 +1,95 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestAccountReadModel
+ * @Package com.revolut.dao
+ * @Description: Test Account Read Model
+ */
+public class TestAccountReadModel {
+
+    /**
+     * Test a load from the database does not replace a published change, and a tombstone stays deleted
+     */
+    @Test
+    public void testLoadDoesNotOverwritePublishedChanges() {
+        AccountReadModel readModel = new AccountReadModel();
+        assertTrue(readModel.lookup(1L) == null);
+        long loadSequence = readModel.loadSequence();
+        readModel.apply(account(1L, "200.0000"));
+        long version = readModel.lookup(1L).getVersion();
+        readModel.load(account(1L, "100.0000"), loadSequence);
+        assertTrue(readModel.lookup(1L).toCustomerAccount().getBalance().equals(new BigDecimal("200.0000")));
+
+        readModel.apply(account(1L, "300.0000"));
+        assertTrue(readModel.lookup(1L).getVersion() > version);
+
+        readModel.remove(1L);
+        readModel.load(account(1L, "300.0000"), readModel.loadSequence());
+        assertTrue(readModel.lookup(1L).isDeleted());
+        assertTrue(readModel.lookup(1L).toCustomerAccount() == null);
+        assertEquals(1, readModel.size());
+        assertEquals(1, readModel.getMissCount());
+        assertEquals(5, readModel.getHitCount());
+    }
+
+    /**
+     * Test clear drops every snapshot so the next read loads the table again, and a load started before it is not
+     * installed
+     */
+    @Test
+    public void testClear() {
+        AccountReadModel readModel = new AccountReadModel();
+        readModel.apply(account(1L, "1.0000"));
+        readModel.load(account(2L, "2.0000"), readModel.loadSequence());
+        assertEquals(2, readModel.size());
+        long loadSequence = readModel.loadSequence();
+        readModel.clear();
+        assertEquals(0, readModel.size());
+        assertTrue(readModel.lookup(2L) == null);
+        readModel.load(account(2L, "2.0000"), loadSequence);
+        assertTrue(readModel.lookup(2L) == null);
+        readModel.load(account(2L, "2.0000"), readModel.loadSequence());
+        assertTrue(readModel.lookup(2L) != null);
+    }
+
+    /**
+     * Test the read model past its max size purges the tombstones first, and a load started before the sweep is
+     * not installed
+     */
+    @Test
+    public void testSweepPurgesTombstones() {
+        AccountReadModel readModel = new AccountReadModel(8);
+        for (long id = 1; id <= 4; id++) {
+            readModel.remove(id);
+        }
+        for (long id = 5; id <= 8; id++) {
+            readModel.apply(account(id, "1.0000"));
+        }
+        long loadSequence = readModel.loadSequence();
+        readModel.apply(account(9L, "1.0000"));
+        assertEquals(5, readModel.size());
+        assertTrue(readModel.lookup(1L) == null);
+        readModel.load(account(1L, "1.0000"), loadSequence);
+        assertTrue(readModel.lookup(1L) == null);
+
+        for (long id = 10; id <= 13; id++) {
+            readModel.apply(account(id, "1.0000"));
+        }
+        assertTrue(readModel.size() <= 8);
+        assertTrue(readModel.lookup(13L) != null);
+    }
+
+    private static CustomerAccount account(long accountId, String balance) {
+        return new CustomerAccount(accountId, "Test" + accountId, new BigDecimal(balance), "USD");
+    }
+}
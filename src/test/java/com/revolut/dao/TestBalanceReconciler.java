@@ -0,0 +1,224 @@
+package com.revolut.dao;
+
+import com.revolut.model.CurrencyTotal;
+import com.revolut.model.ReconciliationReport;
+import com.revolut.util.BaseException;
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Random;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestBalanceReconciler
+ * @Package com.revolut.dao
+ * @Description: Test Balance Reconciler against its own in-memory database of 10000 accounts, odd AccountIds in CNY
+ * and even ones in GBP with 10.0000 each, and partitions of 500 AccountIds on 3 threads
+ */
+public class TestBalanceReconciler {
+
+    private static final String URL = "jdbc:h2:mem:reconcile;DB_CLOSE_DELAY=-1";
+    private static final int ACCOUNTS = 10000;
+
+    private Connection keeper;
+    private BalanceReconciler reconciler;
+
+    @Before
+    public void setup() throws SQLException {
+        keeper = DriverManager.getConnection(URL, "sa", "sa");
+        Statement stmt = keeper.createStatement();
+        stmt.execute("CREATE TABLE CustomerAccount (AccountId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL, "
+                + "CustomerName VARCHAR(30), Balance DECIMAL(19,4), CurrencyId SMALLINT NOT NULL)");
+        stmt.execute("INSERT INTO CustomerAccount (CustomerName, Balance, CurrencyId) SELECT 'Reconcile' || X, 10, "
+                + "CASE WHEN MOD(X, 2) = 0 THEN 826 ELSE 156 END FROM SYSTEM_RANGE(1, " + ACCOUNTS + ")");
+        stmt.execute("CREATE TABLE CustomerTransactionJournal (TransactionId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL, "
+                + "FromAccountId LONG NOT NULL, ToAccountId LONG NOT NULL, Amount DECIMAL(19,4) NOT NULL, "
+                + "CurrencyId SMALLINT NOT NULL, TransactionDate TIMESTAMP NOT NULL, RequestedDate TIMESTAMP)");
+        stmt.execute("INSERT INTO CustomerTransactionJournal (FromAccountId, ToAccountId, Amount, CurrencyId, TransactionDate) "
+                + "SELECT X, X + 2, 1, CASE WHEN MOD(X, 2) = 0 THEN 826 ELSE 156 END, NOW() FROM SYSTEM_RANGE(1, 3000)");
+        reconciler = reconciler(true);
+    }
+
+    private static BalanceReconciler reconciler(boolean journaledTransfers) {
+        return new BalanceReconciler(new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                return DriverManager.getConnection(URL, "sa", "sa");
+            }
+        }, 3, 500, 100, 10, journaledTransfers);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        keeper.createStatement().execute("DROP ALL OBJECTS");
+        DbUtils.closeQuietly(keeper);
+    }
+
+    /**
+     * Test the partition sums add up to the expected totals of both currencies
+     */
+    @Test
+    public void testBalanced() throws BaseException {
+        ReconciliationReport report = reconciler.reconcile(
+                BalanceReconciler.parseExpectedTotals(Arrays.asList("CNY:50000", "GBP:50000.0000")));
+        assertTrue(report.isBalanced());
+        assertEquals(ACCOUNTS, report.getAccountsScanned());
+        assertEquals(3000, report.getJournalEntriesScanned());
+        assertEquals(0, report.getViolationCount());
+        assertTrue(report.getPartitions() > ACCOUNTS / 500);
+        assertEquals(2, report.getTotals().size());
+        CurrencyTotal cny = report.getTotals().get(0);
+        assertEquals("CNY", cny.getCurrencyCode());
+        assertEquals(ACCOUNTS / 2, cny.getAccounts());
+        assertEquals(0, cny.getDifference().signum());
+    }
+
+    /**
+     * Test runs taken while journaled transfers move money between partitions still match the expected totals
+     * exactly, once the partitions that saw them have the entries journaled since the start taken back out
+     */
+    @Test
+    public void testBalancedWhileTransfersCommit() throws Exception {
+        assertBalancedWhileTransfersCommit(reconciler, true);
+    }
+
+    /**
+     * Test runs taken while transfers missing from the journal commit still match, summed in one snapshot
+     */
+    @Test
+    public void testBalancedWhileUnjournaledTransfersCommit() throws Exception {
+        assertBalancedWhileTransfersCommit(reconciler(false), false);
+    }
+
+    private void assertBalancedWhileTransfersCommit(BalanceReconciler reconciler, final boolean journaled)
+            throws Exception {
+        final AtomicBoolean stop = new AtomicBoolean();
+        final AtomicLong transfers = new AtomicLong();
+        Thread writer = new Thread(new Runnable() {
+            public void run() {
+                Connection conn = null;
+                try {
+                    conn = DriverManager.getConnection(URL, "sa", "sa");
+                    conn.setAutoCommit(false);
+                    PreparedStatement stmt = conn.prepareStatement("UPDATE CustomerAccount SET Balance = Balance + ? WHERE AccountId = ?");
+                    PreparedStatement journalStmt = conn.prepareStatement("INSERT INTO CustomerTransactionJournal "
+                            + "(FromAccountId, ToAccountId, Amount, CurrencyId, TransactionDate) VALUES (?, ?, 1, ?, NOW())");
+                    Random random = new Random(11);
+                    while (!stop.get()) {
+                        // from the first half to the second half, in the same currency
+                        long from = 1 + random.nextInt(ACCOUNTS / 2);
+                        stmt.setInt(1, -1);
+                        stmt.setLong(2, from);
+                        stmt.executeUpdate();
+                        stmt.setInt(1, 1);
+                        stmt.setLong(2, from + ACCOUNTS / 2);
+                        stmt.executeUpdate();
+                        if (journaled) {
+                            // committed with the transfer, as CustomerTransactionJournal.commitWith does
+                            journalStmt.setLong(1, from);
+                            journalStmt.setLong(2, from + ACCOUNTS / 2);
+                            journalStmt.setInt(3, from % 2 == 0 ? 826 : 156);
+                            journalStmt.executeUpdate();
+                        }
+                        conn.commit();
+                        transfers.incrementAndGet();
+                    }
+                } catch (SQLException e) {
+                    e.printStackTrace();
+                } finally {
+                    DbUtils.closeQuietly(conn);
+                }
+            }
+        });
+        writer.start();
+        try {
+            for (int i = 0; i < 3; i++) {
+                long before = transfers.get();
+                ReconciliationReport report = reconciler.reconcile(
+                        BalanceReconciler.parseExpectedTotals(Arrays.asList("CNY:50000", "GBP:50000")));
+                assertTrue(transfers.get() > before);
+                assertTrue(report.toString(), report.isBalanced());
+                assertEquals(ACCOUNTS, report.getAccountsScanned());
+            }
+        } finally {
+            stop.set(true);
+            writer.join();
+        }
+    }
+
+    /**
+     * Test a total off by a cent, a currency expected but absent, and no expected totals at all
+     */
+    @Test
+    public void testExpectedTotalMismatch() throws BaseException {
+        ReconciliationReport report = reconciler.reconcile(
+                BalanceReconciler.parseExpectedTotals(Arrays.asList("GBP:50000.01", "USD:5")));
+        assertTrue(!report.isBalanced());
+        assertEquals(3, report.getTotals().size());
+        assertNull(report.getTotals().get(0).getDifference());
+        assertEquals(new BigDecimal("-0.0100"), report.getTotals().get(1).getDifference());
+        assertEquals("USD", report.getTotals().get(2).getCurrencyCode());
+        assertEquals(0, report.getTotals().get(2).getAccounts());
+
+        assertTrue(reconciler.reconcile(Collections.<String, BigDecimal>emptyMap()).isBalanced());
+    }
+
+    /**
+     * Test negative balances, unknown currencies and journal entries in another currency than their accounts are
+     * reported, and the list of violations is capped
+     */
+    @Test
+    public void testInvariantViolations() throws Exception {
+        Statement stmt = keeper.createStatement();
+        stmt.execute("UPDATE CustomerAccount SET Balance = -5 WHERE AccountId = 4321");
+        stmt.execute("UPDATE CustomerAccount SET CurrencyId = 1 WHERE AccountId = 9999");
+        stmt.execute("UPDATE CustomerTransactionJournal SET CurrencyId = 840 WHERE TransactionId = 2500");
+        ReconciliationReport report = reconciler.reconcile(Collections.<String, BigDecimal>emptyMap());
+        assertTrue(!report.isBalanced());
+        assertEquals(3, report.getViolationCount());
+        assertTrue(report.getViolations().contains("account 4321: negative balance -5.0000"));
+        assertTrue(report.getViolations().contains("account 9999: unknown currency 1"));
+        assertTrue(report.getViolations().contains("transaction 2500: currency 840 mismatches accounts in 826 and 826"));
+        assertEquals("UNKNOWN-1", report.getTotals().get(0).getCurrencyCode());
+
+        stmt.execute("UPDATE CustomerAccount SET Balance = -1 WHERE AccountId <= 20");
+        report = reconciler.reconcile(Collections.<String, BigDecimal>emptyMap());
+        assertEquals(23, report.getViolationCount());
+        assertEquals(10, report.getViolations().size());
+    }
+
+    /**
+     * Test malformed expected totals are refused
+     */
+    @Test
+    public void testParseExpectedTotals() {
+        Map<String, BigDecimal> totals = BalanceReconciler.parseExpectedTotals(Arrays.asList("GBP:1.5"));
+        assertEquals(new BigDecimal("1.5"), totals.get("GBP"));
+        for (String invalid : new String[] { "GBP", "XYZ:1", "GBP:one" }) {
+            boolean refused = false;
+            try {
+                BalanceReconciler.parseExpectedTotals(Arrays.asList(invalid));
+            } catch (IllegalArgumentException e) {
+                refused = true;
+            }
+            assertTrue(refused);
+        }
+    }
+}
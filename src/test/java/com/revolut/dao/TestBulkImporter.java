@@ -0,0 +1,170 @@
+package com.revolut.dao;
+
+import com.revolut.model.BulkImportReport;
+import com.revolut.util.BaseException;
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.Reader;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.List;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestBulkImporter
+ * @Package com.revolut.dao
+ * @Description: Test Bulk Importer against its own in-memory database with 3 insert threads and chunks of 100 rows
+ */
+public class TestBulkImporter {
+
+    private static final String URL = "jdbc:h2:mem:bulk-import;DB_CLOSE_DELAY=-1";
+    private static final int ROWS = 20000;
+
+    private Connection keeper;
+    private BulkImporter importer;
+
+    @Before
+    public void setup() throws SQLException {
+        keeper = DriverManager.getConnection(URL, "sa", "sa");
+        keeper.createStatement().execute("CREATE TABLE Customer (CustomerId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL, "
+                + "CustomerName VARCHAR(30) NOT NULL, EmailAddress VARCHAR(30) NOT NULL, PhoneNumber VARCHAR(30) NOT NULL)");
+        keeper.createStatement().execute("CREATE UNIQUE INDEX idx_ue on Customer(CustomerName, PhoneNumber)");
+        keeper.createStatement().execute("CREATE TABLE CustomerAccount (AccountId LONG PRIMARY KEY AUTO_INCREMENT NOT NULL, "
+                + "CustomerName VARCHAR(30), Balance DECIMAL(19,4), CurrencyId SMALLINT NOT NULL)");
+        keeper.createStatement().execute("CREATE UNIQUE INDEX idx_acc on CustomerAccount(CustomerName, CurrencyId)");
+        importer = new BulkImporter(new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                return DriverManager.getConnection(URL, "sa", "sa");
+            }
+        }, 3, 100, 5000);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        keeper.createStatement().execute("DROP ALL OBJECTS");
+        DbUtils.closeQuietly(keeper);
+    }
+
+    /**
+     * Test a large CSV account file generated while it is read: a duplicate and invalid rows are rejected with their
+     * line numbers and every other row is inserted
+     */
+    @Test
+    public void testImportAccountsCsv() throws Exception {
+        BulkImportReport report = importer.importRecords(BulkImporter.ACCOUNT, BulkImporter.CSV, new GeneratedCsv());
+        assertEquals(ROWS + 3, report.getRowsRead());
+        assertEquals(ROWS, report.getRowsInserted());
+        assertEquals(3, report.getRowsRejected());
+        List<String> errors = report.getErrors();
+        assertEquals(3, errors.size());
+        assertTrue(errors.contains("line 3: unknown currency XYZ"));
+        assertTrue(errors.contains("line 4: negative balance -1"));
+        assertTrue(errors.get(2).startsWith("line " + (ROWS + 4) + ": "));
+
+        assertEquals(ROWS, count("SELECT COUNT(*) FROM CustomerAccount"));
+        assertEquals(new BigDecimal("7.5000").multiply(new BigDecimal(ROWS)),
+                sum("SELECT SUM(Balance) FROM CustomerAccount"));
+    }
+
+    /**
+     * Test NDJSON customers, including an object missing a field and a line that is not JSON
+     */
+    @Test
+    public void testImportCustomersNdjson() throws BaseException, SQLException {
+        String input = "{\"customerName\":\"Json1\",\"emailAddress\":\"json1@revolut.com\",\"phoneNumber\":\"100\"}\n"
+                + "\n"
+                + "{\"customerName\":\"Json2\",\"emailAddress\":\"json2@revolut.com\"}\n"
+                + "not json\n"
+                + "{\"phoneNumber\":300,\"customerName\":\"Json3\",\"emailAddress\":\"json3@revolut.com\"}\n";
+        BulkImportReport report = importer.importRecords(BulkImporter.CUSTOMER, BulkImporter.NDJSON, new StringReader(input));
+        assertEquals(4, report.getRowsRead());
+        assertEquals(2, report.getRowsInserted());
+        assertEquals(2, report.getRowsRejected());
+        assertTrue(report.getErrors().contains("line 3: missing phoneNumber"));
+        assertTrue(report.getErrors().contains("line 4: invalid JSON"));
+        assertEquals(1, count("SELECT COUNT(*) FROM Customer WHERE CustomerName = 'Json3' AND PhoneNumber = '300'"));
+    }
+
+    /**
+     * Test a CSV file whose header lacks a column fails before anything is inserted
+     */
+    @Test
+    public void testImportWithoutRequiredColumn() throws SQLException {
+        boolean refused = false;
+        try {
+            importer.importRecords(BulkImporter.ACCOUNT, BulkImporter.CSV, new StringReader("customerName,balance\nA,1\n"));
+        } catch (BaseException e) {
+            refused = true;
+        }
+        assertTrue(refused);
+        assertEquals(0, count("SELECT COUNT(*) FROM CustomerAccount"));
+    }
+
+    private long count(String sql) throws SQLException {
+        ResultSet rs = keeper.createStatement().executeQuery(sql);
+        rs.next();
+        return rs.getLong(1);
+    }
+
+    private BigDecimal sum(String sql) throws SQLException {
+        ResultSet rs = keeper.createStatement().executeQuery(sql);
+        rs.next();
+        return rs.getBigDecimal(1);
+    }
+
+    /**
+     * Header, two invalid rows, ROWS valid accounts and a duplicate of the first one, produced line by line so the
+     * file is never held in memory
+     */
+    private static class GeneratedCsv extends Reader {
+        private long line = 0;
+        private String pending = "";
+        private int position = 0;
+
+        public int read(char[] buffer, int offset, int length) {
+            if (position == pending.length()) {
+                pending = nextLine();
+                position = 0;
+                if (pending == null) {
+                    return -1;
+                }
+            }
+            int n = Math.min(length, pending.length() - position);
+            pending.getChars(position, position + n, buffer, offset);
+            position += n;
+            return n;
+        }
+
+        private String nextLine() {
+            line++;
+            if (line == 1) {
+                return "currencyCode,customerName,balance\n";
+            } else if (line == 2) {
+                return "GBP,\"Bulk, 0\",7.5\n";
+            } else if (line == 3) {
+                return "XYZ,Bulk Bad,1\n";
+            } else if (line == 4) {
+                return "GBP,Bulk Negative,-1\n";
+            } else if (line <= ROWS + 3) {
+                return "GBP,Bulk " + (line - 4) + ",7.5\n";
+            } else if (line == ROWS + 4) {
+                return "GBP,\"Bulk, 0\",7.5\n";
+            }
+            return null;
+        }
+
+        public void close() {
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestCustomerAccountCache
+ * @Package com.revolut.dao
+ * @Description: Test Read-Through Customer Account Cache
+ */
+public class TestCustomerAccountCache {
+
+    /**
+     * Test a value loaded before a write is not installed after it
+     */
+    @Test
+    public void testStaleLoadIsNotInstalled() {
+        CustomerAccountCache cache = new CustomerAccountCache(100, 4, CustomerAccountCache.LRU);
+        long version = cache.version(1L);
+        cache.update(account(1L, "200.0000"));
+        cache.putIfUnchanged(account(1L, "100.0000"), version);
+        assertTrue(cache.get(1L).getBalance().equals(new BigDecimal("200.0000")));
+
+        cache.invalidate(1L);
+        version = cache.version(1L);
+        cache.invalidate(1L);
+        cache.putIfUnchanged(account(1L, "100.0000"), version);
+        assertTrue(cache.get(1L) == null);
+        assertEquals(1, cache.getHitCount());
+        assertEquals(1, cache.getMissCount());
+    }
+
+    /**
+     * Test LRU keeps the recently read account while FIFO evicts the first loaded one
+     */
+    @Test
+    public void testEvictionPolicy() {
+        // two segments holding two accounts each
+        CustomerAccountCache lru = new CustomerAccountCache(4, 2, CustomerAccountCache.LRU);
+        CustomerAccountCache fifo = new CustomerAccountCache(4, 2, CustomerAccountCache.FIFO);
+        long[] sameSegment = idsInOneSegment(lru, 3);
+        for (CustomerAccountCache cache : new CustomerAccountCache[]{lru, fifo}) {
+            cache.update(account(sameSegment[0], "1.0000"));
+            cache.update(account(sameSegment[1], "2.0000"));
+            cache.get(sameSegment[0]);
+            cache.update(account(sameSegment[2], "3.0000"));
+            assertEquals(1, cache.getEvictionCount());
+        }
+        assertTrue(lru.get(sameSegment[0]) != null);
+        assertTrue(lru.get(sameSegment[1]) == null);
+        assertTrue(fifo.get(sameSegment[0]) == null);
+        assertTrue(fifo.get(sameSegment[1]) != null);
+    }
+
+    /**
+     * Test cached accounts are copies and balances are rounded to scale 4 before they are cached
+     */
+    @Test
+    public void testCopiesAndScale() {
+        CustomerAccountCache cache = new CustomerAccountCache(100, 4, CustomerAccountCache.LRU);
+        cache.update(account(1L, "5"));
+        CustomerAccount cached = cache.get(1L);
+        assertTrue(cached.getBalance().equals(new BigDecimal("5.0000")));
+        cached.setBalance(BigDecimal.ZERO);
+        assertTrue(cache.get(1L).getBalance().equals(new BigDecimal("5.0000")));
+
+        cache.update(account(1L, "5.00015"));
+        assertTrue(cache.get(1L).getBalance().equals(new BigDecimal("5.0002")));
+    }
+
+    /**
+     * Accounts sharing a segment with account 1, found by watching which invalidations move its version.
+     */
+    private static long[] idsInOneSegment(CustomerAccountCache cache, int count) {
+        long[] ids = new long[count];
+        ids[0] = 1L;
+        int found = 1;
+        for (long id = 2L; found < count; id++) {
+            long version = cache.version(1L);
+            cache.invalidate(id);
+            if (cache.version(1L) != version) {
+                ids[found++] = id;
+            }
+        }
+        return ids;
+    }
+
+    private static CustomerAccount account(long accountId, String balance) {
+        return new CustomerAccount(accountId, "Test" + accountId, new BigDecimal(balance), "USD");
+    }
+}
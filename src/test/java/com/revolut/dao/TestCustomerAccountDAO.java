@@ -1,15 +1,29 @@
 package com.revolut.dao;
 
 import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
 import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
 import com.revolut.util.BaseException;
+import com.revolut.util.Money;
 import org.junit.After;
 import org.junit.BeforeClass;
 import org.junit.Test;
 
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
 import java.math.BigDecimal;
 import java.math.RoundingMode;
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
 import static junit.framework.TestCase.assertTrue;
 import static org.junit.Assert.assertEquals;
@@ -49,6 +63,50 @@ public class TestCustomerAccountDAO {
         assertEquals(accountNum, allCustomerAccounts.size());
     }
 
+    /**
+     * Test if any number of accounts is locked with IN lists of a few fixed lengths, so the lock statements stay in
+     * the statement cache, and every existing account is locked once
+     * @throws Exception
+     */
+    @Test
+    public void testLockAccountsWithFixedInLists() throws Exception {
+        List<CustomerAccount> allCustomerAccounts = h2DaoFactory.getCustomerAccountDAO().getAllCustomerAccounts();
+        final Set<String> statements = new HashSet<String>();
+        final Connection conn = H2DAOFactory.getConnection();
+        Connection recording = (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                new Class<?>[] { Connection.class }, new InvocationHandler() {
+                    public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                        if ("prepareStatement".equals(method.getName())) {
+                            statements.add((String) args[0]);
+                        }
+                        try {
+                            return method.invoke(conn, args);
+                        } catch (InvocationTargetException e) {
+                            throw e.getCause();
+                        }
+                    }
+                });
+        try {
+            conn.setAutoCommit(false);
+            for (int missing = 0; missing < 300; missing += 7) {
+                long[] accountIds = new long[allCustomerAccounts.size() + missing];
+                for (int i = 0; i < allCustomerAccounts.size(); i++) {
+                    accountIds[i] = allCustomerAccounts.get(i).getAccountId();
+                }
+                for (int i = 0; i < missing; i++) {
+                    accountIds[allCustomerAccounts.size() + i] = 1000000L + i;
+                }
+                Map<Long, CustomerAccount> lockedAccounts = new HashMap<Long, CustomerAccount>();
+                CustomerAccountDAOImpl.lockAccounts(recording, lockedAccounts, accountIds);
+                assertEquals(allCustomerAccounts.size(), lockedAccounts.size());
+            }
+            assertEquals(3, statements.size());
+        } finally {
+            conn.rollback();
+            conn.close();
+        }
+    }
+
     /**
      * Test if customer account can be found via ID
      * @throws BaseException
@@ -84,6 +142,15 @@ public class TestCustomerAccountDAO {
         assertTrue(afterCreation.getCurrencyCode().equals("GBP"));
     }
 
+    /**
+     * Test if customer account with an unknown currency is rejected
+     * @throws BaseException
+     */
+    @Test(expected = BaseException.class)
+    public void testCreateCustomerAccountUnknownCurrency() throws BaseException {
+        h2DaoFactory.getCustomerAccountDAO().createCustomerAccount(new CustomerAccount("Test", new BigDecimal(10), "QQQ"));
+    }
+
     /**
      * Test if customer account can be deleted successfully case
      * @throws BaseException
@@ -116,12 +183,12 @@ public class TestCustomerAccountDAO {
 
         BigDecimal deltaDeposit = new BigDecimal(50).setScale(4, RoundingMode.HALF_EVEN);
         BigDecimal afterDeposit = new BigDecimal(1050).setScale(4, RoundingMode.HALF_EVEN);
-        int rowsUpdated = h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, deltaDeposit);
+        int rowsUpdated = h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, Money.fromBigDecimal(deltaDeposit));
         assertTrue(rowsUpdated == 1);
         assertTrue(h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(1L).getBalance().equals(afterDeposit));
         BigDecimal deltaWithDraw = new BigDecimal(-50).setScale(4, RoundingMode.HALF_EVEN);
         BigDecimal afterWithDraw = new BigDecimal(1000).setScale(4, RoundingMode.HALF_EVEN);
-        int rowsUpdatedW = h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, deltaWithDraw);
+        int rowsUpdatedW = h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, Money.fromBigDecimal(deltaWithDraw));
         assertTrue(rowsUpdatedW == 1);
         assertTrue(h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(1L).getBalance().equals(afterWithDraw));
 
@@ -134,8 +201,114 @@ public class TestCustomerAccountDAO {
     @Test(expected = BaseException.class)
     public void testUpdateCustomerAccountBalanceNotEnoughFund() throws BaseException {
         BigDecimal deltaWithDraw = new BigDecimal(-50000).setScale(4, RoundingMode.HALF_EVEN);
-        int rowsUpdatedW = h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, deltaWithDraw);
+        int rowsUpdatedW = h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, Money.fromBigDecimal(deltaWithDraw));
         assertTrue(rowsUpdatedW == 0);
 
     }
+
+    /**
+     * Test if a deposit overflowing the fixed-point balance is rejected
+     * @throws BaseException
+     */
+    @Test(expected = BaseException.class)
+    public void testUpdateCustomerAccountBalanceOverflow() throws BaseException {
+        h2DaoFactory.getCustomerAccountDAO().updateCustomerAccountBalance(1L, Long.MAX_VALUE);
+    }
+
+    /**
+     * Test the conditional update returns the updated account with and without a cached copy,
+     * and a refused withdraw leaves the balance untouched
+     * @throws BaseException
+     */
+    @Test
+    public void testUpdateAndGetCustomerAccount() throws BaseException {
+        CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        long initial = accountDAO.getCustomerAccountById(8L).getBalanceUnits();
+        CustomerAccount updated = accountDAO.updateAndGetCustomerAccount(8L, 25 * Money.ONE);
+        assertEquals(initial + 25 * Money.ONE, updated.getBalanceUnits());
+        assertTrue(updated.getCustomerName().equals("Howard"));
+
+        CustomerAccountCache.getInstance().invalidate(8L);
+        updated = accountDAO.updateAndGetCustomerAccount(8L, -(initial + 25 * Money.ONE));
+        assertEquals(Money.ZERO, updated.getBalanceUnits());
+
+        CustomerAccountCache.getInstance().invalidate(8L);
+        try {
+            accountDAO.updateAndGetCustomerAccount(8L, -Money.ONE);
+            assertTrue("withdraw above the balance should fail", false);
+        } catch (BaseException e) {
+            assertTrue(e.getMessage().startsWith("Not sufficient Fund"));
+        }
+        assertEquals(Money.ZERO, accountDAO.getCustomerAccountById(8L).getBalanceUnits());
+        assertEquals(initial, accountDAO.updateAndGetCustomerAccount(8L, initial).getBalanceUnits());
+        try {
+            accountDAO.updateAndGetCustomerAccount(500L, Money.ONE);
+            assertTrue("update of a missing account should fail", false);
+        } catch (BaseException e) {
+            assertTrue(accountDAO.getCustomerAccountById(500L) == null);
+        }
+    }
+
+    /**
+     * Test the read model snapshot follows committed balance changes and deletes with growing versions
+     * @throws BaseException
+     */
+    @Test
+    public void testCustomerAccountSnapshot() throws BaseException {
+        CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        AccountReadModel readModel = AccountReadModel.getInstance();
+        CustomerAccount snapshot = accountDAO.getCustomerAccountSnapshot(8L);
+        long initial = accountDAO.getCustomerAccountById(8L).getBalanceUnits();
+        assertEquals(initial, snapshot.getBalanceUnits());
+        long version = readModel.lookup(8L).getVersion();
+
+        accountDAO.updateCustomerAccountBalance(8L, Money.ONE);
+        assertEquals(initial + Money.ONE, accountDAO.getCustomerAccountSnapshot(8L).getBalanceUnits());
+        assertTrue(readModel.lookup(8L).getVersion() > version);
+        accountDAO.updateCustomerAccountBalance(8L, -Money.ONE);
+        assertEquals(initial, accountDAO.getCustomerAccountSnapshot(8L).getBalanceUnits());
+
+        assertTrue(accountDAO.getCustomerAccountSnapshot(500L) == null);
+    }
+
+    /**
+     * Test reads after a balance update and a transfer are served from the cache with the new balances
+     * @throws BaseException
+     */
+    @Test
+    public void testCachedAccountAfterWrite() throws BaseException {
+        CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        CustomerAccountCache cache = CustomerAccountCache.getInstance();
+        long accountA = accountDAO.createCustomerAccount(new CustomerAccount("CacheA", new BigDecimal(100), "USD"));
+        long accountB = accountDAO.createCustomerAccount(new CustomerAccount("CacheB", new BigDecimal(100), "USD"));
+        BigDecimal hundred = new BigDecimal(100).setScale(4, RoundingMode.HALF_EVEN);
+        assertTrue(accountDAO.getCustomerAccountById(accountA).getBalance().equals(hundred));
+
+        long hits = cache.getHitCount();
+        accountDAO.updateCustomerAccountBalance(accountA, 50 * Money.ONE);
+        accountDAO.transferCustomerAccountBalance(new CustomerTransaction("USD",
+                new BigDecimal(30).setScale(4, RoundingMode.HALF_EVEN), accountA, accountB));
+        assertTrue(accountDAO.getCustomerAccountById(accountA).getBalance().equals(new BigDecimal("120.0000")));
+        assertTrue(accountDAO.getCustomerAccountById(accountB).getBalance().equals(new BigDecimal("130.0000")));
+        assertEquals(hits + 2, cache.getHitCount());
+
+        accountDAO.deleteCustomerAccountById(accountB);
+        assertTrue(accountDAO.getCustomerAccountById(accountB) == null);
+    }
+
+    /**
+     * Test the callback receives one keyset page in AccountId order
+     * @throws Exception
+     */
+    @Test
+    public void testForEachCustomerAccount() throws Exception {
+        final List<Long> accountIds = new ArrayList<Long>();
+        int count = h2DaoFactory.getCustomerAccountDAO().forEachCustomerAccount(2L, 3, new RowCallback<CustomerAccount>() {
+            public void onRow(CustomerAccount row) {
+                accountIds.add(row.getAccountId());
+            }
+        });
+        assertEquals(3, count);
+        assertEquals(Arrays.asList(3L, 4L, 5L), accountIds);
+    }
 }
@@ -135,4 +135,18 @@ public class TestCustomerDAO {
         assertTrue(rowCount == 0);
 
     }
+
+    /**
+     * Test keyset pages cover every customer exactly once in customerId order
+     * @throws BaseException
+     */
+    @Test
+    public void testGetCustomersByPage() throws BaseException {
+        List<Customer> first = h2DaoFactory.getCustomerDAO().getCustomers(0L, 4);
+        assertTrue(first.size() == 4);
+        assertTrue(first.get(0).getCustomerId() < first.get(3).getCustomerId());
+        List<Customer> rest = h2DaoFactory.getCustomerDAO().getCustomers(first.get(3).getCustomerId(), 4);
+        assertTrue(rest.size() == h2DaoFactory.getCustomerDAO().getAllCustomers().size() - 4);
+        assertTrue(rest.get(0).getCustomerId() > first.get(3).getCustomerId());
+    }
 }
@@ -4,6 +4,7 @@ import com.revolut.dao.factory.DAOFactory;
 import com.revolut.dao.factory.H2DAOFactory;
 import com.revolut.model.CustomerAccount;
 import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
 import com.revolut.util.BaseException;
 import org.apache.commons.dbutils.DbUtils;
 import org.apache.log4j.Logger;
@@ -17,9 +18,14 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
 import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
 
 /**
  * @author Guang_Yang
@@ -114,6 +120,130 @@ public class TestCustomerTransaction {
         assertTrue(accountTo.getBalance().equals(new BigDecimal(3000).setScale(4, RoundingMode.HALF_EVEN)));
     }
 
+    /**
+     * Test concurrent transfers in both directions between the same two accounts
+     * Every transfer should succeed and no money should be created or destroyed
+     * @throws BaseException
+     */
+    @Test
+    public void testCustomerAccountBidirectionalTransfer() throws InterruptedException, BaseException {
+
+        final CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        final BigDecimal initialBalance = new BigDecimal(1000).setScale(4, RoundingMode.HALF_EVEN);
+        final long accountA = accountDAO.createCustomerAccount(new CustomerAccount("HotA", initialBalance, "USD"));
+        final long accountB = accountDAO.createCustomerAccount(new CustomerAccount("HotB", initialBalance, "USD"));
+        final CountDownLatch latch = new CountDownLatch(THREADS_COUNT);
+        final AtomicInteger succeeded = new AtomicInteger();
+
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            final boolean forward = i % 2 == 0;
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        CustomerTransaction transaction = new CustomerTransaction("USD",
+                                new BigDecimal(1).setScale(4, RoundingMode.HALF_EVEN),
+                                forward ? accountA : accountB, forward ? accountB : accountA);
+                        if (accountDAO.transferCustomerAccountBalance(transaction) == 2) {
+                            succeeded.incrementAndGet();
+                        }
+                    } catch (Exception e) {
+                        log.error("Error occurred during transfer ", e);
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+
+        latch.await();
+
+        assertEquals(THREADS_COUNT, succeeded.get());
+        assertTrue(accountDAO.getCustomerAccountById(accountA).getBalance().equals(initialBalance));
+        assertTrue(accountDAO.getCustomerAccountById(accountB).getBalance().equals(initialBalance));
+    }
+
+    /**
+     * Test transfer to the same account is rejected
+     * @throws BaseException
+     */
+    @Test(expected = BaseException.class)
+    public void testTransferToSameAccount() throws BaseException {
+        CustomerTransaction transaction = new CustomerTransaction("USD",
+                new BigDecimal(10).setScale(4, RoundingMode.HALF_EVEN), 8L, 8L);
+        h2DaoFactory.getCustomerAccountDAO().transferCustomerAccountBalance(transaction);
+    }
+
+    /**
+     * Test best effort batch applies valid transfers and skips the failing one
+     * @throws BaseException
+     */
+    @Test
+    public void testTransferBatchBestEffort() throws BaseException {
+        final CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        long accountA = accountDAO.createCustomerAccount(new CustomerAccount("BatchA", amount(100), "USD"));
+        long accountB = accountDAO.createCustomerAccount(new CustomerAccount("BatchB", amount(100), "USD"));
+        List<CustomerTransactionResult> results = accountDAO.transferCustomerAccountBalanceBatch(Arrays.asList(
+                new CustomerTransaction("USD", amount(30), accountA, accountB),
+                new CustomerTransaction("USD", amount(500), accountA, accountB),
+                new CustomerTransaction("USD", amount(10), accountB, accountA)), false);
+
+        assertEquals(CustomerTransactionResult.COMPLETED, results.get(0).getStatus());
+        assertEquals(CustomerTransactionResult.FAILED, results.get(1).getStatus());
+        assertEquals(CustomerTransactionResult.COMPLETED, results.get(2).getStatus());
+        assertTrue(accountDAO.getCustomerAccountById(accountA).getBalance().equals(amount(80)));
+        assertTrue(accountDAO.getCustomerAccountById(accountB).getBalance().equals(amount(120)));
+    }
+
+    /**
+     * Test all or nothing batch is rolled back entirely when one transfer fails
+     * @throws BaseException
+     */
+    @Test
+    public void testTransferBatchAllOrNothing() throws BaseException {
+        final CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        long accountA = accountDAO.createCustomerAccount(new CustomerAccount("AtomicA", amount(100), "USD"));
+        long accountB = accountDAO.createCustomerAccount(new CustomerAccount("AtomicB", amount(100), "USD"));
+        List<CustomerTransactionResult> results = accountDAO.transferCustomerAccountBalanceBatch(Arrays.asList(
+                new CustomerTransaction("USD", amount(30), accountA, accountB),
+                new CustomerTransaction("USD", amount(80), accountA, accountB)), true);
+
+        assertEquals(CustomerTransactionResult.ROLLED_BACK, results.get(0).getStatus());
+        assertEquals(CustomerTransactionResult.FAILED, results.get(1).getStatus());
+        assertTrue(accountDAO.getCustomerAccountById(accountA).getBalance().equals(amount(100)));
+        assertTrue(accountDAO.getCustomerAccountById(accountB).getBalance().equals(amount(100)));
+    }
+
+    /**
+     * Test an all or nothing batch needing more account lock stripes than one transaction may hold is refused
+     * without applying anything, while the same transfers as a best effort batch complete in several transactions
+     * @throws BaseException
+     */
+    @Test
+    public void testTransferBatchStripeCap() throws BaseException {
+        final CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        long[] accountIds = new long[40];
+        for (int i = 0; i < accountIds.length; i++) {
+            accountIds[i] = accountDAO.createCustomerAccount(new CustomerAccount("StripeCap" + i, amount(100), "USD"));
+        }
+        assertTrue(AccountLockManager.getInstance().stripeCountOf(accountIds) > 16);
+        List<CustomerTransaction> transfers = new ArrayList<CustomerTransaction>();
+        for (int i = 0; i + 1 < accountIds.length; i++) {
+            transfers.add(new CustomerTransaction("USD", amount(1), accountIds[i], accountIds[i + 1]));
+        }
+
+        for (CustomerTransactionResult result : accountDAO.transferCustomerAccountBalanceBatch(transfers, true)) {
+            assertEquals(CustomerTransactionResult.FAILED, result.getStatus());
+        }
+        assertTrue(accountDAO.getCustomerAccountById(accountIds[0]).getBalance().equals(amount(100)));
+
+        for (CustomerTransactionResult result : accountDAO.transferCustomerAccountBalanceBatch(transfers, false)) {
+            assertEquals(CustomerTransactionResult.COMPLETED, result.getStatus());
+        }
+        assertTrue(accountDAO.getCustomerAccountById(accountIds[0]).getBalance().equals(amount(99)));
+        assertTrue(accountDAO.getCustomerAccountById(accountIds[20]).getBalance().equals(amount(100)));
+        assertTrue(accountDAO.getCustomerAccountById(accountIds[39]).getBalance().equals(amount(101)));
+    }
+
     /**
      * Test two customer transfer money fail while one of the account is locked
      * Total transfer will be 2000 GBP while the balance is only 1000, half of the transfer will fail
@@ -162,4 +292,8 @@ public class TestCustomerTransaction {
         assertTrue(h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(6L).getBalance().equals(originalBalance));
         assertTrue(h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(5L).getBalance().equals(originalBalance));
     }
+
+    private static BigDecimal amount(int value) {
+        return new BigDecimal(value).setScale(4, RoundingMode.HALF_EVEN);
+    }
 }
@@ -0,0 +1,139 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionRecord;
+import com.revolut.util.Money;
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestCustomerTransactionDAO
+ * @Package com.revolut.dao
+ * @Description: Test Customer Transaction history DAO
+ */
+public class TestCustomerTransactionDAO {
+
+    private static final DAOFactory h2DaoFactory = DAOFactory.getDAOFactory(DAOFactory.H2);
+    private static final Date REQUESTED_DATE = new Date(1500000000000L);
+
+    /**
+     * Initialize the database and journal 5 transfers of account 9101
+     */
+    @BeforeClass
+    public static void setup() throws Exception {
+        h2DaoFactory.populateTestData();
+        CustomerTransactionJournal journal = new CustomerTransactionJournal(true, 1, 16, 100, true);
+        try {
+            List<CustomerTransaction> transfers = new ArrayList<CustomerTransaction>();
+            for (int i = 1; i <= 5; i++) {
+                CustomerTransaction transfer = i % 2 == 0 ? new CustomerTransaction("USD", i * Money.ONE, 9102L, 9101L)
+                        : new CustomerTransaction("USD", i * Money.ONE, 9101L, 9103L);
+                transfer.setTransactionDate(REQUESTED_DATE);
+                transfers.add(transfer);
+            }
+            journal.await(journal.record(transfers));
+            journal.await(journal.record(new CustomerTransaction("USD", Money.ONE, 9102L, 9103L)));
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test pages of both sides of the account are merged in order and the cursor continues without gaps
+     * @throws Exception
+     */
+    @Test
+    public void testHistoryPages() throws Exception {
+        CustomerTransactionDAO transactionDAO = h2DaoFactory.getCustomerTransactionDAO();
+        List<CustomerTransactionRecord> history = new ArrayList<CustomerTransactionRecord>();
+        List<CustomerTransactionRecord> page = transactionDAO.getCustomerTransactions(9101L, null, null, 0, 2);
+        while (!page.isEmpty()) {
+            assertTrue(page.size() <= 2);
+            history.addAll(page);
+            page = transactionDAO.getCustomerTransactions(9101L, null, null,
+                    page.get(page.size() - 1).getTransactionId(), 2);
+        }
+        assertEquals(5, history.size());
+        for (int i = 0; i < history.size(); i++) {
+            CustomerTransactionRecord record = history.get(i);
+            assertEquals((i + 1) * Money.ONE, record.getAmountUnits());
+            assertTrue(record.getFromAccountId() == 9101L || record.getToAccountId() == 9101L);
+            assertEquals(REQUESTED_DATE.getTime(), record.getRequestedDate().getTime());
+            assertEquals("USD", record.getCurrencyCode());
+            if (i > 0) {
+                assertTrue(record.getTransactionId() > history.get(i - 1).getTransactionId());
+            }
+        }
+    }
+
+    /**
+     * Test an entry committed after a page was read is on the next page even when its transactionDate is earlier
+     * than the dates already seen
+     * @throws Exception
+     */
+    @Test
+    public void testHistoryCursorSeesLateEntry() throws Exception {
+        CustomerTransactionDAO transactionDAO = h2DaoFactory.getCustomerTransactionDAO();
+        CustomerTransactionJournal journal = new CustomerTransactionJournal(true, 1, 16, 100, true);
+        try {
+            journal.await(journal.record(new CustomerTransaction("USD", Money.ONE, 9104L, 9105L)));
+        } finally {
+            journal.close();
+        }
+        List<CustomerTransactionRecord> page = transactionDAO.getCustomerTransactions(9104L, null, null, 0, 1);
+        assertEquals(1, page.size());
+
+        Connection conn = H2DAOFactory.getConnection();
+        try {
+            conn.createStatement().execute("INSERT INTO CustomerTransactionJournal (FromAccountId, ToAccountId, "
+                    + "Amount, CurrencyId, TransactionDate) VALUES (9105, 9104, 2, 840, TIMESTAMP '2000-01-01 00:00:00')");
+        } finally {
+            DbUtils.closeQuietly(conn);
+        }
+        page = transactionDAO.getCustomerTransactions(9104L, null, null, page.get(0).getTransactionId(), 1);
+        assertEquals(1, page.size());
+        assertEquals(2 * Money.ONE, page.get(0).getAmountUnits());
+    }
+
+    /**
+     * Test the transactionDate range filter on dates the journal stamps in TransactionId order
+     * @throws Exception
+     */
+    @Test
+    public void testHistoryRange() throws Exception {
+        CustomerTransactionDAO transactionDAO = h2DaoFactory.getCustomerTransactionDAO();
+        List<CustomerTransactionRecord> history = transactionDAO.getCustomerTransactions(9101L, null, null, 0, 10);
+        assertEquals(5, history.size());
+        Date first = history.get(0).getTransactionDate();
+        Date last = history.get(history.size() - 1).getTransactionDate();
+        int firstDateCount = 0;
+        for (int i = 0; i < history.size(); i++) {
+            if (i > 0) {
+                assertTrue(!history.get(i).getTransactionDate().before(history.get(i - 1).getTransactionDate()));
+            }
+            if (history.get(i).getTransactionDate().equals(first)) {
+                firstDateCount++;
+            }
+        }
+        assertEquals(firstDateCount, transactionDAO.getCustomerTransactions(9101L, first,
+                new Date(first.getTime() + 1), 0, 10).size());
+        assertEquals(5, transactionDAO.getCustomerTransactions(9101L, first, new Date(last.getTime() + 1), 0, 10).size());
+        assertEquals(0, transactionDAO.getCustomerTransactions(9101L, null, first, 0, 10).size());
+        assertEquals(0, transactionDAO.getCustomerTransactions(9101L, new Date(last.getTime() + 1), null,
+                0, 10).size());
+        assertEquals(3, transactionDAO.getCustomerTransactions(9102L, null, null, 0, 10).size());
+    }
+}
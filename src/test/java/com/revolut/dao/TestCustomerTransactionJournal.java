@@ -0,0 +1,170 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.dao.factory.H2DAOFactory;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.util.BaseException;
+import com.revolut.util.Money;
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.math.BigDecimal;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestCustomerTransactionJournal
+ * @Package com.revolut.dao
+ * @Description: Test Customer Transaction Journal
+ */
+public class TestCustomerTransactionJournal {
+
+    private static final DAOFactory h2DaoFactory = DAOFactory.getDAOFactory(DAOFactory.H2);
+    private static final int THREADS_COUNT = 20;
+
+    /**
+     * Initialize the database for testing
+     */
+    @BeforeClass
+    public static void setup() {
+        h2DaoFactory.populateTestData();
+    }
+
+    /**
+     * Test if concurrent synchronous records are all committed once their futures complete
+     * @throws Exception
+     */
+    @Test
+    public void testSynchronousGroupCommit() throws Exception {
+        final CustomerTransactionJournal journal = new CustomerTransactionJournal(true, 2, 8, 1000, true);
+        final CountDownLatch latch = new CountDownLatch(THREADS_COUNT);
+        final List<Throwable> errors = new ArrayList<Throwable>();
+        try {
+            for (int i = 0; i < THREADS_COUNT; i++) {
+                new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            CompletableFuture<Void> committed = journal.record(
+                                    new CustomerTransaction("USD", Money.ONE, 9001L, 9002L));
+                            journal.await(committed);
+                        } catch (Throwable e) {
+                            synchronized (errors) {
+                                errors.add(e);
+                            }
+                        } finally {
+                            latch.countDown();
+                        }
+                    }
+                }).start();
+            }
+            assertTrue(latch.await(30, TimeUnit.SECONDS));
+            assertTrue(errors.isEmpty());
+            // every awaited entry must be visible without a flush
+            assertEquals(THREADS_COUNT, countJournalEntries(9001L));
+            assertEquals(THREADS_COUNT, journal.getWrittenCount());
+        } finally {
+            journal.close();
+        }
+    }
+
+    /**
+     * Test if only successful DAO transfers reach the journal
+     * @throws Exception
+     */
+    @Test
+    public void testTransfersAreJournaled() throws Exception {
+        CustomerAccountDAO accountDAO = h2DaoFactory.getCustomerAccountDAO();
+        CustomerTransactionJournal journal = CustomerTransactionJournal.getInstance();
+        journal.flush();
+        int before = countJournalEntries(3L);
+
+        assertEquals(2, accountDAO.transferCustomerAccountBalance(
+                new CustomerTransaction("EUR", new BigDecimal("10.0000"), 3L, 4L)));
+        try {
+            accountDAO.transferCustomerAccountBalance(
+                    new CustomerTransaction("EUR", new BigDecimal("1000000.0000"), 3L, 4L));
+            assertTrue("transfer above the balance should fail", false);
+        } catch (BaseException e) {
+            // expected, and must not be journaled
+        }
+        journal.flush();
+        assertEquals(before + 1, countJournalEntries(3L));
+    }
+
+    /**
+     * Test a synchronous journal inserts the entries with the transaction it commits, and an asynchronous one only
+     * commits it
+     * @throws Exception
+     */
+    @Test
+    public void testCommitWithJournalsInTransaction() throws Exception {
+        CustomerTransactionJournal journal = new CustomerTransactionJournal(true, 2, 8, 1000, true);
+        CustomerTransactionJournal asyncJournal = new CustomerTransactionJournal(true, 2, 8, 1000, false);
+        Connection conn = H2DAOFactory.getConnection();
+        try {
+            conn.setAutoCommit(false);
+            List<CustomerTransaction> transfers = new ArrayList<CustomerTransaction>();
+            transfers.add(new CustomerTransaction("USD", Money.ONE, 9301L, 9302L));
+            transfers.add(new CustomerTransaction("USD", Money.ONE, 9302L, 9301L));
+            journal.commitWith(conn, transfers);
+            assertEquals(1, countJournalEntries(9301L));
+            assertEquals(1, countJournalEntries(9302L));
+            assertEquals(2, journal.getWrittenCount());
+
+            asyncJournal.commitWith(conn, transfers.subList(0, 1));
+            assertEquals(1, countJournalEntries(9301L));
+            assertEquals(0, asyncJournal.getWrittenCount());
+        } finally {
+            conn.setAutoCommit(true);
+            DbUtils.closeQuietly(conn);
+            journal.close();
+            asyncJournal.close();
+        }
+    }
+
+    /**
+     * Test committed transfers the journal can no longer take are counted as failed instead of failing the caller
+     * @throws Exception
+     */
+    @Test
+    public void testRecordCommittedNeverThrows() throws Exception {
+        CustomerTransactionJournal journal = new CustomerTransactionJournal(true, 2, 8, 1000, true);
+        journal.close();
+        List<CustomerTransaction> transfers = new ArrayList<CustomerTransaction>();
+        transfers.add(new CustomerTransaction("USD", Money.ONE, 9201L, 9202L));
+        transfers.add(new CustomerTransaction("USD", Money.ONE, 9202L, 9201L));
+        CompletableFuture<Void> committed = journal.recordCommitted(transfers);
+        journal.awaitCommitted(committed);
+        assertTrue(committed == null);
+        assertEquals(2, journal.getFailedCount());
+    }
+
+    private static int countJournalEntries(long fromAccountId) throws SQLException {
+        Connection conn = null;
+        PreparedStatement stmt = null;
+        ResultSet rs = null;
+        try {
+            conn = H2DAOFactory.getConnection();
+            stmt = conn.prepareStatement("SELECT COUNT(*) FROM CustomerTransactionJournal WHERE FromAccountId = ?");
+            stmt.setLong(1, fromAccountId);
+            rs = stmt.executeQuery();
+            rs.next();
+            return rs.getInt(1);
+        } finally {
+            DbUtils.closeQuietly(conn, stmt, rs);
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.revolut.dao;
+
+import com.revolut.util.BaseException;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestIdempotencyStore
+ * @Package com.revolut.dao
+ * @Description: Test Idempotency Key Store
+ */
+public class TestIdempotencyStore {
+
+    private static final int THREADS_COUNT = 20;
+
+    /**
+     * Test if requests with the key of a running request get its outcome once it has finished without running or
+     * waiting themselves, and later retries get the recorded outcome
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentRetriesRunOnce() throws Exception {
+        final IdempotencyStore store = new IdempotencyStore(100, 4, 60, 30000, false);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final IdempotencyStore.Call call = blockingCall(runs, running, finish);
+        final List<IdempotencyStore.Outcome> outcomes = new ArrayList<IdempotencyStore.Outcome>();
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    IdempotencyStore.Outcome outcome = store.execute("key", "body", call).join();
+                    synchronized (outcomes) {
+                        outcomes.add(outcome);
+                    }
+                } catch (BaseException e) {
+                    // missing outcome is detected below
+                }
+            }
+        });
+        first.start();
+        assertTrue(running.await(30, TimeUnit.SECONDS));
+        List<CompletableFuture<IdempotencyStore.Outcome>> retries = new ArrayList<CompletableFuture<IdempotencyStore.Outcome>>();
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            CompletableFuture<IdempotencyStore.Outcome> retry = store.execute("key", "body", call);
+            assertTrue(!retry.isDone());
+            retries.add(retry);
+        }
+        finish.countDown();
+        first.join();
+        assertEquals(1, outcomes.size());
+        assertTrue(!outcomes.get(0).isReplayed());
+        for (CompletableFuture<IdempotencyStore.Outcome> retry : retries) {
+            IdempotencyStore.Outcome outcome = retry.get(30, TimeUnit.SECONDS);
+            assertEquals(200, outcome.getStatus());
+            assertTrue(outcome.isReplayed());
+        }
+
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            CompletableFuture<IdempotencyStore.Outcome> retry = store.execute("key", "body", call);
+            assertTrue(retry.isDone());
+            assertTrue(retry.join().isReplayed());
+        }
+        assertEquals(1, runs.get());
+        assertEquals(2 * THREADS_COUNT, store.getReplayCount());
+    }
+
+    /**
+     * Test if a request waiting for a running request with its key gives up with a conflict after the wait time,
+     * while the running request still completes
+     * @throws Exception
+     */
+    @Test
+    public void testWaitForRunningKeyTimesOut() throws Exception {
+        final IdempotencyStore store = new IdempotencyStore(100, 4, 60, 50, false);
+        final AtomicInteger runs = new AtomicInteger();
+        final CountDownLatch running = new CountDownLatch(1);
+        final CountDownLatch finish = new CountDownLatch(1);
+        final IdempotencyStore.Call call = blockingCall(runs, running, finish);
+        Thread first = new Thread(new Runnable() {
+            public void run() {
+                try {
+                    store.execute("key", "body", call);
+                } catch (BaseException e) {
+                    // the outcome is checked through a retry below
+                }
+            }
+        });
+        first.start();
+        assertTrue(running.await(30, TimeUnit.SECONDS));
+        try {
+            store.execute("key", "body", call).get(30, TimeUnit.SECONDS);
+            assertTrue("wait should time out", false);
+        } catch (ExecutionException e) {
+            assertTrue(e.getCause() instanceof IdempotencyStore.KeyConflictException);
+        }
+        finish.countDown();
+        first.join();
+        assertTrue(store.execute("key", "body", call).join().isReplayed());
+        assertEquals(1, runs.get());
+    }
+
+    /**
+     * Test if a key reused for another request is rejected and an abandoned request releases its key
+     * @throws Exception
+     */
+    @Test
+    public void testConflictAndAbandonedKey() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(100, 4, 60, 30000, false);
+        store.execute("key", "body", outcome(400, "Transaction failed")).join();
+        try {
+            store.execute("key", "other body", outcome(200, null));
+            assertTrue("key reuse should be rejected", false);
+        } catch (IdempotencyStore.KeyConflictException e) {
+            // expected
+        }
+        assertEquals("Transaction failed", store.execute("key", "body", outcome(200, null)).join().getMessage());
+
+        try {
+            store.execute("abandoned", "body", new IdempotencyStore.Call() {
+                public IdempotencyStore.Outcome run() {
+                    throw new IllegalStateException("crash before an outcome");
+                }
+            });
+        } catch (IllegalStateException e) {
+            // expected
+        }
+        IdempotencyStore.Outcome outcome = store.execute("abandoned", "body", outcome(200, null)).join();
+        assertEquals(200, outcome.getStatus());
+        assertTrue(!outcome.isReplayed());
+    }
+
+    /**
+     * Test if a retryable outcome answers its own request only and releases the key, so the retry runs
+     * @throws Exception
+     */
+    @Test
+    public void testRetryableOutcomeReleasesKey() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(100, 4, 60, 30000, false);
+        IdempotencyStore.Outcome failed = store.execute("key", "body", new IdempotencyStore.Call() {
+            public IdempotencyStore.Outcome run() {
+                return IdempotencyStore.Outcome.retryable(500, "Timeout locking CustomerAccounts");
+            }
+        }).join();
+        assertEquals(500, failed.getStatus());
+        assertEquals(0, store.size());
+
+        IdempotencyStore.Outcome retried = store.execute("key", "body", outcome(200, null)).join();
+        assertEquals(200, retried.getStatus());
+        assertTrue(!retried.isReplayed());
+        assertTrue(store.execute("key", "body", outcome(500, null)).join().isReplayed());
+    }
+
+    /**
+     * Test if completed keys beyond the capacity and expired keys are evicted
+     * @throws Exception
+     */
+    @Test
+    public void testEviction() throws Exception {
+        IdempotencyStore store = new IdempotencyStore(4, 1, 60, 30000, false);
+        for (int i = 0; i < 10; i++) {
+            store.execute("key-" + i, "body", outcome(200, null));
+        }
+        assertEquals(4, store.size());
+        assertTrue(!store.execute("key-0", "body", outcome(200, null)).join().isReplayed());
+
+        IdempotencyStore expiring = new IdempotencyStore(100, 1, 0, 30000, false);
+        expiring.execute("key", "body", outcome(200, null));
+        assertTrue(!expiring.execute("key", "body", outcome(200, null)).join().isReplayed());
+    }
+
+    /**
+     * Call answering 200 once released by finish, counting its runs
+     */
+    private static IdempotencyStore.Call blockingCall(final AtomicInteger runs, final CountDownLatch running,
+                                                      final CountDownLatch finish) {
+        return new IdempotencyStore.Call() {
+            public IdempotencyStore.Outcome run() {
+                runs.incrementAndGet();
+                running.countDown();
+                try {
+                    finish.await(30, TimeUnit.SECONDS);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                return new IdempotencyStore.Outcome(200, null);
+            }
+        };
+    }
+
+    private static IdempotencyStore.Call outcome(final int status, final String message) {
+        return new IdempotencyStore.Call() {
+            public IdempotencyStore.Outcome run() throws BaseException {
+                return new IdempotencyStore.Outcome(status, message);
+            }
+        };
+    }
+}
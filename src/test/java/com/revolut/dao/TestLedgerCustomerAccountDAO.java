@@ -0,0 +1,195 @@
+package com.revolut.dao;
+
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
+import com.revolut.util.BaseException;
+import com.revolut.util.Money;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestLedgerCustomerAccountDAO
+ * @Package com.revolut.dao
+ * @Description: Test In-Memory Ledger Customer Account DAO
+ */
+public class TestLedgerCustomerAccountDAO {
+
+    private static final int THREADS_COUNT = 100;
+
+    private File journalFile;
+    private LedgerEngine ledgerEngine;
+    private CustomerAccountDAO accountDAO;
+
+    /**
+     * Start a ledger on an empty journal seeded with two CNY accounts
+     */
+    @Before
+    public void setup() throws IOException, BaseException {
+        journalFile = File.createTempFile("ledger", ".journal");
+        journalFile.delete();
+        ledgerEngine = new LedgerEngine(journalFile, 64, false, 5000);
+        ledgerEngine.start();
+        ledgerEngine.reset(Arrays.asList(
+                new CustomerAccount(1L, "Allen", amount(1000), "CNY"),
+                new CustomerAccount(2L, "Bob", amount(2000), "CNY")));
+        accountDAO = new LedgerCustomerAccountDAOImpl(ledgerEngine);
+    }
+
+    @After
+    public void tearDown() {
+        ledgerEngine.close();
+        journalFile.delete();
+    }
+
+    /**
+     * Test if account creation assigns the next id and rejects duplicates
+     * @throws BaseException
+     */
+    @Test
+    public void testCreateCustomerAccount() throws BaseException {
+        long aid = accountDAO.createCustomerAccount(new CustomerAccount("Test", amount(10), "GBP"));
+        assertEquals(3L, aid);
+        assertTrue(accountDAO.getCustomerAccountById(aid).getBalance().equals(amount(10)));
+        assertEquals(3, accountDAO.getAllCustomerAccounts().size());
+        try {
+            accountDAO.createCustomerAccount(new CustomerAccount("Test", amount(10), "GBP"));
+            assertTrue("duplicate account should be rejected", false);
+        } catch (BaseException e) {
+            assertEquals(3, accountDAO.getAllCustomerAccounts().size());
+        }
+    }
+
+    /**
+     * Test if a command failing in the sequencer fails alone and the ledger keeps serving later commands
+     * @throws BaseException
+     */
+    @Test
+    public void testFailedCommandKeepsLedgerRunning() throws BaseException {
+        try {
+            accountDAO.createCustomerAccount(new CustomerAccount(null, amount(10), "GBP"));
+            assertTrue("account without a name should be rejected", false);
+        } catch (BaseException e) {
+            assertEquals(2, accountDAO.getAllCustomerAccounts().size());
+        }
+        try {
+            ledgerEngine.transferBatch(null, false);
+            assertTrue("missing batch should be rejected", false);
+        } catch (BaseException e) {
+            assertTrue(e.getCause() instanceof NullPointerException);
+        }
+        long aid = accountDAO.createCustomerAccount(new CustomerAccount("Test", amount(10), "GBP"));
+        assertEquals(3L, aid);
+    }
+
+    /**
+     * Test if concurrent transfers are serialized and overdrafts rejected
+     * Total transfer will be 2000 CNY while the balance is only 1000, half of the transfer will fail
+     */
+    @Test
+    public void testMultiThreadedTransfer() throws InterruptedException, BaseException {
+        final CountDownLatch latch = new CountDownLatch(THREADS_COUNT);
+        for (int i = 0; i < THREADS_COUNT; i++) {
+            new Thread(new Runnable() {
+                public void run() {
+                    try {
+                        accountDAO.transferCustomerAccountBalance(new CustomerTransaction("CNY", amount(20), 1L, 2L));
+                    } catch (BaseException e) {
+                        // expected for the transfers exceeding the balance
+                    } finally {
+                        latch.countDown();
+                    }
+                }
+            }).start();
+        }
+        latch.await();
+        assertTrue(accountDAO.getCustomerAccountById(1L).getBalance().equals(amount(0)));
+        assertTrue(accountDAO.getCustomerAccountById(2L).getBalance().equals(amount(3000)));
+    }
+
+    /**
+     * Test if insufficient fund is rejected on withdraw
+     * @throws BaseException
+     */
+    @Test(expected = BaseException.class)
+    public void testUpdateBalanceNotEnoughFund() throws BaseException {
+        accountDAO.updateCustomerAccountBalance(1L, -5000 * Money.ONE);
+    }
+
+    /**
+     * Test all or nothing batch leaves balances untouched when one transfer fails
+     * @throws BaseException
+     */
+    @Test
+    public void testTransferBatchAllOrNothing() throws BaseException {
+        List<CustomerTransactionResult> results = accountDAO.transferCustomerAccountBalanceBatch(Arrays.asList(
+                new CustomerTransaction("CNY", amount(600), 1L, 2L),
+                new CustomerTransaction("CNY", amount(600), 1L, 2L)), true);
+        assertEquals(CustomerTransactionResult.ROLLED_BACK, results.get(0).getStatus());
+        assertEquals(CustomerTransactionResult.FAILED, results.get(1).getStatus());
+        assertTrue(accountDAO.getCustomerAccountById(1L).getBalance().equals(amount(1000)));
+
+        results = accountDAO.transferCustomerAccountBalanceBatch(Arrays.asList(
+                new CustomerTransaction("CNY", amount(600), 1L, 2L),
+                new CustomerTransaction("CNY", amount(600), 1L, 2L)), false);
+        assertEquals(CustomerTransactionResult.COMPLETED, results.get(0).getStatus());
+        assertEquals(CustomerTransactionResult.FAILED, results.get(1).getStatus());
+        assertTrue(accountDAO.getCustomerAccountById(1L).getBalance().equals(amount(400)));
+    }
+
+    /**
+     * Test if state is rebuilt from the journal after a restart
+     * @throws BaseException
+     */
+    @Test
+    public void testReplayJournalOnRestart() throws BaseException, IOException {
+        assertEquals(0, ledgerEngine.getReplayedEvents());
+        accountDAO.updateCustomerAccountBalance(1L, 50 * Money.ONE);
+        accountDAO.transferCustomerAccountBalance(new CustomerTransaction("CNY", amount(100), 2L, 1L));
+        long aid = accountDAO.createCustomerAccount(new CustomerAccount("Carl", amount(30), "EUR"));
+        accountDAO.deleteCustomerAccountById(aid);
+        ledgerEngine.close();
+
+        ledgerEngine = new LedgerEngine(journalFile, 64, false, 5000);
+        ledgerEngine.start();
+        // 2 seeded accounts, a deposit, a transfer, a create and a delete
+        assertEquals(6, ledgerEngine.getReplayedEvents());
+        accountDAO = new LedgerCustomerAccountDAOImpl(ledgerEngine);
+        assertTrue(accountDAO.getCustomerAccountById(1L).getBalance().equals(amount(1150)));
+        assertTrue(accountDAO.getCustomerAccountById(2L).getBalance().equals(amount(1900)));
+        assertTrue(accountDAO.getCustomerAccountById(aid) == null);
+        assertEquals(aid + 1, accountDAO.createCustomerAccount(new CustomerAccount("Carl", amount(30), "EUR")));
+    }
+
+    private static BigDecimal amount(int value) {
+        return new BigDecimal(value).setScale(4, RoundingMode.HALF_EVEN);
+    }
+
+    /**
+     * Test keyset pages of the ledger accounts
+     * @throws BaseException
+     */
+    @Test
+    public void testGetCustomerAccountsByPage() throws BaseException {
+        accountDAO.createCustomerAccount(new CustomerAccount("Carl", amount(30), "EUR"));
+        List<CustomerAccount> page = accountDAO.getCustomerAccounts(1L, 1);
+        assertEquals(1, page.size());
+        assertEquals(Long.valueOf(2L), page.get(0).getAccountId());
+        assertEquals(2, accountDAO.getCustomerAccounts(1L, 10).size());
+        assertTrue(accountDAO.getCustomerAccounts(3L, 10).isEmpty());
+    }
+}
@@ -0,0 +1,312 @@
+package com.revolut.dao;
+
+import com.revolut.dao.factory.DAOFactory;
+import com.revolut.model.CustomerAccount;
+import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionResult;
+import com.revolut.util.BaseException;
+import org.apache.commons.dbutils.DbUtils;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.math.BigDecimal;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.sql.Connection;
+import java.sql.DriverManager;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestShardedCustomerAccountDAO
+ * @Package com.revolut.dao
+ * @Description: Test Sharded Customer Account DAO over two shard databases, accounts 1 and 3 in shard 0 and
+ * accounts 2 and 4 in shard 1
+ */
+public class TestShardedCustomerAccountDAO {
+
+    private File dir;
+    private ShardedCustomerAccountDAO accountDAO;
+    // the next commit on shard 1 fails and takes the shard down until shard1Down is cleared
+    private volatile boolean crashShard1OnCommit;
+    private volatile boolean shard1Down;
+    // commits on shard 1 go through but report a failure
+    private volatile boolean failShard1AfterCommit;
+
+    @BeforeClass
+    public static void setupJournal() {
+        // the transaction journal of the shards is written to the main database
+        DAOFactory.getDAOFactory(DAOFactory.H2).populateTestData();
+    }
+
+    @Before
+    public void setup() throws Exception {
+        dir = File.createTempFile("shards", "");
+        dir.delete();
+        dir.mkdirs();
+        accountDAO = open();
+        List<CustomerAccount> accounts = new ArrayList<CustomerAccount>();
+        for (long id = 1; id <= 4; id++) {
+            accounts.add(new CustomerAccount(id, "Shard" + id, new BigDecimal("100.0000"), "CNY"));
+        }
+        accountDAO.reset(accounts);
+    }
+
+    @After
+    public void tearDown() throws SQLException {
+        accountDAO.close();
+        for (int shard = 0; shard < 2; shard++) {
+            Connection conn = shard(shard).getConnection();
+            conn.createStatement().execute("SHUTDOWN");
+            DbUtils.closeQuietly(conn);
+        }
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File file : files) {
+                file.delete();
+            }
+        }
+        dir.delete();
+    }
+
+    /**
+     * Test pages are merged from both shards in AccountId order and new accounts get an id of their shard
+     */
+    @Test
+    public void testPagingAndCreate() throws BaseException {
+        List<CustomerAccount> page = accountDAO.getCustomerAccounts(1L, 2);
+        assertEquals(2, page.size());
+        assertEquals(2L, (long) page.get(0).getAccountId());
+        assertEquals(3L, (long) page.get(1).getAccountId());
+        assertEquals(4, accountDAO.getAllCustomerAccounts().size());
+
+        long accountId = accountDAO.createCustomerAccount(new CustomerAccount("NewShard", new BigDecimal("5.0000"), "CNY"));
+        assertTrue(accountId > 4);
+        assertEquals(Math.floorMod("NewShard".hashCode(), 2), ShardedCustomerAccountDAO.shardOf(accountId, 2));
+        assertEquals(new BigDecimal("5.0000"), accountDAO.getCustomerAccountById(accountId).getBalance());
+
+        // Shard1 lives in shard 0, a duplicate created from either shard is refused
+        boolean refused = false;
+        try {
+            accountDAO.createCustomerAccount(new CustomerAccount("Shard1", new BigDecimal("1.0000"), "CNY"));
+        } catch (BaseException e) {
+            refused = true;
+        }
+        assertTrue(refused);
+    }
+
+    /**
+     * Test transfers within one shard and across shards, and a rejected cross-shard transfer changes nothing
+     */
+    @Test
+    public void testTransfer() throws BaseException {
+        assertEquals(2, accountDAO.transferCustomerAccountBalance(transfer("10.0000", 1L, 3L)));
+        assertEquals(2, accountDAO.transferCustomerAccountBalance(transfer("20.0000", 3L, 2L)));
+        assertEquals(new BigDecimal("90.0000"), balance(1L));
+        assertEquals(new BigDecimal("120.0000"), balance(2L));
+        assertEquals(new BigDecimal("90.0000"), balance(3L));
+
+        boolean refused = false;
+        try {
+            accountDAO.transferCustomerAccountBalance(transfer("1000.0000", 4L, 1L));
+        } catch (BaseException e) {
+            refused = true;
+        }
+        assertTrue(refused);
+        assertEquals(new BigDecimal("100.0000"), balance(4L));
+        assertEquals(new BigDecimal("90.0000"), balance(1L));
+        assertEquals(new BigDecimal("100.0000"), accountDAO.getCustomerAccountSnapshot(4L).getBalance());
+    }
+
+    /**
+     * Test an all-or-nothing batch over both shards is rolled back in every shard by its failing transfer
+     */
+    @Test
+    public void testAllOrNothingBatchAcrossShards() throws BaseException {
+        List<CustomerTransaction> transactions = new ArrayList<CustomerTransaction>();
+        transactions.add(transfer("50.0000", 1L, 2L));
+        transactions.add(transfer("50.0000", 4L, 3L));
+        transactions.add(transfer("500.0000", 2L, 3L));
+        List<CustomerTransactionResult> results = accountDAO.transferCustomerAccountBalanceBatch(transactions, true);
+        assertEquals(CustomerTransactionResult.ROLLED_BACK, results.get(0).getStatus());
+        assertEquals(CustomerTransactionResult.FAILED, results.get(2).getStatus());
+        for (long id = 1; id <= 4; id++) {
+            assertEquals(new BigDecimal("100.0000"), balance(id));
+        }
+
+        transactions.remove(2);
+        results = accountDAO.transferCustomerAccountBalanceBatch(transactions, true);
+        assertEquals(CustomerTransactionResult.COMPLETED, results.get(1).getStatus());
+        assertEquals(new BigDecimal("50.0000"), balance(1L));
+        assertEquals(new BigDecimal("150.0000"), balance(2L));
+        assertEquals(new BigDecimal("150.0000"), balance(3L));
+        assertEquals(new BigDecimal("50.0000"), balance(4L));
+    }
+
+    /**
+     * Test recover commits the prepared shard transactions named in the log and rolls back the others after a crash
+     */
+    @Test
+    public void testRecoverInDoubtTransactions() throws Exception {
+        prepareAndCrash(0, 1L, "XSTEST_1");
+        prepareAndCrash(1, 2L, "XSTEST_2");
+        FileOutputStream decisionLog = new FileOutputStream(new File(dir, "shard-transfer.log"));
+        decisionLog.write("COMMIT XSTEST_1\nCOMMIT XSTE".getBytes(StandardCharsets.US_ASCII));
+        decisionLog.close();
+
+        accountDAO.close();
+        accountDAO = open();
+        assertEquals(new BigDecimal("0.0000"), balance(1L));
+        assertEquals(new BigDecimal("100.0000"), balance(2L));
+        assertEquals(0L, new File(dir, "shard-transfer.log").length());
+    }
+
+    /**
+     * Test a shard failing to commit a decided transfer leaves it in doubt and fails the transfer, its decision kept
+     * in the log through truncations and its accounts unpublished, until the pending commit timer commits it
+     */
+    @Test
+    public void testCommitInDoubtShard() throws Exception {
+        accountDAO.close();
+        accountDAO = open(0);
+        crashShard1OnCommit = true;
+        boolean unconfirmed = false;
+        try {
+            accountDAO.transferCustomerAccountBalance(transfer("10.0000", 1L, 2L));
+        } catch (ShardTransferCoordinator.UnconfirmedCommitException e) {
+            unconfirmed = true;
+        }
+        assertTrue(unconfirmed);
+        assertTrue(shard1Down);
+        crashShard1OnCommit = false;
+        String decisions = new String(Files.readAllBytes(new File(dir, "shard-transfer.log").toPath()),
+                StandardCharsets.US_ASCII);
+        assertTrue(decisions.startsWith("COMMIT XS"));
+        assertEquals(new BigDecimal("90.0000"), balance(1L));
+
+        shard1Down = false;
+        long deadline = System.currentTimeMillis() + 10000;
+        while (balance(2L).compareTo(new BigDecimal("110.0000")) != 0 && System.currentTimeMillis() < deadline) {
+            Thread.sleep(50);
+        }
+        assertEquals(new BigDecimal("110.0000"), balance(2L));
+        assertEquals(2, accountDAO.transferCustomerAccountBalance(transfer("10.0000", 3L, 4L)));
+        assertEquals(new BigDecimal("110.0000"), balance(4L));
+        assertEquals(0L, new File(dir, "shard-transfer.log").length());
+    }
+
+    /**
+     * Test a shard commit reported as failed after it went through is confirmed from the balances it wrote
+     */
+    @Test
+    public void testCommitConfirmedFromBalances() throws Exception {
+        failShard1AfterCommit = true;
+        assertEquals(2, accountDAO.transferCustomerAccountBalance(transfer("10.0000", 1L, 2L)));
+        failShard1AfterCommit = false;
+        assertEquals(new BigDecimal("90.0000"), balance(1L));
+        assertEquals(new BigDecimal("110.0000"), balance(2L));
+    }
+
+    /**
+     * Test seeded shards are recognised so a restart keeps them, and shards holding only part of the tables are refused
+     */
+    @Test
+    public void testIsSeeded() throws Exception {
+        assertTrue(accountDAO.isSeeded());
+        dropAccounts(1);
+        boolean refused = false;
+        try {
+            accountDAO.isSeeded();
+        } catch (BaseException e) {
+            refused = true;
+        }
+        assertTrue(refused);
+        dropAccounts(0);
+        assertTrue(!accountDAO.isSeeded());
+    }
+
+    private void dropAccounts(int shard) throws SQLException {
+        Connection conn = shard(shard).getConnection();
+        conn.createStatement().execute("DROP TABLE CustomerAccount");
+        DbUtils.closeQuietly(conn);
+    }
+
+    private void prepareAndCrash(int shard, long accountId, String transactionName) throws SQLException {
+        Connection conn = shard(shard).getConnection();
+        conn.setAutoCommit(false);
+        Statement stmt = conn.createStatement();
+        stmt.execute("UPDATE CustomerAccount SET Balance = 0 WHERE AccountId = " + accountId);
+        stmt.execute("PREPARE COMMIT " + transactionName);
+        Connection killer = shard(shard).getConnection();
+        killer.createStatement().execute("SHUTDOWN IMMEDIATELY");
+        DbUtils.closeQuietly(killer);
+        DbUtils.closeQuietly(conn);
+    }
+
+    private ShardedCustomerAccountDAO open() throws BaseException {
+        return open(1024);
+    }
+
+    private ShardedCustomerAccountDAO open(long decisionLogMaxBytes) throws BaseException {
+        ShardedCustomerAccountDAO dao = new ShardedCustomerAccountDAO(new ConnectionProvider[] { shard(0), shard(1) },
+                new CustomerAccountCache(100, 4, CustomerAccountCache.LRU), new AccountReadModel(),
+                new File(dir, "shard-transfer.log"), false, decisionLogMaxBytes);
+        dao.recover();
+        return dao;
+    }
+
+    private ConnectionProvider shard(final int shard) {
+        return new ConnectionProvider() {
+            public Connection getConnection() throws SQLException {
+                if (shard == 1 && shard1Down) {
+                    throw new SQLException("Shard 1 is down");
+                }
+                final Connection conn = DriverManager.getConnection("jdbc:h2:" + new File(dir, "shard" + shard).getAbsolutePath(), "sa", "sa");
+                if (shard == 0) {
+                    return conn;
+                }
+                return (Connection) Proxy.newProxyInstance(Connection.class.getClassLoader(),
+                        new Class<?>[] { Connection.class }, new InvocationHandler() {
+                            public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+                                if ("commit".equals(method.getName()) && (crashShard1OnCommit || shard1Down)) {
+                                    shard1Down = true;
+                                    throw new SQLException("Shard 1 is down");
+                                }
+                                if ("commit".equals(method.getName()) && failShard1AfterCommit) {
+                                    conn.commit();
+                                    throw new SQLException("Shard 1 lost the commit acknowledgement");
+                                }
+                                try {
+                                    return method.invoke(conn, args);
+                                } catch (InvocationTargetException e) {
+                                    throw e.getCause();
+                                }
+                            }
+                        });
+            }
+        };
+    }
+
+    private BigDecimal balance(long accountId) throws BaseException {
+        return accountDAO.getCustomerAccountById(accountId).getBalance();
+    }
+
+    private static CustomerTransaction transfer(String amount, Long fromAccountId, Long toAccountId) {
+        return new CustomerTransaction("CNY", new BigDecimal(amount), fromAccountId, toAccountId);
+    }
+}
@@ -0,0 +1,159 @@
+package com.revolut.dao.factory;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestH2ConnectionPool
+ * @Package com.revolut.dao.factory
+ * @Description: Test H2 Connection Pool
+ */
+public class TestH2ConnectionPool {
+
+    private H2ConnectionPool pool;
+
+    @Before
+    public void setup() {
+        pool = new H2ConnectionPool("jdbc:h2:mem:pool-test;DB_CLOSE_DELAY=-1", "sa", "sa",
+                1, 2, 200, 600000, 30000, 1, 60000);
+    }
+
+    @After
+    public void tearDown() {
+        pool.close();
+    }
+
+    /**
+     * Test if a returned connection is reused instead of opening a new one
+     * @throws SQLException
+     */
+    @Test
+    public void testConnectionReused() throws SQLException {
+        Connection conn = pool.getConnection();
+        String physical = conn.toString();
+        conn.close();
+        Connection again = pool.getConnection();
+        assertEquals(physical, again.toString());
+        again.close();
+        PoolStatistics stats = pool.getStatistics();
+        assertEquals(2, stats.getAcquiredCount());
+        assertEquals(0, stats.getActiveConnections());
+    }
+
+    /**
+     * Test if borrowing beyond the max pool size times out
+     * @throws SQLException
+     */
+    @Test
+    public void testAcquireTimeout() throws SQLException {
+        Connection first = pool.getConnection();
+        Connection second = pool.getConnection();
+        try {
+            pool.getConnection();
+            assertTrue("pool should be exhausted", false);
+        } catch (SQLTransientConnectionException e) {
+            assertEquals(1, pool.getStatistics().getAcquireTimeoutCount());
+        } finally {
+            first.close();
+            second.close();
+        }
+        assertEquals(2, pool.getStatistics().getIdleConnections());
+    }
+
+    /**
+     * Test if an uncommitted transaction is rolled back when the connection is returned
+     * @throws SQLException
+     */
+    @Test
+    public void testOpenTransactionResetOnRelease() throws SQLException {
+        Connection conn = pool.getConnection();
+        conn.setAutoCommit(false);
+        conn.close();
+        assertTrue(conn.isClosed());
+        Connection again = pool.getConnection();
+        assertTrue(again.getAutoCommit());
+        again.close();
+    }
+
+    /**
+     * Test if a closed prepared statement is served again from the cache on the next checkout
+     * @throws SQLException
+     */
+    @Test
+    public void testPreparedStatementReused() throws SQLException {
+        H2ConnectionPool cached = new H2ConnectionPool("jdbc:h2:mem:pool-test;DB_CLOSE_DELAY=-1", "sa", "sa",
+                1, 1, 200, 600000, 30000, 1, 60000, 2);
+        try {
+            Connection conn = cached.getConnection();
+            PreparedStatement stmt = conn.prepareStatement("SELECT ? + 1");
+            String physical = stmt.toString();
+            stmt.setInt(1, 1);
+            stmt.executeQuery().close();
+            stmt.close();
+            assertTrue(stmt.isClosed());
+            conn.close();
+
+            conn = cached.getConnection();
+            stmt = conn.prepareStatement("SELECT ? + 1");
+            assertEquals(physical, stmt.toString());
+            assertTrue(stmt.getConnection() == conn);
+            stmt.setInt(1, 2);
+            ResultSet rs = stmt.executeQuery();
+            assertTrue(rs.next());
+            assertEquals(3, rs.getInt(1));
+            rs.close();
+            // the same SQL open twice in one checkout gets a second, uncached statement
+            PreparedStatement second = conn.prepareStatement("SELECT ? + 1");
+            assertTrue(!physical.equals(second.toString()));
+            second.close();
+            stmt.close();
+            conn.close();
+
+            PoolStatistics stats = cached.getStatistics();
+            assertEquals(1, stats.getStatementCacheHits());
+            assertEquals(2, stats.getStatementCacheMisses());
+        } finally {
+            cached.close();
+        }
+    }
+
+    /**
+     * Test if the least recently used statement is evicted beyond the cache size and a stale handle stays closed
+     * @throws SQLException
+     */
+    @Test
+    public void testPreparedStatementEvicted() throws SQLException {
+        H2ConnectionPool cached = new H2ConnectionPool("jdbc:h2:mem:pool-test;DB_CLOSE_DELAY=-1", "sa", "sa",
+                1, 1, 200, 600000, 30000, 1, 60000, 2);
+        try {
+            Connection conn = cached.getConnection();
+            PreparedStatement first = conn.prepareStatement("SELECT 1");
+            first.close();
+            conn.prepareStatement("SELECT 2").close();
+            conn.prepareStatement("SELECT 3").close();
+            assertEquals(1, cached.getStatistics().getStatementCacheEvictions());
+            // "SELECT 1" was evicted, preparing it again is a miss
+            PreparedStatement again = conn.prepareStatement("SELECT 1");
+            assertTrue(first.isClosed());
+            assertTrue(!again.isClosed());
+            again.close();
+            conn.close();
+            assertEquals(0, cached.getStatistics().getStatementCacheHits());
+            assertEquals(4, cached.getStatistics().getStatementCacheMisses());
+        } finally {
+            cached.close();
+        }
+    }
+}
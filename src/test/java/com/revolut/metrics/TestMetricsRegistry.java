@@ -0,0 +1,66 @@
+package com.revolut.metrics;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestMetricsRegistry
+ * @Package com.revolut.metrics
+ * @Description: Test Metrics Registry and Latency Histogram
+ */
+public class TestMetricsRegistry {
+
+    /**
+     * Test values land in the bucket of their upper bound and counts are cumulative
+     */
+    @Test
+    public void testHistogramBuckets() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(50));
+        histogram.record(TimeUnit.MICROSECONDS.toNanos(51));
+        histogram.record(TimeUnit.SECONDS.toNanos(60));
+        long[] cumulative = histogram.getCumulativeCounts();
+        assertEquals(1, cumulative[0]);
+        assertEquals(2, cumulative[1]);
+        assertEquals(2, cumulative[cumulative.length - 2]);
+        assertEquals(3, cumulative[cumulative.length - 1]);
+        assertEquals(3, histogram.getCount());
+        assertTrue(histogram.getSumSeconds() > 60.0);
+    }
+
+    /**
+     * Test the same name and labels resolve to one metric and the Prometheus text output
+     */
+    @Test
+    public void testScrapeFormat() {
+        LatencyHistogram histogram = MetricsRegistry.INSTANCE.histogram("test_scrape_seconds", "Test histogram",
+                "resource", "Test\"Resource");
+        assertTrue(histogram == MetricsRegistry.INSTANCE.histogram("test_scrape_seconds", "Test histogram",
+                "resource", "Test\"Resource"));
+        histogram.record(TimeUnit.MILLISECONDS.toNanos(3));
+        MetricsRegistry.INSTANCE.counter("test_scrape_total", "Test counter").add(5);
+
+        String scrape = MetricsRegistry.INSTANCE.scrape();
+        assertTrue(scrape.contains("# TYPE test_scrape_seconds histogram\n"));
+        assertTrue(scrape.contains("test_scrape_seconds_bucket{resource=\"Test\\\"Resource\",le=\"0.0025\"} 0\n"));
+        assertTrue(scrape.contains("test_scrape_seconds_bucket{resource=\"Test\\\"Resource\",le=\"0.005\"} 1\n"));
+        assertTrue(scrape.contains("test_scrape_seconds_bucket{resource=\"Test\\\"Resource\",le=\"+Inf\"} 1\n"));
+        assertTrue(scrape.contains("test_scrape_seconds_count{resource=\"Test\\\"Resource\"} 1\n"));
+        assertTrue(scrape.contains("# TYPE test_scrape_total counter\ntest_scrape_total 5\n"));
+    }
+
+    /**
+     * Test a name cannot be registered with two metric types
+     */
+    @Test(expected = IllegalArgumentException.class)
+    public void testTypeConflict() {
+        MetricsRegistry.INSTANCE.counter("test_conflict", "Test counter");
+        MetricsRegistry.INSTANCE.histogram("test_conflict", "Test histogram");
+    }
+}
@@ -1,6 +1,7 @@
 package com.revolut.service;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.revolut.TransferMoneyApplication;
 import com.revolut.dao.factory.DAOFactory;
 import org.apache.http.client.HttpClient;
 import org.apache.http.client.utils.HttpClientUtils;
@@ -8,9 +9,6 @@ import org.apache.http.client.utils.URIBuilder;
 import org.apache.http.impl.client.HttpClients;
 import org.apache.http.impl.conn.PoolingHttpClientConnectionManager;
 import org.eclipse.jetty.server.Server;
-import org.eclipse.jetty.servlet.ServletContextHandler;
-import org.eclipse.jetty.servlet.ServletHolder;
-import org.glassfish.jersey.servlet.ServletContainer;
 import org.junit.AfterClass;
 import org.junit.BeforeClass;
 
@@ -54,17 +52,7 @@ public abstract class TestAbstractService {
 
     private static void startServer() throws Exception {
         if (server == null) {
-            server = new Server(8081);
-            ServletContextHandler context = new ServletContextHandler(ServletContextHandler.SESSIONS);
-            context.setContextPath("/");
-            server.setHandler(context);
-            ServletHolder servletHolder = context.addServlet(ServletContainer.class, "/*");
-            servletHolder.setInitParameter("jersey.config.server.provider.classnames",
-                    CustomerService.class.getCanonicalName() + "," +
-                            CustomerAccountService.class.getCanonicalName() + "," +
-                            ServiceExceptionMapper.class.getCanonicalName() + "," +
-                            CustomerTransactionService.class.getCanonicalName());
-            server.start();
+            server = TransferMoneyApplication.startServer(8081);
         }
     }
 }
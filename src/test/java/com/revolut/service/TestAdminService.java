@@ -0,0 +1,146 @@
+package com.revolut.service;
+
+import com.revolut.model.BulkImportReport;
+import com.revolut.model.Customer;
+import com.revolut.model.ReconciliationReport;
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.client.methods.HttpPost;
+import org.apache.http.entity.StringEntity;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestAdminService
+ * @Package com.revolut.service
+ * @Description: Test Admin Service
+ * @date
+ */
+public class TestAdminService extends TestAbstractService {
+
+    /**
+     * Category: Positive
+     * Scenario: Test bulk import of customers from CSV, the customer already in the sample data is rejected
+     * Return: BulkImportReport with 200 OK, the new customers are found by name
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testImportCustomers() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/admin/import").setParameter("type", "customer").setParameter("format", "csv").build();
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "text/csv");
+        request.setEntity(new StringEntity("phoneNumber,customerName,emailAddress\n"
+                + "99900001111,Importer1,importer1@revolut.com\n"
+                + "\"99900002222\",\"Importer, Second\",importer2@revolut.com\n"
+                + "11122223333,Allen,allen@revolut.com\n"));
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertTrue(statusCode == 200);
+
+        BulkImportReport report = mapper.readValue(EntityUtils.toString(response.getEntity()), BulkImportReport.class);
+        assertTrue(report.getRowsRead() == 3);
+        assertTrue(report.getRowsInserted() == 2);
+        assertTrue(report.getRowsRejected() == 1);
+        assertTrue(report.getErrors().get(0).startsWith("line 4: "));
+
+        HttpResponse found = client.execute(new HttpGet(builder.setPath("/customer/name/Importer1").removeQuery().build()));
+        assertTrue(found.getStatusLine().getStatusCode() == 200);
+        Customer customer = mapper.readValue(EntityUtils.toString(found.getEntity()), Customer.class);
+        assertTrue(customer.getPhoneNumber().equals("99900001111"));
+    }
+
+    /**
+     * Category: Negative
+     * Scenario: Test bulk import of an unknown type
+     * Return: 400 Bad Request
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testImportUnknownType() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/admin/import").setParameter("type", "transaction").build();
+        HttpPost request = new HttpPost(uri);
+        request.setEntity(new StringEntity("customerName\n"));
+        HttpResponse response = client.execute(request);
+        int statusCode = response.getStatusLine().getStatusCode();
+        EntityUtils.consumeQuietly(response.getEntity());
+        assertTrue(statusCode == 400);
+    }
+
+    /**
+     * Category: Positive
+     * Scenario: Test gzipped NDJSON export of the accounts
+     * Return: One JSON object per sample account with 200 OK
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testExportAccounts() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/admin/export").setParameter("format", "ndjson").setParameter("gzip", "true").build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertTrue(statusCode == 200);
+        assertTrue(response.getFirstHeader("Content-Type").getValue().equals("application/gzip"));
+
+        BufferedReader reader = new BufferedReader(new InputStreamReader(
+                new GZIPInputStream(response.getEntity().getContent()), StandardCharsets.UTF_8));
+        String first = reader.readLine();
+        int lines = 1;
+        while (reader.readLine() != null) {
+            lines++;
+        }
+        reader.close();
+        assertTrue(first.equals("{\"accountId\":1,\"customerName\":\"Allen\",\"balance\":1000.0000,\"currencyCode\":\"CNY\"}"));
+        assertTrue(lines == 8);
+    }
+
+    /**
+     * Category: Positive
+     * Scenario: Test reconciliation of the sample accounts against their totals
+     * Return: Balanced ReconciliationReport with 200 OK
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testReconcile() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/admin/reconcile").setParameter("expected", "GBP:12000")
+                .addParameter("expected", "USD:3000.0000").build();
+        HttpResponse response = client.execute(new HttpPost(uri));
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertTrue(statusCode == 200);
+
+        ReconciliationReport report = mapper.readValue(EntityUtils.toString(response.getEntity()), ReconciliationReport.class);
+        assertTrue(report.isBalanced());
+        assertTrue(report.getAccountsScanned() == 8);
+        assertTrue(report.getTotals().size() == 4);
+    }
+
+    /**
+     * Category: Negative
+     * Scenario: Test reconciliation with an expected total in an unknown currency
+     * Return: 400 Bad Request
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testReconcileInvalidExpectedTotal() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/admin/reconcile").setParameter("expected", "XYZ:1").build();
+        HttpResponse response = client.execute(new HttpPost(uri));
+        int statusCode = response.getStatusLine().getStatusCode();
+        EntityUtils.consumeQuietly(response.getEntity());
+        assertTrue(statusCode == 400);
+    }
+}
@@ -170,4 +170,46 @@ public class TestCustomerAccountService extends TestAbstractService {
         int statusCode = response.getStatusLine().getStatusCode();
         assertTrue(statusCode == 404);
     }
+
+    /**
+     * Category: Positive
+     * Scenario: Page through all the customer accounts with limit and the X-Next-After cursor
+     * Return: full pages with 200 OK until the last one, which carries no cursor, covering the streamed list
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testGetCustomerAccountsByPage() throws IOException, URISyntaxException {
+        HttpResponse response = client.execute(new HttpGet(builder.setPath("/account/all").build()));
+        int streamed = mapper.readValue(EntityUtils.toString(response.getEntity()), CustomerAccount[].class).length;
+
+        String after = "0";
+        int total = 0;
+        while (after != null) {
+            URI uri = builder.setPath("/account/all").setParameter("after", after).setParameter("limit", "3").build();
+            response = client.execute(new HttpGet(uri));
+            assertTrue(response.getStatusLine().getStatusCode() == 200);
+            CustomerAccount[] accounts = mapper.readValue(EntityUtils.toString(response.getEntity()), CustomerAccount[].class);
+            total += accounts.length;
+            after = response.getFirstHeader(CustomerService.NEXT_AFTER_HEADER) == null ? null
+                    : response.getFirstHeader(CustomerService.NEXT_AFTER_HEADER).getValue();
+            assertTrue(after == null || accounts.length == 3);
+        }
+        assertTrue(total == streamed);
+    }
+
+    /**
+     * Category: Negative
+     * Scenario: Request a page with a limit outside the allowed range
+     * Return: 400 Bad Request
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testGetCustomerAccountsInvalidLimit() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/account/all").setParameter("limit", "0").build();
+        HttpResponse response = client.execute(new HttpGet(uri));
+        EntityUtils.consume(response.getEntity());
+        assertTrue(response.getStatusLine().getStatusCode() == 400);
+    }
 }
@@ -1,12 +1,18 @@
 package com.revolut.service;
 
 import com.revolut.model.CustomerAccount;
+import com.revolut.dao.CustomerTransactionJournal;
+import com.revolut.dao.factory.H2DAOFactory;
 import com.revolut.model.CustomerTransaction;
+import com.revolut.model.CustomerTransactionRecord;
+import com.revolut.model.CustomerTransactionResult;
 import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
 import org.apache.http.client.methods.HttpPost;
 import org.apache.http.client.methods.HttpPut;
 import org.apache.http.entity.StringEntity;
 import org.apache.http.util.EntityUtils;
+import org.apache.commons.dbutils.DbUtils;
 import org.junit.Test;
 
 import java.io.IOException;
@@ -14,6 +20,10 @@ import java.math.BigDecimal;
 import java.math.RoundingMode;
 import java.net.URI;
 import java.net.URISyntaxException;
+import java.sql.Connection;
+import java.util.Arrays;
+import java.util.Date;
+import java.util.List;
 
 import static org.junit.Assert.assertTrue;
 
@@ -113,6 +123,130 @@ public class TestCustomerTransactionService extends TestAbstractService {
         assertTrue(statusCode == 200);
     }
 
+    /**
+     * Category: Positive
+     * Scenario: Test a retried transaction with the same Idempotency-Key is replayed instead of transferred twice,
+     * and the key cannot be reused for a different transaction
+     * Return: 200 OK twice, then 409 CONFLICT
+     * @throws Exception
+     */
+    @Test
+    public void testTransactionIdempotencyKey() throws Exception {
+        BigDecimal before = h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(7L).getBalance();
+        String key = "transfer-" + System.nanoTime();
+        CustomerTransaction transaction = new CustomerTransaction("GBP", new BigDecimal("10.0000"), 7L, 5L);
+
+        HttpResponse first = postTransaction(transaction, key);
+        assertTrue(first.getStatusLine().getStatusCode() == 200);
+        assertTrue(first.getFirstHeader("Idempotent-Replayed").getValue().equals("false"));
+        EntityUtils.consume(first.getEntity());
+        HttpResponse retry = postTransaction(transaction, key);
+        assertTrue(retry.getStatusLine().getStatusCode() == 200);
+        assertTrue(retry.getFirstHeader("Idempotent-Replayed").getValue().equals("true"));
+        EntityUtils.consume(retry.getEntity());
+        BigDecimal after = h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(7L).getBalance();
+        assertTrue(before.subtract(after).equals(new BigDecimal("10.0000")));
+
+        HttpResponse reused = postTransaction(new CustomerTransaction("GBP", new BigDecimal("20.0000"), 7L, 5L), key);
+        assertTrue(reused.getStatusLine().getStatusCode() == 409);
+        EntityUtils.consume(reused.getEntity());
+    }
+
+    /**
+     * Category: Positive
+     * Scenario: Test two concurrent requests with the same Idempotency-Key while the first one is held on a row lock,
+     * the second one waits for its outcome instead of being turned away
+     * Return: 200 OK for both, one of them replayed, and a single transfer applied
+     * @throws Exception
+     */
+    @Test
+    public void testConcurrentIdempotencyKey() throws Exception {
+        BigDecimal before = h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(7L).getBalance();
+        final String key = "concurrent-" + System.nanoTime();
+        final CustomerTransaction transaction = new CustomerTransaction("GBP", new BigDecimal("3.0000"), 7L, 5L);
+        final int[] statuses = new int[2];
+        final String[] replayed = new String[2];
+        Thread[] requests = new Thread[2];
+        Connection blocker = H2DAOFactory.getConnection();
+        try {
+            blocker.setAutoCommit(false);
+            blocker.createStatement().executeUpdate("UPDATE CustomerAccount SET Balance = Balance WHERE AccountId = 7");
+            for (int i = 0; i < requests.length; i++) {
+                final int request = i;
+                requests[i] = new Thread(new Runnable() {
+                    public void run() {
+                        try {
+                            HttpResponse response = postTransaction(transaction, key);
+                            statuses[request] = response.getStatusLine().getStatusCode();
+                            replayed[request] = response.getFirstHeader("Idempotent-Replayed").getValue();
+                            EntityUtils.consume(response.getEntity());
+                        } catch (Exception e) {
+                            // the status stays 0
+                        }
+                    }
+                });
+                requests[i].start();
+            }
+            Thread.sleep(300);
+            blocker.rollback();
+        } finally {
+            blocker.setAutoCommit(true);
+            DbUtils.closeQuietly(blocker);
+        }
+        for (Thread request : requests) {
+            request.join();
+        }
+        assertTrue(statuses[0] == 200 && statuses[1] == 200);
+        assertTrue(!replayed[0].equals(replayed[1]));
+        BigDecimal after = h2DaoFactory.getCustomerAccountDAO().getCustomerAccountById(7L).getBalance();
+        assertTrue(before.subtract(after).equals(new BigDecimal("3.0000")));
+    }
+
+    /**
+     * Category: Positive
+     * Scenario: Test a completed transaction shows in the history of both accounts with its transactionDate,
+     * and a full page carries the cursor of the next one
+     * Return: 200 OK with the history, 400 BAD REQUEST for a malformed cursor
+     * @throws Exception
+     */
+    @Test
+    public void testTransactionHistory() throws Exception {
+        CustomerTransaction transaction = new CustomerTransaction("GBP", new BigDecimal("1.0000"), 6L, 5L);
+        transaction.setTransactionDate(new Date(1500000000000L));
+        HttpResponse posted = postTransaction(transaction, "history-" + System.nanoTime());
+        assertTrue(posted.getStatusLine().getStatusCode() == 200);
+        EntityUtils.consume(posted.getEntity());
+        CustomerTransactionJournal.getInstance().flush();
+
+        HttpResponse response = client.execute(new HttpGet(builder.setPath("/account/6/transactions").build()));
+        assertTrue(response.getStatusLine().getStatusCode() == 200);
+        CustomerTransactionRecord[] history = mapper.readValue(EntityUtils.toString(response.getEntity()),
+                CustomerTransactionRecord[].class);
+        assertTrue(history.length == 1);
+        assertTrue(history[0].getToAccountId() == 5L);
+        assertTrue(history[0].getAmount().equals(new BigDecimal("1.0000")));
+        assertTrue(history[0].getRequestedDate().getTime() == 1500000000000L);
+
+        response = client.execute(new HttpGet(builder.setPath("/account/5/transactions")
+                .setParameter("limit", "1").build()));
+        assertTrue(response.getStatusLine().getStatusCode() == 200);
+        assertTrue(response.getFirstHeader(CustomerService.NEXT_AFTER_HEADER) != null);
+        EntityUtils.consume(response.getEntity());
+
+        response = client.execute(new HttpGet(builder.setPath("/account/5/transactions")
+                .setParameter("limit", "1").setParameter("after", "not-a-cursor").build()));
+        assertTrue(response.getStatusLine().getStatusCode() == 400);
+        EntityUtils.consume(response.getEntity());
+    }
+
+    private HttpResponse postTransaction(CustomerTransaction transaction, String idempotencyKey) throws Exception {
+        HttpPost request = new HttpPost(builder.setPath("/transaction").build());
+        request.setHeader("Content-type", "application/json");
+        request.setHeader("Idempotency-Key", idempotencyKey);
+        request.setEntity(new StringEntity(mapper.writeValueAsString(transaction)));
+        return client.execute(request);
+    }
+
     /**
      * Category: Negative
      * Scenario: Test transaction from one account to another with source account has no sufficient fund
@@ -158,4 +292,56 @@ public class TestCustomerTransactionService extends TestAbstractService {
         int statusCode = response.getStatusLine().getStatusCode();
         assertTrue(statusCode == 500);
     }
+
+    /**
+     * Category: Positive
+     * Scenario: Test batch transfer in best effort mode with one transfer exceeding the balance
+     * Return: 200 OK with one result per transfer
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testTransactionBatchBestEffort() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/transaction/batch").setParameter("mode", "BEST_EFFORT").build();
+        BigDecimal amount = new BigDecimal(10).setScale(4, RoundingMode.HALF_EVEN);
+        BigDecimal tooMuch = new BigDecimal(1000000).setScale(4, RoundingMode.HALF_EVEN);
+        List<CustomerTransaction> transactions = Arrays.asList(new CustomerTransaction("GBP", amount, 7L, 5L),
+                new CustomerTransaction("GBP", tooMuch, 7L, 5L));
+
+        String jsonInString = mapper.writeValueAsString(transactions);
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity(jsonInString));
+        HttpResponse response = client.execute(request);
+        builder.clearParameters();
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertTrue(statusCode == 200);
+
+        CustomerTransactionResult[] results = mapper.readValue(EntityUtils.toString(response.getEntity()),
+                CustomerTransactionResult[].class);
+        assertTrue(results.length == 2);
+        assertTrue(CustomerTransactionResult.COMPLETED.equals(results[0].getStatus()));
+        assertTrue(CustomerTransactionResult.FAILED.equals(results[1].getStatus()));
+    }
+
+    /**
+     * Category: Negative
+     * Scenario: Test batch transfer with an unknown mode
+     * Return: 400 BAD REQUEST
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testTransactionBatchInvalidMode() throws IOException, URISyntaxException {
+        URI uri = builder.setPath("/transaction/batch").setParameter("mode", "SOMETIMES").build();
+        BigDecimal amount = new BigDecimal(10).setScale(4, RoundingMode.HALF_EVEN);
+        String jsonInString = mapper.writeValueAsString(Arrays.asList(new CustomerTransaction("GBP", amount, 7L, 5L)));
+        HttpPost request = new HttpPost(uri);
+        request.setHeader("Content-type", "application/json");
+        request.setEntity(new StringEntity(jsonInString));
+        HttpResponse response = client.execute(request);
+        builder.clearParameters();
+        int statusCode = response.getStatusLine().getStatusCode();
+        assertTrue(statusCode == 400);
+    }
 }
@@ -0,0 +1,111 @@
+package com.revolut.service;
+
+import org.junit.Test;
+
+import javax.ws.rs.container.AsyncResponse;
+import javax.ws.rs.core.Response;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestDatabaseExecutor
+ * @Package com.revolut.service
+ * @Description: Test Database Executor
+ */
+public class TestDatabaseExecutor {
+
+    /**
+     * Test if requests beyond the threads and queue are answered at once with 503 and Retry-After,
+     * while the accepted ones are resumed with their results
+     * @throws Exception
+     */
+    @Test
+    public void testSaturatedExecutorRejects() throws Exception {
+        DatabaseExecutor executor = new DatabaseExecutor(1, 1, 2);
+        final CountDownLatch started = new CountDownLatch(1);
+        final CountDownLatch release = new CountDownLatch(1);
+        try {
+            RecordingResponse running = new RecordingResponse();
+            executor.submit(running.asyncResponse, new Callable<String>() {
+                public String call() throws Exception {
+                    started.countDown();
+                    release.await();
+                    return "running";
+                }
+            });
+            assertTrue(started.await(10, TimeUnit.SECONDS));
+            RecordingResponse queued = new RecordingResponse();
+            executor.submit(queued.asyncResponse, constant("queued"));
+
+            RecordingResponse rejected = new RecordingResponse();
+            executor.submit(rejected.asyncResponse, constant("rejected"));
+            // answered on the calling thread, without waiting for the busy executor
+            assertTrue(rejected.resumed.isDone());
+            Response response = (Response) rejected.resumed.get();
+            assertEquals(503, response.getStatus());
+            assertEquals("2", String.valueOf(response.getMetadata().getFirst(DatabaseExecutor.RETRY_AFTER_HEADER)));
+            assertEquals(1, executor.getRejectedCount());
+
+            release.countDown();
+            assertEquals("running", running.resumed.get(10, TimeUnit.SECONDS));
+            assertEquals("queued", queued.resumed.get(10, TimeUnit.SECONDS));
+        } finally {
+            release.countDown();
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Test if a failing task resumes the response with its exception for the exception mappers
+     */
+    @Test
+    public void testFailureResumesWithException() throws Exception {
+        DatabaseExecutor executor = new DatabaseExecutor(1, 1, 1);
+        final IllegalStateException failure = new IllegalStateException("failed");
+        try {
+            RecordingResponse response = new RecordingResponse();
+            executor.submit(response.asyncResponse, new Callable<String>() {
+                public String call() {
+                    throw failure;
+                }
+            });
+            assertTrue(response.resumed.get(10, TimeUnit.SECONDS) == failure);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    private static Callable<String> constant(final String value) {
+        return new Callable<String>() {
+            public String call() {
+                return value;
+            }
+        };
+    }
+
+    /**
+     * AsyncResponse recording the first value or exception it is resumed with.
+     */
+    private static final class RecordingResponse implements InvocationHandler {
+        private final CompletableFuture<Object> resumed = new CompletableFuture<Object>();
+        private final AsyncResponse asyncResponse = (AsyncResponse) Proxy.newProxyInstance(
+                AsyncResponse.class.getClassLoader(), new Class<?>[]{AsyncResponse.class}, this);
+
+        public Object invoke(Object proxy, Method method, Object[] args) {
+            if (method.getName().equals("resume")) {
+                return resumed.complete(args[0]);
+            }
+            return method.getReturnType() == boolean.class ? Boolean.FALSE : null;
+        }
+    }
+}
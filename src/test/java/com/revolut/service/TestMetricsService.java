@@ -0,0 +1,48 @@
+package com.revolut.service;
+
+import org.apache.http.HttpResponse;
+import org.apache.http.client.methods.HttpGet;
+import org.apache.http.util.EntityUtils;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.URISyntaxException;
+
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestMetricsService
+ * @Package com.revolut.service
+ * @Description: Test Metrics Service
+ */
+public class TestMetricsService extends TestAbstractService {
+
+    /**
+     * Category: Positive
+     * Scenario: Scrape metrics after a customer request
+     * Return: resource, DAO and connection pool metrics in the Prometheus text format with 200 OK
+     * @throws IOException
+     * @throws URISyntaxException
+     */
+    @Test
+    public void testScrapeMetrics() throws IOException, URISyntaxException {
+        HttpResponse response = client.execute(new HttpGet(builder.setPath("/customer/name/Bob").build()));
+        EntityUtils.consume(response.getEntity());
+
+        URI uri = builder.setPath("/metrics").build();
+        response = client.execute(new HttpGet(uri));
+        assertTrue(response.getStatusLine().getStatusCode() == 200);
+        assertTrue(response.getEntity().getContentType().getValue().startsWith("text/plain"));
+        String metrics = EntityUtils.toString(response.getEntity());
+        assertTrue(metrics.contains(
+                "http_server_request_seconds_count{resource=\"CustomerService\",method=\"getCustomerByName\"}"));
+        assertTrue(metrics.contains(
+                "http_server_requests_total{resource=\"CustomerService\",method=\"getCustomerByName\",status=\"2xx\"}"));
+        assertTrue(metrics.contains("dao_call_seconds_count{dao=\"CustomerDAOImpl\",method=\"getCustomerByName\"}"));
+        assertTrue(metrics.contains("db_connection_acquire_seconds_count "));
+        assertTrue(metrics.contains("db_pool_connections{state=\"active\"} "));
+    }
+}
@@ -0,0 +1,48 @@
+package com.revolut.util;
+
+import org.junit.Test;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestCurrencyRegistry
+ * @Package com.revolut.util
+ * @Description: Test Currency Registry
+ */
+public class TestCurrencyRegistry {
+
+    /**
+     * Test if ISO codes map to their numeric codes and back
+     */
+    @Test
+    public void testIdOfAndCodeOf() {
+        CurrencyRegistry registry = CurrencyRegistry.INSTANCE;
+        assertEquals(156, registry.idOf("CNY"));
+        assertEquals(826, registry.idOf("GBP"));
+        assertEquals(840, registry.idOf("USD"));
+        assertEquals(978, registry.idOf("EUR"));
+        assertEquals("EUR", registry.codeOf(978));
+        assertTrue(registry.isValid("JPY"));
+    }
+
+    /**
+     * Test if malformed and unknown codes resolve to UNKNOWN without throwing
+     */
+    @Test
+    public void testInvalidCodes() {
+        CurrencyRegistry registry = CurrencyRegistry.INSTANCE;
+        assertEquals(CurrencyRegistry.UNKNOWN, registry.idOf(null));
+        assertEquals(CurrencyRegistry.UNKNOWN, registry.idOf(""));
+        assertEquals(CurrencyRegistry.UNKNOWN, registry.idOf("eur"));
+        assertEquals(CurrencyRegistry.UNKNOWN, registry.idOf("EURO"));
+        assertEquals(CurrencyRegistry.UNKNOWN, registry.idOf("E{R"));
+        assertEquals(CurrencyRegistry.UNKNOWN, registry.idOf("QQQ"));
+        assertTrue(registry.codeOf(CurrencyRegistry.UNKNOWN) == null);
+        assertTrue(registry.codeOf(-1) == null);
+        assertTrue(registry.codeOf(1000) == null);
+        assertTrue(!MoneyUtils.INSTANCE.validateCcyCode("QQQ"));
+    }
+}
@@ -0,0 +1,58 @@
+package com.revolut.util;
+
+import org.junit.Test;
+
+import java.util.concurrent.ThreadFactory;
+
+import static junit.framework.TestCase.assertTrue;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Guang_Yang
+ * @version V1.0
+ * @Title: TestExecutionMode
+ * @Package com.revolut.util
+ * @Description: Test Execution Mode
+ */
+public class TestExecutionMode {
+
+    /**
+     * Test if the default mode is PLATFORM and its factory creates named daemon threads
+     */
+    @Test
+    public void testPlatformThreadFactory() {
+        assertEquals(ExecutionMode.PLATFORM, ExecutionMode.configured());
+        Thread thread = ExecutionMode.PLATFORM.threadFactory("test").newThread(new Runnable() {
+            public void run() {
+            }
+        });
+        assertTrue(thread.isDaemon());
+        assertEquals("test-1", thread.getName());
+    }
+
+    /**
+     * Test if VIRTUAL creates threads on JDK 21 or later and is refused before
+     * @throws Exception
+     */
+    @Test
+    public void testVirtualThreadFactory() throws Exception {
+        ThreadFactory factory;
+        try {
+            factory = ExecutionMode.VIRTUAL.threadFactory("test");
+        } catch (UnsupportedOperationException e) {
+            assertTrue(!ExecutionMode.isVirtualSupported());
+            return;
+        }
+        assertTrue(ExecutionMode.isVirtualSupported());
+        final boolean[] ran = new boolean[1];
+        Thread thread = factory.newThread(new Runnable() {
+            public void run() {
+                ran[0] = true;
+            }
+        });
+        assertEquals("test-1", thread.getName());
+        thread.start();
+        thread.join();
+        assertTrue(ran[0]);
+    }
+}